@@ -14,7 +14,6 @@
 
 package com.google.gerrit.lucene;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.gerrit.lucene.AbstractLuceneIndex.sortFieldName;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.INTERACTIVE;
 import static com.google.gerrit.server.index.change.ChangeField.LEGACY_ID;
@@ -69,7 +68,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
@@ -94,6 +95,11 @@ import org.eclipse.jgit.lib.Config;
  * <p>Writes are managed using a single {@link IndexWriter} per process, committed aggressively.
  * Reads use {@link SearcherManager} and periodically refresh, though there may be some lag between
  * a committed write and it showing up to other threads' searchers.
+ *
+ * <p>Queries search the open and closed sub-indexes concurrently, then read and decode the stored
+ * fields of the matching changes in chunks, also concurrently. These tasks run on the {@link
+ * SearchExecutor}, so that they don't hold up the queries waiting for the interactive index
+ * executor.
  */
 public class LuceneChangeIndex implements ChangeIndex {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -108,6 +114,9 @@ public class LuceneChangeIndex implements ChangeIndex {
   private static final String CHANGES_CLOSED = "closed";
   private static final String CHANGE_FIELD = ChangeField.CHANGE.getName();
 
+  /** Number of matching changes read and decoded by one task. */
+  private static final int DECODE_CHUNK_SIZE = 256;
+
   @FunctionalInterface
   interface IdTerm {
     Term get(String name, int id);
@@ -127,6 +136,8 @@ public class LuceneChangeIndex implements ChangeIndex {
   }
 
   private final ListeningExecutorService executor;
+  private final Executor searchExecutor;
+  private final LuceneChangeIndexMetrics metrics;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
   private final QueryBuilder<ChangeData> queryBuilder;
@@ -145,11 +156,15 @@ public class LuceneChangeIndex implements ChangeIndex {
       @GerritServerConfig Config cfg,
       SitePaths sitePaths,
       @IndexExecutor(INTERACTIVE) ListeningExecutorService executor,
+      @SearchExecutor Executor searchExecutor,
+      LuceneChangeIndexMetrics metrics,
       ChangeData.Factory changeDataFactory,
       @Assisted Schema<ChangeData> schema,
       AutoFlush autoFlush)
       throws IOException {
     this.executor = executor;
+    this.searchExecutor = searchExecutor;
+    this.metrics = metrics;
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
     this.skipFields =
@@ -360,30 +375,32 @@ public class LuceneChangeIndex implements ChangeIndex {
       final Set<String> fields = IndexUtils.changeFields(opts, schema.useLegacyNumericFields());
       return new ChangeDataResults(
           executor.submit(
-              new Callable<List<Document>>() {
+              new Callable<List<ChangeData>>() {
                 @Override
-                public List<Document> call() throws IOException {
-                  return doRead(fields);
+                public List<ChangeData> call() throws IOException {
+                  return doRead(
+                      fields, doc -> toChangeData(fields(doc, fields), fields, idField.getName()));
                 }
 
                 @Override
                 public String toString() {
                   return predicate.toString();
                 }
-              }),
-          fields);
+              }));
     }
 
     @Override
     public ResultSet<FieldBundle> readRaw() {
-      List<Document> documents;
+      ImmutableList<FieldBundle> fieldBundles;
       try {
-        documents = doRead(IndexUtils.changeFields(opts, schema.useLegacyNumericFields()));
+        fieldBundles =
+            ImmutableList.copyOf(
+                doRead(
+                    IndexUtils.changeFields(opts, schema.useLegacyNumericFields()),
+                    rawDocumentMapper));
       } catch (IOException e) {
         throw new StorageException(e);
       }
-      ImmutableList<FieldBundle> fieldBundles =
-          documents.stream().map(rawDocumentMapper).collect(toImmutableList());
       return new ResultSet<>() {
         @Override
         public Iterator<FieldBundle> iterator() {
@@ -402,25 +419,47 @@ public class LuceneChangeIndex implements ChangeIndex {
       };
     }
 
-    private List<Document> doRead(Set<String> fields) throws IOException {
+    private <T> List<T> doRead(Set<String> fields, Function<Document, T> mapper)
+        throws IOException {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
       try {
         int realLimit = opts.start() + opts.limit();
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
+        int limit = realLimit;
+        long start = System.nanoTime();
+        List<Callable<TopFieldDocs>> searches = new ArrayList<>(indexes.size());
         for (int i = 0; i < indexes.size(); i++) {
-          searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
+          IndexSearcher searcher = indexes.get(i).acquire();
+          searchers[i] = searcher;
+          searches.add(() -> searcher.search(query, limit, sort));
         }
+        TopFieldDocs[] hits =
+            ParallelTasks.runAll(searchExecutor, searches).toArray(new TopFieldDocs[0]);
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
-
-        List<Document> result = new ArrayList<>(docs.scoreDocs.length);
-        for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
-          ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+        metrics.searchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        start = System.nanoTime();
+        List<Callable<List<T>>> chunks = new ArrayList<>();
+        for (int from = opts.start(); from < docs.scoreDocs.length; from += DECODE_CHUNK_SIZE) {
+          int chunkStart = from;
+          int chunkEnd = Math.min(from + DECODE_CHUNK_SIZE, docs.scoreDocs.length);
+          chunks.add(
+              () -> {
+                List<T> chunk = new ArrayList<>(chunkEnd - chunkStart);
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                  ScoreDoc sd = docs.scoreDocs[i];
+                  chunk.add(mapper.apply(searchers[sd.shardIndex].doc(sd.doc, fields)));
+                }
+                return chunk;
+              });
+        }
+        List<T> result = new ArrayList<>(Math.max(docs.scoreDocs.length - opts.start(), 0));
+        for (List<T> chunk : ParallelTasks.runAll(searchExecutor, chunks)) {
+          result.addAll(chunk);
         }
+        metrics.decodeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         return result;
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
@@ -436,13 +475,11 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
-  private class ChangeDataResults implements ResultSet<ChangeData> {
-    private final Future<List<Document>> future;
-    private final Set<String> fields;
+  private static class ChangeDataResults implements ResultSet<ChangeData> {
+    private final Future<List<ChangeData>> future;
 
-    ChangeDataResults(Future<List<Document>> future, Set<String> fields) {
+    ChangeDataResults(Future<List<ChangeData>> future) {
       this.future = future;
-      this.fields = fields;
     }
 
     @Override
@@ -453,13 +490,7 @@ public class LuceneChangeIndex implements ChangeIndex {
     @Override
     public ImmutableList<ChangeData> toList() {
       try {
-        List<Document> docs = future.get();
-        ImmutableList.Builder<ChangeData> result =
-            ImmutableList.builderWithExpectedSize(docs.size());
-        for (Document doc : docs) {
-          result.add(toChangeData(fields(doc, fields), fields, idField.getName()));
-        }
-        return result.build();
+        return ImmutableList.copyOf(future.get());
       } catch (InterruptedException e) {
         close();
         throw new StorageException(e);
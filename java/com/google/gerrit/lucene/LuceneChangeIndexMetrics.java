@@ -0,0 +1,51 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Metrics of queries of the Lucene change index.
+ *
+ * <p>Shared by all versions of the index, as several of them may be open during online reindexing.
+ */
+@Singleton
+class LuceneChangeIndexMetrics {
+  final Timer0 searchLatency;
+  final Timer0 decodeLatency;
+
+  @Inject
+  LuceneChangeIndexMetrics(MetricMaker metricMaker) {
+    searchLatency =
+        metricMaker.newTimer(
+            "query/lucene/change_search_latency",
+            new Description("Latency of searching the Lucene change sub-indexes for a query")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    decodeLatency =
+        metricMaker.newTimer(
+            "query/lucene/change_decode_latency",
+            new Description(
+                    "Latency of reading and decoding the stored fields of the changes matching a"
+                        + " query")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+}
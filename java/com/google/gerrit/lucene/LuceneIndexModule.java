@@ -16,17 +16,22 @@ package com.google.gerrit.lucene;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.project.ProjectIndex;
 import com.google.gerrit.server.ModuleImpl;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.index.AbstractIndexModule;
 import com.google.gerrit.server.index.VersionManager;
 import com.google.gerrit.server.index.account.AccountIndex;
 import com.google.gerrit.server.index.change.ChangeIndex;
 import com.google.gerrit.server.index.group.GroupIndex;
 import com.google.gerrit.server.index.options.AutoFlush;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import org.apache.lucene.search.BooleanQuery;
 import org.eclipse.jgit.lib.Config;
 
@@ -70,6 +75,18 @@ public class LuceneIndexModule extends AbstractIndexModule {
     bind(AutoFlush.class).toInstance(autoFlush);
   }
 
+  @Provides
+  @Singleton
+  @SearchExecutor
+  Executor getSearchExecutor(@GerritServerConfig Config cfg, WorkQueue workQueue) {
+    int threads =
+        cfg.getInt("index", null, "searchThreads", Runtime.getRuntime().availableProcessors());
+    if (threads <= 0) {
+      return MoreExecutors.directExecutor();
+    }
+    return workQueue.createQueue(threads, "Index-Search", true);
+  }
+
   @Override
   protected Class<? extends AccountIndex> getAccountIndex() {
     return LuceneAccountIndex.class;
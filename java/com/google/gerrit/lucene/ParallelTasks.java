@@ -0,0 +1,129 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.base.Throwables;
+import com.google.gerrit.exceptions.StorageException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks of a single query concurrently.
+ *
+ * <p>The calling thread runs the first task, and any other task that hasn't started when it's
+ * waited for, itself. So this can't deadlock, and a single task costs no thread switch.
+ *
+ * <p>{@link #runAll(Executor, List)} only returns once none of its tasks is running anymore, also
+ * if one of them failed. Tasks may therefore use resources, such as index searchers, that the
+ * caller releases right after.
+ */
+class ParallelTasks {
+  /**
+   * Runs {@code tasks} concurrently on {@code executor} and returns their results in order.
+   *
+   * <p>If a task fails, the tasks that haven't started are cancelled, and the failure is thrown
+   * after the running ones finished.
+   */
+  static <T> List<T> runAll(Executor executor, List<Callable<T>> tasks) throws IOException {
+    Join join = new Join();
+    List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      FutureTask<T> future =
+          new FutureTask<>(
+              () -> {
+                if (!join.enter()) {
+                  throw new CancellationException();
+                }
+                try {
+                  return task.call();
+                } finally {
+                  join.exit();
+                }
+              });
+      if (!futures.isEmpty()) {
+        try {
+          executor.execute(future);
+        } catch (RejectedExecutionException e) {
+          // Left to the calling thread, e.g. while the executor shuts down.
+        }
+      }
+      futures.add(future);
+    }
+    try {
+      List<T> results = new ArrayList<>(tasks.size());
+      for (FutureTask<T> future : futures) {
+        future.run(); // Does nothing if the task was started by the executor.
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("interrupted", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new StorageException(e.getCause());
+    } finally {
+      futures.forEach(f -> f.cancel(false /* do not interrupt Lucene */));
+      join.close();
+    }
+  }
+
+  /** Tracks the running tasks of one {@link #runAll(Executor, List)} call. */
+  private static class Join {
+    private int running;
+    private boolean closed;
+
+    /** Returns whether the task may start, which it may until the join is closed. */
+    synchronized boolean enter() {
+      if (closed) {
+        return false;
+      }
+      running++;
+      return true;
+    }
+
+    synchronized void exit() {
+      if (--running == 0) {
+        notifyAll();
+      }
+    }
+
+    /** Prevents further tasks from starting and waits for the running ones to finish. */
+    synchronized void close() {
+      closed = true;
+      boolean interrupted = false;
+      while (running > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private ParallelTasks() {}
+}
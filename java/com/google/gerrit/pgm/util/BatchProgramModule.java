@@ -73,6 +73,7 @@ import com.google.gerrit.server.patch.DiffExecutorModule;
 import com.google.gerrit.server.patch.DiffOperationsImpl;
 import com.google.gerrit.server.patch.PatchListCacheImpl;
 import com.google.gerrit.server.permissions.DefaultPermissionBackendModule;
+import com.google.gerrit.server.permissions.RefVisibilityCache;
 import com.google.gerrit.server.permissions.SectionSortCache;
 import com.google.gerrit.server.plugins.PluginModule;
 import com.google.gerrit.server.project.CommentLinkProvider;
@@ -184,6 +185,7 @@ public class BatchProgramModule extends FactoryModule {
     modules.add(GroupIncludeCacheImpl.module());
     modules.add(ProjectCacheImpl.module());
     modules.add(SectionSortCache.module());
+    modules.add(RefVisibilityCache.module());
     modules.add(ChangeKindCacheImpl.module());
     modules.add(MergeabilityCacheImpl.module());
     modules.add(ServiceUserClassifierImpl.module());
@@ -18,7 +18,9 @@ import static com.google.gerrit.server.account.externalids.ExternalId.SCHEME_USE
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Account;
@@ -41,12 +43,14 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 
 /** Caches important (but small) account state to avoid database hits. */
 @Singleton
@@ -60,6 +64,8 @@ public class AccountCacheImpl implements AccountCache {
       @Override
       protected void configure() {
         persist(BYID_AND_REV_NAME, CachedAccountDetails.Key.class, CachedAccountDetails.class)
+            .weigher(CachedAccountDetails.Weigher.class)
+            .maximumWeight(20 << 10)
             .version(1)
             .keySerializer(CachedAccountDetails.Key.Serializer.INSTANCE)
             .valueSerializer(CachedAccountDetails.Serializer.INSTANCE)
@@ -116,10 +122,14 @@ public class AccountCacheImpl implements AccountCache {
                 ? defaultPreferenceCache.get(ref.getObjectId())
                 : DefaultPreferencesCache.EMPTY;
 
+        Map<String, Ref> userRefs =
+            allUsers
+                .getRefDatabase()
+                .exactRef(accountIds.stream().map(RefNames::refsUsers).toArray(String[]::new));
         Set<CachedAccountDetails.Key> keys =
             Sets.newLinkedHashSetWithExpectedSize(accountIds.size());
         for (Account.Id id : accountIds) {
-          Ref userRef = allUsers.exactRef(RefNames.refsUsers(id));
+          Ref userRef = userRefs.get(RefNames.refsUsers(id));
           if (userRef == null) {
             continue;
           }
@@ -176,13 +186,45 @@ public class AccountCacheImpl implements AccountCache {
                   "Loading account", Metadata.builder().accountId(key.accountId().get()).build());
           Repository repo = repoManager.openRepository(allUsersName)) {
         AccountConfig cfg = new AccountConfig(key.accountId(), allUsersName, repo).load(key.id());
-        Account account =
-            cfg.getLoadedAccount()
-                .orElseThrow(() -> new AccountNotFoundException(key.accountId() + " not found"));
-        return CachedAccountDetails.create(
-            account, cfg.getProjectWatches(), cfg.asCachedPreferences());
+        return toCachedAccountDetails(key, cfg);
       }
     }
+
+    /**
+     * Loads all accounts from one open All-Users repository, sharing a single {@link RevWalk} and
+     * its object reader, instead of opening the repository once per account.
+     */
+    @Override
+    public Map<CachedAccountDetails.Key, CachedAccountDetails> loadAll(
+        Iterable<? extends CachedAccountDetails.Key> keys) throws Exception {
+      List<CachedAccountDetails.Key> toLoad = ImmutableList.copyOf(keys);
+      if (toLoad.isEmpty()) {
+        return ImmutableMap.of();
+      }
+      try (TraceTimer ignored =
+              TraceContext.newTimer(
+                  "Loading accounts", Metadata.builder().resourceCount(toLoad.size()).build());
+          Repository repo = repoManager.openRepository(allUsersName);
+          RevWalk rw = new RevWalk(repo)) {
+        Map<CachedAccountDetails.Key, CachedAccountDetails> result =
+            Maps.newHashMapWithExpectedSize(toLoad.size());
+        for (CachedAccountDetails.Key key : toLoad) {
+          AccountConfig cfg = new AccountConfig(key.accountId(), allUsersName, repo);
+          cfg.load(allUsersName, rw, key.id());
+          result.put(key, toCachedAccountDetails(key, cfg));
+        }
+        return result;
+      }
+    }
+
+    private static CachedAccountDetails toCachedAccountDetails(
+        CachedAccountDetails.Key key, AccountConfig cfg) throws AccountNotFoundException {
+      Account account =
+          cfg.getLoadedAccount()
+              .orElseThrow(() -> new AccountNotFoundException(key.accountId() + " not found"));
+      return CachedAccountDetails.create(
+          account, cfg.getProjectWatches(), cfg.asCachedPreferences());
+    }
   }
 
   /** Signals that the account was not found in the primary storage. */
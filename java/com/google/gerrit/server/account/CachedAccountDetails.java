@@ -21,6 +21,9 @@ import com.google.common.base.Enums;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.UsedAt;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.NotifyConfig;
@@ -34,10 +37,20 @@ import java.time.Instant;
 import java.util.Map;
 import org.eclipse.jgit.lib.ObjectId;
 
-/** Details of an account that are cached persistently in {@link AccountCache}. */
+/**
+ * Details of an account that are cached persistently in {@link AccountCache}.
+ *
+ * <p>Project watch keys, notify types and preferences are interned when an instance is created, as
+ * many accounts watch the same projects and have the same, often empty, preferences.
+ */
 @UsedAt(UsedAt.Project.GOOGLE)
 @AutoValue
 public abstract class CachedAccountDetails {
+  private static final Interner<ProjectWatches.ProjectWatchKey> WATCH_KEYS =
+      Interners.newWeakInterner();
+  private static final Interner<ImmutableSet<NotifyConfig.NotifyType>> NOTIFY_TYPES =
+      Interners.newWeakInterner();
+
   @AutoValue
   public abstract static class Key {
     static Key create(Account.Id accountId, ObjectId id) {
@@ -91,7 +104,83 @@ public abstract class CachedAccountDetails {
       ImmutableMap<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
           projectWatches,
       CachedPreferences preferences) {
-    return new AutoValue_CachedAccountDetails(account, projectWatches, preferences);
+    return new AutoValue_CachedAccountDetails(account, intern(projectWatches), preferences);
+  }
+
+  private static ImmutableMap<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+      intern(
+          ImmutableMap<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+              projectWatches) {
+    if (projectWatches.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+        interned = ImmutableMap.builderWithExpectedSize(projectWatches.size());
+    projectWatches.forEach((k, v) -> interned.put(WATCH_KEYS.intern(k), NOTIFY_TYPES.intern(v)));
+    return interned.build();
+  }
+
+  /**
+   * Weighs a cache entry by its heap memory, in multiples of the memory used by a typical account.
+   *
+   * <p>A typical account weighs 1, as every entry did before entries were weighed, so that a
+   * memoryLimit set as a number of entries keeps holding about as many typical accounts. Accounts
+   * watching many projects or with large preferences weigh more.
+   */
+  public static class Weigher
+      implements com.google.common.cache.Weigher<Key, CachedAccountDetails> {
+    /** Approximate heap memory used by an account without project watches or preferences. */
+    static final int TYPICAL_ACCOUNT_BYTES = 512;
+
+    // Single object overhead.
+    private static final int O = 16;
+
+    // Single pointer overhead.
+    private static final int P = 8;
+
+    // Single int overhead.
+    private static final int I = 4;
+
+    @Override
+    public int weigh(Key key, CachedAccountDetails details) {
+      return Math.max(1, (bytes(key, details) + TYPICAL_ACCOUNT_BYTES - 1) / TYPICAL_ACCOUNT_BYTES);
+    }
+
+    /**
+     * Approximates the heap memory used by a cache entry, in bytes.
+     *
+     * <p>Interned values are not counted, except for preferences that differ from the empty
+     * preferences; sizes of strings assume one byte per character.
+     */
+    public static int bytes(Key key, CachedAccountDetails details) {
+      Account account = details.account();
+      return P
+          + O
+          + 2 * P // key
+          + O
+          + I // accountId
+          + O
+          + 20 // id
+          + P
+          + O
+          + 10 * P // account
+          + O
+          + 12 // registeredOn
+          + string(account.fullName())
+          + string(account.displayName())
+          + string(account.preferredEmail())
+          + string(account.status())
+          + string(account.metaId())
+          + P
+          + O
+          + details.projectWatches().size() * 2 * P // projectWatches
+          + P
+          + string(details.preferences().config()); // preferences
+    }
+
+    private static int string(@Nullable String s) {
+      return s == null || s.isEmpty() ? 0 : O + I + O + I + s.length();
+    }
   }
 
   /** Serializer used to read this entity from and write it to a persistent storage. */
@@ -0,0 +1,81 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.BitSet;
+
+/**
+ * Immutable set of groups reached by following group inclusions transitively.
+ *
+ * <p>Groups are stored as bits of the numbers assigned to them by a {@link GroupClosureIndex}, so
+ * membership checks don't depend on how deeply the groups are nested. A closure keeps the numbering
+ * it was computed with, so it stays valid after the index renumbered the groups.
+ */
+public final class GroupClosure {
+  /** Closure without any group. */
+  public static final GroupClosure EMPTY = new GroupClosure(null, new BitSet());
+
+  @Nullable private final GroupClosureIndex.Numbering numbering;
+  private final BitSet bits;
+
+  GroupClosure(@Nullable GroupClosureIndex.Numbering numbering, BitSet bits) {
+    this.numbering = numbering;
+    this.bits = bits;
+  }
+
+  /** Returns {@code true} if the closure contains the specified group. */
+  public boolean contains(AccountGroup.UUID groupId) {
+    if (bits.isEmpty()) {
+      return false;
+    }
+    int n = numbering.find(groupId);
+    return n >= 0 && bits.get(n);
+  }
+
+  /** Returns {@code true} if the closure contains any of the specified groups. */
+  public boolean containsAnyOf(Iterable<AccountGroup.UUID> groupIds) {
+    for (AccountGroup.UUID groupId : groupIds) {
+      if (contains(groupId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the UUIDs of the groups in the closure. */
+  public ImmutableSet<AccountGroup.UUID> toSet() {
+    return bits.isEmpty() ? ImmutableSet.of() : numbering.uuids(bits);
+  }
+
+  /** Returns the approximate number of bytes used by the closure. */
+  int weight() {
+    return 48 + bits.size() / 8;
+  }
+
+  boolean isNumberedBy(GroupClosureIndex.Numbering n) {
+    return numbering == n;
+  }
+
+  boolean containsNumber(int n) {
+    return bits.get(n);
+  }
+
+  void addTo(BitSet out) {
+    out.or(bits);
+  }
+}
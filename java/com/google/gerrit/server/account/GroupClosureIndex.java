@@ -0,0 +1,277 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Transitive closure of the group inclusions known to {@link GroupIncludeCache}.
+ *
+ * <p>Every group gets a small number when it is first seen, and closures are stored as bit sets of
+ * these numbers. Closures are computed on demand, reusing the cached closures of parent groups, and
+ * are dropped incrementally: when the parents of a group change, only the closures containing that
+ * group are evicted; when the groups of an account change, only the closure of that account is.
+ *
+ * <p>Numbers are not reused within a {@link Numbering}. Once a numbering holds many more groups
+ * than there are cached closures, e.g. because groups were deleted, the index starts over with a
+ * new numbering and drops all closures. Closures still referenced keep their old numbering.
+ */
+class GroupClosureIndex {
+  /** Minimum number of groups a numbering may hold before the index starts over. */
+  @VisibleForTesting static final int MIN_GROUPS_PER_NUMBERING = 1 << 16;
+
+  private final Function<AccountGroup.UUID, Collection<AccountGroup.UUID>> parentGroups;
+  private final Function<Account.Id, Collection<AccountGroup.UUID>> groupsWithMember;
+  private final Supplier<Collection<AccountGroup.UUID>> externalGroups;
+  private final Cache<AccountGroup.UUID, GroupClosure> ancestors;
+  private final Cache<Account.Id, GroupClosure> byMember;
+
+  private Numbering numbering = new Numbering();
+  private volatile ExternalSubgroups externalSubgroups;
+
+  /** Incremented on every eviction, so that closures computed concurrently are not stored. */
+  private long generation;
+
+  /** Incremented whenever parent groups change, so that {@link #externalSubgroups} is rebuilt. */
+  private long parentsGeneration;
+
+  GroupClosureIndex(
+      Function<AccountGroup.UUID, Collection<AccountGroup.UUID>> parentGroups,
+      Function<Account.Id, Collection<AccountGroup.UUID>> groupsWithMember,
+      Supplier<Collection<AccountGroup.UUID>> externalGroups,
+      Cache<AccountGroup.UUID, GroupClosure> ancestors,
+      Cache<Account.Id, GroupClosure> byMember) {
+    this.parentGroups = parentGroups;
+    this.groupsWithMember = groupsWithMember;
+    this.externalGroups = externalGroups;
+    this.ancestors = ancestors;
+    this.byMember = byMember;
+  }
+
+  /** Returns the specified group and all groups including it, directly or transitively. */
+  GroupClosure ancestorsOf(AccountGroup.UUID groupId) {
+    GroupClosure closure = ancestors.getIfPresent(groupId);
+    if (closure != null) {
+      return closure;
+    }
+    Numbering n;
+    long gen;
+    synchronized (this) {
+      n = numbering();
+      gen = generation;
+    }
+    return computeAncestors(groupId, n, gen);
+  }
+
+  /** Returns all groups including the specified account, directly or through subgroups. */
+  GroupClosure groupsWithMember(Account.Id memberId) {
+    GroupClosure closure = byMember.getIfPresent(memberId);
+    if (closure != null) {
+      return closure;
+    }
+
+    Numbering n;
+    long gen;
+    synchronized (this) {
+      n = numbering();
+      gen = generation;
+    }
+    BitSet bits = new BitSet();
+    for (AccountGroup.UUID id : groupsWithMember.apply(memberId)) {
+      if (id != null) {
+        GroupClosure known = ancestors.getIfPresent(id);
+        if (known == null || !known.isNumberedBy(n)) {
+          known = computeAncestors(id, n, gen);
+        }
+        known.addTo(bits);
+      }
+    }
+    closure = new GroupClosure(n, bits);
+    store(byMember, memberId, closure, gen);
+    return closure;
+  }
+
+  /**
+   * Returns the groups of {@code externalGroups} which are included in the specified group,
+   * directly or transitively, or which are that group.
+   *
+   * <p>The groups are looked up in an inverted index of the closures of all external groups, which
+   * is rebuilt after the parent groups or the external groups changed.
+   */
+  ImmutableList<AccountGroup.UUID> externalSubgroupsOf(AccountGroup.UUID groupId) {
+    Collection<AccountGroup.UUID> externals = externalGroups.get();
+    long gen = parentsGeneration();
+    ExternalSubgroups index = externalSubgroups;
+    if (index == null || index.externals != externals || index.generation != gen) {
+      ImmutableListMultimap.Builder<AccountGroup.UUID, AccountGroup.UUID> byAncestor =
+          ImmutableListMultimap.builder();
+      for (AccountGroup.UUID external : externals) {
+        if (external != null) {
+          for (AccountGroup.UUID ancestor : ancestorsOf(external).toSet()) {
+            byAncestor.put(ancestor, external);
+          }
+        }
+      }
+      index = new ExternalSubgroups(externals, gen, byAncestor.build());
+      externalSubgroups = index;
+    }
+    return index.byAncestor.get(groupId);
+  }
+
+  /** Drops all closures containing the group, after its parent groups changed. */
+  synchronized void evictParentGroupsOf(AccountGroup.UUID groupId) {
+    generation++;
+    parentsGeneration++;
+    int n = numbering.find(groupId);
+    if (n >= 0) {
+      ancestors.asMap().values().removeIf(c -> !c.isNumberedBy(numbering) || c.containsNumber(n));
+      byMember.asMap().values().removeIf(c -> !c.isNumberedBy(numbering) || c.containsNumber(n));
+    }
+  }
+
+  /** Drops the closure of the group itself, after its unchanged parent groups left memory. */
+  void evictAncestorsOf(AccountGroup.UUID groupId) {
+    ancestors.invalidate(groupId);
+  }
+
+  /** Drops the closure of the account, after its direct group memberships changed. */
+  synchronized void evictGroupsWithMember(Account.Id memberId) {
+    generation++;
+    byMember.invalidate(memberId);
+  }
+
+  private GroupClosure computeAncestors(AccountGroup.UUID groupId, Numbering n, long gen) {
+    BitSet bits = new BitSet();
+    Set<AccountGroup.UUID> seen = new HashSet<>();
+    Deque<AccountGroup.UUID> pending = new ArrayDeque<>();
+    pending.add(groupId);
+    while (!pending.isEmpty()) {
+      AccountGroup.UUID id = pending.remove();
+      if (!seen.add(id)) {
+        continue;
+      }
+      bits.set(n.number(id));
+      GroupClosure known = id.equals(groupId) ? null : ancestors.getIfPresent(id);
+      if (known != null && known.isNumberedBy(n)) {
+        known.addTo(bits);
+      } else {
+        for (AccountGroup.UUID parent : parentGroups.apply(id)) {
+          if (parent != null) {
+            pending.add(parent);
+          }
+        }
+      }
+    }
+    GroupClosure closure = new GroupClosure(n, bits);
+    store(ancestors, groupId, closure, gen);
+    return closure;
+  }
+
+  /** Returns the current numbering, starting over if it holds too many groups. */
+  private synchronized Numbering numbering() {
+    if (numbering.size() > Math.max(MIN_GROUPS_PER_NUMBERING, 4 * ancestors.size())) {
+      generation++;
+      numbering = new Numbering();
+      ancestors.invalidateAll();
+      byMember.invalidateAll();
+    }
+    return numbering;
+  }
+
+  private synchronized long parentsGeneration() {
+    return parentsGeneration;
+  }
+
+  private synchronized <K> void store(
+      Cache<K, GroupClosure> cache, K key, GroupClosure closure, long gen) {
+    if (generation == gen) {
+      cache.put(key, closure);
+    }
+  }
+
+  /** Numbers assigned to groups, which closures refer to by bit. */
+  static class Numbering {
+    private final Map<AccountGroup.UUID, Integer> numbers = new ConcurrentHashMap<>();
+    private final List<AccountGroup.UUID> uuids = new ArrayList<>();
+
+    /** Returns the number of the group, or -1 if the group was never seen. */
+    int find(AccountGroup.UUID groupId) {
+      Integer n = numbers.get(groupId);
+      return n != null ? n : -1;
+    }
+
+    int number(AccountGroup.UUID groupId) {
+      int n = find(groupId);
+      if (n >= 0) {
+        return n;
+      }
+      synchronized (this) {
+        return numbers.computeIfAbsent(
+            groupId,
+            id -> {
+              uuids.add(id);
+              return uuids.size() - 1;
+            });
+      }
+    }
+
+    int size() {
+      return numbers.size();
+    }
+
+    synchronized ImmutableSet<AccountGroup.UUID> uuids(BitSet bits) {
+      ImmutableSet.Builder<AccountGroup.UUID> b =
+          ImmutableSet.builderWithExpectedSize(bits.cardinality());
+      for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+        b.add(uuids.get(i));
+      }
+      return b.build();
+    }
+  }
+
+  /** External groups by the groups including them, for one generation of the index. */
+  private static class ExternalSubgroups {
+    final Collection<AccountGroup.UUID> externals;
+    final long generation;
+    final ImmutableListMultimap<AccountGroup.UUID, AccountGroup.UUID> byAncestor;
+
+    ExternalSubgroups(
+        Collection<AccountGroup.UUID> externals,
+        long generation,
+        ImmutableListMultimap<AccountGroup.UUID, AccountGroup.UUID> byAncestor) {
+      this.externals = externals;
+      this.generation = generation;
+      this.byAncestor = byAncestor;
+    }
+  }
+}
@@ -37,9 +37,35 @@ public interface GroupIncludeCache {
    */
   Collection<AccountGroup.UUID> parentGroupsOf(AccountGroup.UUID groupId);
 
+  /**
+   * Returns the groups of which the specified account is a member, directly or through internal
+   * subgroups.
+   *
+   * @param memberId the ID of the account
+   * @return the transitive closure of the groups having the account as member
+   */
+  GroupClosure groupsWithMemberTransitive(Account.Id memberId);
+
+  /**
+   * Returns a group and all groups including it, directly or transitively.
+   *
+   * @param groupId the UUID of the subgroup
+   * @return the transitive closure of the parent groups, including the subgroup itself
+   */
+  GroupClosure ancestorsOf(AccountGroup.UUID groupId);
+
   /** Returns set of any UUIDs that are not internal groups. */
   Collection<AccountGroup.UUID> allExternalMembers();
 
+  /**
+   * Returns the groups of {@link #allExternalMembers()} which are included in a group, directly or
+   * transitively.
+   *
+   * @param groupId the UUID of the parent group
+   * @return the UUIDs of the external subgroups, including the group itself if it is external
+   */
+  Collection<AccountGroup.UUID> externalSubgroupsOf(AccountGroup.UUID groupId);
+
   void evictGroupsWithMember(Account.Id memberId);
 
   void evictParentGroupsOf(AccountGroup.UUID groupId);
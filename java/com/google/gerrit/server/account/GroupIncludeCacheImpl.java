@@ -20,14 +20,20 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.PluginName;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheRemovalListener;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalGroupsProto;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalGroupsProto.ExternalGroupProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
@@ -56,6 +62,8 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
   private static final String GROUPS_WITH_MEMBER_NAME = "groups_bymember";
   private static final String EXTERNAL_NAME = "groups_external";
   private static final String PERSISTED_EXTERNAL_NAME = "groups_external_persisted";
+  private static final String CLOSURE_BY_MEMBER_NAME = "groups_closure_bymember";
+  private static final String CLOSURE_BY_SUBGROUP_NAME = "groups_closure_bysubgroup";
 
   public static Module module() {
     return new CacheModule() {
@@ -73,6 +81,14 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
                 new TypeLiteral<ImmutableList<AccountGroup.UUID>>() {})
             .loader(ParentGroupsLoader.class);
 
+        cache(CLOSURE_BY_MEMBER_NAME, Account.Id.class, GroupClosure.class)
+            .weigher(ClosureByMemberWeigher.class)
+            .maximumWeight(8 << 20);
+        cache(CLOSURE_BY_SUBGROUP_NAME, AccountGroup.UUID.class, GroupClosure.class)
+            .weigher(ClosureBySubgroupWeigher.class)
+            .maximumWeight(4 << 20);
+        DynamicSet.bind(binder(), CacheRemovalListener.class).to(ClosureInvalidator.class);
+
         /**
          * Splitting the groups external cache into 2 caches: The first one is in memory, used to
          * serve the callers and has a single constant key "EXTERNAL_NAME". The second one is
@@ -103,6 +119,7 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
   private final LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember;
   private final LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups;
   private final LoadingCache<String, ImmutableList<AccountGroup.UUID>> external;
+  private final GroupClosureIndex closures;
 
   @Inject
   GroupIncludeCacheImpl(
@@ -110,10 +127,19 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
           LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember,
       @Named(PARENT_GROUPS_NAME)
           LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups,
-      @Named(EXTERNAL_NAME) LoadingCache<String, ImmutableList<AccountGroup.UUID>> external) {
+      @Named(EXTERNAL_NAME) LoadingCache<String, ImmutableList<AccountGroup.UUID>> external,
+      @Named(CLOSURE_BY_MEMBER_NAME) Cache<Account.Id, GroupClosure> closuresByMember,
+      @Named(CLOSURE_BY_SUBGROUP_NAME) Cache<AccountGroup.UUID, GroupClosure> closuresBySubgroup) {
     this.groupsWithMember = groupsWithMember;
     this.parentGroups = parentGroups;
     this.external = external;
+    this.closures =
+        new GroupClosureIndex(
+            this::parentGroupsOf,
+            this::getGroupsWithMember,
+            this::allExternalMembers,
+            closuresBySubgroup,
+            closuresByMember);
   }
 
   @Override
@@ -136,11 +162,22 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  @Override
+  public GroupClosure groupsWithMemberTransitive(Account.Id memberId) {
+    return closures.groupsWithMember(memberId);
+  }
+
+  @Override
+  public GroupClosure ancestorsOf(AccountGroup.UUID groupId) {
+    return closures.ancestorsOf(groupId);
+  }
+
   @Override
   public void evictGroupsWithMember(Account.Id memberId) {
     if (memberId != null) {
       logger.atFine().log("Evict groups with member %d", memberId.get());
       groupsWithMember.invalidate(memberId);
+      closures.evictGroupsWithMember(memberId);
     }
   }
 
@@ -149,6 +186,7 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     if (groupId != null) {
       logger.atFine().log("Evict parent groups of %s", groupId.get());
       parentGroups.invalidate(groupId);
+      closures.evictParentGroupsOf(groupId);
 
       if (!groupId.isInternalGroup()) {
         logger.atFine().log("Evict external group %s", groupId.get());
@@ -172,6 +210,59 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  @Override
+  public Collection<AccountGroup.UUID> externalSubgroupsOf(AccountGroup.UUID groupId) {
+    return closures.externalSubgroupsOf(groupId);
+  }
+
+  /**
+   * Drops the closures derived from entries of {@code groups_bymember} and {@code
+   * groups_bysubgroup} when these are flushed, expire or are evicted.
+   */
+  static class ClosureInvalidator implements CacheRemovalListener<Object, Object> {
+    private final Provider<GroupIncludeCacheImpl> cache;
+
+    @Inject
+    ClosureInvalidator(Provider<GroupIncludeCacheImpl> cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public void onRemoval(
+        String pluginName, String cacheName, RemovalNotification<Object, Object> notification) {
+      if (!PluginName.GERRIT.equals(pluginName) || notification.getKey() == null) {
+        return;
+      }
+      GroupClosureIndex closures = cache.get().closures;
+      if (GROUPS_WITH_MEMBER_NAME.equals(cacheName)) {
+        closures.evictGroupsWithMember((Account.Id) notification.getKey());
+      } else if (PARENT_GROUPS_NAME.equals(cacheName)) {
+        AccountGroup.UUID groupId = (AccountGroup.UUID) notification.getKey();
+        RemovalCause cause = notification.getCause();
+        if (cause == RemovalCause.SIZE || cause == RemovalCause.COLLECTED) {
+          // The parent groups didn't change, so closures containing the group are still valid.
+          closures.evictAncestorsOf(groupId);
+        } else {
+          closures.evictParentGroupsOf(groupId);
+        }
+      }
+    }
+  }
+
+  static class ClosureByMemberWeigher implements Weigher<Account.Id, GroupClosure> {
+    @Override
+    public int weigh(Account.Id key, GroupClosure value) {
+      return 16 + value.weight();
+    }
+  }
+
+  static class ClosureBySubgroupWeigher implements Weigher<AccountGroup.UUID, GroupClosure> {
+    @Override
+    public int weigh(AccountGroup.UUID key, GroupClosure value) {
+      return 16 + 2 * key.get().length() + value.weight();
+    }
+  }
+
   static class GroupsWithMemberLoader
       extends CacheLoader<Account.Id, ImmutableSet<AccountGroup.UUID>> {
     private final Provider<InternalGroupQuery> groupQueryProvider;
@@ -14,17 +14,14 @@
 
 package com.google.gerrit.server.account;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.gerrit.entities.AccountGroup;
-import com.google.gerrit.entities.InternalGroup;
 import com.google.gerrit.server.CurrentUser;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,29 +30,28 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Determines membership in the internal group system for a given user.
  *
- * <p>Groups the user is directly a member of are pulled from the in-memory AccountCache by way of
- * the IdentifiedUser. Transitive group memberhips are resolved on demand starting from the
- * requested group and looking for a path to a group the user is a member of. Other group backends
- * are supported by recursively invoking the universal GroupMembership.
+ * <p>The internal groups the user is a member of, directly or through internal subgroups, are
+ * taken from the transitive closure maintained by {@link GroupIncludeCache}, so checking them
+ * doesn't depend on how deeply the groups are nested. Memberships through groups of other backends
+ * are resolved on demand by asking the universal GroupMembership about the external subgroups of
+ * the requested groups, which the cache looks up without walking the hierarchy.
  */
 public class IncludingGroupMembership implements GroupMembership {
   public interface Factory {
     IncludingGroupMembership create(CurrentUser user);
   }
 
-  private final GroupCache groupCache;
   private final GroupIncludeCache includeCache;
   private final CurrentUser user;
-  private final Map<AccountGroup.UUID, Boolean> memberOf;
+  private final Map<AccountGroup.UUID, Boolean> memberOfExternal;
+  private GroupClosure closure;
   private Set<AccountGroup.UUID> knownGroups;
 
   @Inject
-  IncludingGroupMembership(
-      GroupCache groupCache, GroupIncludeCache includeCache, @Assisted CurrentUser user) {
-    this.groupCache = groupCache;
+  IncludingGroupMembership(GroupIncludeCache includeCache, @Assisted CurrentUser user) {
     this.includeCache = includeCache;
     this.user = user;
-    memberOf = new ConcurrentHashMap<>();
+    memberOfExternal = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -63,51 +59,26 @@ public class IncludingGroupMembership implements GroupMembership {
     if (id == null) {
       return false;
     }
-
-    Boolean b = memberOf.get(id);
-    return b != null ? b : containsAnyOf(ImmutableSet.of(id));
+    return containsAnyOf(ImmutableSet.of(id));
   }
 
   @Override
   public boolean containsAnyOf(Iterable<AccountGroup.UUID> queryIds) {
-    // Prefer lookup of a cached result over expanding includes.
-    boolean tryExpanding = false;
+    if (closure().containsAnyOf(queryIds)) {
+      return true;
+    }
+
+    // Prefer lookup of a cached result over asking other group backends.
+    List<AccountGroup.UUID> unknown = new ArrayList<>();
     for (AccountGroup.UUID id : queryIds) {
-      Boolean b = memberOf.get(id);
+      Boolean b = memberOfExternal.get(id);
       if (b == null) {
-        tryExpanding = true;
+        unknown.add(id);
       } else if (b) {
         return true;
       }
     }
-
-    if (tryExpanding) {
-      Set<AccountGroup.UUID> queryIdsSet = new HashSet<>();
-      queryIds.forEach(i -> queryIdsSet.add(i));
-      Map<AccountGroup.UUID, InternalGroup> groups = groupCache.get(queryIdsSet);
-      for (AccountGroup.UUID id : queryIds) {
-        if (memberOf.containsKey(id)) {
-          // Membership was earlier proven to be false.
-          continue;
-        }
-
-        memberOf.put(id, false);
-        InternalGroup group = groups.get(id);
-        if (group == null) {
-          continue;
-        }
-        if (user.isIdentifiedUser() && group.getMembers().contains(user.getAccountId())) {
-          memberOf.put(id, true);
-          return true;
-        }
-        if (search(group.getSubgroups())) {
-          memberOf.put(id, true);
-          return true;
-        }
-      }
-    }
-
-    return false;
+    return !unknown.isEmpty() && containsAnyThroughExternal(unknown);
   }
 
   @Override
@@ -121,33 +92,39 @@ public class IncludingGroupMembership implements GroupMembership {
     return r;
   }
 
-  private boolean search(Iterable<AccountGroup.UUID> ids) {
-    return user.getEffectiveGroups().containsAnyOf(ids);
+  private GroupClosure closure() {
+    if (closure == null) {
+      closure =
+          user.isIdentifiedUser()
+              ? includeCache.groupsWithMemberTransitive(user.getAccountId())
+              : GroupClosure.EMPTY;
+    }
+    return closure;
   }
 
-  private ImmutableSet<AccountGroup.UUID> computeKnownGroups() {
-    GroupMembership membership = user.getEffectiveGroups();
-    Collection<AccountGroup.UUID> direct =
-        user.isIdentifiedUser()
-            ? includeCache.getGroupsWithMember(user.getAccountId())
-            : ImmutableList.of();
-    direct.forEach(groupUuid -> memberOf.put(groupUuid, true));
-    Set<AccountGroup.UUID> r = Sets.newHashSet(direct);
-    r.remove(null);
-
-    List<AccountGroup.UUID> q = Lists.newArrayList(r);
-    for (AccountGroup.UUID g : membership.intersection(includeCache.allExternalMembers())) {
-      if (g != null && r.add(g)) {
-        q.add(g);
+  private boolean containsAnyThroughExternal(List<AccountGroup.UUID> ids) {
+    Set<AccountGroup.UUID> candidates = new LinkedHashSet<>();
+    for (AccountGroup.UUID id : ids) {
+      candidates.addAll(includeCache.externalSubgroupsOf(id));
+    }
+    if (!candidates.isEmpty() && user.getEffectiveGroups().containsAnyOf(candidates)) {
+      if (ids.size() == 1) {
+        memberOfExternal.put(ids.get(0), true);
       }
+      return true;
     }
+    ids.forEach(id -> memberOfExternal.put(id, false));
+    return false;
+  }
 
-    while (!q.isEmpty()) {
-      AccountGroup.UUID id = q.remove(q.size() - 1);
-      for (AccountGroup.UUID g : includeCache.parentGroupsOf(id)) {
-        if (g != null && r.add(g)) {
-          q.add(g);
-          memberOf.put(g, true);
+  private ImmutableSet<AccountGroup.UUID> computeKnownGroups() {
+    Set<AccountGroup.UUID> r = new HashSet<>(closure().toSet());
+    GroupMembership membership = user.getEffectiveGroups();
+    for (AccountGroup.UUID g : membership.intersection(includeCache.allExternalMembers())) {
+      if (g != null) {
+        for (AccountGroup.UUID parent : includeCache.ancestorsOf(g).toSet()) {
+          r.add(parent);
+          memberOfExternal.put(parent, true);
         }
       }
     }
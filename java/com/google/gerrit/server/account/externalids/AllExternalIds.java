@@ -14,42 +14,112 @@
 
 package com.google.gerrit.server.account.externalids;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
+
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto.ExternalIdProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
-/** Cache value containing all external IDs. */
+/**
+ * Cache value containing all external IDs.
+ *
+ * <p>The indexes are {@link ShardedSetMultimap}s, so that a new value computed from a prior value
+ * by {@link #update(Collection, Collection)} shares most of its memory with the prior value.
+ */
 @AutoValue
 public abstract class AllExternalIds {
+  private static final AllExternalIds EMPTY =
+      new AutoValue_AllExternalIds(
+          ShardedSetMultimap.of(), ShardedSetMultimap.of(), ShardedSetMultimap.of());
+
   static AllExternalIds create(Stream<ExternalId> externalIds) {
-    ImmutableMap.Builder<ExternalId.Key, ExternalId> byKey = ImmutableMap.builder();
-    ImmutableSetMultimap.Builder<Account.Id, ExternalId> byAccount = ImmutableSetMultimap.builder();
-    ImmutableSetMultimap.Builder<String, ExternalId> byEmail = ImmutableSetMultimap.builder();
-    externalIds.forEach(
-        id -> {
-          byKey.put(id.key(), id);
-          byAccount.put(id.accountId(), id);
-          if (!Strings.isNullOrEmpty(id.email())) {
-            byEmail.put(id.email(), id);
-          }
-        });
-
-    return new AutoValue_AllExternalIds(byKey.build(), byAccount.build(), byEmail.build());
+    return EMPTY.update(ImmutableList.of(), externalIds.collect(toImmutableList()));
+  }
+
+  abstract ShardedSetMultimap<ExternalId.Key, ExternalId> keyIndex();
+
+  abstract ShardedSetMultimap<Account.Id, ExternalId> accountIndex();
+
+  abstract ShardedSetMultimap<String, ExternalId> emailIndex();
+
+  public Optional<ExternalId> byKey(ExternalId.Key key) {
+    return keyIndex().get(key).stream().findFirst();
+  }
+
+  public ImmutableSet<ExternalId> byAccount(Account.Id accountId) {
+    return accountIndex().get(accountId);
+  }
+
+  public ImmutableSet<ExternalId> byEmail(String email) {
+    return emailIndex().get(email);
   }
 
-  public abstract ImmutableMap<ExternalId.Key, ExternalId> byKey();
+  /** Returns the number of external IDs. */
+  public int size() {
+    return keyIndex().size();
+  }
+
+  /** Returns all external IDs, in no particular order. */
+  public Stream<ExternalId> all() {
+    return keyIndex().values();
+  }
 
-  public abstract ImmutableSetMultimap<Account.Id, ExternalId> byAccount();
+  @Memoized
+  public ImmutableSetMultimap<Account.Id, ExternalId> allByAccount() {
+    return accountIndex().toMultimap();
+  }
+
+  @Memoized
+  public ImmutableSetMultimap<String, ExternalId> allByEmail() {
+    return emailIndex().toMultimap();
+  }
 
-  public abstract ImmutableSetMultimap<String, ExternalId> byEmail();
+  /**
+   * Returns a new value with the removals applied first and then the additions.
+   *
+   * <p>Only the shards of the indexes holding updated external IDs are copied; all other shards are
+   * shared with this value.
+   *
+   * @param removals external IDs to remove; external IDs that are not present are ignored.
+   * @param additions external IDs to add.
+   */
+  AllExternalIds update(Collection<ExternalId> removals, Collection<ExternalId> additions) {
+    return new AutoValue_AllExternalIds(
+        keyIndex().update(index(removals, ExternalId::key), index(additions, ExternalId::key)),
+        accountIndex()
+            .update(
+                index(removals, ExternalId::accountId), index(additions, ExternalId::accountId)),
+        emailIndex()
+            .update(
+                index(removals, AllExternalIds::email), index(additions, AllExternalIds::email)));
+  }
+
+  private static <K> ImmutableSetMultimap<K, ExternalId> index(
+      Collection<ExternalId> externalIds, Function<ExternalId, K> keyFunction) {
+    return externalIds.stream()
+        .filter(id -> keyFunction.apply(id) != null)
+        .collect(toImmutableSetMultimap(keyFunction, id -> id));
+  }
+
+  @Nullable
+  private static String email(ExternalId externalId) {
+    return Strings.emptyToNull(externalId.email());
+  }
 
   enum Serializer implements CacheSerializer<AllExternalIds> {
     INSTANCE;
@@ -58,9 +128,7 @@ public abstract class AllExternalIds {
     public byte[] serialize(AllExternalIds object) {
       ObjectIdConverter idConverter = ObjectIdConverter.create();
       AllExternalIdsProto.Builder allBuilder = AllExternalIdsProto.newBuilder();
-      object.byAccount().values().stream()
-          .map(extId -> toProto(idConverter, extId))
-          .forEach(allBuilder::addExternalId);
+      object.all().map(extId -> toProto(idConverter, extId)).forEach(allBuilder::addExternalId);
       return Protos.toByteArray(allBuilder.build());
     }
 
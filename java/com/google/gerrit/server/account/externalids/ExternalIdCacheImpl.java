@@ -51,22 +51,22 @@ class ExternalIdCacheImpl implements ExternalIdCache {
 
   @Override
   public Optional<ExternalId> byKey(ExternalId.Key key) throws IOException {
-    return Optional.ofNullable(get().byKey().get(key));
+    return get().byKey(key);
   }
 
   @Override
   public ImmutableSet<ExternalId> byAccount(Account.Id accountId) throws IOException {
-    return get().byAccount().get(accountId);
+    return get().byAccount(accountId);
   }
 
   @Override
   public ImmutableSet<ExternalId> byAccount(Account.Id accountId, ObjectId rev) throws IOException {
-    return get(rev).byAccount().get(accountId);
+    return get(rev).byAccount(accountId);
   }
 
   @Override
   public ImmutableSetMultimap<Account.Id, ExternalId> allByAccount() throws IOException {
-    return get().byAccount();
+    return get().allByAccount();
   }
 
   @Override
@@ -74,14 +74,14 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     AllExternalIds allExternalIds = get();
     ImmutableSetMultimap.Builder<String, ExternalId> byEmails = ImmutableSetMultimap.builder();
     for (String email : emails) {
-      byEmails.putAll(email, allExternalIds.byEmail().get(email));
+      byEmails.putAll(email, allExternalIds.byEmail(email));
     }
     return byEmails.build();
   }
 
   @Override
   public ImmutableSetMultimap<String, ExternalId> allByEmail() throws IOException {
-    return get().byEmail();
+    return get().allByEmail();
   }
 
   private AllExternalIds get() throws IOException {
@@ -16,18 +16,19 @@ package com.google.gerrit.server.account.externalids;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.cache.Cache;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
-import com.google.gerrit.entities.Account;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.proc.ThreadMXBeanFactory;
+import com.google.gerrit.metrics.proc.ThreadMXBeanInterface;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
@@ -38,9 +39,12 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.errors.ConfigInvalidException;
@@ -63,12 +67,16 @@ public class ExternalIdCacheLoader {
   // is found within this number of parents, we fall back to reading everything from scratch.
   private static final int MAX_HISTORY_LOOKBACK = 10;
 
+  private static final ThreadMXBeanInterface threadMxBean = ThreadMXBeanFactory.create();
+
   private final ExternalIdReader externalIdReader;
   private final Cache<ObjectId, AllExternalIds> externalIdCache;
   private final GitRepositoryManager gitRepositoryManager;
   private final AllUsersName allUsersName;
   private final Counter1<Boolean> reloadCounter;
   private final Timer0 reloadDifferential;
+  private final Timer0 reloadFull;
+  private final Histogram1<Boolean> reloadAllocatedBytes;
   private final boolean isPersistentCache;
   private final ExternalIdFactory externalIdFactory;
 
@@ -85,15 +93,17 @@ public class ExternalIdCacheLoader {
     this.externalIdCache = externalIdCache;
     this.gitRepositoryManager = gitRepositoryManager;
     this.allUsersName = allUsersName;
+    Field<Boolean> partialField =
+        Field.ofBoolean("partial", Metadata.Builder::partial)
+            .description("Whether the reload was partial.")
+            .build();
     this.reloadCounter =
         metricMaker.newCounter(
             "notedb/external_id_cache_load_count",
             new Description("Total number of external ID cache reloads from Git.")
                 .setRate()
                 .setUnit("updates"),
-            Field.ofBoolean("partial", Metadata.Builder::partial)
-                .description("Whether the reload was partial.")
-                .build());
+            partialField);
     this.reloadDifferential =
         metricMaker.newTimer(
             "notedb/external_id_partial_read_latency",
@@ -101,6 +111,19 @@ public class ExternalIdCacheLoader {
                     "Latency for generating a new external ID cache state from a prior state.")
                 .setCumulative()
                 .setUnit(Units.MILLISECONDS));
+    this.reloadFull =
+        metricMaker.newTimer(
+            "notedb/external_id_full_read_latency",
+            new Description("Latency for generating a new external ID cache state from scratch.")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    this.reloadAllocatedBytes =
+        metricMaker.newHistogram(
+            "notedb/external_id_cache_load_allocated_bytes",
+            new Description("Heap memory allocated for generating a new external ID cache state.")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            partialField);
     this.isPersistentCache =
         config.getInt("cache", ExternalIdCacheImpl.CACHE_NAME, "diskLimit", 0) > 0;
     this.externalIdFactory = externalIdFactory;
@@ -108,6 +131,7 @@ public class ExternalIdCacheLoader {
 
   public AllExternalIds load(ObjectId notesRev) throws IOException, ConfigInvalidException {
     externalIdReader.checkReadEnabled();
+    long startAllocatedBytes = threadMxBean.getCurrentThreadAllocatedBytes();
     // The requested value was not in the cache (hence, this loader was invoked). Therefore, try to
     // create this entry from a past value using the minimal amount of Git operations possible to
     // reduce latency.
@@ -133,7 +157,7 @@ public class ExternalIdCacheLoader {
       if (extIdRef == null) {
         logger.atInfo().log(
             RefNames.REFS_EXTERNAL_IDS + " not initialized, falling back to full reload.");
-        return reloadAllExternalIds(notesRev);
+        return reloadAllExternalIds(notesRev, startAllocatedBytes);
       }
 
       RevCommit currentCommit = rw.parseCommit(extIdRef.getObjectId());
@@ -156,11 +180,11 @@ public class ExternalIdCacheLoader {
           logger.atWarning().log(
               "Unable to find an old ExternalId cache state, falling back to full reload");
         }
-        return reloadAllExternalIds(notesRev);
+        return reloadAllExternalIds(notesRev, startAllocatedBytes);
       }
 
       // Diff trees to recognize modifications
-      Set<ObjectId> removals = new HashSet<>(); // Set<Blob-Object-Id>
+      Map<ObjectId, ObjectId> removals = new HashMap<>(); // Map<Name-ObjectId, Blob-Object-Id>
       Map<ObjectId, ObjectId> additions = new HashMap<>(); // Map<Name-ObjectId, Blob-Object-Id>
       try (TreeWalk treeWalk = new TreeWalk(repo)) {
         treeWalk.setFilter(TreeFilter.ANY_DIFF);
@@ -172,13 +196,13 @@ public class ExternalIdCacheLoader {
           ObjectId newBlob = treeWalk.getObjectId(1);
           if (ObjectId.zeroId().equals(newBlob)) {
             // Deletion
-            removals.add(oldBlob);
+            removals.put(fileNameToObjectId(path), oldBlob);
           } else if (ObjectId.zeroId().equals(oldBlob)) {
             // Addition
             additions.put(fileNameToObjectId(path), newBlob);
           } else {
             // Modification
-            removals.add(oldBlob);
+            removals.put(fileNameToObjectId(path), oldBlob);
             additions.put(fileNameToObjectId(path), newBlob);
           }
         }
@@ -188,6 +212,7 @@ public class ExternalIdCacheLoader {
           buildAllExternalIds(repo, oldExternalIds, additions, removals);
       reloadCounter.increment(true);
       reloadDifferential.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      recordAllocatedBytes(true, startAllocatedBytes);
       return allExternalIds;
     }
   }
@@ -200,64 +225,74 @@ public class ExternalIdCacheLoader {
    * Build a new {@link AllExternalIds} from an old state by applying additions and removals that
    * were performed since then.
    *
-   * <p>Removals are applied before additions.
+   * <p>Removals are applied before additions. The new state shares all parts of the old state that
+   * don't contain updated external IDs.
    *
    * @param repo open repository
    * @param oldExternalIds prior state that is used as base
    * @param additions map of name to blob ID for each external ID that should be added
-   * @param removals set of name {@link ObjectId}s that should be removed
+   * @param removals map of name to blob ID for each external ID that should be removed
    */
   private AllExternalIds buildAllExternalIds(
       Repository repo,
       AllExternalIds oldExternalIds,
       Map<ObjectId, ObjectId> additions,
-      Set<ObjectId> removals)
+      Map<ObjectId, ObjectId> removals)
       throws IOException {
-    ImmutableMap.Builder<ExternalId.Key, ExternalId> byKey = ImmutableMap.builder();
-    ImmutableSetMultimap.Builder<Account.Id, ExternalId> byAccount = ImmutableSetMultimap.builder();
-    ImmutableSetMultimap.Builder<String, ExternalId> byEmail = ImmutableSetMultimap.builder();
-
-    // Copy over old ExternalIds but exclude deleted ones
-    for (ExternalId externalId : oldExternalIds.byAccount().values()) {
-      if (removals.contains(externalId.blobId())) {
-        continue;
+    try (ObjectReader reader = repo.newObjectReader()) {
+      // Find the removed external IDs by the key stored in their old note.
+      List<ExternalId> removed = new ArrayList<>(removals.size());
+      Set<ObjectId> unmatchedBlobs = new HashSet<>();
+      for (Map.Entry<ObjectId, ObjectId> nameToBlob : removals.entrySet()) {
+        ExternalId oldExternalId = parseOld(reader, nameToBlob.getKey(), nameToBlob.getValue());
+        Optional<ExternalId> cached =
+            oldExternalId != null ? oldExternalIds.byKey(oldExternalId.key()) : Optional.empty();
+        if (cached.isPresent() && nameToBlob.getValue().equals(cached.get().blobId())) {
+          removed.add(cached.get());
+        } else {
+          unmatchedBlobs.add(nameToBlob.getValue());
+        }
       }
-
-      byKey.put(externalId.key(), externalId);
-      byAccount.put(externalId.accountId(), externalId);
-      if (externalId.email() != null) {
-        byEmail.put(externalId.email(), externalId);
+      if (!unmatchedBlobs.isEmpty()) {
+        // The old note can't be parsed the same way anymore; find the external IDs by their blob.
+        oldExternalIds
+            .all()
+            .filter(externalId -> unmatchedBlobs.contains(externalId.blobId()))
+            .forEach(removed::add);
       }
-    }
 
-    // Add newly discovered ExternalIds
-    try (ObjectReader reader = repo.newObjectReader()) {
+      // Add newly discovered ExternalIds
+      List<ExternalId> added = new ArrayList<>(additions.size());
       for (Map.Entry<ObjectId, ObjectId> nameToBlob : additions.entrySet()) {
-        ExternalId parsedExternalId;
         try {
-          parsedExternalId =
+          added.add(
               externalIdFactory.parse(
                   nameToBlob.getKey().name(),
                   reader.open(nameToBlob.getValue()).getCachedBytes(),
-                  nameToBlob.getValue());
+                  nameToBlob.getValue()));
         } catch (ConfigInvalidException | RuntimeException e) {
           logger.atSevere().withCause(e).log(
               "Ignoring invalid external ID note %s", nameToBlob.getKey().name());
-          continue;
-        }
-
-        byKey.put(parsedExternalId.key(), parsedExternalId);
-        byAccount.put(parsedExternalId.accountId(), parsedExternalId);
-        if (parsedExternalId.email() != null) {
-          byEmail.put(parsedExternalId.email(), parsedExternalId);
         }
       }
+      return oldExternalIds.update(removed, added);
+    }
+  }
+
+  /** Parses a note of the prior state, returning null if it was ignored as invalid. */
+  @Nullable
+  private ExternalId parseOld(ObjectReader reader, ObjectId noteName, ObjectId blobId)
+      throws IOException {
+    try {
+      return externalIdFactory.parse(noteName.name(), reader.open(blobId).getCachedBytes(), blobId);
+    } catch (ConfigInvalidException | RuntimeException e) {
+      return null;
     }
-    return new AutoValue_AllExternalIds(byKey.build(), byAccount.build(), byEmail.build());
   }
 
-  private AllExternalIds reloadAllExternalIds(ObjectId notesRev)
+  private AllExternalIds reloadAllExternalIds(ObjectId notesRev, long startAllocatedBytes)
       throws IOException, ConfigInvalidException {
+    long start = System.nanoTime();
     try (TraceTimer ignored =
         TraceContext.newTimer(
             "Loading external IDs from scratch",
@@ -266,7 +301,16 @@ public class ExternalIdCacheLoader {
       externalIds.forEach(ExternalId::checkThatBlobIdIsSet);
       AllExternalIds allExternalIds = AllExternalIds.create(externalIds.stream());
       reloadCounter.increment(false);
+      reloadFull.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      recordAllocatedBytes(false, startAllocatedBytes);
       return allExternalIds;
     }
   }
+
+  private void recordAllocatedBytes(boolean partial, long startAllocatedBytes) {
+    if (startAllocatedBytes >= 0) {
+      reloadAllocatedBytes.record(
+          partial, threadMxBean.getCurrentThreadAllocatedBytes() - startAllocatedBytes);
+    }
+  }
 }
@@ -0,0 +1,166 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Immutable set multimap split into shards by the hash of the key.
+ *
+ * <p>{@link #update(SetMultimap, SetMultimap)} copies only the shards holding updated keys and
+ * shares all other shards with the previous instance, so applying a small change to a large map
+ * allocates memory proportional to the size of a shard rather than to the size of the map.
+ */
+final class ShardedSetMultimap<K, V> {
+  private static final int SHARD_BITS = 8;
+  private static final int SHARD_COUNT = 1 << SHARD_BITS;
+
+  private static final ShardedSetMultimap<?, ?> EMPTY = new ShardedSetMultimap<>(emptyShards(), 0);
+
+  @SuppressWarnings("unchecked")
+  static <K, V> ShardedSetMultimap<K, V> of() {
+    return (ShardedSetMultimap<K, V>) EMPTY;
+  }
+
+  static <K, V> ShardedSetMultimap<K, V> copyOf(SetMultimap<K, V> entries) {
+    return ShardedSetMultimap.<K, V>of().update(ImmutableSetMultimap.of(), entries);
+  }
+
+  private static ImmutableSetMultimap<?, ?>[] emptyShards() {
+    ImmutableSetMultimap<?, ?>[] shards = new ImmutableSetMultimap<?, ?>[SHARD_COUNT];
+    Arrays.fill(shards, ImmutableSetMultimap.of());
+    return shards;
+  }
+
+  private final ImmutableSetMultimap<?, ?>[] shards;
+  private final int size;
+
+  private ShardedSetMultimap(ImmutableSetMultimap<?, ?>[] shards, int size) {
+    this.shards = shards;
+    this.size = size;
+  }
+
+  /** Returns the values of the key, or an empty set if there are none. */
+  ImmutableSet<V> get(K key) {
+    return shard(shardOf(key)).get(key);
+  }
+
+  /** Returns the number of key-value pairs. */
+  int size() {
+    return size;
+  }
+
+  /** Returns all values, in no particular order. */
+  Stream<V> values() {
+    return Arrays.stream(shards).flatMap(s -> s.values().stream()).map(ShardedSetMultimap::cast);
+  }
+
+  /** Copies all key-value pairs into a single multimap. */
+  ImmutableSetMultimap<K, V> toMultimap() {
+    ImmutableSetMultimap.Builder<K, V> b = ImmutableSetMultimap.builder();
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      b.putAll(shard(i));
+    }
+    return b.build();
+  }
+
+  /**
+   * Returns a new instance with the removals applied first and then the additions.
+   *
+   * <p>Shards without removed or added keys are shared with this instance.
+   *
+   * @param removals key-value pairs to remove; pairs that are not present are ignored.
+   * @param additions key-value pairs to add.
+   */
+  ShardedSetMultimap<K, V> update(SetMultimap<K, V> removals, SetMultimap<K, V> additions) {
+    if (removals.isEmpty() && additions.isEmpty()) {
+      return this;
+    }
+    ImmutableSetMultimap.Builder<?, ?>[] builders =
+        new ImmutableSetMultimap.Builder<?, ?>[SHARD_COUNT];
+    for (K key : removals.keySet()) {
+      builder(builders, shardOf(key), removals);
+    }
+    for (Map.Entry<K, V> e : additions.entries()) {
+      builder(builders, shardOf(e.getKey()), removals).put(e);
+    }
+
+    ImmutableSetMultimap<?, ?>[] updated = shards.clone();
+    int newSize = size;
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      if (builders[i] != null) {
+        updated[i] = builders[i].build();
+        newSize += updated[i].size() - shards[i].size();
+      }
+    }
+    return new ShardedSetMultimap<>(updated, newSize);
+  }
+
+  /** Returns the builder of a copied shard, creating it from the current shard if needed. */
+  private ImmutableSetMultimap.Builder<K, V> builder(
+      ImmutableSetMultimap.Builder<?, ?>[] builders, int i, SetMultimap<K, V> removals) {
+    @SuppressWarnings("unchecked")
+    ImmutableSetMultimap.Builder<K, V> b = (ImmutableSetMultimap.Builder<K, V>) builders[i];
+    if (b == null) {
+      b = ImmutableSetMultimap.builder();
+      for (Map.Entry<K, V> e : shard(i).entries()) {
+        if (!removals.containsEntry(e.getKey(), e.getValue())) {
+          b.put(e);
+        }
+      }
+      builders[i] = b;
+    }
+    return b;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ShardedSetMultimap)) {
+      return false;
+    }
+    ShardedSetMultimap<?, ?> other = (ShardedSetMultimap<?, ?>) o;
+    return size == other.size && Arrays.equals(shards, other.shards);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(shards);
+  }
+
+  @Override
+  public String toString() {
+    return toMultimap().toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private ImmutableSetMultimap<K, V> shard(int i) {
+    return (ImmutableSetMultimap<K, V>) shards[i];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V cast(Object v) {
+    return (V) v;
+  }
+
+  private static int shardOf(Object key) {
+    int h = key.hashCode();
+    return (h ^ (h >>> SHARD_BITS) ^ (h >>> 2 * SHARD_BITS)) & (SHARD_COUNT - 1);
+  }
+}
@@ -0,0 +1,405 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.TypeLiteral;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Base of caches that keep values in an in-memory cache in front of a disk {@link Store}.
+ *
+ * <p>This cache can be used as either a recall cache, or a loading cache if a {@link Loader} was
+ * supplied at build time. The in-memory cache is checked first, then the store, and finally the
+ * CacheLoader is used to construct the item. Stores are performed on a background thread.
+ */
+public abstract class AbstractPersistentCache<K, V> extends AbstractLoadingCache<K, V>
+    implements PersistentCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Disk tier of a persistent cache. */
+  public interface Store<K, V> {
+    /** Returns the value stored for {@code key}, or null if there is none. */
+    @Nullable
+    ValueHolder<V> getIfPresent(K key);
+
+    /** Returns the values stored for {@code keys}; keys without a value are omitted. */
+    default Map<K, ValueHolder<V>> getAll(Collection<K> keys) {
+      Map<K, ValueHolder<V>> result = new HashMap<>();
+      for (K key : keys) {
+        ValueHolder<V> h = getIfPresent(key);
+        if (h != null) {
+          result.put(key, h);
+        }
+      }
+      return result;
+    }
+
+    /** Stores the value of {@code key}, unless it is already stored. */
+    void put(K key, ValueHolder<V> holder);
+
+    /** Whether a value created at {@code created} should be reloaded. */
+    boolean needsRefresh(Instant created);
+
+    /** Records the latency of a lookup that was served from memory. */
+    default void recordMemoryHit(long nanos) {}
+
+    /** Records the latency of computing a value that was neither in memory nor stored. */
+    default void recordLoad(long nanos) {}
+  }
+
+  protected final Executor executor;
+  protected final Store<K, V> store;
+  protected final TypeLiteral<K> keyType;
+  protected final Cache<K, ValueHolder<V>> mem;
+  @Nullable private final CacheLoader<K, ValueHolder<V>> loader;
+
+  /**
+   * @param mem in-memory cache; a {@link LoadingCache} built with {@code loader} if the latter is
+   *     not null.
+   * @param loader loader of {@code mem}, usually a {@link Loader}, or null for a recall cache.
+   */
+  protected AbstractPersistentCache(
+      Executor executor,
+      Store<K, V> store,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem,
+      @Nullable CacheLoader<K, ValueHolder<V>> loader) {
+    this.executor = executor;
+    this.store = store;
+    this.keyType = keyType;
+    this.mem = mem;
+    this.loader = loader;
+  }
+
+  @Override
+  public V getIfPresent(Object objKey) {
+    if (!keyType.getRawType().isInstance(objKey)) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    K key = (K) objKey;
+
+    ValueHolder<V> h = getFromMemory(key);
+    if (h != null) {
+      return h.value;
+    }
+
+    h = store.getIfPresent(key);
+    if (h != null) {
+      mem.put(key, h);
+      return h.value;
+    }
+    return null;
+  }
+
+  @Override
+  public V get(K key) throws ExecutionException {
+    if (loader == null) {
+      throw new UnsupportedOperationException();
+    }
+    ValueHolder<V> h = getOrLoad(key, () -> loader.load(key));
+    if (store.needsRefresh(h.created)) {
+      asLoadingCache().refresh(key);
+    }
+    return h.value;
+  }
+
+  @Override
+  public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+    if (loader == null) {
+      throw new UnsupportedOperationException();
+    }
+    ImmutableMap.Builder<K, V> result = ImmutableMap.builder();
+    LoadingCache<K, ValueHolder<V>> asLoadingCache = asLoadingCache();
+    ImmutableMap<K, ValueHolder<V>> values = asLoadingCache.getAll(keys);
+    for (Map.Entry<K, ValueHolder<V>> entry : values.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().value);
+      if (store.needsRefresh(entry.getValue().created)) {
+        asLoadingCache.refresh(entry.getKey());
+      }
+    }
+    return result.build();
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    return getOrLoad(
+            key,
+            () -> {
+              ValueHolder<V> h = store.getIfPresent(key);
+              if (h != null) {
+                return h;
+              }
+
+              long start = System.nanoTime();
+              V value = valueLoader.call();
+              store.recordLoad(System.nanoTime() - start);
+              ValueHolder<V> loaded =
+                  new ValueHolder<>(value, Instant.ofEpochMilli(TimeUtil.nowMs()));
+              executor.execute(() -> store.put(key, loaded));
+              return loaded;
+            })
+        .value;
+  }
+
+  @Override
+  public void put(K key, V val) {
+    final ValueHolder<V> h = new ValueHolder<>(val, Instant.ofEpochMilli(TimeUtil.nowMs()));
+    mem.put(key, h);
+    executor.execute(() -> store.put(key, h));
+  }
+
+  @Override
+  public long size() {
+    return mem.size();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return mem.stats();
+  }
+
+  /** Returns the value of {@code key} held in memory, recording the latency of a hit. */
+  @Nullable
+  protected ValueHolder<V> getFromMemory(K key) {
+    long start = System.nanoTime();
+    ValueHolder<V> h = mem.getIfPresent(key);
+    if (h != null) {
+      store.recordMemoryHit(System.nanoTime() - start);
+    }
+    return h;
+  }
+
+  /**
+   * Returns the value of {@code key} held in memory, or computes it with {@code load}.
+   *
+   * <p>The memory cache is looked up only once. Its latency is recorded as a memory hit if the
+   * value was not computed by this call.
+   */
+  private ValueHolder<V> getOrLoad(K key, Callable<ValueHolder<V>> load)
+      throws ExecutionException {
+    long start = System.nanoTime();
+    boolean[] loaded = new boolean[1];
+    ValueHolder<V> h =
+        mem.get(
+            key,
+            () -> {
+              loaded[0] = true;
+              return load.call();
+            });
+    if (!loaded[0]) {
+      store.recordMemoryHit(System.nanoTime() - start);
+    }
+    return h;
+  }
+
+  private LoadingCache<K, ValueHolder<V>> asLoadingCache() {
+    return (LoadingCache<K, ValueHolder<V>>) mem;
+  }
+
+  /** Value of a persistent cache, together with the time it was created. */
+  public static class ValueHolder<V> {
+    public final V value;
+    public final Instant created;
+
+    /** Whether the value is known to be stored already. */
+    public volatile boolean clean;
+
+    public ValueHolder(V value, Instant created) {
+      this.value = value;
+      this.created = created;
+    }
+  }
+
+  /** {@link Store} that records the latencies of another store in the cache metrics. */
+  public static class MeteredStore<K, V> implements Store<K, V> {
+    private final Store<K, V> store;
+    private final PersistentCacheMetrics.ForCache metrics;
+
+    public MeteredStore(Store<K, V> store, PersistentCacheMetrics.ForCache metrics) {
+      this.store = store;
+      this.metrics = metrics;
+    }
+
+    /** Records the latency of a hit. */
+    @Nullable
+    @Override
+    public ValueHolder<V> getIfPresent(K key) {
+      long start = System.nanoTime();
+      ValueHolder<V> h = store.getIfPresent(key);
+      if (h != null) {
+        metrics.diskHit(System.nanoTime() - start);
+      }
+      return h;
+    }
+
+    /** Records a hit for every value found, each with an equal share of the latency. */
+    @Override
+    public Map<K, ValueHolder<V>> getAll(Collection<K> keys) {
+      if (keys.isEmpty()) {
+        return store.getAll(keys);
+      }
+      long start = System.nanoTime();
+      Map<K, ValueHolder<V>> result = store.getAll(keys);
+      if (!result.isEmpty()) {
+        long perHit = (System.nanoTime() - start) / result.size();
+        for (int i = 0; i < result.size(); i++) {
+          metrics.diskHit(perHit);
+        }
+      }
+      return result;
+    }
+
+    /** Writes {@code h} to disk unless it is already stored, recording the latency of the write. */
+    @Override
+    public void put(K key, ValueHolder<V> h) {
+      if (h.clean) {
+        return;
+      }
+      long start = System.nanoTime();
+      store.put(key, h);
+      metrics.diskWrite(System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean needsRefresh(Instant created) {
+      return store.needsRefresh(created);
+    }
+
+    @Override
+    public void recordMemoryHit(long nanos) {
+      metrics.memoryHit(nanos);
+    }
+
+    @Override
+    public void recordLoad(long nanos) {
+      metrics.load(nanos);
+    }
+  }
+
+  /** Loader of the in-memory cache, which reads values from the store before computing them. */
+  public static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
+    private final Executor executor;
+    private final Store<K, V> store;
+    private final CacheLoader<K, V> loader;
+
+    public Loader(Executor executor, Store<K, V> store, CacheLoader<K, V> loader) {
+      this.executor = executor;
+      this.store = store;
+      this.loader = loader;
+    }
+
+    @Override
+    public ValueHolder<V> load(K key) throws Exception {
+      try (TraceTimer timer =
+          TraceContext.newTimer(
+              "Loading value from cache", Metadata.builder().cacheKey(key.toString()).build())) {
+        ValueHolder<V> stored = store.getIfPresent(key);
+        if (stored != null) {
+          return stored;
+        }
+
+        long start = System.nanoTime();
+        V value = loader.load(key);
+        store.recordLoad(System.nanoTime() - start);
+        final ValueHolder<V> h = new ValueHolder<>(value, Instant.ofEpochMilli(TimeUtil.nowMs()));
+        executor.execute(() -> store.put(key, h));
+        return h;
+      }
+    }
+
+    @Override
+    public Map<K, ValueHolder<V>> loadAll(Iterable<? extends K> keys) throws Exception {
+      try (TraceTimer timer = TraceContext.newTimer("Loading multiple values from cache")) {
+        List<K> requested = new ArrayList<>();
+        keys.forEach(requested::add);
+        Map<K, ValueHolder<V>> result = new HashMap<>(store.getAll(requested));
+        List<K> notStored = new ArrayList<>();
+        for (K key : requested) {
+          if (!result.containsKey(key)) {
+            notStored.add(key);
+          }
+        }
+        try {
+          long start = System.nanoTime();
+          Map<K, V> remaining = loader.loadAll(notStored);
+          store.recordLoad(System.nanoTime() - start);
+          Instant instant = Instant.ofEpochMilli(TimeUtil.nowMs());
+          executor.execute(
+              () -> {
+                for (Map.Entry<K, V> e : remaining.entrySet()) {
+                  store.put(e.getKey(), new ValueHolder<>(e.getValue(), instant));
+                }
+              });
+          remaining
+              .entrySet()
+              .forEach(e -> result.put(e.getKey(), new ValueHolder<>(e.getValue(), instant)));
+        } catch (UnsupportedLoadingOperationException e) {
+          // Fallback to the default load() if loadAll() is not implemented
+          for (K k : notStored) {
+            result.put(k, load(k)); // No need to store here; load(k) does that.
+          }
+        }
+        return result;
+      }
+    }
+
+    @Override
+    public ListenableFuture<ValueHolder<V>> reload(K key, ValueHolder<V> oldValue)
+        throws Exception {
+      ListenableFuture<V> reloadedValue = loader.reload(key, oldValue.value);
+      Futures.addCallback(
+          reloadedValue,
+          new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+              store.put(key, new ValueHolder<>(result, TimeUtil.now()));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              logger.atWarning().withCause(t).log("Unable to reload cache value");
+            }
+          },
+          executor);
+
+      return Futures.transform(reloadedValue, v -> new ValueHolder<>(v, TimeUtil.now()), executor);
+    }
+  }
+}
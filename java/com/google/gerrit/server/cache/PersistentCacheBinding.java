@@ -49,4 +49,12 @@ public interface PersistentCacheBinding<K, V> extends CacheBinding<K, V> {
   PersistentCacheBinding<K, V> keySerializer(CacheSerializer<K> keySerializer);
 
   PersistentCacheBinding<K, V> valueSerializer(CacheSerializer<V> valueSerializer);
+
+  /**
+   * Compress values on disk whose serialized size is at least {@code bytes}.
+   *
+   * <p>If negative, values are not compressed by default, but compression may still be enabled in
+   * the config.
+   */
+  PersistentCacheBinding<K, V> compressionThreshold(int bytes);
 }
@@ -0,0 +1,119 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.CompressingCacheSerializer;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Decides which persistent caches store their values compressed, and how.
+ *
+ * <p>Compression is enabled for a cache if {@code cache.<name>.compressionThreshold}, or else the
+ * {@link PersistentCacheDef#compressionThreshold() threshold of its definition}, is not negative.
+ * Disk stores of a cache must then use {@link #valueSerializer(PersistentCacheDef)} and {@link
+ * #version(PersistentCacheDef)} in place of the ones of the definition.
+ */
+@Singleton
+public class PersistentCacheCompression {
+  /**
+   * Set in the version of compressed caches, so that enabling or disabling compression doesn't
+   * read values stored in the other format.
+   */
+  private static final int COMPRESSED_VERSION_BIT = 1 << 30;
+
+  private static final Field<String> F_NAME =
+      Field.ofString("cache_name", Metadata.Builder::cacheName)
+          .description("The name of the cache.")
+          .build();
+
+  private final Config config;
+  private final Histogram1<String> compressionRatio;
+  private final Timer1<String> compressionLatency;
+  private final Timer1<String> decompressionLatency;
+
+  @Inject
+  PersistentCacheCompression(@GerritServerConfig Config config, MetricMaker metricMaker) {
+    this.config = config;
+    compressionRatio =
+        metricMaker.newHistogram(
+            "caches/disk/compression_ratio",
+            new Description("Size of compressed cache values relative to their serialized size")
+                .setCumulative()
+                .setUnit("percent"),
+            F_NAME);
+    compressionLatency =
+        metricMaker.newTimer(
+            "caches/disk/compression_latency",
+            new Description("Latency of compressing a cache value")
+                .setCumulative()
+                .setUnit(Units.MICROSECONDS),
+            F_NAME);
+    decompressionLatency =
+        metricMaker.newTimer(
+            "caches/disk/decompression_latency",
+            new Description("Latency of decompressing a cache value")
+                .setCumulative()
+                .setUnit(Units.MICROSECONDS),
+            F_NAME);
+  }
+
+  /** Returns the compression threshold of {@code def}, or a negative value if it is disabled. */
+  public int threshold(PersistentCacheDef<?, ?> def) {
+    return config.getInt(
+        "cache", def.configKey(), "compressionThreshold", def.compressionThreshold());
+  }
+
+  /** Returns the version of the values stored on disk for {@code def}. */
+  public int version(PersistentCacheDef<?, ?> def) {
+    return threshold(def) >= 0 ? def.version() | COMPRESSED_VERSION_BIT : def.version();
+  }
+
+  /** Returns the serializer of the values stored on disk for {@code def}. */
+  public <V> CacheSerializer<V> valueSerializer(PersistentCacheDef<?, V> def) {
+    int threshold = threshold(def);
+    if (threshold < 0) {
+      return def.valueSerializer();
+    }
+
+    String name = def.name();
+    return new CompressingCacheSerializer<>(
+        def.valueSerializer(),
+        threshold,
+        new CompressingCacheSerializer.Listener() {
+          @Override
+          public void onCompress(int size, int compressedSize, long nanos) {
+            compressionRatio.record(name, 100L * compressedSize / size);
+            compressionLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+          }
+
+          @Override
+          public void onDecompress(long nanos) {
+            decompressionLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+          }
+        });
+  }
+}
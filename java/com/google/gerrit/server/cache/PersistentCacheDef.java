@@ -24,4 +24,12 @@ public interface PersistentCacheDef<K, V> extends CacheDef<K, V> {
   CacheSerializer<K> keySerializer();
 
   CacheSerializer<V> valueSerializer();
+
+  /**
+   * Minimum serialized size in bytes of values that are stored compressed on disk, or a negative
+   * value if values are never compressed.
+   */
+  default int compressionThreshold() {
+    return -1;
+  }
 }
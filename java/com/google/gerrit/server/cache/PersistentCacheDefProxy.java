@@ -12,21 +12,24 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-package com.google.gerrit.server.cache.h2;
+package com.google.gerrit.server.cache;
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.Weigher;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.server.cache.PersistentCacheDef;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.inject.TypeLiteral;
 import java.time.Duration;
 
-class H2CacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
+/**
+ * Definition of the in-memory cache of an {@link AbstractPersistentCache}, whose values are {@link
+ * ValueHolder}s of the values of the wrapped definition.
+ */
+public class PersistentCacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
   private final PersistentCacheDef<K, V> source;
 
-  H2CacheDefProxy(PersistentCacheDef<K, V> source) {
+  public PersistentCacheDefProxy(PersistentCacheDef<K, V> source) {
     this.source = source;
   }
 
@@ -111,4 +114,9 @@ class H2CacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
   public CacheSerializer<V> valueSerializer() {
     return source.valueSerializer();
   }
+
+  @Override
+  public int compressionThreshold() {
+    return source.compressionThreshold();
+  }
 }
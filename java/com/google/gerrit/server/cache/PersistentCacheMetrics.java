@@ -0,0 +1,101 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/** Latency metrics of the persistent caches, shared by all disk backends. */
+@Singleton
+public class PersistentCacheMetrics {
+  private static final Field<String> F_NAME =
+      Field.ofString("cache_name", Metadata.Builder::cacheName)
+          .description("The name of the cache.")
+          .build();
+
+  private final Timer1<String> memoryHitLatency;
+  private final Timer1<String> diskHitLatency;
+  private final Timer1<String> loadLatency;
+  private final Timer1<String> diskWriteLatency;
+
+  @Inject
+  public PersistentCacheMetrics(MetricMaker metricMaker) {
+    memoryHitLatency =
+        metricMaker.newTimer(
+            "caches/memory_hit_latency",
+            new Description("Latency of lookups of a persistent cache served from memory")
+                .setCumulative()
+                .setUnit(Units.MICROSECONDS),
+            F_NAME);
+    diskHitLatency =
+        metricMaker.newTimer(
+            "caches/disk_hit_latency",
+            new Description("Latency of lookups of a persistent cache served from disk")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+    loadLatency =
+        metricMaker.newTimer(
+            "caches/load_latency",
+            new Description("Latency of computing values missing from a persistent cache")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+    diskWriteLatency =
+        metricMaker.newTimer(
+            "caches/disk_write_latency",
+            new Description("Latency of writing a value of a persistent cache to disk")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+  }
+
+  /** Returns the metrics of the cache named {@code name}. */
+  public ForCache forCache(String name) {
+    return new ForCache(name);
+  }
+
+  /** Records the latencies of one cache. */
+  public class ForCache {
+    private final String name;
+
+    private ForCache(String name) {
+      this.name = name;
+    }
+
+    public void memoryHit(long nanos) {
+      memoryHitLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void diskHit(long nanos) {
+      diskHitLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void load(long nanos) {
+      loadLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void diskWrite(long nanos) {
+      diskWriteLatency.record(name, nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -32,6 +32,7 @@ class PersistentCacheProvider<K, V> extends CacheProvider<K, V>
     implements Provider<Cache<K, V>>, PersistentCacheBinding<K, V>, PersistentCacheDef<K, V> {
   private int version;
   private long diskLimit;
+  private int compressionThreshold;
   private CacheSerializer<K> keySerializer;
   private CacheSerializer<V> valueSerializer;
 
@@ -42,6 +43,7 @@ class PersistentCacheProvider<K, V> extends CacheProvider<K, V>
     super(module, name, keyType, valType);
     version = -1;
     diskLimit = 128 << 20;
+    compressionThreshold = -1;
   }
 
   @Inject(optional = true)
@@ -99,11 +101,23 @@ class PersistentCacheProvider<K, V> extends CacheProvider<K, V>
     return this;
   }
 
+  @Override
+  public PersistentCacheBinding<K, V> compressionThreshold(int bytes) {
+    checkNotFrozen();
+    compressionThreshold = bytes;
+    return this;
+  }
+
   @Override
   public long diskLimit() {
     return diskLimit;
   }
 
+  @Override
+  public int compressionThreshold() {
+    return compressionThreshold;
+  }
+
   @Override
   public int version() {
     return version;
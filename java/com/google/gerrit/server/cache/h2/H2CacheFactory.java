@@ -21,11 +21,17 @@ import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
 import com.google.gerrit.server.cache.PersistentCacheBaseFactory;
+import com.google.gerrit.server.cache.PersistentCacheCompression;
 import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.PersistentCacheDefProxy;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.mmap.MmapCacheFactory;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
@@ -34,6 +40,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -45,30 +52,48 @@ import org.eclipse.jgit.lib.Config;
 
 /**
  * Creates persistent caches depending on gerrit.config parameters. If the cache.directory property
- * is unset, it will fall back to in-memory caches.
+ * is unset, it will fall back to in-memory caches. Caches with {@code cache.<name>.diskBackend} set
+ * to {@code mmap} are delegated to {@link MmapCacheFactory}.
  */
 @Singleton
 class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final List<H2CacheImpl<?, ?>> caches;
+  private final Map<H2CacheImpl<?, ?>, String> incrementallyPruned;
+  private final H2CacheMetrics metrics;
+  private final PersistentCacheCompression compression;
   private final DynamicMap<Cache<?, ?>> cacheMap;
+  private final MmapCacheFactory mmapCacheFactory;
   private final ExecutorService executor;
   private final ScheduledExecutorService cleanup;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final int pruneSliceSize;
+  private final long pruneSliceIntervalMs;
 
   @Inject
   H2CacheFactory(
       MemoryCacheFactory memCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
+      DynamicMap<Cache<?, ?>> cacheMap,
+      MmapCacheFactory mmapCacheFactory,
+      H2CacheMetrics metrics,
+      PersistentCacheCompression compression) {
     super(memCacheFactory, cfg, site);
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
+    pruneSliceSize = cfg.getInt("cache", null, "pruneSliceSize", 1000);
+    pruneSliceIntervalMs =
+        ConfigUtil.getTimeUnit(
+            cfg, "cache", null, "pruneSliceInterval", 10_000, TimeUnit.MILLISECONDS);
     caches = new ArrayList<>();
+    incrementallyPruned = new IdentityHashMap<>();
+    this.metrics = metrics;
+    this.compression = compression;
     this.cacheMap = cacheMap;
+    this.mmapCacheFactory = mmapCacheFactory;
 
     if (diskEnabled) {
       executor =
@@ -94,9 +119,20 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
     if (executor != null) {
       for (H2CacheImpl<?, ?> cache : caches) {
         executor.execute(cache::start);
-        @SuppressWarnings("unused")
-        Future<?> possiblyIgnoredError =
-            cleanup.schedule(() -> cache.prune(cleanup), 30, TimeUnit.SECONDS);
+        String name = incrementallyPruned.get(cache);
+        if (name != null) {
+          @SuppressWarnings("unused")
+          Future<?> possiblyIgnoredError =
+              cleanup.scheduleWithFixedDelay(
+                  () -> pruneSlice(name, cache),
+                  30_000,
+                  pruneSliceIntervalMs,
+                  TimeUnit.MILLISECONDS);
+        } else {
+          @SuppressWarnings("unused")
+          Future<?> possiblyIgnoredError =
+              cleanup.schedule(() -> cache.prune(cleanup), 30, TimeUnit.SECONDS);
+        }
       }
     }
   }
@@ -129,17 +165,34 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
     }
   }
 
+  private void pruneSlice(String name, H2CacheImpl<?, ?> cache) {
+    try (Timer1.Context<String> ignored = metrics.pruneSliceLatency.start(name)) {
+      long reclaimed = cache.pruneSlice(pruneSliceSize);
+      if (reclaimed > 0) {
+        metrics.pruneSliceReclaimed.record(name, reclaimed);
+      }
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot prune cache %s", name);
+    }
+  }
+
   @SuppressWarnings({"unchecked"})
   @Override
   public <K, V> Cache<K, V> buildImpl(PersistentCacheDef<K, V> in, long limit) {
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    if (mmapCacheFactory.isEnabledFor(in)) {
+      return mmapCacheFactory.build(in);
+    }
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
-            executor, store, def.keyType(), (Cache<K, ValueHolder<V>>) memCacheFactory.build(def));
-    synchronized (caches) {
-      caches.add(cache);
-    }
+            executor,
+            store,
+            def.keyType(),
+            (Cache<K, ValueHolder<V>>) memCacheFactory.build(def),
+            null,
+            metrics.forCache(def.name()));
+    add(def, cache);
     return cache;
   }
 
@@ -147,25 +200,41 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
   @Override
   public <K, V> LoadingCache<K, V> buildImpl(
       PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, long limit) {
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    if (mmapCacheFactory.isEnabledFor(in)) {
+      return mmapCacheFactory.build(in, loader);
+    }
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
+    H2CacheMetrics.ForCache cacheMetrics = metrics.forCache(def.name());
+    AbstractPersistentCache.Loader<K, V> persistentLoader =
+        new AbstractPersistentCache.Loader<>(
+            executor, H2CacheImpl.newStore(store, cacheMetrics), loader);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
-            memCacheFactory.build(
-                def, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader));
-    H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
+            memCacheFactory.build(def, (CacheLoader<K, V>) persistentLoader);
+    H2CacheImpl<K, V> cache =
+        new H2CacheImpl<>(executor, store, def.keyType(), mem, persistentLoader, cacheMetrics);
+    add(def, cache);
+    return cache;
+  }
+
+  private void add(PersistentCacheDef<?, ?> def, H2CacheImpl<?, ?> cache) {
     synchronized (caches) {
       caches.add(cache);
+      if (config.getBoolean("cache", def.configKey(), "incrementalPrune", false)) {
+        incrementallyPruned.put(cache, def.name());
+      }
     }
-    return cache;
   }
 
   @Override
   public void onStop(String plugin) {
+    mmapCacheFactory.onStop(plugin);
     synchronized (caches) {
       for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
         Cache<?, ?> cache = entry.getValue().get();
         if (caches.remove(cache)) {
+          incrementallyPruned.remove(cache);
           ((H2CacheImpl<?, ?>) cache).stop();
         }
       }
@@ -187,8 +256,8 @@ class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleList
         url.toString(),
         def.keyType(),
         def.keySerializer(),
-        def.valueSerializer(),
-        def.version(),
+        compression.valueSerializer(def),
+        compression.version(def),
         maxSize,
         def.expireAfterWrite(),
         def.expireFromMemoryAfterAccess());
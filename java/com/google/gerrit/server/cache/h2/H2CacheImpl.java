@@ -15,26 +15,20 @@
 package com.google.gerrit.server.cache.h2;
 
 import com.google.common.base.Throwables;
-import com.google.common.cache.AbstractLoadingCache;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.CacheStats;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.BloomFilter;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
-import com.google.gerrit.server.logging.Metadata;
-import com.google.gerrit.server.logging.TraceContext;
-import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.inject.TypeLiteral;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.sql.Connection;
@@ -47,13 +41,13 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -77,159 +71,134 @@ import java.util.concurrent.atomic.AtomicLong;
  * PatchListCache. The BloomFilter is sized when the cache starts to be 64,000 entries or double the
  * number of items currently in the database table.
  *
+ * <p>When the cache is closed the BloomFilter is saved into the database, so that the next start
+ * can read it back instead of scanning every key. A saved filter is only used once and only for the
+ * version it was written for; it is deleted as soon as it is loaded, so that a server that doesn't
+ * shut down cleanly rebuilds the filter from the table on its next start.
+ *
+ * <p>The disk store is trimmed to its limit either by a daily scan over all entries, or
+ * incrementally in small slices that each evict a bounded number of the least recently accessed
+ * entries. Access times are only updated when they are older than {@link #ACCESS_BUCKET}, so that
+ * hits on hot entries don't rewrite their row; entries are thus ordered in coarse clock buckets.
+ *
  * <p>This cache does not export its items as a ConcurrentMap.
  *
  * @see H2CacheFactory
  */
-public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements PersistentCache {
+public class H2CacheImpl<K, V> extends AbstractPersistentCache<K, V> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final ImmutableSet<String> OLD_CLASS_NAMES =
       ImmutableSet.of("com.google.gerrit.server.change.ChangeKind");
 
-  private final Executor executor;
-  private final SqlStore<K, V> store;
-  private final TypeLiteral<K> keyType;
-  private final Cache<K, ValueHolder<V>> mem;
+  /** Maximum number of keys looked up on disk by a single query. */
+  private static final int MAX_BATCH_SIZE = 256;
 
-  H2CacheImpl(
-      Executor executor,
-      SqlStore<K, V> store,
-      TypeLiteral<K> keyType,
-      Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
-    this.store = store;
-    this.keyType = keyType;
-    this.mem = mem;
-  }
+  /** A saved BloomFilter with a higher false positive probability is rebuilt instead of loaded. */
+  private static final double MAX_SAVED_BLOOM_FILTER_FPP = 0.1;
 
-  @Override
-  public V getIfPresent(Object objKey) {
-    if (!keyType.getRawType().isInstance(objKey)) {
-      return null;
-    }
+  /** Resolution of the access times used to order entries for pruning. */
+  static final Duration ACCESS_BUCKET = Duration.ofMinutes(10);
 
-    @SuppressWarnings("unchecked")
-    K key = (K) objKey;
+  /** Maximum age of the disk usage estimate before an over-limit slice recomputes it. */
+  private static final Duration SPACE_RESYNC_INTERVAL = Duration.ofHours(1);
 
-    ValueHolder<V> h = mem.getIfPresent(key);
-    if (h != null) {
-      return h.value;
-    }
+  private final SqlStore<K, V> sqlStore;
 
-    if (store.mightContain(key)) {
-      h = store.getIfPresent(key);
-      if (h != null) {
-        mem.put(key, h);
-        return h.value;
-      }
-    }
-    return null;
+  H2CacheImpl(
+      Executor executor,
+      SqlStore<K, V> sqlStore,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem,
+      @Nullable CacheLoader<K, ValueHolder<V>> loader,
+      H2CacheMetrics.ForCache metrics) {
+    super(executor, newStore(sqlStore, metrics), keyType, mem, loader);
+    this.sqlStore = sqlStore;
   }
 
-  @Override
-  public V get(K key) throws ExecutionException {
-    if (mem instanceof LoadingCache) {
-      LoadingCache<K, ValueHolder<V>> asLoadingCache = (LoadingCache<K, ValueHolder<V>>) mem;
-      ValueHolder<V> valueHolder = asLoadingCache.get(key);
-      if (store.needsRefresh(valueHolder.created)) {
-        asLoadingCache.refresh(key);
-      }
-      return valueHolder.value;
-    }
-    throw new UnsupportedOperationException();
+  /**
+   * Returns the {@link Store} of a cache on top of {@code sqlStore}, which consults the Bloom
+   * filter before reading from the database and records the metrics of the cache.
+   */
+  static <K, V> Store<K, V> newStore(SqlStore<K, V> sqlStore, H2CacheMetrics.ForCache metrics) {
+    return new MeteredStore<>(new BloomFilteredStore<>(sqlStore, metrics), metrics.latencies());
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Keys that are not in memory are read from disk in batches rather than one at a time, and
+   * the values found there are added to the memory cache.
+   */
   @Override
-  public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
-    if (mem instanceof LoadingCache) {
-      ImmutableMap.Builder<K, V> result = ImmutableMap.builder();
-      LoadingCache<K, ValueHolder<V>> asLoadingCache = (LoadingCache<K, ValueHolder<V>>) mem;
-      ImmutableMap<K, ValueHolder<V>> values = asLoadingCache.getAll(keys);
-      for (Map.Entry<K, ValueHolder<V>> entry : values.entrySet()) {
-        result.put(entry.getKey(), entry.getValue().value);
-        if (store.needsRefresh(entry.getValue().created)) {
-          asLoadingCache.refresh(entry.getKey());
-        }
+  public ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
+    Map<K, V> result = new LinkedHashMap<>();
+    List<K> notInMemory = new ArrayList<>();
+    for (Object objKey : keys) {
+      if (!keyType.getRawType().isInstance(objKey)) {
+        continue;
       }
-      return result.build();
-    }
-    throw new UnsupportedOperationException();
-  }
 
-  @Override
-  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
-    return mem.get(
-            key,
-            () -> {
-              if (store.mightContain(key)) {
-                ValueHolder<V> h = store.getIfPresent(key);
-                if (h != null) {
-                  return h;
-                }
-              }
+      @SuppressWarnings("unchecked")
+      K key = (K) objKey;
 
-              ValueHolder<V> h =
-                  new ValueHolder<>(valueLoader.call(), Instant.ofEpochMilli(TimeUtil.nowMs()));
-              executor.execute(() -> store.put(key, h));
-              return h;
-            })
-        .value;
-  }
+      ValueHolder<V> h = getFromMemory(key);
+      if (h != null) {
+        result.put(key, h.value);
+      } else {
+        notInMemory.add(key);
+      }
+    }
 
-  @Override
-  public void put(K key, V val) {
-    final ValueHolder<V> h = new ValueHolder<>(val, Instant.ofEpochMilli(TimeUtil.nowMs()));
-    mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
+    for (Map.Entry<K, ValueHolder<V>> e : store.getAll(notInMemory).entrySet()) {
+      mem.put(e.getKey(), e.getValue());
+      result.put(e.getKey(), e.getValue().value);
+    }
+    return ImmutableMap.copyOf(result);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void invalidate(Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
+    if (keyType.getRawType().isInstance(key) && sqlStore.mightContain((K) key)) {
+      executor.execute(() -> sqlStore.invalidate((K) key));
     }
     mem.invalidate(key);
   }
 
   @Override
   public void invalidateAll() {
-    store.invalidateAll();
+    sqlStore.invalidateAll();
     mem.invalidateAll();
   }
 
-  @Override
-  public long size() {
-    return mem.size();
-  }
-
-  @Override
-  public CacheStats stats() {
-    return mem.stats();
-  }
-
   @Override
   public DiskStats diskStats() {
-    return store.diskStats();
+    return sqlStore.diskStats();
   }
 
   void start() {
-    store.open();
+    sqlStore.open();
   }
 
   void stop() {
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
-      ValueHolder<V> h = e.getValue();
-      if (!h.clean) {
-        store.put(e.getKey(), h);
-      }
+      store.put(e.getKey(), e.getValue());
     }
-    store.close();
+    sqlStore.close();
+  }
+
+  /**
+   * Evicts up to {@code maxEntries} entries from disk if the store exceeds its limit.
+   *
+   * @return number of bytes reclaimed.
+   */
+  long pruneSlice(int maxEntries) {
+    return sqlStore.pruneSlice(mem, maxEntries);
   }
 
   void prune(ScheduledExecutorService service) {
-    store.prune(mem);
+    sqlStore.prune(mem);
 
     Calendar cal = Calendar.getInstance();
     cal.set(Calendar.HOUR_OF_DAY, 01);
@@ -244,110 +213,55 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         service.schedule(() -> prune(service), delay, TimeUnit.MILLISECONDS);
   }
 
-  static class ValueHolder<V> {
-    final V value;
-    final Instant created;
-    volatile boolean clean;
-
-    ValueHolder(V value, Instant created) {
-      this.value = value;
-      this.created = created;
-    }
-  }
-
-  static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
-    private final Executor executor;
+  /**
+   * {@link Store} on top of a {@link SqlStore} that consults the Bloom filter before reading from
+   * the database, and counts the lookups that the filter didn't prevent but found no value.
+   */
+  private static class BloomFilteredStore<K, V> implements Store<K, V> {
     private final SqlStore<K, V> store;
-    private final CacheLoader<K, V> loader;
+    private final H2CacheMetrics.ForCache metrics;
 
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
-      this.executor = executor;
+    BloomFilteredStore(SqlStore<K, V> store, H2CacheMetrics.ForCache metrics) {
       this.store = store;
-      this.loader = loader;
+      this.metrics = metrics;
     }
 
+    @Nullable
     @Override
-    public ValueHolder<V> load(K key) throws Exception {
-      try (TraceTimer timer =
-          TraceContext.newTimer(
-              "Loading value from cache", Metadata.builder().cacheKey(key.toString()).build())) {
-        if (store.mightContain(key)) {
-          ValueHolder<V> h = store.getIfPresent(key);
-          if (h != null) {
-            return h;
-          }
-        }
-
-        final ValueHolder<V> h =
-            new ValueHolder<>(loader.load(key), Instant.ofEpochMilli(TimeUtil.nowMs()));
-        executor.execute(() -> store.put(key, h));
-        return h;
+    public ValueHolder<V> getIfPresent(K key) {
+      if (!store.mightContain(key)) {
+        return null;
+      }
+      ValueHolder<V> h = store.getIfPresent(key);
+      if (h == null) {
+        metrics.bloomFalsePositive();
       }
+      return h;
     }
 
     @Override
-    public Map<K, ValueHolder<V>> loadAll(Iterable<? extends K> keys) throws Exception {
-      try (TraceTimer timer = TraceContext.newTimer("Loading multiple values from cache")) {
-        List<K> notInMemory = new ArrayList<>();
-        Map<K, ValueHolder<V>> result = new HashMap<>();
-        for (K key : keys) {
-          if (!store.mightContain(key)) {
-            notInMemory.add(key);
-            continue;
-          }
-          ValueHolder<V> h = store.getIfPresent(key);
-          if (h != null) {
-            result.put(key, h);
-          } else {
-            notInMemory.add(key);
-          }
-        }
-        try {
-          Map<K, V> remaining = loader.loadAll(notInMemory);
-          Instant instant = Instant.ofEpochMilli(TimeUtil.nowMs());
-          storeInDatabase(remaining, instant);
-          remaining
-              .entrySet()
-              .forEach(e -> result.put(e.getKey(), new ValueHolder<>(e.getValue(), instant)));
-        } catch (UnsupportedLoadingOperationException e) {
-          // Fallback to the default load() if loadAll() is not implemented
-          for (K k : notInMemory) {
-            result.put(k, load(k)); // No need to storeInDatabase here; load(k) does that.
-          }
+    public Map<K, ValueHolder<V>> getAll(Collection<K> keys) {
+      List<K> onDisk = new ArrayList<>();
+      for (K key : keys) {
+        if (store.mightContain(key)) {
+          onDisk.add(key);
         }
-        return result;
       }
+      Map<K, ValueHolder<V>> result = store.getAll(onDisk);
+      for (int i = result.size(); i < onDisk.size(); i++) {
+        metrics.bloomFalsePositive();
+      }
+      return result;
     }
 
     @Override
-    public ListenableFuture<ValueHolder<V>> reload(K key, ValueHolder<V> oldValue)
-        throws Exception {
-      ListenableFuture<V> reloadedValue = loader.reload(key, oldValue.value);
-      Futures.addCallback(
-          reloadedValue,
-          new FutureCallback<V>() {
-            @Override
-            public void onSuccess(V result) {
-              store.put(key, new ValueHolder<>(result, TimeUtil.now()));
-            }
-
-            @Override
-            public void onFailure(Throwable t) {
-              logger.atWarning().withCause(t).log("Unable to reload cache value");
-            }
-          },
-          executor);
-
-      return Futures.transform(reloadedValue, v -> new ValueHolder<>(v, TimeUtil.now()), executor);
+    public void put(K key, ValueHolder<V> h) {
+      store.put(key, h);
     }
 
-    private void storeInDatabase(Map<K, V> entries, Instant instant) {
-      executor.execute(
-          () -> {
-            for (Map.Entry<K, V> entry : entries.entrySet()) {
-              store.put(entry.getKey(), new ValueHolder<>(entry.getValue(), instant));
-            }
-          });
+    @Override
+    public boolean needsRefresh(Instant created) {
+      return store.needsRefresh(created);
     }
   }
 
@@ -362,8 +276,11 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     private final BlockingQueue<SqlHandle> handles;
     private final AtomicLong hitCount = new AtomicLong();
     private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong estimatedSpace = new AtomicLong(-1);
     private volatile BloomFilter<K> bloomFilter;
     private int estimatedSize;
+    private long estimatedSpaceAt;
+    private boolean slicePruningReady;
 
     SqlStore(
         String jdbcUrl,
@@ -398,11 +315,12 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
     synchronized void open() {
       if (bloomFilter == null) {
-        bloomFilter = buildBloomFilter();
+        bloomFilter = loadOrBuildBloomFilter();
       }
     }
 
     void close() {
+      saveBloomFilter();
       SqlHandle h;
       while ((h = handles.poll()) != null) {
         h.close();
@@ -415,7 +333,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         synchronized (this) {
           b = bloomFilter;
           if (b == null) {
-            b = buildBloomFilter();
+            b = loadOrBuildBloomFilter();
             bloomFilter = b;
           }
         }
@@ -423,6 +341,82 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return b == null || b.mightContain(key);
     }
 
+    private BloomFilter<K> loadOrBuildBloomFilter() {
+      BloomFilter<K> b = loadBloomFilter();
+      return b != null ? b : buildBloomFilter();
+    }
+
+    /**
+     * Reads the BloomFilter saved by {@link #saveBloomFilter()} and deletes it from the database.
+     *
+     * @return the saved filter, or {@code null} if there is no usable filter for this version.
+     */
+    @Nullable
+    private BloomFilter<K> loadBloomFilter() {
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        byte[] data = null;
+        try (PreparedStatement ps =
+            c.conn.prepareStatement("SELECT v FROM bloom_filter WHERE version=?")) {
+          ps.setInt(1, version);
+          try (ResultSet r = ps.executeQuery()) {
+            if (r.next()) {
+              data = r.getBytes(1);
+            }
+          }
+        }
+        try (Statement s = c.conn.createStatement()) {
+          s.executeUpdate("DELETE FROM bloom_filter");
+        }
+        if (data == null) {
+          return null;
+        }
+
+        BloomFilter<K> b = BloomFilter.readFrom(new ByteArrayInputStream(data), keyType.funnel());
+        if (b.expectedFpp() > MAX_SAVED_BLOOM_FILTER_FPP) {
+          // The cache has outgrown the filter; rebuild it with a size matching the table.
+          return null;
+        }
+        logger.atFine().log("Loaded BloomFilter for %s", url);
+        return b;
+      } catch (IOException | SQLException e) {
+        logger.atWarning().log("Cannot load BloomFilter for %s: %s", url, e.getMessage());
+        c = close(c);
+        return null;
+      } finally {
+        release(c);
+      }
+    }
+
+    private void saveBloomFilter() {
+      BloomFilter<K> b = bloomFilter;
+      if (b == null) {
+        return;
+      }
+
+      SqlHandle c = null;
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.writeTo(out);
+        c = acquire();
+        try (Statement s = c.conn.createStatement()) {
+          s.executeUpdate("DELETE FROM bloom_filter");
+        }
+        try (PreparedStatement ps =
+            c.conn.prepareStatement("INSERT INTO bloom_filter (version, v) VALUES(?,?)")) {
+          ps.setInt(1, version);
+          ps.setBytes(2, out.toByteArray());
+          ps.executeUpdate();
+        }
+      } catch (IOException | SQLException e) {
+        logger.atWarning().log("Cannot save BloomFilter for %s: %s", url, e.getMessage());
+        c = close(c);
+      } finally {
+        release(c);
+      }
+    }
+
     private BloomFilter<K> buildBloomFilter() {
       SqlHandle c = null;
       try {
@@ -518,6 +512,75 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    /**
+     * Reads the entries for several keys, using one query per batch of at most {@link
+     * #MAX_BATCH_SIZE} keys.
+     *
+     * @return the entries that were found; keys that are missing or expired are omitted.
+     */
+    Map<K, ValueHolder<V>> getAll(Collection<K> keys) {
+      if (keys.isEmpty()) {
+        return ImmutableMap.of();
+      }
+
+      Map<K, ValueHolder<V>> result = new HashMap<>();
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        for (List<K> batch : Iterables.partition(keys, MAX_BATCH_SIZE)) {
+          getAll(c, batch, result);
+        }
+      } catch (IOException | SQLException e) {
+        if (!isOldClassNameError(e)) {
+          logger.atWarning().withCause(e).log("Cannot read cache %s for %d keys", url, keys.size());
+        }
+        c = close(c);
+      } finally {
+        release(c);
+      }
+      return result;
+    }
+
+    private void getAll(SqlHandle c, List<K> keys, Map<K, ValueHolder<V>> result)
+        throws IOException, SQLException {
+      StringBuilder sql =
+          new StringBuilder("SELECT k, v, created FROM data WHERE version=? AND k IN (");
+      for (int i = 0; i < keys.size(); i++) {
+        sql.append(i == 0 ? "?" : ",?");
+      }
+      sql.append(')');
+
+      List<K> found = new ArrayList<>(keys.size());
+      try (PreparedStatement ps = c.conn.prepareStatement(sql.toString())) {
+        ps.setInt(1, version);
+        for (int i = 0; i < keys.size(); i++) {
+          keyType.set(ps, i + 2, keys.get(i));
+        }
+        try (ResultSet r = ps.executeQuery()) {
+          while (r.next()) {
+            K key = keyType.get(r, 1);
+            Timestamp created = r.getTimestamp(3);
+            if (expired(created.toInstant())) {
+              invalidate(c, key);
+              continue;
+            }
+
+            V val = valueSerializer.deserialize(r.getBytes(2));
+            ValueHolder<V> h = new ValueHolder<>(val, created.toInstant());
+            h.clean = true;
+            result.put(key, h);
+            found.add(key);
+          }
+        }
+      }
+
+      hitCount.addAndGet(found.size());
+      missCount.addAndGet(keys.size() - found.size());
+      for (K key : found) {
+        touch(c, key);
+      }
+    }
+
     private static boolean isOldClassNameError(Throwable t) {
       for (Throwable c : Throwables.getCausalChain(t)) {
         if (c instanceof ClassNotFoundException && OLD_CLASS_NAMES.contains(c.getMessage())) {
@@ -545,12 +608,16 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
     private void touch(SqlHandle c, K key) throws IOException, SQLException {
       if (c.touch == null) {
-        c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=? AND version=?");
+        c.touch =
+            c.conn.prepareStatement(
+                "UPDATE data SET accessed=? WHERE k=? AND version=? AND accessed<?");
       }
       try {
-        c.touch.setTimestamp(1, new Timestamp(TimeUtil.nowMs()));
+        long now = TimeUtil.nowMs();
+        c.touch.setTimestamp(1, new Timestamp(now));
         keyType.set(c.touch, 2, key);
         c.touch.setInt(3, version);
+        c.touch.setTimestamp(4, new Timestamp(now - ACCESS_BUCKET.toMillis()));
         c.touch.executeUpdate();
       } finally {
         c.touch.clearParameters();
@@ -577,13 +644,18 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
                   "MERGE INTO data (k, v, version, created, accessed) VALUES(?,?,?,?,?)");
         }
         try {
+          byte[] value = valueSerializer.serialize(holder.value);
           keyType.set(c.put, 1, key);
-          c.put.setBytes(2, valueSerializer.serialize(holder.value));
+          c.put.setBytes(2, value);
           c.put.setInt(3, version);
           c.put.setTimestamp(4, Timestamp.from(holder.created));
           c.put.setTimestamp(5, new Timestamp(TimeUtil.nowMs()));
           c.put.executeUpdate();
           holder.clean = true;
+          if (estimatedSpace.get() >= 0) {
+            // Ignores the key and any value that was replaced; corrected on the next resync.
+            estimatedSpace.addAndGet(value.length);
+          }
         } finally {
           c.put.clearParameters();
         }
@@ -629,6 +701,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           s.executeUpdate("DELETE FROM data");
         }
         bloomFilter = newBloomFilter();
+        estimatedSpace.set(0);
       } catch (SQLException e) {
         logger.atWarning().withCause(e).log("Cannot invalidate cache %s", url);
         c = close(c);
@@ -641,15 +714,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       SqlHandle c = null;
       try {
         c = acquire();
-        try (PreparedStatement ps = c.conn.prepareStatement("DELETE FROM data WHERE version!=?")) {
-          ps.setInt(1, version);
-          int oldEntries = ps.executeUpdate();
-          if (oldEntries > 0) {
-            logger.atInfo().log(
-                "Pruned %d entries not matching version %d from cache %s",
-                oldEntries, version, url);
-          }
-        }
+        deleteOtherVersions(c);
         try (Statement s = c.conn.createStatement()) {
           // Compute size without restricting to version (although obsolete data was just pruned
           // anyway).
@@ -683,6 +748,91 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    private void deleteOtherVersions(SqlHandle c) throws SQLException {
+      try (PreparedStatement ps = c.conn.prepareStatement("DELETE FROM data WHERE version!=?")) {
+        ps.setInt(1, version);
+        int oldEntries = ps.executeUpdate();
+        if (oldEntries > 0) {
+          logger.atInfo().log(
+              "Pruned %d entries not matching version %d from cache %s",
+              oldEntries, version, url);
+        }
+      }
+    }
+
+    /**
+     * Evicts up to {@code maxEntries} of the least recently accessed entries, if the store is
+     * larger than its limit. Entries still held in memory are touched instead, which moves them
+     * to the newest access bucket.
+     *
+     * <p>Disk usage is tracked by an estimate that is only recomputed from the table when it is
+     * unknown, or when it is over the limit and older than {@link #SPACE_RESYNC_INTERVAL}. The
+     * first slice also deletes entries of other versions and indexes the table by access time, so
+     * that each slice only reads the rows it may evict.
+     *
+     * @return number of bytes reclaimed.
+     */
+    long pruneSlice(Cache<K, ?> mem, int maxEntries) {
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        if (!slicePruningReady) {
+          deleteOtherVersions(c);
+          try (Statement s = c.conn.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS data_accessed ON data(accessed)");
+          }
+          slicePruningReady = true;
+        }
+
+        long used = estimatedSpace(c);
+        if (used <= maxSize) {
+          return 0;
+        }
+
+        long reclaimed = 0;
+        try (PreparedStatement ps =
+            c.conn.prepareStatement(
+                "SELECT k, space, created FROM data ORDER BY accessed LIMIT ?")) {
+          ps.setInt(1, maxEntries);
+          try (ResultSet r = ps.executeQuery()) {
+            while (used - reclaimed > maxSize && r.next()) {
+              K key = keyType.get(r, 1);
+              Timestamp created = r.getTimestamp(3);
+              if (mem.getIfPresent(key) != null && !expired(created.toInstant())) {
+                touch(c, key);
+              } else {
+                invalidate(c, key);
+                reclaimed += r.getLong(2);
+              }
+            }
+          }
+        }
+        estimatedSpace.addAndGet(-reclaimed);
+        return reclaimed;
+      } catch (IOException | SQLException e) {
+        logger.atWarning().withCause(e).log("Cannot prune cache %s", url);
+        c = close(c);
+        return 0;
+      } finally {
+        release(c);
+      }
+    }
+
+    private long estimatedSpace(SqlHandle c) throws SQLException {
+      long space = estimatedSpace.get();
+      long now = TimeUtil.nowMs();
+      if (space < 0
+          || (space > maxSize && now - estimatedSpaceAt > SPACE_RESYNC_INTERVAL.toMillis())) {
+        try (Statement s = c.conn.createStatement();
+            ResultSet r = s.executeQuery("SELECT SUM(space) FROM data")) {
+          space = r.next() ? r.getLong(1) : 0;
+        }
+        estimatedSpace.set(space);
+        estimatedSpaceAt = now;
+      }
+      return space;
+    }
+
     DiskStats diskStats() {
       long size = 0;
       long space = 0;
@@ -755,6 +905,11 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
             "ALTER TABLE data ADD COLUMN IF NOT EXISTS "
                 + "space BIGINT AS OCTET_LENGTH(k) + OCTET_LENGTH(v)");
         stmt.addBatch("ALTER TABLE data ADD COLUMN IF NOT EXISTS version INT DEFAULT 0 NOT NULL");
+        stmt.addBatch(
+            "CREATE TABLE IF NOT EXISTS bloom_filter"
+                + "(version INT NOT NULL"
+                + ",v BLOB NOT NULL"
+                + ")");
         stmt.executeBatch();
       }
     }
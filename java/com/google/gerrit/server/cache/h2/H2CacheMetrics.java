@@ -0,0 +1,93 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.cache.PersistentCacheMetrics;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Metrics of the H2 disk caches. */
+@Singleton
+class H2CacheMetrics {
+  private static final Field<String> F_NAME =
+      Field.ofString("cache_name", Metadata.Builder::cacheName)
+          .description("The name of the cache.")
+          .build();
+
+  final Histogram1<String> pruneSliceReclaimed;
+  final Timer1<String> pruneSliceLatency;
+  private final Counter1<String> bloomFalsePositives;
+  private final PersistentCacheMetrics latencies;
+
+  @Inject
+  H2CacheMetrics(MetricMaker metricMaker, PersistentCacheMetrics latencies) {
+    this.latencies = latencies;
+    pruneSliceReclaimed =
+        metricMaker.newHistogram(
+            "caches/disk/prune_slice_reclaimed",
+            new Description("Bytes reclaimed from a persistent cache by one prune slice")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            F_NAME);
+    pruneSliceLatency =
+        metricMaker.newTimer(
+            "caches/disk/prune_slice_latency",
+            new Description("Latency of one prune slice of a persistent cache")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+    bloomFalsePositives =
+        metricMaker.newCounter(
+            "caches/disk_bloom_false_positives",
+            new Description(
+                    "Disk lookups of a persistent cache that passed the Bloom filter but found no"
+                        + " value")
+                .setRate()
+                .setUnit("lookups"),
+            F_NAME);
+  }
+
+  /** Returns the metrics of the cache named {@code name}. */
+  ForCache forCache(String name) {
+    return new ForCache(name);
+  }
+
+  /** Records the metrics of one cache. */
+  class ForCache {
+    private final String name;
+    private final PersistentCacheMetrics.ForCache latencies;
+
+    private ForCache(String name) {
+      this.name = name;
+      this.latencies = H2CacheMetrics.this.latencies.forCache(name);
+    }
+
+    PersistentCacheMetrics.ForCache latencies() {
+      return latencies;
+    }
+
+    void bloomFalsePositive() {
+      bloomFalsePositives.increment(name);
+    }
+  }
+}
@@ -26,6 +26,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.server.cache.CacheDef;
 import com.google.gerrit.server.cache.ForwardingRemovalListener;
@@ -37,28 +38,37 @@ import java.time.Duration;
 import org.eclipse.jgit.lib.Config;
 
 class DefaultMemoryCacheFactory implements MemoryCacheFactory {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private final Config cfg;
   private final ForwardingRemovalListener.Factory forwardingRemovalListenerFactory;
+  private final MemoryCacheMetrics metrics;
 
   @Inject
   DefaultMemoryCacheFactory(
       @GerritServerConfig Config config,
-      ForwardingRemovalListener.Factory forwardingRemovalListenerFactory) {
+      ForwardingRemovalListener.Factory forwardingRemovalListenerFactory,
+      MemoryCacheMetrics metrics) {
     this.cfg = config;
     this.forwardingRemovalListenerFactory = forwardingRemovalListenerFactory;
+    this.metrics = metrics;
   }
 
   @Override
   public <K, V> Cache<K, V> build(CacheDef<K, V> def) {
-    return CaffeinatedGuava.build(create(def));
+    return CaffeinatedGuava.build(create(def, false));
   }
 
   @Override
   public <K, V> LoadingCache<K, V> build(CacheDef<K, V> def, CacheLoader<K, V> loader) {
-    return CaffeinatedGuava.build(create(def), loader);
+    return CaffeinatedGuava.build(create(def, true), loader);
   }
 
-  private <K, V> Caffeine<K, V> create(CacheDef<K, V> def) {
+  /**
+   * @param loading whether the cache is built with a loader; caches without one cannot refresh
+   *     their entries, so refreshAfterWrite is ignored for them.
+   */
+  private <K, V> Caffeine<K, V> create(CacheDef<K, V> def, boolean loading) {
     Caffeine<K, V> builder = newCacheBuilder();
     builder.recordStats();
     builder.maximumWeight(
@@ -92,8 +102,13 @@ class DefaultMemoryCacheFactory implements MemoryCacheFactory {
     }
 
     Duration refreshAfterWrite = def.refreshAfterWrite();
-    if (has(def.configKey(), "refreshAfterWrite")) {
-      builder.expireAfterAccess(
+    if (!loading) {
+      if (refreshAfterWrite != null || has(def.configKey(), "refreshAfterWrite")) {
+        logger.atWarning().log(
+            "Ignoring refreshAfterWrite of cache %s, which has no loader", def.name());
+      }
+    } else if (has(def.configKey(), "refreshAfterWrite")) {
+      builder.refreshAfterWrite(
           ConfigUtil.getTimeUnit(
               cfg,
               "cache",
@@ -124,12 +139,14 @@ class DefaultMemoryCacheFactory implements MemoryCacheFactory {
 
   @SuppressWarnings("unchecked")
   private <V, K> RemovalListener<K, V> newRemovalListener(String cacheName) {
-    return (k, v, cause) ->
-        forwardingRemovalListenerFactory
-            .create(cacheName)
-            .onRemoval(
-                RemovalNotification.create(
-                    k, v, com.google.common.cache.RemovalCause.valueOf(cause.name())));
+    ForwardingRemovalListener<K, V> forwardingRemovalListener =
+        forwardingRemovalListenerFactory.create(cacheName);
+    return (k, v, cause) -> {
+      metrics.onRemoval(cacheName, cause);
+      forwardingRemovalListener.onRemoval(
+          RemovalNotification.create(
+              k, v, com.google.common.cache.RemovalCause.valueOf(cause.name())));
+    };
   }
 
   private static <K, V> Weigher<K, V> newWeigher(
@@ -0,0 +1,55 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mem;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Metrics of the in-memory caches. */
+@Singleton
+class MemoryCacheMetrics {
+  private final Counter2<String, String> evictions;
+
+  @Inject
+  MemoryCacheMetrics(MetricMaker metricMaker) {
+    evictions =
+        metricMaker.newCounter(
+            "caches/memory_evictions",
+            new Description("Entries evicted from a memory cache, by cause of the eviction")
+                .setRate()
+                .setUnit("evicted entries"),
+            Field.ofString("cache_name", Metadata.Builder::cacheName)
+                .description("The name of the cache.")
+                .build(),
+            Field.ofString("cause", Metadata.Builder::cause)
+                .description(
+                    "Why the entry was evicted: SIZE if the cache was full, EXPIRED if the entry"
+                        + " expired, or COLLECTED if it was garbage collected.")
+                .build());
+  }
+
+  /** Counts the removal of an entry from {@code cacheName}, if it was an eviction. */
+  void onRemoval(String cacheName, RemovalCause cause) {
+    if (cause.wasEvicted()) {
+      evictions.increment(cacheName, cause.name());
+    }
+  }
+}
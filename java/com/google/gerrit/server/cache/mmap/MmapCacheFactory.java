@@ -0,0 +1,254 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.MemoryCacheFactory;
+import com.google.gerrit.server.cache.PersistentCacheBaseFactory;
+import com.google.gerrit.server.cache.PersistentCacheCompression;
+import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.PersistentCacheDefProxy;
+import com.google.gerrit.server.cache.PersistentCacheMetrics;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
+import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Creates persistent caches stored in memory-mapped segment files.
+ *
+ * <p>A cache uses this backend if {@code cache.<name>.diskBackend} is set to {@code mmap}; all
+ * other persistent caches keep using H2. Each cache is stored in its own {@code <name>.mmap}
+ * directory below {@code cache.directory}.
+ */
+@Singleton
+public class MmapCacheFactory extends PersistentCacheBaseFactory implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final String BACKEND = "mmap";
+
+  private static final long MIN_SEGMENT_SIZE = 64L << 10;
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+  private static final long DEFAULT_MIN_SEGMENT_SIZE = 1L << 20;
+  private static final long DEFAULT_MAX_SEGMENT_SIZE = 256L << 20;
+  private static final long COMPACTION_INTERVAL_MINUTES = 5;
+
+  private final List<MmapCacheImpl<?, ?>> caches;
+  private final DynamicMap<Cache<?, ?>> cacheMap;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService compaction;
+  private final PersistentCacheCompression compression;
+  private final PersistentCacheMetrics metrics;
+  private boolean started;
+
+  @Inject
+  MmapCacheFactory(
+      MemoryCacheFactory memCacheFactory,
+      @GerritServerConfig Config cfg,
+      SitePaths site,
+      DynamicMap<Cache<?, ?>> cacheMap,
+      PersistentCacheCompression compression,
+      PersistentCacheMetrics metrics) {
+    super(memCacheFactory, cfg, site);
+    caches = new ArrayList<>();
+    this.cacheMap = cacheMap;
+    this.compression = compression;
+    this.metrics = metrics;
+
+    if (diskEnabled && isUsed(cfg)) {
+      executor =
+          new LoggingContextAwareExecutorService(
+              Executors.newFixedThreadPool(
+                  1, new ThreadFactoryBuilder().setNameFormat("DiskCache-MmapStore-%d").build()));
+      compaction =
+          new LoggingContextAwareScheduledExecutorService(
+              Executors.newScheduledThreadPool(
+                  1,
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("DiskCache-MmapCompact-%d")
+                      .setDaemon(true)
+                      .build()));
+    } else {
+      executor = null;
+      compaction = null;
+    }
+  }
+
+  private static boolean isUsed(Config cfg) {
+    for (String name : cfg.getSubsections("cache")) {
+      if (BACKEND.equalsIgnoreCase(cfg.getString("cache", name, "diskBackend"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Whether {@code def} is configured to be stored by this factory. */
+  public boolean isEnabledFor(PersistentCacheDef<?, ?> def) {
+    return executor != null
+        && BACKEND.equalsIgnoreCase(config.getString("cache", def.configKey(), "diskBackend"));
+  }
+
+  @Override
+  public void start() {
+    synchronized (caches) {
+      for (MmapCacheImpl<?, ?> cache : caches) {
+        schedule(cache);
+      }
+      started = true;
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      try {
+        compaction.shutdownNow();
+
+        List<Runnable> pending = executor.shutdownNow();
+        if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
+          if (pending != null && !pending.isEmpty()) {
+            logger.atInfo().log("Finishing %d disk cache updates", pending.size());
+            for (Runnable update : pending) {
+              update.run();
+            }
+          }
+        } else {
+          logger.atInfo().log("Timeout waiting for disk cache to close");
+        }
+      } catch (InterruptedException e) {
+        logger.atWarning().log("Interrupted waiting for disk cache to shutdown");
+      }
+    }
+    synchronized (caches) {
+      for (MmapCacheImpl<?, ?> cache : caches) {
+        cache.stop();
+      }
+    }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override
+  public <K, V> Cache<K, V> buildImpl(PersistentCacheDef<K, V> in, long limit) {
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
+    SegmentStore<K, V> store = newStore(def, limit);
+    MmapCacheImpl<K, V> cache =
+        new MmapCacheImpl<>(
+            executor,
+            store,
+            def.keyType(),
+            (Cache<K, ValueHolder<V>>) memCacheFactory.build(def),
+            null,
+            metrics.forCache(def.name()));
+    add(cache);
+    return cache;
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override
+  public <K, V> LoadingCache<K, V> buildImpl(
+      PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, long limit) {
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
+    SegmentStore<K, V> store = newStore(def, limit);
+    PersistentCacheMetrics.ForCache cacheMetrics = metrics.forCache(def.name());
+    AbstractPersistentCache.Loader<K, V> persistentLoader =
+        new AbstractPersistentCache.Loader<>(
+            executor, new AbstractPersistentCache.MeteredStore<>(store, cacheMetrics), loader);
+    Cache<K, ValueHolder<V>> mem =
+        (Cache<K, ValueHolder<V>>)
+            memCacheFactory.build(def, (CacheLoader<K, V>) persistentLoader);
+    MmapCacheImpl<K, V> cache =
+        new MmapCacheImpl<>(executor, store, def.keyType(), mem, persistentLoader, cacheMetrics);
+    add(cache);
+    return cache;
+  }
+
+  @Override
+  public void onStop(String plugin) {
+    synchronized (caches) {
+      for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
+        Cache<?, ?> cache = entry.getValue().get();
+        if (caches.remove(cache)) {
+          ((MmapCacheImpl<?, ?>) cache).stop();
+        }
+      }
+    }
+  }
+
+  private void add(MmapCacheImpl<?, ?> cache) {
+    synchronized (caches) {
+      caches.add(cache);
+      if (started) {
+        schedule(cache);
+      }
+    }
+  }
+
+  private void schedule(MmapCacheImpl<?, ?> cache) {
+    executor.execute(cache::start);
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError =
+        compaction.scheduleWithFixedDelay(
+            () -> {
+              try {
+                cache.compact();
+              } catch (RuntimeException e) {
+                logger.atWarning().withCause(e).log("Cannot compact disk cache");
+              }
+            },
+            COMPACTION_INTERVAL_MINUTES,
+            COMPACTION_INTERVAL_MINUTES,
+            TimeUnit.MINUTES);
+  }
+
+  private <K, V> SegmentStore<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize) {
+    long segmentSize =
+        config.getLong(
+            "cache",
+            def.configKey(),
+            "segmentSize",
+            Math.max(DEFAULT_MIN_SEGMENT_SIZE, Math.min(DEFAULT_MAX_SEGMENT_SIZE, maxSize / 8)));
+    return new SegmentStore<>(
+        cacheDir.resolve(def.name() + ".mmap"),
+        def.keySerializer(),
+        compression.valueSerializer(def),
+        compression.version(def),
+        maxSize,
+        Ints.checkedCast(Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, segmentSize))),
+        def.expireAfterWrite(),
+        def.refreshAfterWrite());
+  }
+}
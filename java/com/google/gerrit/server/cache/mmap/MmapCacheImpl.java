@@ -0,0 +1,84 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.PersistentCacheMetrics;
+import com.google.inject.TypeLiteral;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Hybrid in-memory and memory-mapped file backed cache.
+ *
+ * <p>This behaves like {@code H2CacheImpl}: the in-memory cache is checked first, then the {@link
+ * SegmentStore}, and finally the CacheLoader, if any. Stores are performed on a background thread.
+ * Unlike the H2 backend no Bloom filter is needed, since the store keeps an index of all its keys
+ * outside of the Java heap and a miss never touches the disk.
+ *
+ * @see MmapCacheFactory
+ */
+public class MmapCacheImpl<K, V> extends AbstractPersistentCache<K, V> {
+  private final SegmentStore<K, V> segmentStore;
+
+  MmapCacheImpl(
+      Executor executor,
+      SegmentStore<K, V> segmentStore,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem,
+      @Nullable CacheLoader<K, ValueHolder<V>> loader,
+      PersistentCacheMetrics.ForCache metrics) {
+    super(executor, new MeteredStore<>(segmentStore, metrics), keyType, mem, loader);
+    this.segmentStore = segmentStore;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void invalidate(Object key) {
+    if (keyType.getRawType().isInstance(key)) {
+      executor.execute(() -> segmentStore.invalidate((K) key));
+    }
+    mem.invalidate(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    segmentStore.invalidateAll();
+    mem.invalidateAll();
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    return segmentStore.diskStats();
+  }
+
+  void start() {
+    segmentStore.open();
+  }
+
+  void stop() {
+    for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
+      segmentStore.put(e.getKey(), e.getValue());
+    }
+    segmentStore.close();
+  }
+
+  void compact() {
+    segmentStore.compact(mem);
+  }
+}
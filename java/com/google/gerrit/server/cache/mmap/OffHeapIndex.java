@@ -0,0 +1,340 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gerrit.common.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hash index from 64-bit key hashes to record locations, stored outside of the Java heap.
+ *
+ * <p>The index is split into independently locked stripes, each of which is an open addressing
+ * hash table with linear probing held in a direct {@link ByteBuffer}. A stripe doubles in size
+ * when it becomes three quarters full; removals use backward shifting, so the tables never contain
+ * tombstones.
+ *
+ * <p>Only the hash of the serialized key is stored. Callers must verify the key stored with the
+ * record before trusting a match.
+ *
+ * <p>Callers may hold the {@link #lockFor(long) lock of a stripe} across several operations, for
+ * example to append a record and publish it atomically with respect to other writers of that key.
+ */
+class OffHeapIndex {
+  /** Hash value marking an empty slot. Callers must never pass it as a key. */
+  static final long EMPTY = 0;
+
+  private static final int SLOT_SIZE = 24;
+  private static final int HASH = 0;
+  private static final int SEGMENT = 8;
+  private static final int OFFSET = 12;
+  private static final int LENGTH = 16;
+  private static final int ACCESSED = 20;
+
+  private static final int STRIPE_BITS = 6;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Location of a record, as stored in the index. */
+  static class Entry {
+    final int segment;
+    final int offset;
+    final int length;
+    final int accessed;
+
+    Entry(int segment, int offset, int length, int accessed) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.accessed = accessed;
+    }
+
+    boolean isAt(int segment, int offset) {
+      return this.segment == segment && this.offset == offset;
+    }
+  }
+
+  private final Stripe[] stripes;
+
+  OffHeapIndex() {
+    stripes = new Stripe[1 << STRIPE_BITS];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe(INITIAL_CAPACITY);
+    }
+  }
+
+  /** Returns the reentrant lock guarding the stripe that holds {@code hash}. */
+  Lock lockFor(long hash) {
+    return stripe(hash).lock;
+  }
+
+  /** Returns the entry for {@code hash} and records an access at {@code now}. */
+  @Nullable
+  Entry get(long hash, int now) {
+    return stripe(hash).get(hash, now);
+  }
+
+  /** Returns the entry for {@code hash} without updating its access time. */
+  @Nullable
+  Entry peek(long hash) {
+    return stripe(hash).get(hash, -1);
+  }
+
+  /** Stores a location for {@code hash}, returning the entry it replaced. */
+  @Nullable
+  Entry put(long hash, int segment, int offset, int length, int accessed) {
+    checkArgument(hash != EMPTY, "hash must not be EMPTY");
+    return stripe(hash).put(hash, segment, offset, length, accessed);
+  }
+
+  /**
+   * Moves the entry for {@code hash} to a new location, if it is still at the expected one.
+   *
+   * @return whether the entry was moved.
+   */
+  boolean move(long hash, Entry expected, int segment, int offset) {
+    return stripe(hash).move(hash, expected, segment, offset);
+  }
+
+  /** Removes the entry for {@code hash}, returning it. */
+  @Nullable
+  Entry remove(long hash) {
+    return stripe(hash).remove(hash, null);
+  }
+
+  /**
+   * Removes the entry for {@code hash}, if it is still at the expected location.
+   *
+   * @return whether the entry was removed.
+   */
+  boolean remove(long hash, Entry expected) {
+    return stripe(hash).remove(hash, expected) != null;
+  }
+
+  long size() {
+    long size = 0;
+    for (Stripe s : stripes) {
+      size += s.size();
+    }
+    return size;
+  }
+
+  void clear() {
+    for (Stripe s : stripes) {
+      s.clear();
+    }
+  }
+
+  private Stripe stripe(long hash) {
+    return stripes[(int) (hash >>> (Long.SIZE - STRIPE_BITS))];
+  }
+
+  private static class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteBuffer table;
+    private int mask;
+    private int size;
+
+    Stripe(int capacity) {
+      allocate(capacity);
+    }
+
+    Entry get(long hash, int now) {
+      lock.lock();
+      try {
+        int slot = find(hash);
+        if (slot < 0) {
+          return null;
+        }
+        if (now >= 0) {
+          table.putInt(slot * SLOT_SIZE + ACCESSED, now);
+        }
+        return entry(slot);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Entry put(long hash, int segment, int offset, int length, int accessed) {
+      lock.lock();
+      try {
+        int slot = find(hash);
+        Entry old = null;
+        if (slot >= 0) {
+          old = entry(slot);
+        } else {
+          if (size + 1 > (mask + 1) / 4 * 3) {
+            allocate((mask + 1) * 2);
+          }
+          slot = ~find(hash);
+          size++;
+        }
+        write(slot, hash, segment, offset, length, accessed);
+        return old;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean move(long hash, Entry expected, int segment, int offset) {
+      lock.lock();
+      try {
+        int slot = find(hash);
+        if (slot < 0 || !entry(slot).isAt(expected.segment, expected.offset)) {
+          return false;
+        }
+        int base = slot * SLOT_SIZE;
+        table.putInt(base + SEGMENT, segment);
+        table.putInt(base + OFFSET, offset);
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Entry remove(long hash, @Nullable Entry expected) {
+      lock.lock();
+      try {
+        int slot = find(hash);
+        if (slot < 0) {
+          return null;
+        }
+        Entry old = entry(slot);
+        if (expected != null && !old.isAt(expected.segment, expected.offset)) {
+          return null;
+        }
+        shiftBackward(slot);
+        size--;
+        return old;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int size() {
+      lock.lock();
+      try {
+        return size;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        table = null;
+        size = 0;
+        allocate(INITIAL_CAPACITY);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Returns the slot holding {@code hash}, or the bitwise complement of the empty slot where it
+     * would be inserted.
+     */
+    private int find(long hash) {
+      int slot = home(hash);
+      while (true) {
+        long h = table.getLong(slot * SLOT_SIZE + HASH);
+        if (h == hash) {
+          return slot;
+        }
+        if (h == EMPTY) {
+          return ~slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private void shiftBackward(int hole) {
+      int slot = hole;
+      while (true) {
+        slot = (slot + 1) & mask;
+        long h = table.getLong(slot * SLOT_SIZE + HASH);
+        if (h == EMPTY) {
+          break;
+        }
+        int home = home(h);
+        boolean between = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+        if (between) {
+          continue;
+        }
+        copySlot(slot, hole);
+        hole = slot;
+      }
+      table.putLong(hole * SLOT_SIZE + HASH, EMPTY);
+    }
+
+    private void allocate(int capacity) {
+      ByteBuffer old = table;
+      int oldSlots = mask + 1;
+      table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+      if (old == null) {
+        return;
+      }
+      for (int i = 0; i < oldSlots; i++) {
+        int base = i * SLOT_SIZE;
+        long h = old.getLong(base + HASH);
+        if (h != EMPTY) {
+          write(
+              ~find(h),
+              h,
+              old.getInt(base + SEGMENT),
+              old.getInt(base + OFFSET),
+              old.getInt(base + LENGTH),
+              old.getInt(base + ACCESSED));
+        }
+      }
+    }
+
+    private int home(long hash) {
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private Entry entry(int slot) {
+      int base = slot * SLOT_SIZE;
+      return new Entry(
+          table.getInt(base + SEGMENT),
+          table.getInt(base + OFFSET),
+          table.getInt(base + LENGTH),
+          table.getInt(base + ACCESSED));
+    }
+
+    private void write(int slot, long hash, int segment, int offset, int length, int accessed) {
+      int base = slot * SLOT_SIZE;
+      table.putLong(base + HASH, hash);
+      table.putInt(base + SEGMENT, segment);
+      table.putInt(base + OFFSET, offset);
+      table.putInt(base + LENGTH, length);
+      table.putInt(base + ACCESSED, accessed);
+    }
+
+    private void copySlot(int from, int to) {
+      int src = from * SLOT_SIZE;
+      int dst = to * SLOT_SIZE;
+      table.putLong(dst + HASH, table.getLong(src + HASH));
+      table.putInt(dst + SEGMENT, table.getInt(src + SEGMENT));
+      table.putInt(dst + OFFSET, table.getInt(src + OFFSET));
+      table.putInt(dst + LENGTH, table.getInt(src + LENGTH));
+      table.putInt(dst + ACCESSED, table.getInt(src + ACCESSED));
+    }
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.flogger.FluentLogger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of cache records, mapped into memory.
+ *
+ * <p>A record is laid out as:
+ *
+ * <pre>
+ *   int    total length of the record, including this field and the checksum
+ *   int    cache version
+ *   long   creation time, in milliseconds since the epoch
+ *   int    key length
+ *   int    value length, or -1 for a tombstone
+ *   byte[] key
+ *   byte[] value
+ *   int    CRC32 of all preceding fields except the total length
+ * </pre>
+ *
+ * <p>Space is reserved with a compare-and-set on the write position, so concurrent writers don't
+ * block each other. Records are written in full before they are published to the index. After a
+ * crash a segment is read up to the first record that is incomplete or fails its checksum.
+ */
+class Segment {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String SUFFIX = ".seg";
+
+  private static final long MAGIC = 0x4752_5443_4d4d_4150L; // "GRTCMMAP"
+  private static final int FORMAT = 1;
+  static final int HEADER_SIZE = 16;
+  static final int RECORD_OVERHEAD = 28;
+  static final int TOMBSTONE = -1;
+
+  private static final int VERSION = 4;
+  private static final int CREATED = 8;
+  private static final int KEY_LENGTH = 16;
+  private static final int VALUE_LENGTH = 20;
+  private static final int KEY = 24;
+
+  final int id;
+  final Path path;
+  private final FileChannel channel;
+  private final MappedByteBuffer buf;
+  private final int capacity;
+  private final AtomicInteger writePos;
+  private final AtomicLong liveBytes = new AtomicLong();
+  private final AtomicInteger pendingWrites = new AtomicInteger();
+  private volatile boolean sealed;
+
+  static Segment create(Path path, int id, int capacity) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      buf.putLong(0, MAGIC);
+      buf.putInt(8, FORMAT);
+      return new Segment(id, path, channel, buf, HEADER_SIZE);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  static Segment open(Path path, int id) throws IOException {
+    FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("invalid segment size " + size);
+      }
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (buf.getLong(0) != MAGIC || buf.getInt(8) != FORMAT) {
+        throw new IOException("unknown segment format");
+      }
+      return new Segment(id, path, channel, buf, scan(buf));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buf, int writePos) {
+    this.id = id;
+    this.path = path;
+    this.channel = channel;
+    this.buf = buf;
+    this.capacity = buf.capacity();
+    this.writePos = new AtomicInteger(writePos);
+  }
+
+  /** Returns the offset just past the last intact record. */
+  private static int scan(ByteBuffer buf) {
+    int pos = HEADER_SIZE;
+    while (pos + RECORD_OVERHEAD <= buf.capacity()) {
+      int len = buf.getInt(pos);
+      if (len < RECORD_OVERHEAD || len > buf.capacity() - pos || !checksumMatches(buf, pos, len)) {
+        break;
+      }
+      pos += len;
+    }
+    return pos;
+  }
+
+  static byte[] newRecord(int version, long created, byte[] key, byte[] value) {
+    int valueLength = value != null ? value.length : 0;
+    int len = RECORD_OVERHEAD + key.length + valueLength;
+    ByteBuffer rec = ByteBuffer.allocate(len);
+    rec.putInt(len);
+    rec.putInt(version);
+    rec.putLong(created);
+    rec.putInt(key.length);
+    rec.putInt(value != null ? value.length : TOMBSTONE);
+    rec.put(key);
+    if (value != null) {
+      rec.put(value);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(rec.array(), VERSION, len - VERSION - 4);
+    rec.putInt((int) crc.getValue());
+    return rec.array();
+  }
+
+  private static boolean checksumMatches(ByteBuffer buf, int offset, int len) {
+    ByteBuffer rec = buf.duplicate();
+    rec.position(offset + VERSION).limit(offset + len - 4);
+    CRC32 crc = new CRC32();
+    crc.update(rec);
+    return (int) crc.getValue() == buf.getInt(offset + len - 4);
+  }
+
+  /**
+   * Reserves {@code len} bytes at the end of the segment.
+   *
+   * <p>Must be called between {@link #beginWrite()} and {@link #endWrite()}.
+   *
+   * @return offset of the reserved space, or -1 if the segment is full or sealed.
+   */
+  int reserve(int len) {
+    while (true) {
+      if (sealed) {
+        return -1;
+      }
+      int pos = writePos.get();
+      if (len > capacity - pos) {
+        return -1;
+      }
+      if (writePos.compareAndSet(pos, pos + len)) {
+        return pos;
+      }
+    }
+  }
+
+  void beginWrite() {
+    pendingWrites.incrementAndGet();
+  }
+
+  void endWrite() {
+    pendingWrites.decrementAndGet();
+  }
+
+  /** Stops accepting new records. */
+  void seal() {
+    sealed = true;
+  }
+
+  /** Whether the segment is sealed and all records reserved in it have been written. */
+  boolean isStable() {
+    return sealed && pendingWrites.get() == 0;
+  }
+
+  void write(int offset, byte[] record) {
+    ByteBuffer dst = buf.duplicate();
+    dst.position(offset);
+    dst.put(record);
+  }
+
+  /** Copies the record at {@code offset} out of the segment. */
+  byte[] readRecord(int offset, int len) {
+    byte[] record = new byte[len];
+    ByteBuffer src = buf.duplicate();
+    src.position(offset);
+    src.get(record);
+    return record;
+  }
+
+  int recordLength(int offset) {
+    return buf.getInt(offset);
+  }
+
+  int version(int offset) {
+    return buf.getInt(offset + VERSION);
+  }
+
+  long created(int offset) {
+    return buf.getLong(offset + CREATED);
+  }
+
+  boolean isTombstone(int offset) {
+    return buf.getInt(offset + VALUE_LENGTH) == TOMBSTONE;
+  }
+
+  byte[] key(int offset) {
+    byte[] key = new byte[buf.getInt(offset + KEY_LENGTH)];
+    ByteBuffer src = buf.duplicate();
+    src.position(offset + KEY);
+    src.get(key);
+    return key;
+  }
+
+  boolean keyEquals(int offset, byte[] key) {
+    if (buf.getInt(offset + KEY_LENGTH) != key.length) {
+      return false;
+    }
+    ByteBuffer src = buf.duplicate();
+    src.position(offset + KEY).limit(offset + KEY + key.length);
+    return src.equals(ByteBuffer.wrap(key));
+  }
+
+  byte[] value(int offset) {
+    int keyLength = buf.getInt(offset + KEY_LENGTH);
+    byte[] value = new byte[buf.getInt(offset + VALUE_LENGTH)];
+    ByteBuffer src = buf.duplicate();
+    src.position(offset + KEY + keyLength);
+    src.get(value);
+    return value;
+  }
+
+  /** Returns the offset of the first record; iterate with {@link #next(int)}. */
+  int first() {
+    return isEmpty() ? -1 : HEADER_SIZE;
+  }
+
+  /** Returns the offset of the record after {@code offset}, or -1 at the end. */
+  int next(int offset) {
+    int len = buf.getInt(offset);
+    if (len < RECORD_OVERHEAD) {
+      return -1;
+    }
+    int next = offset + len;
+    return next < writePos.get() ? next : -1;
+  }
+
+  boolean isEmpty() {
+    return writePos.get() <= HEADER_SIZE;
+  }
+
+  /** Bytes of this file in use, including superseded records. */
+  int used() {
+    return writePos.get();
+  }
+
+  /** Bytes of records still referenced by the index. */
+  long liveBytes() {
+    return liveBytes.get();
+  }
+
+  void addLive(long delta) {
+    liveBytes.addAndGet(delta);
+  }
+
+  /** Forces written records to disk. */
+  void flush() {
+    buf.force();
+  }
+
+  void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot close cache segment %s", path);
+    }
+  }
+
+  /**
+   * Closes and deletes the file of this segment.
+   *
+   * <p>The buffer is not unmapped, since lookups may still read from it without holding a lock;
+   * unmapping it explicitly could crash the JVM. The disk space is therefore only freed once the
+   * buffer is garbage collected.
+   */
+  void delete() {
+    close();
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete cache segment %s", path);
+    }
+  }
+}
@@ -0,0 +1,531 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.AbstractPersistentCache.Store;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.mmap.OffHeapIndex.Entry;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Disk store of a persistent cache, made of append-only memory-mapped segment files.
+ *
+ * <p>Every put or invalidation appends a record to the active segment; the location of the newest
+ * record of each key is kept in an {@link OffHeapIndex}. When the active segment is full it is
+ * sealed and a new one is started. On startup the index is rebuilt by reading the segments in
+ * order, which only touches the serialized keys.
+ *
+ * <p>{@link #compact(Cache)} sweeps over the sealed segments, oldest first, and rewrites those that
+ * are mostly made of superseded records, or all of them while the store exceeds its size limit.
+ * While over the limit only entries that were read since the previous sweep, or are still held by
+ * the in-memory cache, are carried over; this gives recently used entries a second chance much like
+ * a clock. A sweep only covers the segments that existed when it started, so that carried over
+ * entries are not rewritten again by the same sweep, and may span several calls.
+ */
+class SegmentStore<K, V> implements Store<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  /** Base of the access times kept in the index, so that they fit into an int. */
+  private static final long ACCESS_EPOCH_MS = Instant.parse("2020-01-01T00:00:00Z").toEpochMilli();
+
+  /** Fraction of superseded bytes above which a sealed segment is rewritten. */
+  private static final double MAX_GARBAGE_RATIO = 0.5;
+
+  /** Maximum number of segments rewritten by a single call to {@link #compact(Cache)}. */
+  private static final int MAX_REWRITES_PER_COMPACTION = 16;
+
+  private final Path dir;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final int segmentSize;
+  @Nullable private final Duration expireAfterWrite;
+  @Nullable private final Duration refreshAfterWrite;
+
+  private final OffHeapIndex index = new OffHeapIndex();
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private volatile Segment active;
+  private volatile int lastCompaction;
+  private int nextId;
+
+  // State of the current sweep, only accessed by compact, which is never called concurrently.
+  private int sweepEnd = -1;
+  private int sweepNext;
+  private int sweepStarted;
+
+  SegmentStore(
+      Path dir,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      int segmentSize,
+      @Nullable Duration expireAfterWrite,
+      @Nullable Duration refreshAfterWrite) {
+    this.dir = dir;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+    this.expireAfterWrite = expireAfterWrite;
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  void open() {
+    lock.writeLock().lock();
+    try {
+      if (active != null) {
+        return;
+      }
+      Files.createDirectories(dir);
+      for (Path p : listSegments()) {
+        String n = p.getFileName().toString();
+        int id = Integer.parseInt(n.substring(0, n.length() - Segment.SUFFIX.length()));
+        try {
+          Segment s = Segment.open(p, id);
+          s.seal();
+          segments.put(id, s);
+          nextId = Math.max(nextId, id + 1);
+        } catch (IOException | RuntimeException e) {
+          logger.atWarning().withCause(e).log("Discarding unreadable cache segment %s", p);
+          Files.deleteIfExists(p);
+        }
+      }
+      for (Segment s : segments.values()) {
+        replay(s);
+      }
+      active = newSegment();
+      lastCompaction = now();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot open cache %s", dir);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void close() {
+    lock.writeLock().lock();
+    try {
+      for (Segment s : segments.values()) {
+        s.flush();
+        s.close();
+      }
+      segments.clear();
+      index.clear();
+      active = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private List<Path> listSegments() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + Segment.SUFFIX)) {
+      ds.forEach(files::add);
+    }
+    return files;
+  }
+
+  private void replay(Segment s) {
+    for (int off = s.first(); off >= 0; off = s.next(off)) {
+      if (s.version(off) != version) {
+        continue;
+      }
+      long hash = hash(s.key(off));
+      if (s.isTombstone(off)) {
+        unlink(index.remove(hash));
+      } else {
+        int len = s.recordLength(off);
+        unlink(index.put(hash, s.id, off, len, accessTime(s.created(off))));
+        s.addLive(len);
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding either the write lock, or the read lock and the monitor of this
+   * store, as {@link #roll(Segment)} does. Holders of the write lock exclude all others, so
+   * {@code nextId} is never updated concurrently.
+   */
+  private Segment newSegment() throws IOException {
+    int id = nextId++;
+    Segment s =
+        Segment.create(dir.resolve(String.format("%08d%s", id, Segment.SUFFIX)), id, segmentSize);
+    segments.put(id, s);
+    return s;
+  }
+
+  @Nullable
+  @Override
+  public ValueHolder<V> getIfPresent(K key) {
+    byte[] k = keySerializer.serialize(key);
+    long hash = hash(k);
+    Entry e = index.get(hash, now());
+    Segment s = e != null ? segments.get(e.segment) : null;
+    if (s == null || !s.keyEquals(e.offset, k)) {
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    Instant created = Instant.ofEpochMilli(s.created(e.offset));
+    if (expired(created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    try {
+      ValueHolder<V> h = new ValueHolder<>(valueSerializer.deserialize(s.value(e.offset)), created);
+      h.clean = true;
+      hitCount.incrementAndGet();
+      return h;
+    } catch (RuntimeException ex) {
+      logger.atWarning().withCause(ex).log("Cannot read cache %s for %s", dir, key);
+      if (index.remove(hash, e)) {
+        s.addLive(-e.length);
+      }
+      missCount.incrementAndGet();
+      return null;
+    }
+  }
+
+  @Override
+  public void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+    byte[] k = keySerializer.serialize(key);
+    byte[] record =
+        Segment.newRecord(
+            version, holder.created.toEpochMilli(), k, valueSerializer.serialize(holder.value));
+    if (append(hash(k), record, false)) {
+      holder.clean = true;
+    }
+  }
+
+  void invalidate(K key) {
+    byte[] k = keySerializer.serialize(key);
+    long hash = hash(k);
+    if (index.peek(hash) == null) {
+      return;
+    }
+    byte[] tombstone = Segment.newRecord(version, TimeUtil.nowMs(), k, null);
+    append(hash, tombstone, true);
+  }
+
+  void invalidateAll() {
+    lock.writeLock().lock();
+    try {
+      index.clear();
+      for (Segment s : segments.values()) {
+        s.delete();
+      }
+      segments.clear();
+      active = newSegment();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", dir);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Appends a record and points the index at it, or removes the key from the index for tombstones.
+   *
+   * <p>The stripe lock of the key is held while writing, so that records of the same key are
+   * appended in the same order in which they are published to the index.
+   *
+   * @return whether the record was written.
+   */
+  private boolean append(long hash, byte[] record, boolean tombstone) {
+    lock.readLock().lock();
+    Lock keyLock = index.lockFor(hash);
+    keyLock.lock();
+    try {
+      if (active == null) {
+        return false;
+      }
+      if (record.length > segmentSize - Segment.HEADER_SIZE) {
+        logger.atFine().log("Not storing %d byte entry in cache %s", record.length, dir);
+        return false;
+      }
+      Location loc = write(record);
+      if (tombstone) {
+        unlink(index.remove(hash));
+      } else {
+        loc.segment.addLive(record.length);
+        unlink(index.put(hash, loc.segment.id, loc.offset, record.length, now()));
+      }
+      return true;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot put into cache %s", dir);
+      return false;
+    } finally {
+      keyLock.unlock();
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Must be called while holding the read lock. */
+  private Location write(byte[] record) throws IOException {
+    while (true) {
+      Segment s = active;
+      s.beginWrite();
+      try {
+        int off = s.reserve(record.length);
+        if (off >= 0) {
+          s.write(off, record);
+          return new Location(s, off);
+        }
+      } finally {
+        s.endWrite();
+      }
+      roll(s);
+    }
+  }
+
+  private synchronized void roll(Segment full) throws IOException {
+    if (active == full) {
+      full.seal();
+      active = newSegment();
+    }
+  }
+
+  /** Accounts for a record that the index no longer points to. */
+  private void unlink(@Nullable Entry old) {
+    if (old != null) {
+      Segment s = segments.get(old.segment);
+      if (s != null) {
+        s.addLive(-old.length);
+      }
+    }
+  }
+
+  void compact(Cache<K, ?> mem) {
+    Segment current = active;
+    if (current == null) {
+      return;
+    }
+    if (sweepEnd < 0) {
+      // Segments created from now on, including the ones that receive carried over records, are
+      // left to the next sweep.
+      sweepEnd = current.id;
+      sweepNext = 0;
+      sweepStarted = now();
+    }
+
+    long used = space();
+    int rewrites = 0;
+    for (Segment s : new ArrayList<>(segments.subMap(sweepNext, sweepEnd).values())) {
+      if (rewrites == MAX_REWRITES_PER_COMPACTION) {
+        return;
+      }
+      sweepNext = s.id + 1;
+      if (!s.isStable()) {
+        continue;
+      }
+      boolean overLimit = used > maxSize;
+      long garbage = s.used() - Segment.HEADER_SIZE - s.liveBytes();
+      if (!overLimit && garbage <= (s.used() - Segment.HEADER_SIZE) * MAX_GARBAGE_RATIO) {
+        continue;
+      }
+      if (!rewrite(s, overLimit, mem)) {
+        sweepEnd = -1;
+        return;
+      }
+      rewrites++;
+      used = space();
+    }
+    lastCompaction = sweepStarted;
+    sweepEnd = -1;
+  }
+
+  /**
+   * Copies the live records of {@code s} to the active segment and deletes it.
+   *
+   * @return false if the store was closed or invalidated in the meantime.
+   */
+  private boolean rewrite(Segment s, boolean overLimit, Cache<K, ?> mem) {
+    boolean hasOlder = segments.firstKey() < s.id;
+    for (int off = s.first(); off >= 0; off = s.next(off)) {
+      if (s.version(off) != version) {
+        continue;
+      }
+      byte[] k = s.key(off);
+      long hash = hash(k);
+      int len = s.recordLength(off);
+      if (s.isTombstone(off)) {
+        // Tombstones are only needed while an older segment may still hold the key.
+        if (hasOlder && !carryOver(hash, null, s.readRecord(off, len))) {
+          return false;
+        }
+        continue;
+      }
+
+      Entry e = index.peek(hash);
+      if (e == null || !e.isAt(s.id, off)) {
+        continue;
+      }
+      if (expired(Instant.ofEpochMilli(s.created(off))) || (overLimit && !isHot(e, mem, k))) {
+        if (index.remove(hash, e)) {
+          s.addLive(-len);
+        }
+        continue;
+      }
+      if (!carryOver(hash, e, s.readRecord(off, len))) {
+        return false;
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (segments.remove(s.id, s)) {
+        s.delete();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    logger.atFine().log(
+        "Compacted segment %d of cache %s, reclaimed %d bytes", s.id, dir, s.used());
+    return true;
+  }
+
+  /**
+   * Copies a record to the active segment, if the index still points to it at {@code from}. A
+   * tombstone, passed with a null {@code from}, is copied if the key is still absent.
+   *
+   * @return false if the store was closed.
+   */
+  private boolean carryOver(long hash, @Nullable Entry from, byte[] record) {
+    lock.readLock().lock();
+    Lock keyLock = index.lockFor(hash);
+    keyLock.lock();
+    try {
+      if (active == null) {
+        return false;
+      }
+      Entry e = index.peek(hash);
+      if (from == null) {
+        if (e == null) {
+          write(record);
+        }
+      } else if (e != null && e.isAt(from.segment, from.offset)) {
+        Location loc = write(record);
+        index.move(hash, e, loc.segment.id, loc.offset);
+        loc.segment.addLive(record.length);
+      }
+      return true;
+    } catch (IOException ex) {
+      logger.atWarning().withCause(ex).log("Cannot compact cache %s", dir);
+      return false;
+    } finally {
+      keyLock.unlock();
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Whether an entry was used since the last compaction, or is still held in memory. */
+  private boolean isHot(Entry e, Cache<K, ?> mem, byte[] k) {
+    if (e.accessed > lastCompaction) {
+      return true;
+    }
+    try {
+      return mem.getIfPresent(keySerializer.deserialize(k)) != null;
+    } catch (RuntimeException ex) {
+      return false;
+    }
+  }
+
+  DiskStats diskStats() {
+    return new DiskStats(index.size(), space(), hitCount.get(), missCount.get());
+  }
+
+  private long space() {
+    long space = 0;
+    for (Map.Entry<Integer, Segment> e : segments.entrySet()) {
+      space += e.getValue().used();
+    }
+    return space;
+  }
+
+  @Override
+  public boolean needsRefresh(Instant created) {
+    if (refreshAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(refreshAfterWrite) > 0;
+  }
+
+  private boolean expired(Instant created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(expireAfterWrite) > 0;
+  }
+
+  private static int now() {
+    return accessTime(TimeUtil.nowMs());
+  }
+
+  private static long hash(byte[] key) {
+    long h = HASH.hashBytes(key).asLong();
+    return h != OffHeapIndex.EMPTY ? h : 1;
+  }
+
+  /** Returns seconds since {@link #ACCESS_EPOCH_MS}. */
+  private static int accessTime(long epochMs) {
+    return (int) Math.max(0, (epochMs - ACCESS_EPOCH_MS) / 1000);
+  }
+
+  private static class Location {
+    final Segment segment;
+    final int offset;
+
+    Location(Segment segment, int offset) {
+      this.segment = segment;
+      this.offset = offset;
+    }
+  }
+}
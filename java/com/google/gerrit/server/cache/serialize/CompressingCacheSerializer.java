@@ -0,0 +1,164 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.serialize;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Serializer that compresses the output of another serializer.
+ *
+ * <p>Serialized values that are smaller than a threshold, or that don't get smaller by compressing
+ * them, are stored as is. Every stored value starts with one byte telling whether it is compressed,
+ * so the threshold may change without invalidating stored values. Wrapping or unwrapping an
+ * existing serializer changes the stored format, though, and requires a new cache version.
+ *
+ * <p>Values are compressed with DEFLATE at its fastest level, which trades some of the ratio for
+ * speed.
+ */
+public class CompressingCacheSerializer<T> implements CacheSerializer<T> {
+  /** Receives the sizes and durations of compressions. */
+  public interface Listener {
+    /**
+     * Called after a value was compressed.
+     *
+     * @param size serialized size of the value.
+     * @param compressedSize size of the compressed value.
+     * @param nanos time spent compressing the value.
+     */
+    void onCompress(int size, int compressedSize, long nanos);
+
+    /**
+     * Called after a value was decompressed.
+     *
+     * @param nanos time spent decompressing the value.
+     */
+    void onDecompress(long nanos);
+  }
+
+  private static final byte RAW = 0;
+  private static final byte DEFLATE = 1;
+
+  /** Length of the header of a compressed value: the marker byte and the uncompressed size. */
+  private static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+  private final CacheSerializer<T> delegate;
+  private final int threshold;
+  private final Listener listener;
+
+  /**
+   * @param delegate serializer producing the uncompressed bytes.
+   * @param threshold minimum serialized size in bytes of values that are compressed.
+   * @param listener listener notified of compressions and decompressions.
+   */
+  public CompressingCacheSerializer(CacheSerializer<T> delegate, int threshold, Listener listener) {
+    checkArgument(threshold >= 0, "threshold must not be negative: %s", threshold);
+    this.delegate = requireNonNull(delegate);
+    this.threshold = threshold;
+    this.listener = requireNonNull(listener);
+  }
+
+  @Override
+  public byte[] serialize(T object) {
+    byte[] raw = delegate.serialize(object);
+    if (raw.length >= threshold) {
+      byte[] compressed = compress(raw);
+      if (compressed != null) {
+        return compressed;
+      }
+    }
+    byte[] out = new byte[raw.length + 1];
+    out[0] = RAW;
+    System.arraycopy(raw, 0, out, 1, raw.length);
+    return out;
+  }
+
+  @Override
+  public T deserialize(byte[] in) {
+    checkArgument(in.length > 0, "empty value");
+    switch (in[0]) {
+      case RAW:
+        return delegate.deserialize(Arrays.copyOfRange(in, 1, in.length));
+      case DEFLATE:
+        return delegate.deserialize(decompress(in));
+      default:
+        throw new IllegalArgumentException("unknown compression: " + in[0]);
+    }
+  }
+
+  /** Returns the compressed value with its header, or null if compressing doesn't save space. */
+  private byte[] compress(byte[] raw) {
+    long start = System.nanoTime();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + HEADER_SIZE);
+      out.write(DEFLATE);
+      out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(raw.length).array());
+      byte[] buf = new byte[Math.max(64, Math.min(raw.length, 8192))];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buf);
+        out.write(buf, 0, n);
+        if (out.size() >= raw.length) {
+          return null;
+        }
+      }
+      byte[] compressed = out.toByteArray();
+      listener.onCompress(raw.length, compressed.length, System.nanoTime() - start);
+      return compressed;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private byte[] decompress(byte[] in) {
+    checkArgument(in.length >= HEADER_SIZE, "truncated compressed value");
+    long start = System.nanoTime();
+    int size = ByteBuffer.wrap(in, 1, Integer.BYTES).getInt();
+    checkArgument(size >= 0, "invalid uncompressed size: %s", size);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(in, HEADER_SIZE, in.length - HEADER_SIZE);
+      byte[] raw = new byte[size];
+      int n = 0;
+      while (n < size) {
+        int r = inflater.inflate(raw, n, size - n);
+        if (r == 0
+            && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("truncated compressed value");
+        }
+        n += r;
+      }
+      // Consumes the checksum at the end of the stream, which verifies the value.
+      if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+        throw new IllegalArgumentException("corrupt compressed value");
+      }
+      listener.onDecompress(System.nanoTime() - start);
+      return raw;
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("invalid compressed value", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
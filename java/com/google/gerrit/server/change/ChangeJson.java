@@ -227,6 +227,7 @@ public class ChangeJson {
   private final Provider<ConsistencyChecker> checkerProvider;
   private final ActionJson actionJson;
   private final ChangeNotes.Factory notesFactory;
+  private final ChangeKindCache changeKindCache;
   private final LabelsJson labelsJson;
   private final RemoveReviewerControl removeReviewerControl;
   private final TrackingFooters trackingFooters;
@@ -249,6 +250,7 @@ public class ChangeJson {
       Provider<ConsistencyChecker> checkerProvider,
       ActionJson actionJson,
       ChangeNotes.Factory notesFactory,
+      ChangeKindCache changeKindCache,
       LabelsJson labelsJson,
       RemoveReviewerControl removeReviewerControl,
       TrackingFooters trackingFooters,
@@ -265,6 +267,7 @@ public class ChangeJson {
     this.checkerProvider = checkerProvider;
     this.actionJson = actionJson;
     this.notesFactory = notesFactory;
+    this.changeKindCache = changeKindCache;
     this.labelsJson = labelsJson;
     this.removeReviewerControl = removeReviewerControl;
     this.trackingFooters = trackingFooters;
@@ -471,6 +474,9 @@ public class ChangeJson {
         ChangeData.ensureReviewedByLoadedForOpenChanges(all);
       }
       ChangeData.ensureCurrentApprovalsLoaded(all);
+      if (has(ALL_REVISIONS) || has(CURRENT_REVISION)) {
+        changeKindCache.prefetch(all, has(ALL_REVISIONS));
+      }
     } else {
       for (ChangeData cd : all) {
         // Mark all ChangeDatas as coming from the index. Disallow using NoteDb
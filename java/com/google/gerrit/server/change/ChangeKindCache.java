@@ -42,4 +42,14 @@ public interface ChangeKindCache {
 
   ChangeKind getChangeKind(
       @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd, PatchSet patch);
+
+  /**
+   * Reads the kinds of patch sets of several changes from the persistent cache in one batch, so
+   * that later calls to {@code getChangeKind} for them are served from memory.
+   *
+   * @param changes changes whose patch sets have already been loaded.
+   * @param allPatchSets whether to prefetch the kinds of all patch sets, or only of the current
+   *     patch set of each change.
+   */
+  void prefetch(Iterable<ChangeData> changes, boolean allPatchSets);
 }
@@ -43,8 +43,10 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -121,6 +123,11 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
         @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd, PatchSet patch) {
       return getChangeKindInternal(this, rw, repoConfig, cd, patch);
     }
+
+    @Override
+    public void prefetch(Iterable<ChangeData> changes, boolean allPatchSets) {
+      // Nothing is cached, so there is nothing to prefetch.
+    }
   }
 
   @AutoValue
@@ -365,6 +372,33 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
     return getChangeKindInternal(this, rw, repoConfig, cd, patch);
   }
 
+  @Override
+  public void prefetch(Iterable<ChangeData> changes, boolean allPatchSets) {
+    List<Key> keys = new ArrayList<>();
+    for (ChangeData cd : changes) {
+      try {
+        Change change = cd.change();
+        if (change == null) {
+          continue;
+        }
+        // Patch sets are ordered by ID, so each one is preceded by the one it's compared with.
+        PatchSet prior = null;
+        for (PatchSet ps : cd.patchSets()) {
+          if (prior != null && (allPatchSets || ps.id().equals(change.currentPatchSetId()))) {
+            keys.add(Key.create(prior.commitId(), ps.commitId(), useRecursiveMerge));
+          }
+          prior = ps;
+        }
+      } catch (StorageException e) {
+        // Only an optimization; getChangeKind reports the error if the change is formatted.
+        logger.atFine().withCause(e).log("Cannot prefetch change kinds of %s", cd.getId());
+      }
+    }
+    if (!keys.isEmpty()) {
+      cache.getAllPresent(keys);
+    }
+  }
+
   private static ChangeKind getChangeKindInternal(
       ChangeKindCache cache,
       @Nullable RevWalk rw,
@@ -14,6 +14,7 @@
 package com.google.gerrit.server.change;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toMap;
 
@@ -21,6 +22,7 @@ import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -28,7 +30,6 @@ import com.google.common.collect.MultimapBuilder;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
-import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -112,9 +113,11 @@ public class RelatedChangesSorter {
       }
     }
 
-    Collection<PatchSetData> ancestors = walkAncestors(parents, start);
+    // Check all changes at once, so that the permissions of each branch are evaluated only once.
+    Set<Change.Id> visible = visibleChanges(in);
+    Collection<PatchSetData> ancestors = walkAncestors(visible, parents, start);
     List<PatchSetData> descendants =
-        walkDescendants(children, start, otherPatchSetsOfStart, ancestors);
+        walkDescendants(visible, children, start, otherPatchSetsOfStart, ancestors);
     List<PatchSetData> result = new ArrayList<>(ancestors.size() + descendants.size() - 1);
     result.addAll(Lists.reverse(descendants));
     result.addAll(ancestors);
@@ -145,14 +148,15 @@ public class RelatedChangesSorter {
   }
 
   private Collection<PatchSetData> walkAncestors(
-      ListMultimap<PatchSetData, PatchSetData> parents, PatchSetData start)
-      throws PermissionBackendException {
+      Set<Change.Id> visible,
+      ListMultimap<PatchSetData, PatchSetData> parents,
+      PatchSetData start) {
     LinkedHashSet<PatchSetData> result = new LinkedHashSet<>();
     Deque<PatchSetData> pending = new ArrayDeque<>();
     pending.add(start);
     while (!pending.isEmpty()) {
       PatchSetData psd = pending.remove();
-      if (result.contains(psd) || !isVisible(psd)) {
+      if (result.contains(psd) || !visible.contains(psd.id())) {
         continue;
       }
       result.add(psd);
@@ -162,23 +166,24 @@ public class RelatedChangesSorter {
   }
 
   private List<PatchSetData> walkDescendants(
+      Set<Change.Id> visible,
       ListMultimap<PatchSetData, PatchSetData> children,
       PatchSetData start,
       List<PatchSetData> otherPatchSetsOfStart,
-      Iterable<PatchSetData> ancestors)
-      throws PermissionBackendException {
+      Iterable<PatchSetData> ancestors) {
     Set<Change.Id> alreadyEmittedChanges = new HashSet<>();
     addAllChangeIds(alreadyEmittedChanges, ancestors);
 
     // Prefer descendants found by following the original patch set passed in.
     List<PatchSetData> result =
-        walkDescendentsImpl(alreadyEmittedChanges, children, ImmutableList.of(start));
+        walkDescendentsImpl(visible, alreadyEmittedChanges, children, ImmutableList.of(start));
     addAllChangeIds(alreadyEmittedChanges, result);
 
     // Then, go back and add new indirect descendants found by following any
     // other patch sets of start. These show up after all direct descendants,
     // because we wouldn't know where in the walk to insert them.
-    result.addAll(walkDescendentsImpl(alreadyEmittedChanges, children, otherPatchSetsOfStart));
+    result.addAll(
+        walkDescendentsImpl(visible, alreadyEmittedChanges, children, otherPatchSetsOfStart));
     return result;
   }
 
@@ -189,11 +194,11 @@ public class RelatedChangesSorter {
     }
   }
 
-  private List<PatchSetData> walkDescendentsImpl(
+  private static List<PatchSetData> walkDescendentsImpl(
+      Set<Change.Id> visible,
       Set<Change.Id> alreadyEmittedChanges,
       ListMultimap<PatchSetData, PatchSetData> children,
-      List<PatchSetData> start)
-      throws PermissionBackendException {
+      List<PatchSetData> start) {
     if (start.isEmpty()) {
       return new ArrayList<>();
     }
@@ -204,7 +209,7 @@ public class RelatedChangesSorter {
     pending.addAll(start);
     while (!pending.isEmpty()) {
       PatchSetData psd = pending.remove();
-      if (seen.contains(psd) || !isVisible(psd)) {
+      if (seen.contains(psd) || !visible.contains(psd.id())) {
         continue;
       }
       seen.add(psd);
@@ -235,14 +240,16 @@ public class RelatedChangesSorter {
     return result;
   }
 
-  private boolean isVisible(PatchSetData psd) throws PermissionBackendException {
-    PermissionBackend.WithUser perm = permissionBackend.currentUser();
-    try {
-      perm.change(psd.data()).check(ChangePermission.READ);
-    } catch (AuthException e) {
-      return false;
+  private Set<Change.Id> visibleChanges(List<ChangeData> in) throws PermissionBackendException {
+    if (!projectCache
+        .get(in.get(0).project())
+        .map(ProjectState::statePermitsRead)
+        .orElse(false)) {
+      return ImmutableSet.of();
     }
-    return projectCache.get(psd.data().project()).map(ProjectState::statePermitsRead).orElse(false);
+    return permissionBackend.currentUser().filterChanges(ChangePermission.READ, in).stream()
+        .map(ChangeData::getId)
+        .collect(toImmutableSet());
   }
 
   @AutoValue
@@ -15,6 +15,8 @@
 package com.google.gerrit.server.config;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo;
@@ -27,9 +29,13 @@ import org.eclipse.jgit.lib.Config;
 /**
  * Container class for preferences serialized as Git-style config files. Keeps the values as {@link
  * String}s as they are immutable and thread-safe.
+ *
+ * <p>Instances are interned, so that all accounts with the same preferences, in particular all
+ * accounts without preferences of their own, share a single instance.
  */
 @AutoValue
 public abstract class CachedPreferences {
+  private static final Interner<CachedPreferences> INTERNER = Interners.newWeakInterner();
 
   public static CachedPreferences EMPTY = fromString("");
 
@@ -37,7 +43,7 @@ public abstract class CachedPreferences {
 
   /** Returns a cache-able representation of the config. */
   public static CachedPreferences fromConfig(Config cfg) {
-    return new AutoValue_CachedPreferences(cfg.toText());
+    return fromString(cfg.toText());
   }
 
   /**
@@ -45,7 +51,7 @@ public abstract class CachedPreferences {
    * CachedPreferences} from a serialized, cached value.
    */
   public static CachedPreferences fromString(String cfg) {
-    return new AutoValue_CachedPreferences(cfg);
+    return INTERNER.intern(new AutoValue_CachedPreferences(cfg));
   }
 
   public static GeneralPreferencesInfo general(
@@ -180,6 +180,7 @@ import com.google.gerrit.server.patch.PatchScriptFactory;
 import com.google.gerrit.server.patch.PatchScriptFactoryForAutoFix;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.permissions.PermissionCollection;
+import com.google.gerrit.server.permissions.RefVisibilityCache;
 import com.google.gerrit.server.permissions.SectionSortCache;
 import com.google.gerrit.server.plugins.ReloadPluginListener;
 import com.google.gerrit.server.project.AccessControlModule;
@@ -264,6 +265,7 @@ public class GerritGlobalModule extends FactoryModule {
     install(ProjectCacheImpl.module());
     install(DiffOperationsImpl.module());
     install(SectionSortCache.module());
+    install(RefVisibilityCache.module());
     install(SubmitStrategy.module());
     install(TagCache.module());
     install(PureRevertCache.module());
@@ -24,6 +24,7 @@ import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,7 +34,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import org.eclipse.jgit.annotations.NonNull;
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.BatchRefUpdate;
@@ -128,37 +128,59 @@ public class PermissionAwareReadOnlyRefDatabase extends DelegateRefDatabase {
 
   @Override
   public List<Ref> getRefsByPrefix(String prefix) throws IOException {
-    List<Ref> refs = getDelegate().getRefDatabase().getRefsByPrefix(prefix);
-    if (refs.isEmpty()) {
-      return Collections.emptyList();
-    }
-
-    Collection<Ref> result;
-    try {
-      result = forProject.filter(refs, getDelegate(), RefFilterOptions.defaults());
-    } catch (PermissionBackendException e) {
-      throw new IOException("", e);
-    }
-    return result.stream().collect(Collectors.toList());
+    return filter(getDelegate().getRefDatabase().getRefsByPrefix(prefix));
   }
 
   @Override
   public List<Ref> getRefsByPrefixWithExclusions(String include, Set<String> excludes)
       throws IOException {
-    Stream<Ref> refs = getRefs(include).values().stream();
-    for (String exclude : excludes) {
-      refs = refs.filter(r -> !r.getName().startsWith(exclude));
-    }
-    return Collections.unmodifiableList(refs.collect(Collectors.toList()));
+    return filter(getDelegate().getRefDatabase().getRefsByPrefixWithExclusions(include, excludes));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only refs in the requested namespaces are read and filtered, in one filter operation, so
+   * that e.g. protocol v2 {@code ls-refs} for {@code refs/heads/} doesn't look at change refs.
+   */
   @Override
   public List<Ref> getRefsByPrefix(String... prefixes) throws IOException {
-    List<Ref> result = new ArrayList<>();
-    for (String prefix : prefixes) {
-      result.addAll(getRefsByPrefix(prefix));
+    String[] distinct = withoutNestedPrefixes(prefixes);
+    if (distinct.length == 0) {
+      return Collections.emptyList();
+    }
+    return filter(getDelegate().getRefDatabase().getRefsByPrefix(distinct));
+  }
+
+  /**
+   * Returns the prefixes that are not covered by another one of the prefixes, so that no ref is
+   * returned twice.
+   */
+  private static String[] withoutNestedPrefixes(String... prefixes) {
+    String[] sorted = prefixes.clone();
+    Arrays.sort(sorted);
+    List<String> result = new ArrayList<>(sorted.length);
+    for (String prefix : sorted) {
+      if (result.isEmpty() || !prefix.startsWith(result.get(result.size() - 1))) {
+        result.add(prefix);
+      }
+    }
+    return result.toArray(new String[0]);
+  }
+
+  /** Filters refs read from the delegate by visibility, without copying the result. */
+  private List<Ref> filter(List<Ref> refs) throws IOException {
+    if (refs.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Collection<Ref> result;
+    try {
+      result = forProject.filter(refs, getDelegate(), RefFilterOptions.defaults());
+    } catch (PermissionBackendException e) {
+      throw new IOException("", e);
     }
-    return Collections.unmodifiableList(result);
+    return result instanceof List ? (List<Ref>) result : new ArrayList<>(result);
   }
 
   @Override
@@ -16,9 +16,11 @@ package com.google.gerrit.server.git;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.cache.proto.Cache.TagSetHolderProto.TagSetProto;
@@ -27,18 +29,26 @@ import com.google.gerrit.server.cache.proto.Cache.TagSetHolderProto.TagSetProto.
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.BitmapWalker;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -63,6 +73,16 @@ class TagSet {
           RefNames.REFS_DRAFT_COMMENTS,
           RefNames.REFS_STARRED_CHANGES);
 
+  /**
+   * Maximum number of new refs not pointing to the tip of a known ref whose reachable tags are
+   * computed one by one, rather than rebuilding the whole set.
+   *
+   * <p>Only applies to repositories with pack bitmaps. Without them each of these computations
+   * walks the complete history, so only a single new ref is handled this way, as a rebuild walks
+   * the history just once for all refs.
+   */
+  @VisibleForTesting static final int MAX_INCREMENTAL_REFS = 16;
+
   private final Project.NameKey projectName;
 
   /**
@@ -201,7 +221,7 @@ class TagSet {
   }
 
   void build(Repository git, TagSet old, TagMatcher m) {
-    if (old != null && m != null && refresh(old, m)) {
+    if (old != null && m != null && refresh(git, old, m)) {
       return;
     }
 
@@ -253,6 +273,10 @@ class TagSet {
         .forEach(
             (n, cr) ->
                 refs.put(n, new CachedRef(cr.getFlag(), idConverter.fromByteString(cr.getId()))));
+    // Tags with the same flags share one BitSet. This is safe since the flags of a TagSet are only
+    // modified while it is built, and refresh() copies them from the old set.
+    List<BitSet> flagSets = new ArrayList<>(proto.getFlagSetCount());
+    proto.getFlagSetList().forEach(f -> flagSets.add(BitSet.valueOf(f.asReadOnlyByteBuffer())));
     ObjectIdOwnerMap<Tag> tags = new ObjectIdOwnerMap<>();
     proto
         .getTagList()
@@ -261,7 +285,7 @@ class TagSet {
                 tags.add(
                     new Tag(
                         idConverter.fromByteString(t.getId()),
-                        BitSet.valueOf(t.getFlags().asReadOnlyByteBuffer()))));
+                        flagSets.get(t.getFlagSetIndex()))));
     return new TagSet(Project.nameKey(proto.getProjectName()), refs, tags);
   }
 
@@ -276,17 +300,26 @@ class TagSet {
                     .setId(idConverter.toByteString(cr.get()))
                     .setFlag(cr.flag)
                     .build()));
+    // Many tags are reachable from the same refs, so every distinct set of flags is stored once.
+    Map<BitSet, Integer> flagSetIndexes = new HashMap<>();
     tags.forEach(
-        t ->
-            b.addTag(
-                TagProto.newBuilder()
-                    .setId(idConverter.toByteString(t))
-                    .setFlags(ByteString.copyFrom(t.refFlags.toByteArray()))
-                    .build()));
+        t -> {
+          Integer index = flagSetIndexes.get(t.refFlags);
+          if (index == null) {
+            index = flagSetIndexes.size();
+            flagSetIndexes.put(t.refFlags, index);
+            b.addFlagSet(ByteString.copyFrom(t.refFlags.toByteArray()));
+          }
+          b.addTag(
+              TagProto.newBuilder()
+                  .setId(idConverter.toByteString(t))
+                  .setFlagSetIndex(index)
+                  .build());
+        });
     return b.build();
   }
 
-  private boolean refresh(TagSet old, TagMatcher m) {
+  private boolean refresh(Repository git, TagSet old, TagMatcher m) {
     if (m.newRefs.isEmpty()) {
       // No new references is a simple update. Copy from the old set.
       copy(old, m);
@@ -297,6 +330,8 @@ class TagSet {
     // an existing references. This happens some of the time within a
     // Gerrit Code Review server, perhaps about 50% of new references.
     // Since a complete rebuild is so costly, try this approach first.
+    // The tags reachable from a few other new references are computed
+    // individually, which is still much cheaper than a rebuild.
 
     Map<ObjectId, Integer> byObj = new HashMap<>();
     for (CachedRef r : old.refs.values()) {
@@ -306,13 +341,30 @@ class TagSet {
       }
     }
 
-    for (Ref newRef : m.newRefs) {
-      ObjectId id = newRef.getObjectId();
-      if (id == null || refs.containsKey(newRef.getName())) {
-        continue;
-      } else if (!byObj.containsKey(id)) {
-        return false;
+    Map<Ref, List<Tag>> reachableFromNewTips = new HashMap<>();
+    try (ObjectReader reader = git.newObjectReader()) {
+      int maxIncrementalRefs = reader.getBitmapIndex() != null ? MAX_INCREMENTAL_REFS : 1;
+      for (Ref newRef : m.newRefs) {
+        ObjectId id = newRef.getObjectId();
+        if (id == null || refs.containsKey(newRef.getName()) || byObj.containsKey(id)) {
+          continue;
+        } else if (reachableFromNewTips.size() == maxIncrementalRefs) {
+          return false;
+        }
+        try {
+          List<Tag> reachable = reachableTags(reader, old.tags, id);
+          if (reachable != null) {
+            reachableFromNewTips.put(newRef, reachable);
+          }
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log(
+              "Error on %s of %s, rebuilding tags", newRef.getName(), projectName);
+          return false;
+        }
       }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Error on %s, rebuilding tags", projectName);
+      return false;
     }
 
     copy(old, m);
@@ -323,13 +375,22 @@ class TagSet {
         continue;
       }
 
-      int srcFlag = byObj.get(id);
-      int newFlag = refs.size();
-      refs.put(newRef.getName(), new CachedRef(newRef, newFlag));
+      if (byObj.containsKey(id)) {
+        int srcFlag = byObj.get(id);
+        int newFlag = refs.size();
+        refs.put(newRef.getName(), new CachedRef(newRef, newFlag));
 
-      for (Tag tag : tags) {
-        if (tag.refFlags.get(srcFlag)) {
-          tag.refFlags.set(newFlag);
+        for (Tag tag : tags) {
+          if (tag.refFlags.get(srcFlag)) {
+            tag.refFlags.set(newFlag);
+          }
+        }
+      } else if (reachableFromNewTips.containsKey(newRef)) {
+        int newFlag = refs.size();
+        refs.put(newRef.getName(), new CachedRef(newRef, newFlag));
+
+        for (Tag oldTag : reachableFromNewTips.get(newRef)) {
+          tags.get(oldTag).refFlags.set(newFlag);
         }
       }
     }
@@ -337,6 +398,52 @@ class TagSet {
     return true;
   }
 
+  /**
+   * Returns the tags of {@code candidates} that are reachable from {@code tip}, or null if {@code
+   * tip} is not a commit.
+   *
+   * <p>If the repository has pack bitmaps, the reachable objects are computed from the bitmap of
+   * the closest bitmapped commits, so only the commits added since the last repack are walked.
+   * Otherwise the complete history of {@code tip} is walked.
+   */
+  @Nullable
+  private static List<Tag> reachableTags(
+      ObjectReader reader, ObjectIdOwnerMap<Tag> candidates, ObjectId tip) throws IOException {
+    List<Tag> result = new ArrayList<>();
+    try (ObjectWalk walk = new ObjectWalk(reader)) {
+      RevCommit commit;
+      try {
+        commit = walk.parseCommit(tip);
+      } catch (IncorrectObjectTypeException notCommit) {
+        return null;
+      }
+
+      BitmapIndex bitmapIndex = reader.getBitmapIndex();
+      if (bitmapIndex != null) {
+        BitmapBuilder reachable =
+            new BitmapWalker(walk, bitmapIndex, NullProgressMonitor.INSTANCE)
+                .findObjects(ImmutableList.of(commit), null, true);
+        for (Tag tag : candidates) {
+          if (reachable.contains(tag)) {
+            result.add(tag);
+          }
+        }
+        return result;
+      }
+
+      walk.setRetainBody(false);
+      walk.markStart(commit);
+      RevCommit c;
+      while ((c = walk.next()) != null) {
+        Tag tag = candidates.get(c);
+        if (tag != null) {
+          result.add(tag);
+        }
+      }
+    }
+    return result;
+  }
+
   private void copy(TagSet old, TagMatcher m) {
     refs.putAll(old.refs);
 
@@ -414,7 +521,8 @@ class TagSet {
   static final class Tag extends ObjectIdOwnerMap.Entry {
 
     // a RefCache.flag => isVisible map. This reference is aliased to the
-    // bitset in TagCommit.refFlags.
+    // bitset in TagCommit.refFlags, or to other tags with the same flags
+    // in a deserialized TagSet.
     @VisibleForTesting final BitSet refFlags;
 
     Tag(AnyObjectId id, BitSet flags) {
@@ -92,6 +92,10 @@ public abstract class AbstractChangeNotes<T> {
       this.id = id;
     }
 
+    public Repository repo() {
+      return repo;
+    }
+
     public ChangeNotesRevWalk walk() {
       if (rw == null) {
         rw = ChangeNotesCommit.newRevWalk(repo);
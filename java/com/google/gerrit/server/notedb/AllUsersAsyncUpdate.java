@@ -24,6 +24,7 @@ import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.git.RefUpdateUtil;
 import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
 import java.io.IOException;
@@ -31,6 +32,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.transport.PushCertificate;
 
@@ -44,18 +46,21 @@ public class AllUsersAsyncUpdate {
   private final ExecutorService executor;
   private final AllUsersName allUsersName;
   private final GitRepositoryManager repoManager;
+  private final boolean insertPacks;
   private final ListMultimap<String, ChangeDraftUpdate> draftUpdates;
 
   private PersonIdent serverIdent;
 
   @Inject
   AllUsersAsyncUpdate(
+      @GerritServerConfig Config cfg,
       @FanOutExecutor ExecutorService executor,
       AllUsersName allUsersName,
       GitRepositoryManager repoManager) {
     this.executor = executor;
     this.allUsersName = allUsersName;
     this.repoManager = repoManager;
+    this.insertPacks = cfg.getBoolean("noteDb", null, "insertPacks", false);
     this.draftUpdates = MultimapBuilder.hashKeys().arrayListValues().build();
   }
 
@@ -90,7 +95,7 @@ public class AllUsersAsyncUpdate {
     Future<?> possiblyIgnoredError =
         executor.submit(
             () -> {
-              try (OpenRepo allUsersRepo = OpenRepo.open(repoManager, allUsersName)) {
+              try (OpenRepo allUsersRepo = OpenRepo.open(repoManager, allUsersName, insertPacks)) {
                 allUsersRepo.addUpdatesNoLimits(draftUpdates);
                 allUsersRepo.flush();
                 BatchRefUpdate bru = allUsersRepo.repo.getRefDatabase().newBatchUpdate();
@@ -52,6 +52,7 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.entities.RobotComment;
 import com.google.gerrit.entities.SubmitRecord;
 import com.google.gerrit.entities.SubmitRequirementResult;
+import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.server.AssigneeStatusUpdate;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
@@ -70,6 +71,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -235,6 +237,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
         Collection<Change.Id> changeIds,
         Predicate<ChangeNotes> predicate) {
       List<ChangeNotes> notes = new ArrayList<>();
+      prefetch(repo, project, changeIds);
       for (Change.Id cid : changeIds) {
         try {
           ChangeNotes cn = create(repo, project, cid);
@@ -272,6 +275,43 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return Collections.emptyList();
     }
 
+    /**
+     * Reads the cached state of several changes of a project in one batch, so that subsequently
+     * loading their notes doesn't need one persistent cache lookup per change.
+     *
+     * <p>This is only an optimization; errors are logged and otherwise ignored.
+     */
+    public void prefetch(Project.NameKey project, Collection<Change.Id> changeIds) {
+      try (Repository repo = args.repoManager.openRepository(project)) {
+        prefetch(repo, project, changeIds);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Unable to open project=%s to prefetch changes from NoteDb", project);
+      }
+    }
+
+    private void prefetch(Repository repo, Project.NameKey project, Collection<Change.Id> ids) {
+      if (ids.size() < 2) {
+        return;
+      }
+      try {
+        Map<String, Ref> refs =
+            repo.getRefDatabase()
+                .exactRef(ids.stream().map(RefNames::changeMetaRef).toArray(String[]::new));
+        List<ChangeNotesCache.Key> keys = new ArrayList<>(refs.size());
+        for (Change.Id id : ids) {
+          Ref ref = refs.get(changeMetaRef(id));
+          if (ref != null && ref.getObjectId() != null) {
+            keys.add(ChangeNotesCache.Key.create(project, id, ref.getObjectId()));
+          }
+        }
+        args.cache.get().prefetch(keys);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Unable to read meta refs of project=%s to prefetch changes from NoteDb", project);
+      }
+    }
+
     public ListMultimap<Project.NameKey, ChangeNotes> create(Predicate<ChangeNotes> predicate)
         throws IOException {
       ImmutableListMultimap.Builder<Project.NameKey, ChangeNotes> m =
@@ -393,6 +433,11 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
   private PatchSetApprovals approvals;
   private ImmutableSet<Comment.Key> commentKeys;
 
+  // Published comments are not part of the state and are only loaded on demand, from the
+  // repository that the notes were loaded from.
+  private ImmutableListMultimap<ObjectId, HumanComment> humanComments;
+  private Repository repo;
+
   public ChangeNotes(
       Args args,
       Change change,
@@ -532,7 +577,27 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
   /** Returns inline comments on each revision. */
   public ImmutableListMultimap<ObjectId, HumanComment> getHumanComments() {
-    return state.publishedComments();
+    if (humanComments == null) {
+      humanComments = loadHumanComments();
+    }
+    return humanComments;
+  }
+
+  private ImmutableListMultimap<ObjectId, HumanComment> loadHumanComments() {
+    ObjectId metaId = getRevision();
+    if (metaId == null) {
+      return ImmutableListMultimap.of();
+    }
+    try {
+      ChangeNotesCache.CommentsValue v =
+          args.cache.get().getComments(getProjectName(), getChangeId(), metaId, repo);
+      if (revisionNoteMap == null) {
+        revisionNoteMap = v.revisionNoteMap();
+      }
+      return v.comments();
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
   }
 
   public ImmutableSet<Comment.Key> getCommentKeys() {
@@ -655,9 +720,11 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return;
     }
 
-    ChangeNotesCache.Value v =
-        args.cache.get().get(getProjectName(), getChangeId(), rev, handle::walk);
-    state = v.state();
+    state = args.cache.get().get(getProjectName(), getChangeId(), rev, handle::walk);
+    repo = handle.repo();
+    humanComments = null;
+    commentKeys = null;
+    revisionNoteMap = null;
 
     String stateServerId = state.serverId();
     /**
@@ -672,12 +739,12 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     }
 
     state.copyColumnsTo(change);
-    revisionNoteMap = v.revisionNoteMap();
   }
 
   @Override
   protected void loadDefaults() {
     state = ChangeNotesState.empty(change);
+    humanComments = ImmutableListMultimap.of();
   }
 
   @Override
@@ -14,27 +14,35 @@
 
 package com.google.gerrit.server.notedb;
 
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.json.OutputFormat;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.ChangeNotesCommentsProto;
 import com.google.gerrit.server.cache.proto.Cache.ChangeNotesKeyProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import com.google.gerrit.server.notedb.AbstractChangeNotes.Args;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.List;
@@ -45,12 +53,17 @@ import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
 
 @Singleton
 public class ChangeNotesCache {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
+  @VisibleForTesting static final String COMMENTS_CACHE_NAME = "change_notes_comments";
 
   public static Module module() {
     return new CacheModule() {
@@ -61,9 +74,21 @@ public class ChangeNotesCache {
             .weigher(Weigher.class)
             .maximumWeight(10 << 20)
             .diskLimit(-1)
-            .version(4)
+            .version(5)
+            .compressionThreshold(1024)
             .keySerializer(Key.Serializer.INSTANCE)
             .valueSerializer(ChangeNotesState.Serializer.INSTANCE);
+        persist(
+                COMMENTS_CACHE_NAME,
+                Key.class,
+                new TypeLiteral<ImmutableListMultimap<ObjectId, HumanComment>>() {})
+            .weigher(CommentsWeigher.class)
+            .maximumWeight(10 << 20)
+            .diskLimit(-1)
+            .version(1)
+            .compressionThreshold(1024)
+            .keySerializer(Key.Serializer.INSTANCE)
+            .valueSerializer(CommentsSerializer.INSTANCE);
       }
     };
   }
@@ -189,8 +214,6 @@ public class ChangeNotesCache {
           + list(state.submitRecords(), P + list(2, str(4) + P + K) + P)
           + P
           + list(state.changeMessages(), changeMessage())
-          + P
-          + map(state.publishedComments().asMap(), comment())
           + I // updateCount
           + T; // mergedOn
     }
@@ -334,12 +357,51 @@ public class ChangeNotesCache {
     }
   }
 
+  public static class CommentsWeigher
+      implements com.google.common.cache.Weigher<
+          Key, ImmutableListMultimap<ObjectId, HumanComment>> {
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Uses the same estimates as {@link Weigher}.
+     */
+    @Override
+    public int weigh(Key key, ImmutableListMultimap<ObjectId, HumanComment> comments) {
+      return Weigher.P
+          + Weigher.O
+          + Weigher.map(comments.asMap(), 20) // commit IDs
+          + Weigher.list(comments.size(), Weigher.comment());
+    }
+  }
+
+  enum CommentsSerializer
+      implements CacheSerializer<ImmutableListMultimap<ObjectId, HumanComment>> {
+    INSTANCE;
+
+    @VisibleForTesting static final Gson GSON = OutputFormat.JSON_COMPACT.newGson();
+
+    @Override
+    public byte[] serialize(ImmutableListMultimap<ObjectId, HumanComment> object) {
+      ChangeNotesCommentsProto.Builder b = ChangeNotesCommentsProto.newBuilder();
+      object.values().forEach(c -> b.addPublishedComment(GSON.toJson(c)));
+      return Protos.toByteArray(b.build());
+    }
+
+    @Override
+    public ImmutableListMultimap<ObjectId, HumanComment> deserialize(byte[] in) {
+      ChangeNotesCommentsProto proto = Protos.parseUnchecked(ChangeNotesCommentsProto.parser(), in);
+      return proto.getPublishedCommentList().stream()
+          .map(r -> GSON.fromJson(r, HumanComment.class))
+          .collect(toImmutableListMultimap(HumanComment::getCommitId, c -> c));
+    }
+  }
+
   @AutoValue
-  abstract static class Value {
-    abstract ChangeNotesState state();
+  abstract static class CommentsValue {
+    abstract ImmutableListMultimap<ObjectId, HumanComment> comments();
 
     /**
-     * The {@link RevisionNoteMap} produced while parsing this change.
+     * The {@link RevisionNoteMap} produced while parsing the comments of this change.
      *
      * <p>These instances are mutable and non-threadsafe, so it is only safe to return it to the
      * caller that actually incurred the cache miss. It is only used as an optimization; {@link
@@ -353,8 +415,6 @@ public class ChangeNotesCache {
     private final Key key;
     private final Supplier<ChangeNotesRevWalk> walkSupplier;
 
-    private RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
-
     private Loader(Key key, Supplier<ChangeNotesRevWalk> walkSupplier) {
       this.key = key;
       this.walkSupplier = walkSupplier;
@@ -364,27 +424,80 @@ public class ChangeNotesCache {
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
       logger.atFine().log(
           "Load change notes for change %s of project %s", key.changeId(), key.project());
-      ChangeNotesParser parser =
-          new ChangeNotesParser(
-              key.changeId(), key.id(), walkSupplier.get(), args.changeNoteJson, args.metrics);
-      ChangeNotesState result = parser.parseAll();
-      // This assignment only happens if call() was actually called, which only
-      // happens when Cache#get(K, Callable<V>) incurs a cache miss.
-      revisionNoteMap = parser.getRevisionNoteMap();
+      ChangeNotesRevWalk walk = walkSupplier.get();
+      ChangeNotesState result =
+          new ChangeNotesParser(key.changeId(), key.id(), walk, args.changeNoteJson, args.metrics)
+              .parseIncrementally(
+                  id -> cache.getIfPresent(Key.create(key.project(), key.changeId(), id)));
+      if (result != null) {
+        args.metrics.parseCount.increment(true);
+        return result;
+      }
+
+      result =
+          new ChangeNotesParser(key.changeId(), key.id(), walk, args.changeNoteJson, args.metrics)
+              .parseAll();
+      args.metrics.parseCount.increment(false);
       return result;
     }
   }
 
+  private class CommentsLoader implements Callable<ImmutableListMultimap<ObjectId, HumanComment>> {
+    private final Key key;
+    private final Repository repo;
+
+    private RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
+
+    private CommentsLoader(Key key, Repository repo) {
+      this.key = key;
+      this.repo = repo;
+    }
+
+    @Override
+    public ImmutableListMultimap<ObjectId, HumanComment> call()
+        throws ConfigInvalidException, IOException {
+      logger.atFine().log(
+          "Load published comments for change %s of project %s", key.changeId(), key.project());
+      try (RevWalk rw = new RevWalk(repo)) {
+        ObjectReader reader = rw.getObjectReader();
+        // This assignment only happens if call() was actually called, which only
+        // happens when Cache#get(K, Callable<V>) incurs a cache miss.
+        revisionNoteMap =
+            RevisionNoteMap.parse(
+                args.changeNoteJson,
+                reader,
+                NoteMap.read(reader, rw.parseCommit(key.id())),
+                HumanComment.Status.PUBLISHED);
+      }
+      ImmutableListMultimap.Builder<ObjectId, HumanComment> comments =
+          ImmutableListMultimap.builder();
+      revisionNoteMap.revisionNotes.forEach((id, rn) -> comments.putAll(id, rn.getEntities()));
+      return comments.build();
+    }
+  }
+
   private final Cache<Key, ChangeNotesState> cache;
+  private final Cache<Key, ImmutableListMultimap<ObjectId, HumanComment>> commentsCache;
   private final Args args;
 
   @Inject
-  ChangeNotesCache(@Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache, Args args) {
+  ChangeNotesCache(
+      @Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache,
+      @Named(COMMENTS_CACHE_NAME)
+          Cache<Key, ImmutableListMultimap<ObjectId, HumanComment>> commentsCache,
+      Args args) {
     this.cache = cache;
+    this.commentsCache = commentsCache;
     this.args = args;
   }
 
-  Value get(
+  /**
+   * Returns the state of a change at a meta commit.
+   *
+   * <p>The state doesn't contain the published comments, which are only read by {@link
+   * #getComments}.
+   */
+  ChangeNotesState get(
       Project.NameKey project,
       Change.Id changeId,
       ObjectId metaId,
@@ -392,9 +505,7 @@ public class ChangeNotesCache {
       throws IOException {
     try {
       Key key = Key.create(project, changeId, metaId);
-      Loader loader = new Loader(key, walkSupplier);
-      ChangeNotesState s = cache.get(key, loader);
-      return new AutoValue_ChangeNotesCache_Value(s, loader.revisionNoteMap);
+      return cache.get(key, new Loader(key, walkSupplier));
     } catch (ExecutionException e) {
       throw new IOException(
           String.format(
@@ -403,4 +514,35 @@ public class ChangeNotesCache {
           e);
     }
   }
+
+  /**
+   * Returns the published comments of a change at a meta commit.
+   *
+   * @param repo repository that the change notes were loaded from, which the comments are read
+   *     from on a cache miss.
+   */
+  CommentsValue getComments(
+      Project.NameKey project, Change.Id changeId, ObjectId metaId, Repository repo)
+      throws IOException {
+    try {
+      Key key = Key.create(project, changeId, metaId);
+      CommentsLoader loader = new CommentsLoader(key, repo);
+      ImmutableListMultimap<ObjectId, HumanComment> comments = commentsCache.get(key, loader);
+      return new AutoValue_ChangeNotesCache_CommentsValue(comments, loader.revisionNoteMap);
+    } catch (ExecutionException e) {
+      throw new IOException(
+          String.format(
+              "Error loading comments of %s in %s at %s",
+              RefNames.changeMetaRef(changeId), project, metaId.name()),
+          e);
+    }
+  }
+
+  /**
+   * Reads the states of several changes from the persistent cache in one batch, so that later
+   * calls to {@link #get} for these changes are served from memory.
+   */
+  void prefetch(Iterable<Key> keys) {
+    cache.getAllPresent(keys);
+  }
 }
@@ -17,13 +17,18 @@ package com.google.gerrit.server.notedb;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.gerrit.server.notedb.ChangeNoteUtil.FOOTER_ATTENTION;
 import static com.google.gerrit.server.notedb.ChangeNoteUtil.FOOTER_PATCH_SET;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
-import com.google.common.collect.Sets;
+import com.google.common.base.Ascii;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.InsertedObject;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
 import java.util.List;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -31,9 +36,9 @@ import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.FooterKey;
-import org.eclipse.jgit.revwalk.FooterLine;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /**
  * Commit implementation with some optimizations for change notes parsing.
@@ -41,8 +46,9 @@ import org.eclipse.jgit.revwalk.RevWalk;
  * <p>
  *
  * <ul>
- *   <li>Caches the result of {@link #getFooterLines()}, which is otherwise very wasteful with
- *       allocations.
+ *   <li>Indexes the footer lines in a single pass over the raw buffer instead of using {@link
+ *       #getFooterLines()}, which is otherwise very wasteful with allocations: only the offsets of
+ *       the lines are stored, and values are decoded only when a footer is looked up.
  * </ul>
  */
 public class ChangeNotesCommit extends RevCommit {
@@ -114,30 +120,201 @@ public class ChangeNotesCommit extends RevCommit {
     }
   }
 
-  private ListMultimap<String, String> footerLines;
+  /** Footers of an attention set only commit, see {@link #isAttentionSetCommitOnly(boolean)}. */
+  private static final ImmutableList<FooterKey> ATTENTION_SET_FOOTERS =
+      ImmutableList.of(FOOTER_PATCH_SET, FOOTER_ATTENTION);
+
+  /** Number of entries per footer line in {@link #footers}. */
+  private static final int FOOTER_FIELDS = 4;
+
+  /**
+   * Offsets of the footer lines in the raw buffer, in the order of the lines in the commit message.
+   * Each line takes {@link #FOOTER_FIELDS} entries: start and end of the key, start and end of the
+   * value. {@code null} until the footers are indexed.
+   */
+  private int[] footers;
+
+  private int footerCount;
+
+  /** Charset of the footer values, parsed together with the footers. */
+  private Charset encoding;
 
   public ChangeNotesCommit(AnyObjectId id) {
     super(id);
   }
 
+  /**
+   * Returns the values of all footer lines with the key, in the order of the lines.
+   *
+   * <p>Same as the values of the lines returned by {@link #getFooterLines(FooterKey)}, but the
+   * values are decoded from the raw buffer only for the requested key, and no objects are allocated
+   * if the commit has no such footer.
+   */
   public List<String> getFooterLineValues(FooterKey key) {
-    if (footerLines == null) {
-      List<FooterLine> src = getFooterLines();
-      footerLines = MultimapBuilder.hashKeys(src.size()).arrayListValues(1).build();
-      for (FooterLine fl : src) {
-        footerLines.put(fl.getKey().toLowerCase(), fl.getValue());
+    int first = nextFooter(key, 0);
+    if (first < 0) {
+      return ImmutableList.of();
+    }
+    int next = nextFooter(key, first + 1);
+    if (next < 0) {
+      return ImmutableList.of(footerValue(first));
+    }
+    ImmutableList.Builder<String> values = ImmutableList.builder();
+    values.add(footerValue(first));
+    for (; next >= 0; next = nextFooter(key, next + 1)) {
+      values.add(footerValue(next));
+    }
+    return values.build();
+  }
+
+  /** Returns the number of footer lines with the key. */
+  int getFooterLineCount(FooterKey key) {
+    int count = 0;
+    for (int i = nextFooter(key, 0); i >= 0; i = nextFooter(key, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
+  /** Returns the value of the first footer line with the key, or {@code null} if there is none. */
+  @Nullable
+  String getFirstFooterLineValue(FooterKey key) {
+    int i = nextFooter(key, 0);
+    return i >= 0 ? footerValue(i) : null;
+  }
+
+  /** Returns {@code true} if the key of every footer line of this commit is one of the keys. */
+  boolean hasOnlyFooters(List<FooterKey> keys) {
+    indexFooters();
+    for (int i = 0; i < footerCount; i++) {
+      if (!hasAnyKey(i, keys)) {
+        return false;
       }
     }
-    return footerLines.get(key.getName().toLowerCase());
+    return true;
   }
 
   public boolean isAttentionSetCommitOnly(boolean hasChangeMessage) {
     return !hasChangeMessage
-        && footerLines
-            .keySet()
-            .equals(
-                Sets.newHashSet(
-                    FOOTER_PATCH_SET.getName().toLowerCase(),
-                    FOOTER_ATTENTION.getName().toLowerCase()));
+        && nextFooter(FOOTER_PATCH_SET, 0) >= 0
+        && nextFooter(FOOTER_ATTENTION, 0) >= 0
+        && hasOnlyFooters(ATTENTION_SET_FOOTERS);
+  }
+
+  /** Returns the index of the first footer line with the key at or after {@code from}, or -1. */
+  private int nextFooter(FooterKey key, int from) {
+    indexFooters();
+    for (int i = from; i < footerCount; i++) {
+      if (hasKey(i, key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean hasAnyKey(int footer, List<FooterKey> keys) {
+    for (int k = 0; k < keys.size(); k++) {
+      if (hasKey(footer, keys.get(k))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Compares the key of the footer line with the key, ignoring case like {@link FooterKey}. */
+  private boolean hasKey(int footer, FooterKey key) {
+    String name = key.getName();
+    int start = footers[footer * FOOTER_FIELDS];
+    int end = footers[footer * FOOTER_FIELDS + 1];
+    if (end - start != name.length()) {
+      return false;
+    }
+    byte[] raw = getRawBuffer();
+    for (int i = 0; i < name.length(); i++) {
+      // Footer keys only consist of ASCII letters, digits and dashes.
+      if (Ascii.toLowerCase((char) raw[start + i]) != Ascii.toLowerCase(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String footerValue(int footer) {
+    return RawParseUtils.decode(
+        encoding,
+        getRawBuffer(),
+        footers[footer * FOOTER_FIELDS + 2],
+        footers[footer * FOOTER_FIELDS + 3]);
+  }
+
+  private static Charset parseEncoding(byte[] raw) {
+    try {
+      return RawParseUtils.parseEncoding(raw);
+    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+      return UTF_8;
+    }
+  }
+
+  /**
+   * Finds the footer lines in the raw buffer in a single pass, recording only their offsets.
+   *
+   * <p>Footer lines are detected exactly like in {@link #getFooterLines()}: the lines of the last
+   * paragraph of the message, from the bottom up, that start with a key followed by a colon.
+   */
+  private void indexFooters() {
+    if (footers != null) {
+      return;
+    }
+    byte[] raw = getRawBuffer();
+    int[] offsets = new int[4 * FOOTER_FIELDS];
+    int count = 0;
+    int ptr = raw.length - 1;
+    while (ptr >= 0 && raw[ptr] == '\n') {
+      ptr--;
+    }
+    int msgB = RawParseUtils.commitMessage(raw, 0);
+    while (ptr >= 0) {
+      ptr = RawParseUtils.prevLF(raw, ptr);
+      if (ptr <= msgB) {
+        break; // Don't parse commit headers as footer lines.
+      }
+      int keyStart = ptr + 2;
+      if (raw[keyStart] == '\n') {
+        break; // Stop at first paragraph break, no footers above it.
+      }
+      int keyEnd = RawParseUtils.endOfFooterLineKey(raw, keyStart);
+      if (keyEnd < 0) {
+        continue; // Not a well formed footer line, skip it.
+      }
+      int valStart = keyEnd + 1;
+      while (valStart < raw.length && raw[valStart] == ' ') {
+        valStart++;
+      }
+      int valEnd = RawParseUtils.nextLF(raw, valStart);
+      if (raw[valEnd - 1] == '\n') {
+        valEnd--;
+      }
+      if ((count + 1) * FOOTER_FIELDS > offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      int o = count * FOOTER_FIELDS;
+      offsets[o] = keyStart;
+      offsets[o + 1] = keyEnd;
+      offsets[o + 2] = valStart;
+      offsets[o + 3] = valEnd;
+      count++;
+    }
+
+    // Lines were found from the bottom up.
+    for (int i = 0, j = count - 1; i < j; i++, j--) {
+      for (int f = 0; f < FOOTER_FIELDS; f++) {
+        int tmp = offsets[i * FOOTER_FIELDS + f];
+        offsets[i * FOOTER_FIELDS + f] = offsets[j * FOOTER_FIELDS + f];
+        offsets[j * FOOTER_FIELDS + f] = tmp;
+      }
+    }
+    footerCount = count;
+    encoding = parseEncoding(raw);
+    footers = offsets;
   }
 }
@@ -46,7 +46,9 @@ import static java.util.stream.Collectors.joining;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
@@ -65,7 +67,6 @@ import com.google.gerrit.entities.Address;
 import com.google.gerrit.entities.AttentionSetUpdate;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.ChangeMessage;
-import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.entities.LabelId;
 import com.google.gerrit.entities.LabelType;
 import com.google.gerrit.entities.PatchSet;
@@ -106,6 +107,7 @@ import org.eclipse.jgit.errors.InvalidObjectIdException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.FooterKey;
 import org.eclipse.jgit.util.RawParseUtils;
@@ -141,6 +143,30 @@ class ChangeNotesParser {
   private static final Splitter RULE_SPLITTER = Splitter.on(": ");
   private static final Splitter HASHTAG_SPLITTER = Splitter.on(",");
 
+  /** Maximum number of commits that are applied on top of a cached state of an ancestor. */
+  private static final int MAX_INCREMENTAL_COMMITS = 10;
+
+  /**
+   * Footers that {@link #parseIncrementally(Function)} can apply on top of a prior state. Any other
+   * footer, e.g. one that creates a patch set or changes the status, needs a full parse.
+   */
+  private static final ImmutableList<FooterKey> INCREMENTAL_FOOTERS = incrementalFooters();
+
+  private static ImmutableList<FooterKey> incrementalFooters() {
+    ImmutableList.Builder<FooterKey> keys = ImmutableList.builder();
+    keys.add(
+        FOOTER_PATCH_SET,
+        FOOTER_LABEL,
+        FOOTER_COPIED_LABEL,
+        FOOTER_ATTENTION,
+        FOOTER_TAG,
+        FOOTER_REAL_USER);
+    for (ReviewerStateInternal state : ReviewerStateInternal.values()) {
+      keys.add(state.getFooterKey(), state.getByEmailFooterKey());
+    }
+    return keys.build();
+  }
+
   // Private final members initialized in the constructor.
   private final ChangeNoteJson changeNoteJson;
   private final NoteDbMetrics metrics;
@@ -161,7 +187,6 @@ class ChangeNotesParser {
 
   private final List<AssigneeStatusUpdate> assigneeUpdates;
   private final List<SubmitRecord> submitRecords;
-  private final ListMultimap<ObjectId, HumanComment> humanComments;
   private final List<SubmitRequirementResult> submitRequirementResults;
   private final Map<PatchSet.Id, PatchSet.Builder> patchSets;
   private final Set<PatchSet.Id> deletedPatchSets;
@@ -185,7 +210,6 @@ class ChangeNotesParser {
   private String originalSubject;
   private String submissionId;
   private String tag;
-  private RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
   private Boolean isPrivate;
   private Boolean workInProgress;
   private Boolean previousWorkInProgressFooter;
@@ -224,7 +248,6 @@ class ChangeNotesParser {
     assigneeUpdates = new ArrayList<>();
     submitRecords = Lists.newArrayListWithExpectedSize(1);
     allChangeMessages = new ArrayList<>();
-    humanComments = MultimapBuilder.hashKeys().arrayListValues().build();
     submitRequirementResults = new ArrayList<>();
     patchSets = new HashMap<>();
     deletedPatchSets = new HashSet<>();
@@ -263,8 +286,217 @@ class ChangeNotesParser {
     return buildState();
   }
 
-  RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
-    return revisionNoteMap;
+  /**
+   * Parses the state by applying only the commits that were added since a cached state of an
+   * ancestor of the tip.
+   *
+   * <p>Walks back at most {@link #MAX_INCREMENTAL_COMMITS} commits from the tip until {@code
+   * cachedStates} returns a state for one of them. This only works if the history between that
+   * commit and the tip is linear, the change is open and the new commits only update votes,
+   * reviewers, the attention set and change messages of existing patch sets. Only the revision
+   * notes that changed since the cached state are read, to check that they didn't change push
+   * certificates or submit requirement results.
+   *
+   * @param cachedStates returns the cached state for a meta commit, or {@code null} if there is
+   *     none.
+   * @return the parsed state, or {@code null} if no cached state was found or the new commits can't
+   *     be applied incrementally, e.g. after the history was rewritten. In this case this parser
+   *     must not be used anymore and a new parser must do a full parse.
+   */
+  @Nullable
+  ChangeNotesState parseIncrementally(Function<ObjectId, ChangeNotesState> cachedStates)
+      throws ConfigInvalidException, IOException {
+    walk.reset();
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ChangeNotesCommit commit = walk.parseCommit(tip);
+    ChangeNotesState prior = null;
+    while (prior == null) {
+      if (commits.size() == MAX_INCREMENTAL_COMMITS
+          || commit.getParentCount() != 1
+          || !commit.hasOnlyFooters(INCREMENTAL_FOOTERS)) {
+        return null;
+      }
+      commits.add(commit);
+      commit = walk.parseCommit(commit.getParent(0));
+      prior = cachedStates.apply(commit);
+    }
+    if (!id.equals(prior.changeId()) || prior.columns().status() != Change.Status.NEW) {
+      return null;
+    }
+    Set<PatchSet.Id> priorPatchSets =
+        prior.patchSets().stream().map(Map.Entry::getKey).collect(Collectors.toSet());
+    for (ChangeNotesCommit c : commits) {
+      if (!priorPatchSets.contains(parsePatchSetId(c)) || parsePatchSetState(c) != null) {
+        return null;
+      }
+    }
+
+    try (Timer0.Context timer = metrics.parseLatency.start()) {
+      if (!onlyCommentsChanged(commit)) {
+        return null;
+      }
+      for (ChangeNotesCommit c : commits) {
+        parse(c);
+      }
+      return buildIncrementalState(prior);
+    }
+  }
+
+  /**
+   * Returns whether the revision notes at the tip differ from the revision notes of the {@code
+   * base} commit only in their comments.
+   */
+  private boolean onlyCommentsChanged(ChangeNotesCommit base) throws IOException {
+    ChangeNotesCommit tipCommit = walk.parseCommit(tip);
+    if (tipCommit.getTree().equals(base.getTree())) {
+      return true;
+    }
+
+    ObjectReader reader = walk.getObjectReader();
+    NoteMap baseNotes = NoteMap.read(reader, base);
+    NoteMap tipNotes = NoteMap.read(reader, tipCommit);
+    for (Note note : baseNotes) {
+      if (!tipNotes.contains(note)) {
+        return false;
+      }
+    }
+    for (Note note : tipNotes) {
+      ObjectId baseData = baseNotes.get(note);
+      if (note.getData().equals(baseData)) {
+        continue;
+      }
+      if (!hasOnlyComments(parseNoteMetadata(reader, note.getData()))
+          || (baseData != null && !hasOnlyComments(parseNoteMetadata(reader, baseData)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ChangeRevisionNoteData.Metadata parseNoteMetadata(ObjectReader reader, ObjectId data)
+      throws IOException {
+    return ChangeRevisionNote.parseMetadata(changeNoteJson, reader, data);
+  }
+
+  private static boolean hasOnlyComments(ChangeRevisionNoteData.Metadata rn) {
+    return rn.pushCert == null && rn.submitRequirementResults == null;
+  }
+
+  /**
+   * Builds the state from the prior state and the commits parsed on top of it.
+   *
+   * @return the state, or {@code null} if a reviewer that was removed in the prior state was added
+   *     again, since the prior state no longer contains the votes of removed reviewers.
+   */
+  @Nullable
+  private ChangeNotesState buildIncrementalState(ChangeNotesState prior) {
+    ImmutableSet<Account.Id> priorReviewers = prior.reviewers().all();
+    for (Table.Cell<Account.Id, ReviewerStateInternal, Instant> c : reviewers.cellSet()) {
+      if (c.getColumnKey() != ReviewerStateInternal.REMOVED
+          && !priorReviewers.contains(c.getRowKey())
+          && prior.allPastReviewers().contains(c.getRowKey())) {
+        return null;
+      }
+    }
+
+    ReviewerSet pending = prior.pendingReviewers();
+    ReviewerByEmailSet pendingByEmail = prior.pendingReviewersByEmail();
+    if (prior.columns().workInProgress()) {
+      // The snapshot of the reviewers was taken when the change was moved into WIP, which happened
+      // before the new commits, so it includes all reviewer updates of the new commits.
+      pending =
+          ReviewerSet.fromTable(
+              Tables.transpose(overlay(reviewers, Tables.transpose(pending.asTable()))));
+      pendingByEmail =
+          ReviewerByEmailSet.fromTable(
+              Tables.transpose(
+                  overlay(reviewersByEmail, Tables.transpose(pendingByEmail.asTable()))));
+    }
+
+    allPastReviewers.addAll(reviewers.rowKeySet());
+    prior.allPastReviewers().stream()
+        .filter(a -> !reviewers.containsRow(a))
+        .forEach(allPastReviewers::add);
+    Table<Account.Id, ReviewerStateInternal, Instant> allReviewers =
+        overlay(reviewers, Tables.transpose(prior.reviewers().asTable()));
+    allReviewers.cellSet().removeIf(c -> c.getColumnKey() == ReviewerStateInternal.REMOVED);
+    Table<Address, ReviewerStateInternal, Instant> allReviewersByEmail =
+        overlay(reviewersByEmail, Tables.transpose(prior.reviewersByEmail().asTable()));
+    allReviewersByEmail.cellSet().removeIf(c -> c.getColumnKey() == ReviewerStateInternal.REMOVED);
+
+    Map<PatchSetApproval.Key, PatchSetApproval> allApprovals = new LinkedHashMap<>();
+    approvals.values().forEach(a -> allApprovals.put(a.key(), a.build()));
+    prior.approvals().forEach(e -> allApprovals.putIfAbsent(e.getValue().key(), e.getValue()));
+    ListMultimap<PatchSet.Id, PatchSetApproval> approvalsByPatchSet =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (PatchSetApproval a : allApprovals.values()) {
+      if (allPastReviewers.contains(a.accountId()) && !allReviewers.containsRow(a.accountId())) {
+        continue; // Reviewer was explicitly removed.
+      }
+      approvalsByPatchSet.put(a.patchSetId(), a);
+    }
+    approvalsByPatchSet
+        .keySet()
+        .forEach(k -> approvalsByPatchSet.get(k).sort(ChangeNotes.PSA_BY_TIME));
+
+    prior.attentionSet().forEach(u -> latestAttentionStatus.putIfAbsent(u.account(), u));
+    allAttentionSetUpdates.addAll(prior.allAttentionSetUpdates());
+    ownerId = prior.columns().owner();
+    List<ChangeMessage> messages = new ArrayList<>(prior.changeMessages());
+    messages.addAll(buildAllMessages());
+    Instant priorLastUpdatedOn = prior.columns().lastUpdatedOn();
+
+    return ChangeNotesState.create(
+        tip.copy(),
+        id,
+        prior.columns().changeKey(),
+        prior.columns().createdOn(),
+        priorLastUpdatedOn.isAfter(lastUpdatedOn) ? priorLastUpdatedOn : lastUpdatedOn,
+        ownerId,
+        prior.serverId(),
+        prior.columns().branch(),
+        prior.columns().currentPatchSetId(),
+        prior.columns().subject(),
+        prior.columns().topic(),
+        prior.columns().originalSubject(),
+        prior.columns().submissionId(),
+        prior.columns().status(),
+        prior.hashtags(),
+        ImmutableMap.copyOf(prior.patchSets()),
+        approvalsByPatchSet,
+        ReviewerSet.fromTable(Tables.transpose(allReviewers)),
+        ReviewerByEmailSet.fromTable(Tables.transpose(allReviewersByEmail)),
+        pending,
+        pendingByEmail,
+        allPastReviewers,
+        buildReviewerUpdates(prior.reviewerUpdates()),
+        ImmutableSet.copyOf(latestAttentionStatus.values()),
+        allAttentionSetUpdates,
+        prior.assigneeUpdates(),
+        prior.submitRecords(),
+        messages,
+        prior.submitRequirementsResult(),
+        prior.columns().isPrivate(),
+        prior.columns().workInProgress(),
+        prior.columns().reviewStarted(),
+        prior.columns().revertOf(),
+        prior.columns().cherryPickOf(),
+        prior.updateCount() + updateCount,
+        prior.mergedOn());
+  }
+
+  /**
+   * Returns all cells of {@code newer} and the cells of {@code older} in rows that are not in
+   * {@code newer}.
+   */
+  private static <R, C, V> Table<R, C, V> overlay(Table<R, C, V> newer, Table<R, C, V> older) {
+    Table<R, C, V> result = HashBasedTable.create(newer);
+    for (Table.Cell<R, C, V> c : older.cellSet()) {
+      if (!newer.containsRow(c.getRowKey())) {
+        result.put(c.getRowKey(), c.getColumnKey(), c.getValue());
+      }
+    }
+    return result;
   }
 
   private ChangeNotesState buildState() throws ConfigInvalidException {
@@ -291,13 +523,12 @@ class ChangeNotesParser {
         pendingReviewers,
         pendingReviewersByEmail,
         allPastReviewers,
-        buildReviewerUpdates(),
+        buildReviewerUpdates(ImmutableList.of()),
         ImmutableSet.copyOf(latestAttentionStatus.values()),
         allAttentionSetUpdates,
         assigneeUpdates,
         submitRecords,
         buildAllMessages(),
-        humanComments,
         submitRequirementResults,
         firstNonNull(isPrivate, false),
         firstNonNull(workInProgress, false),
@@ -421,9 +652,17 @@ class ChangeNotesParser {
                 PatchSetApproval::accountId, Function.identity()));
   }
 
-  private List<ReviewerStatusUpdate> buildReviewerUpdates() {
-    List<ReviewerStatusUpdate> result = new ArrayList<>();
+  /**
+   * Returns the reviewer updates in chronological order, dropping updates that don't change the
+   * state of the reviewer.
+   *
+   * @param priorUpdates updates that were built from older commits, which are not parsed by this
+   *     parser.
+   */
+  private List<ReviewerStatusUpdate> buildReviewerUpdates(List<ReviewerStatusUpdate> priorUpdates) {
+    List<ReviewerStatusUpdate> result = new ArrayList<>(priorUpdates);
     HashMap<Account.Id, ReviewerStateInternal> lastState = new HashMap<>();
+    priorUpdates.forEach(u -> lastState.put(u.reviewer(), u.state()));
     for (ReviewerStatusUpdate u : Lists.reverse(reviewerUpdates)) {
       if (!Objects.equals(ownerId, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
         result.add(u);
@@ -605,13 +844,13 @@ class ChangeNotesParser {
 
   private String parseOneFooter(ChangeNotesCommit commit, FooterKey footerKey)
       throws ConfigInvalidException {
-    List<String> footerLines = commit.getFooterLineValues(footerKey);
-    if (footerLines.isEmpty()) {
+    int count = commit.getFooterLineCount(footerKey);
+    if (count == 0) {
       return null;
-    } else if (footerLines.size() > 1) {
-      throw expectedOneFooter(footerKey, footerLines);
+    } else if (count > 1) {
+      throw expectedOneFooter(footerKey, commit.getFooterLineValues(footerKey));
     }
-    return footerLines.get(0);
+    return commit.getFirstFooterLineValue(footerKey);
   }
 
   private String parseExactlyOneFooter(ChangeNotesCommit commit, FooterKey footerKey)
@@ -876,18 +1115,14 @@ class ChangeNotesParser {
                 : null);
   }
 
-  private void parseNotes() throws IOException, ConfigInvalidException {
+  private void parseNotes() throws IOException {
     ObjectReader reader = walk.getObjectReader();
     ChangeNotesCommit tipCommit = walk.parseCommit(tip);
-    revisionNoteMap =
-        RevisionNoteMap.parse(
-            changeNoteJson, reader, NoteMap.read(reader, tipCommit), HumanComment.Status.PUBLISHED);
-    Map<ObjectId, ChangeRevisionNote> rns = revisionNoteMap.revisionNotes;
-
-    for (Map.Entry<ObjectId, ChangeRevisionNote> e : rns.entrySet()) {
-      for (HumanComment c : e.getValue().getEntities()) {
-        humanComments.put(e.getKey(), c);
-      }
+    // Comments are not part of the state, they are loaded separately by
+    // ChangeNotesCache#getComments when they are needed.
+    Map<ObjectId, ChangeRevisionNoteData.Metadata> rns = new HashMap<>();
+    for (Note note : NoteMap.read(reader, tipCommit)) {
+      rns.put(note.copy(), parseNoteMetadata(reader, note.getData()));
     }
 
     // Lookup submit requirement results from the revision notes of the last PS that has stored
@@ -904,11 +1139,8 @@ class ChangeNotesParser {
         continue;
       }
       ObjectId psCommitId = maybePsCommitId.get();
-      if (rns.containsKey(psCommitId)
-          && rns.get(psCommitId).getSubmitRequirementsResult() != null) {
-        rns.get(psCommitId)
-            .getSubmitRequirementsResult()
-            .forEach(sr -> submitRequirementResults.add(sr));
+      if (rns.containsKey(psCommitId) && rns.get(psCommitId).submitRequirementResults != null) {
+        submitRequirementResults.addAll(rns.get(psCommitId).submitRequirementResults);
         break;
       }
     }
@@ -919,9 +1151,9 @@ class ChangeNotesParser {
               .orElseThrow(
                   () ->
                       new IllegalStateException("never parsed commit ID for patch set " + b.id()));
-      ChangeRevisionNote rn = rns.get(commitId);
-      if (rn != null && rn.getPushCert() != null) {
-        b.pushCertificate(Optional.of(rn.getPushCert()));
+      ChangeRevisionNoteData.Metadata rn = rns.get(commitId);
+      if (rn != null && rn.pushCert != null) {
+        b.pushCertificate(Optional.of(rn.pushCert));
       }
     }
   }
@@ -17,7 +17,6 @@ package com.google.gerrit.server.notedb;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
 import static java.util.Objects.requireNonNull;
 
 import com.google.auto.value.AutoValue;
@@ -26,7 +25,6 @@ import com.google.common.base.Converter;
 import com.google.common.base.Enums;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
@@ -39,7 +37,6 @@ import com.google.gerrit.entities.AttentionSetUpdate;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.ChangeMessage;
-import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.PatchSetApproval;
 import com.google.gerrit.entities.Project;
@@ -82,7 +79,8 @@ import org.eclipse.jgit.lib.ObjectId;
  * ChangeNotesCache.Weigher#weigh} should be updated.
  *
  * <p>Note that {@link ChangeNotes} contains more than just a single {@code ChangeNoteState}, such
- * as per-draft information, so that class is not cached directly.
+ * as per-draft information, so that class is not cached directly. Published comments are not part
+ * of the state either; they are cached separately by {@link ChangeNotesCache#getComments}.
  */
 // TODO(paiking): This class should be refactored to get rid of potentially duplicate or unneeded
 // variables, such as allAttentionSetUpdates, reviewerUpdates, and others.
@@ -127,7 +125,6 @@ public abstract class ChangeNotesState {
       List<AssigneeStatusUpdate> assigneeUpdates,
       List<SubmitRecord> submitRecords,
       List<ChangeMessage> changeMessages,
-      ListMultimap<ObjectId, HumanComment> publishedComments,
       List<SubmitRequirementResult> submitRequirementResults,
       boolean isPrivate,
       boolean workInProgress,
@@ -181,7 +178,6 @@ public abstract class ChangeNotesState {
         .assigneeUpdates(assigneeUpdates)
         .submitRecords(submitRecords)
         .changeMessages(changeMessages)
-        .publishedComments(publishedComments)
         .submitRequirementsResult(submitRequirementResults)
         .updateCount(updateCount)
         .mergedOn(mergedOn)
@@ -326,8 +322,6 @@ public abstract class ChangeNotesState {
 
   abstract ImmutableList<ChangeMessage> changeMessages();
 
-  abstract ImmutableListMultimap<ObjectId, HumanComment> publishedComments();
-
   abstract ImmutableList<SubmitRequirementResult> submitRequirementsResult();
 
   abstract int updateCount();
@@ -407,7 +401,6 @@ public abstract class ChangeNotesState {
           .assigneeUpdates(ImmutableList.of())
           .submitRecords(ImmutableList.of())
           .changeMessages(ImmutableList.of())
-          .publishedComments(ImmutableListMultimap.of())
           .submitRequirementsResult(ImmutableList.of())
           .updateCount(0);
     }
@@ -448,8 +441,6 @@ public abstract class ChangeNotesState {
 
     abstract Builder changeMessages(List<ChangeMessage> changeMessages);
 
-    abstract Builder publishedComments(ListMultimap<ObjectId, HumanComment> publishedComments);
-
     abstract Builder submitRequirementsResult(
         List<SubmitRequirementResult> submitRequirementsResult);
 
@@ -526,7 +517,6 @@ public abstract class ChangeNotesState {
       object
           .changeMessages()
           .forEach(m -> b.addChangeMessage(ChangeMessageProtoConverter.INSTANCE.toProto(m)));
-      object.publishedComments().values().forEach(c -> b.addPublishedComment(GSON.toJson(c)));
       object
           .submitRequirementsResult()
           .forEach(
@@ -668,10 +658,6 @@ public abstract class ChangeNotesState {
                   proto.getChangeMessageList().stream()
                       .map(msg -> ChangeMessageProtoConverter.INSTANCE.fromProto(msg))
                       .collect(toImmutableList()))
-              .publishedComments(
-                  proto.getPublishedCommentList().stream()
-                      .map(r -> GSON.fromJson(r, HumanComment.class))
-                      .collect(toImmutableListMultimap(HumanComment::getCommitId, c -> c)))
               .submitRequirementsResult(
                   proto.getSubmitRequirementResultList().stream()
                       .map(sr -> SubmitRequirementProtoConverter.INSTANCE.fromProto(sr))
@@ -15,6 +15,7 @@
 package com.google.gerrit.server.notedb;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.common.Nullable;
@@ -74,7 +75,8 @@ class ChangeRevisionNote extends RevisionNote<HumanComment> {
     MutableInteger p = new MutableInteger();
     p.value = offset;
 
-    ChangeRevisionNoteData data = parseJson(noteJson, raw, p.value);
+    ChangeRevisionNoteData data =
+        parseJson(noteJson, raw, p.value, ChangeRevisionNoteData.class);
     if (status == HumanComment.Status.PUBLISHED) {
       pushCert = data.pushCert;
     } else {
@@ -87,11 +89,26 @@ class ChangeRevisionNote extends RevisionNote<HumanComment> {
     return data.comments;
   }
 
-  private ChangeRevisionNoteData parseJson(ChangeNoteJson noteUtil, byte[] raw, int offset)
+  /**
+   * Reads the push certificate and the submit requirement results of a published revision note,
+   * without parsing its comments.
+   */
+  static ChangeRevisionNoteData.Metadata parseMetadata(
+      ChangeNoteJson noteJson, ObjectReader reader, ObjectId noteId) throws IOException {
+    byte[] raw = reader.open(noteId, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+    MutableInteger p = new MutableInteger();
+    trimLeadingEmptyLines(raw, p);
+    if (p.value >= raw.length) {
+      return new ChangeRevisionNoteData.Metadata();
+    }
+    return parseJson(noteJson, raw, p.value, ChangeRevisionNoteData.Metadata.class);
+  }
+
+  private static <T> T parseJson(ChangeNoteJson noteUtil, byte[] raw, int offset, Class<T> type)
       throws IOException {
     try (InputStream is = new ByteArrayInputStream(raw, offset, raw.length - offset);
         Reader r = new InputStreamReader(is, UTF_8)) {
-      return noteUtil.getGson().fromJson(r, ChangeRevisionNoteData.class);
+      return noteUtil.getGson().fromJson(r, type);
     }
   }
 }
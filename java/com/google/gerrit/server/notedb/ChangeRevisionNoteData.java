@@ -28,4 +28,15 @@ class ChangeRevisionNoteData {
   String pushCert;
   List<HumanComment> comments;
   List<SubmitRequirementResult> submitRequirementResults;
+
+  /**
+   * Holds the raw data of a RevisionNote without its comments.
+   *
+   * <p>When deserializing into this class the comments are skipped without being parsed into
+   * {@link HumanComment}s.
+   */
+  static class Metadata {
+    String pushCert;
+    List<SubmitRequirementResult> submitRequirementResults;
+  }
 }
@@ -78,7 +78,6 @@ import org.eclipse.jgit.diff.HistogramDiff;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.errors.ConfigInvalidException;
-import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.internal.storage.file.PackInserter;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.CommitBuilder;
@@ -1256,11 +1255,11 @@ public class CommitRewriter {
   }
 
   private static ObjectInserter newPackInserter(Repository repo) {
-    if (!(repo instanceof FileRepository)) {
-      return repo.newObjectInserter();
+    ObjectInserter ins = OpenRepo.newInserter(repo, true);
+    if (ins instanceof PackInserter) {
+      // Rewritten commits are new, so don't look them up in the repository.
+      ((PackInserter) ins).checkExisting(false);
     }
-    PackInserter ins = ((FileRepository) repo).getObjectDatabase().newPackInserter();
-    ins.checkExisting(false);
     return ins;
   }
 
@@ -14,10 +14,14 @@
 
 package com.google.gerrit.server.notedb;
 
+import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -34,6 +38,18 @@ class NoteDbMetrics {
    */
   final Timer0 stageUpdateLatency;
 
+  /**
+   * The portion of {@link #stageUpdateLatency} due to building the commits of the updates, by
+   * whether the commits of different changes were built in parallel.
+   */
+  final Timer1<Boolean> buildCommitsLatency;
+
+  /** The portion of {@link #updateLatency} due to writing the staged objects to the repository. */
+  final Timer0 flushLatency;
+
+  /** The portion of {@link #updateLatency} due to updating the refs. */
+  final Timer0 refUpdateLatency;
+
   /** End-to-end latency for reading changes from NoteDb, including reading ref(s) and parsing. */
   final Timer0 readLatency;
 
@@ -43,6 +59,12 @@ class NoteDbMetrics {
    */
   final Timer0 parseLatency;
 
+  /**
+   * Number of change states parsed from NoteDb, by whether only the commits since a cached state
+   * were parsed.
+   */
+  final Counter1<Boolean> parseCount;
+
   @Inject
   NoteDbMetrics(MetricMaker metrics) {
     updateLatency =
@@ -59,6 +81,30 @@ class NoteDbMetrics {
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
 
+    buildCommitsLatency =
+        metrics.newTimer(
+            "notedb/build_commits_latency",
+            new Description("Latency for building the commits of change updates to NoteDb")
+                .setCumulative()
+                .setUnit(Units.MICROSECONDS),
+            Field.ofBoolean("parallel", Metadata.Builder::partial)
+                .description("Whether the commits of different changes were built in parallel.")
+                .build());
+
+    flushLatency =
+        metrics.newTimer(
+            "notedb/flush_latency",
+            new Description("Latency for writing the objects of change updates to NoteDb")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+
+    refUpdateLatency =
+        metrics.newTimer(
+            "notedb/ref_update_latency",
+            new Description("Latency for updating the refs of change updates in NoteDb")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+
     readLatency =
         metrics.newTimer(
             "notedb/read_latency",
@@ -72,5 +118,15 @@ class NoteDbMetrics {
             new Description("NoteDb parse latency for changes")
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
+
+    parseCount =
+        metrics.newCounter(
+            "notedb/parse_count",
+            new Description("Number of change notes parsed from NoteDb")
+                .setRate()
+                .setUnit("changes"),
+            Field.ofBoolean("incremental", Metadata.Builder::partial)
+                .description("Whether only the commits since a cached state were parsed.")
+                .build());
   }
 }
@@ -16,9 +16,12 @@ package com.google.gerrit.server.notedb;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.extensions.config.FactoryModule;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
+import org.eclipse.jgit.lib.ObjectId;
 
 public class NoteDbModule extends FactoryModule {
   private final boolean useTestBindings;
@@ -51,6 +54,11 @@ public class NoteDbModule extends FactoryModule {
       bind(new TypeLiteral<Cache<ChangeNotesCache.Key, ChangeNotesState>>() {})
           .annotatedWith(Names.named(ChangeNotesCache.CACHE_NAME))
           .toInstance(CacheBuilder.newBuilder().build());
+      TypeLiteral<Cache<ChangeNotesCache.Key, ImmutableListMultimap<ObjectId, HumanComment>>>
+          commentsCacheType = new TypeLiteral<>() {};
+      bind(commentsCacheType)
+          .annotatedWith(Names.named(ChangeNotesCache.COMMENTS_CACHE_NAME))
+          .toInstance(CacheBuilder.newBuilder().build());
     }
   }
 }
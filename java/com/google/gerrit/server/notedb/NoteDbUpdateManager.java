@@ -30,6 +30,8 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.git.RefUpdateUtil;
 import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.cancellation.RequestStateContext;
 import com.google.gerrit.server.cancellation.RequestStateContext.NonCancellableOperationContext;
@@ -49,6 +51,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Config;
@@ -83,9 +86,12 @@ public class NoteDbUpdateManager implements AutoCloseable {
   private final GitRepositoryManager repoManager;
   private final AllUsersName allUsersName;
   private final NoteDbMetrics metrics;
+  private final ExecutorService executor;
   private final Project.NameKey projectName;
   private final int maxUpdates;
   private final int maxPatchSets;
+  private final int parallelUpdateThreshold;
+  private final boolean insertPacks;
   private final ListMultimap<String, ChangeUpdate> changeUpdates;
   private final ListMultimap<String, ChangeDraftUpdate> draftUpdates;
   private final ListMultimap<String, RobotCommentUpdate> robotCommentUpdates;
@@ -109,15 +115,19 @@ public class NoteDbUpdateManager implements AutoCloseable {
       AllUsersName allUsersName,
       NoteDbMetrics metrics,
       AllUsersAsyncUpdate updateAllUsersAsync,
+      @FanOutExecutor ExecutorService executor,
       @Assisted Project.NameKey projectName) {
     this.serverIdent = serverIdent;
     this.repoManager = repoManager;
     this.allUsersName = allUsersName;
     this.metrics = metrics;
     this.updateAllUsersAsync = updateAllUsersAsync;
+    this.executor = executor;
     this.projectName = projectName;
     maxUpdates = cfg.getInt("change", null, "maxUpdates", MAX_UPDATES_DEFAULT);
     maxPatchSets = cfg.getInt("change", null, "maxPatchSets", MAX_PATCH_SETS_DEFAULT);
+    parallelUpdateThreshold = cfg.getInt("noteDb", null, "parallelUpdateThreshold", 0);
+    insertPacks = cfg.getBoolean("noteDb", null, "insertPacks", false);
     changeUpdates = MultimapBuilder.hashKeys().arrayListValues().build();
     draftUpdates = MultimapBuilder.hashKeys().arrayListValues().build();
     robotCommentUpdates = MultimapBuilder.hashKeys().arrayListValues().build();
@@ -192,13 +202,13 @@ public class NoteDbUpdateManager implements AutoCloseable {
 
   private void initChangeRepo() throws IOException {
     if (changeRepo == null) {
-      changeRepo = OpenRepo.open(repoManager, projectName);
+      changeRepo = OpenRepo.open(repoManager, projectName, insertPacks);
     }
   }
 
   private void initAllUsersRepo() throws IOException {
     if (allUsersRepo == null) {
-      allUsersRepo = OpenRepo.open(repoManager, allUsersName);
+      allUsersRepo = OpenRepo.open(repoManager, allUsersName, insertPacks);
     }
   }
 
@@ -358,12 +368,14 @@ public class NoteDbUpdateManager implements AutoCloseable {
     if (or == null || or.cmds.isEmpty()) {
       return null;
     }
-    if (!dryrun) {
-      or.flush();
-    } else {
-      // OpenRepo buffers objects separately; caller may assume that objects are available in the
-      // inserter it previously passed via setChangeRepo.
-      or.flushToFinalInserter();
+    try (Timer0.Context timer = metrics.flushLatency.start()) {
+      if (!dryrun) {
+        or.flush();
+      } else {
+        // OpenRepo buffers objects separately; caller may assume that objects are available in the
+        // inserter it previously passed via setChangeRepo.
+        or.flushToFinalInserter();
+      }
     }
 
     BatchRefUpdate bru = or.repo.getRefDatabase().newBatchUpdate();
@@ -383,13 +395,27 @@ public class NoteDbUpdateManager implements AutoCloseable {
     }
 
     if (!dryrun) {
-      RefUpdateUtil.executeChecked(bru, or.rw);
+      try (Timer0.Context timer = metrics.refUpdateLatency.start()) {
+        RefUpdateUtil.executeChecked(bru, or.rw);
+      }
     }
     return bru;
   }
 
   private void addCommands() throws IOException {
-    changeRepo.addUpdates(changeUpdates, Optional.of(maxUpdates), Optional.of(maxPatchSets));
+    // Building the commits of many changes, e.g. when submitting a large topic, is CPU bound and
+    // independent per change, so it can be spread over threads. The refs are still updated by a
+    // single atomic BatchRefUpdate.
+    boolean parallel =
+        parallelUpdateThreshold > 0 && changeUpdates.keySet().size() >= parallelUpdateThreshold;
+    try (Timer1.Context<Boolean> timer = metrics.buildCommitsLatency.start(parallel)) {
+      if (parallel) {
+        changeRepo.addUpdatesInParallel(
+            changeUpdates, Optional.of(maxUpdates), Optional.of(maxPatchSets), executor);
+      } else {
+        changeRepo.addUpdates(changeUpdates, Optional.of(maxUpdates), Optional.of(maxPatchSets));
+      }
+    }
     if (!draftUpdates.isEmpty()) {
       boolean publishOnly = draftUpdates.values().stream().allMatch(ChangeDraftUpdate::canRunAsync);
       if (publishOnly) {
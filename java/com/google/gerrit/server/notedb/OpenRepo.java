@@ -18,6 +18,9 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
@@ -27,10 +30,17 @@ import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.InsertedObject;
 import com.google.gerrit.server.update.ChainedReceiveCommands;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -52,23 +62,49 @@ class OpenRepo implements AutoCloseable {
   @Nullable private final ObjectInserter finalIns;
   private final boolean close;
 
-  /** Returns a {@link OpenRepo} wrapping around an open {@link Repository}. */
-  static OpenRepo open(GitRepositoryManager repoManager, Project.NameKey project)
+  /** Whether {@link #finalIns} may hold objects that it didn't flush yet. */
+  private boolean finalInsPending;
+
+  /**
+   * Returns a {@link OpenRepo} wrapping around an open {@link Repository}.
+   *
+   * @param packed whether objects should be written as a single pack on flush rather than as loose
+   *     objects, see {@link #newInserter(Repository, boolean)}.
+   */
+  static OpenRepo open(GitRepositoryManager repoManager, Project.NameKey project, boolean packed)
       throws IOException {
     Repository repo = repoManager.openRepository(project); // Closed by OpenRepo#close.
-    ObjectInserter ins = repo.newObjectInserter(); // Closed by OpenRepo#close.
+    ObjectInserter ins = newInserter(repo, packed); // Closed by OpenRepo#close.
     ObjectReader reader = ins.newReader(); // Not closed by OpenRepo#close.
     try (RevWalk rw = new RevWalk(reader)) { // Doesn't escape OpenRepo constructor.
-      return new OpenRepo(repo, rw, ins, new ChainedReceiveCommands(repo), true) {
-        @Override
-        public void close() {
-          reader.close();
-          super.close();
-        }
-      };
+      OpenRepo or =
+          new OpenRepo(repo, rw, ins, new ChainedReceiveCommands(repo), true) {
+            @Override
+            public void close() {
+              reader.close();
+              super.close();
+            }
+          };
+      or.finalInsPending = false;
+      return or;
     }
   }
 
+  /**
+   * Returns a new inserter for the repository.
+   *
+   * <p>If {@code packed} is set and the repository is stored on local disk, the inserter buffers
+   * all objects and writes them as a single pack with index on flush. This avoids creating several
+   * loose objects for every NoteDb update, which slow down object lookups until the next GC. Other
+   * repositories get their default inserter.
+   */
+  static ObjectInserter newInserter(Repository repo, boolean packed) {
+    if (packed && repo.getObjectDatabase() instanceof ObjectDirectory) {
+      return ((ObjectDirectory) repo.getObjectDatabase()).newPackInserter();
+    }
+    return repo.newObjectInserter();
+  }
+
   OpenRepo(
       Repository repo,
       RevWalk rw,
@@ -90,6 +126,8 @@ class OpenRepo implements AutoCloseable {
     this.finalIns = ins;
     this.cmds = requireNonNull(cmds);
     this.close = close;
+    // An inserter of the caller may hold objects that the caller didn't flush yet.
+    this.finalInsPending = ins != null;
   }
 
   @Override
@@ -107,16 +145,33 @@ class OpenRepo implements AutoCloseable {
   void flush() throws IOException {
     flushToFinalInserter();
     finalIns.flush();
+    finalInsPending = false;
   }
 
   void flushToFinalInserter() throws IOException {
     checkState(finalIns != null);
     for (InsertedObject obj : inMemIns.getInsertedObjects()) {
       finalIns.insert(obj.type(), obj.data().toByteArray());
+      finalInsPending = true;
     }
     inMemIns.clear();
   }
 
+  /**
+   * Returns whether new readers of {@link #repo} see all objects that were inserted so far.
+   *
+   * <p>The loose object inserter of a repository on local disk writes every object right away.
+   * Other inserters, like {@link PackInserter}, may buffer objects until they are flushed.
+   */
+  private boolean allObjectsVisibleToRepo() {
+    if (inMemIns.getInsertedObjectCount() > 0 || finalIns instanceof PackInserter) {
+      return false;
+    }
+    return !finalInsPending
+        || (repo.getObjectDatabase() instanceof ObjectDirectory
+            && !(finalIns instanceof ObjectInserter.Filter));
+  }
+
   private static <U extends AbstractChangeUpdate> boolean allowWrite(
       Collection<U> updates, ObjectId old) {
     if (!old.equals(ObjectId.zeroId())) {
@@ -145,49 +200,195 @@ class OpenRepo implements AutoCloseable {
         continue;
       }
 
-      int updateCount = 0;
-      U first = updates.iterator().next();
-      if (maxUpdates.isPresent()) {
-        checkState(first.getNotes() != null, "expected ChangeNotes on %s", first);
-        updateCount = first.getNotes().getUpdateCount();
+      ObjectId curr = apply(updates, old, rw, tempIns, maxUpdates, maxPatchSets);
+      if (!old.equals(curr)) {
+        cmds.add(new ReceiveCommand(old, curr, refName));
       }
+    }
+  }
 
-      ObjectId curr = old;
-      for (U update : updates) {
-        if (maxPatchSets.isPresent() && update.psId != null) {
-          // Patch set IDs are assigned consecutively. Patch sets may have been deleted, but the ID
-          // is still a good estimate and an upper bound.
-          if (update.psId.get() > maxPatchSets.get()) {
-            throw new LimitExceededException(
-                String.format(
-                    "Change %d may not exceed %d patch sets. To continue working on this change, "
-                        + "recreate it with a new Change-Id, then abandon this one.",
-                    update.getId().get(), maxPatchSets.get()));
-          }
+  /**
+   * Like {@link #addUpdates(ListMultimap, Optional, Optional)}, but builds the commits of the
+   * different refs in parallel.
+   *
+   * <p>The updates of each ref are applied by a single task with its own {@link RevWalk} and {@link
+   * InMemoryInserter}. Once all tasks are done, their objects are added to {@link #tempIns} and
+   * their commands to {@link #cmds} in the order of the refs in {@code all}, so the result is the
+   * same as the one of {@link #addUpdates(ListMultimap, Optional, Optional)}.
+   *
+   * <p>Inserters and their readers are not thread-safe, so the tasks read objects through their
+   * own readers of {@link #repo}. If objects were inserted that these readers may not see yet,
+   * e.g. into {@link #tempIns} or a {@link PackInserter}, the updates are applied serially by
+   * {@link #addUpdates(ListMultimap, Optional, Optional)} instead.
+   *
+   * <p>This method only returns once none of the tasks is running anymore, also if one of them
+   * failed, so the caller may flush and close the repository right after.
+   */
+  <U extends AbstractChangeUpdate> void addUpdatesInParallel(
+      ListMultimap<String, U> all,
+      Optional<Integer> maxUpdates,
+      Optional<Integer> maxPatchSets,
+      ExecutorService executor)
+      throws IOException {
+    if (!allObjectsVisibleToRepo()) {
+      addUpdates(all, maxUpdates, maxPatchSets);
+      return;
+    }
+    RunningTasks running = new RunningTasks();
+    Map<String, Future<StagedRef>> staged = new LinkedHashMap<>();
+    try {
+      for (Map.Entry<String, Collection<U>> e : all.asMap().entrySet()) {
+        Collection<U> updates = e.getValue();
+        ObjectId old = cmds.get(e.getKey()).orElse(ObjectId.zeroId());
+        // See addUpdates.
+        if (!allowWrite(updates, old)) {
+          continue;
         }
-        if (update.isRootOnly() && !old.equals(ObjectId.zeroId())) {
-          throw new StorageException("Given ChangeUpdate is only allowed on initial commit");
+        staged.put(
+            e.getKey(),
+            executor.submit(
+                () -> {
+                  if (!running.enter()) {
+                    return null; // Not needed anymore.
+                  }
+                  try {
+                    return stage(updates, old, maxUpdates, maxPatchSets);
+                  } finally {
+                    running.exit();
+                  }
+                }));
+      }
+
+      for (Map.Entry<String, Future<StagedRef>> e : staged.entrySet()) {
+        StagedRef result = e.getValue().get();
+        result.objects().forEach(inMemIns::insert);
+        ObjectId old = cmds.get(e.getKey()).orElse(ObjectId.zeroId());
+        if (!old.equals(result.tip())) {
+          cmds.add(new ReceiveCommand(old, result.tip(), e.getKey()));
         }
-        ObjectId next = update.apply(rw, tempIns, curr);
-        if (next == null) {
-          continue;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while building NoteDb commits");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new StorageException(e.getCause());
+    } finally {
+      staged.values().forEach(f -> f.cancel(false /* tasks may be reading from pack files */));
+      running.close();
+    }
+  }
+
+  /** Tracks the running tasks of one {@link #addUpdatesInParallel} call. */
+  private static class RunningTasks {
+    private int running;
+    private boolean closed;
+
+    /** Returns whether the task may start, which it may until the tracker is closed. */
+    synchronized boolean enter() {
+      if (closed) {
+        return false;
+      }
+      running++;
+      return true;
+    }
+
+    synchronized void exit() {
+      if (--running == 0) {
+        notifyAll();
+      }
+    }
+
+    /** Prevents further tasks from starting and waits for the running ones to finish. */
+    synchronized void close() {
+      closed = true;
+      boolean interrupted = false;
+      while (running > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
         }
-        if (maxUpdates.isPresent()
-            && !Objects.equals(next, curr)
-            && ++updateCount > maxUpdates.get()
-            && !update.bypassMaxUpdates()) {
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @AutoValue
+  abstract static class StagedRef {
+    abstract ObjectId tip();
+
+    abstract ImmutableList<InsertedObject> objects();
+  }
+
+  private <U extends AbstractChangeUpdate> StagedRef stage(
+      Collection<U> updates,
+      ObjectId old,
+      Optional<Integer> maxUpdates,
+      Optional<Integer> maxPatchSets)
+      throws IOException {
+    // Readers are not thread-safe, so each task opens its own.
+    try (ObjectReader reader = repo.newObjectReader()) {
+      InMemoryInserter ins = new InMemoryInserter(reader);
+      try (RevWalk walk = new RevWalk(ins.newReader())) {
+        ObjectId tip = apply(updates, old, walk, ins, maxUpdates, maxPatchSets);
+        return new AutoValue_OpenRepo_StagedRef(tip, ins.getInsertedObjects());
+      }
+    }
+  }
+
+  /** Applies the updates of a single ref on top of {@code old} and returns the new tip. */
+  private static <U extends AbstractChangeUpdate> ObjectId apply(
+      Collection<U> updates,
+      ObjectId old,
+      RevWalk rw,
+      ObjectInserter ins,
+      Optional<Integer> maxUpdates,
+      Optional<Integer> maxPatchSets)
+      throws IOException {
+    int updateCount = 0;
+    U first = updates.iterator().next();
+    if (maxUpdates.isPresent()) {
+      checkState(first.getNotes() != null, "expected ChangeNotes on %s", first);
+      updateCount = first.getNotes().getUpdateCount();
+    }
+
+    ObjectId curr = old;
+    for (U update : updates) {
+      if (maxPatchSets.isPresent() && update.psId != null) {
+        // Patch set IDs are assigned consecutively. Patch sets may have been deleted, but the ID
+        // is still a good estimate and an upper bound.
+        if (update.psId.get() > maxPatchSets.get()) {
           throw new LimitExceededException(
               String.format(
-                  "Change %s may not exceed %d updates. It may still be abandoned, submitted and you can add/remove"
-                      + " reviewers to/from the attention-set. To continue working on this change, recreate it with a new"
-                      + " Change-Id, then abandon this one.",
-                  update.getId(), maxUpdates.get()));
+                  "Change %d may not exceed %d patch sets. To continue working on this change, "
+                      + "recreate it with a new Change-Id, then abandon this one.",
+                  update.getId().get(), maxPatchSets.get()));
         }
-        curr = next;
       }
-      if (!old.equals(curr)) {
-        cmds.add(new ReceiveCommand(old, curr, refName));
+      if (update.isRootOnly() && !old.equals(ObjectId.zeroId())) {
+        throw new StorageException("Given ChangeUpdate is only allowed on initial commit");
+      }
+      ObjectId next = update.apply(rw, ins, curr);
+      if (next == null) {
+        continue;
+      }
+      if (maxUpdates.isPresent()
+          && !Objects.equals(next, curr)
+          && ++updateCount > maxUpdates.get()
+          && !update.bypassMaxUpdates()) {
+        throw new LimitExceededException(
+            String.format(
+                "Change %s may not exceed %d updates. It may still be abandoned, submitted and you can add/remove"
+                    + " reviewers to/from the attention-set. To continue working on this change, recreate it with a new"
+                    + " Change-Id, then abandon this one.",
+                update.getId(), maxUpdates.get()));
       }
+      curr = next;
     }
+    return curr;
   }
 }
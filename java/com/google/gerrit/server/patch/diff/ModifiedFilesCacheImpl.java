@@ -83,6 +83,7 @@ public class ModifiedFilesCacheImpl implements ModifiedFilesCache {
             .maximumWeight(10 << 20)
             .weigher(ModifiedFilesWeigher.class)
             .version(3)
+            .compressionThreshold(1024)
             .loader(ModifiedFilesLoader.class);
       }
     };
@@ -98,6 +98,7 @@ public class FileDiffCacheImpl implements FileDiffCache {
             .maximumWeight(10 << 20)
             .weigher(FileDiffWeigher.class)
             .version(8)
+            .compressionThreshold(1024)
             .keySerializer(FileDiffCacheKey.Serializer.INSTANCE)
             .valueSerializer(FileDiffOutput.Serializer.INSTANCE)
             .loader(FileDiffLoader.class);
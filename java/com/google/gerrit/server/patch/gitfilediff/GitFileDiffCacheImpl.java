@@ -89,6 +89,7 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
             .keySerializer(GitFileDiffCacheKey.Serializer.INSTANCE)
             .valueSerializer(GitFileDiff.Serializer.INSTANCE)
             .version(3)
+            .compressionThreshold(1024)
             .loader(GitFileDiffCacheImpl.Loader.class);
       }
     };
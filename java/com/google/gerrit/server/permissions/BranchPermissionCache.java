@@ -0,0 +1,153 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.auto.value.AutoValue;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.PermissionRange;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.PerThreadCache;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the decisions of a user's change permissions that only depend on the destination branch
+ * of the change, for the duration of the current request.
+ *
+ * <p>Instances are stored in the {@link PerThreadCache}, so they are shared by all {@link
+ * ProjectControl}s of the user in the serving thread, also by those that the {@link PerThreadCache}
+ * has no room for anymore. This keeps e.g. the visibility filter of a change query from evaluating
+ * the access sections of a branch for every change on it. An instance is only stored if the {@link
+ * PerThreadCache} isn't full yet when it's first requested, though. Otherwise every {@link
+ * ProjectControl} memoizes its decisions in an instance of its own.
+ *
+ * <p>Like the {@link PerThreadCache}, instances are not thread-safe and stop memoizing new
+ * decisions after a limit.
+ */
+class BranchPermissionCache {
+  private static final int MAX_ENTRIES = 1000;
+
+  /**
+   * Returns the instance for {@code user} in the current request, or a new instance if the {@link
+   * PerThreadCache} is full.
+   */
+  static BranchPermissionCache get(CurrentUser user, Metrics metrics) {
+    return PerThreadCache.getOrCompute(
+        PerThreadCache.Key.create(BranchPermissionCache.class, user.getCacheKey()),
+        () -> new BranchPermissionCache(metrics));
+  }
+
+  private final Metrics metrics;
+  private final Map<BranchNameKey, Boolean> read = new HashMap<>();
+  private final Map<RangeKey, PermissionRange> ranges = new HashMap<>();
+
+  private BranchPermissionCache(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns whether the user can read changes on {@code branch}, disregarding whether the change
+   * is private.
+   */
+  boolean canRead(BranchNameKey branch, BooleanSupplier loader) {
+    Boolean r = read.get(branch);
+    if (r != null) {
+      metrics.hits.increment(Metrics.READ);
+      return r;
+    }
+    metrics.misses.increment(Metrics.READ);
+    r = loader.getAsBoolean();
+    if (read.size() < MAX_ENTRIES) {
+      read.put(branch, r);
+    }
+    return r;
+  }
+
+  /**
+   * Returns the range of values the user may set for a label permission on changes on {@code
+   * branch}.
+   *
+   * @param isChangeOwner whether the user owns the change, which matters for rules granted to the
+   *     change owner group.
+   */
+  PermissionRange range(
+      BranchNameKey branch,
+      String permission,
+      boolean isChangeOwner,
+      Supplier<PermissionRange> loader) {
+    RangeKey key = new AutoValue_BranchPermissionCache_RangeKey(branch, permission, isChangeOwner);
+    PermissionRange r = ranges.get(key);
+    if (r != null) {
+      metrics.hits.increment(Metrics.LABEL_RANGE);
+      return r;
+    }
+    metrics.misses.increment(Metrics.LABEL_RANGE);
+    r = loader.get();
+    if (r != null && ranges.size() < MAX_ENTRIES) {
+      ranges.put(key, r);
+    }
+    return r;
+  }
+
+  @AutoValue
+  abstract static class RangeKey {
+    abstract BranchNameKey branch();
+
+    abstract String permission();
+
+    abstract boolean isChangeOwner();
+  }
+
+  @Singleton
+  static class Metrics {
+    static final String READ = "read";
+    static final String LABEL_RANGE = "label_range";
+
+    private static final Field<String> DECISION =
+        Field.ofString("decision", Metadata.Builder::operationName)
+            .description("The memoized decision (read or label_range).")
+            .build();
+
+    final Counter1<String> hits;
+    final Counter1<String> misses;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      hits =
+          metricMaker.newCounter(
+              "permissions/branch_permission_cache/hit_count",
+              new Description("Branch permission decisions served from the request's memo")
+                  .setRate()
+                  .setUnit("decisions"),
+              DECISION);
+      misses =
+          metricMaker.newCounter(
+              "permissions/branch_permission_cache/miss_count",
+              new Description("Branch permission decisions computed for the request's memo")
+                  .setRate()
+                  .setUnit("decisions"),
+              DECISION);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import static com.google.gerrit.server.permissions.LabelPermission.ForUser.ON_BE
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.PermissionRange;
@@ -36,11 +37,14 @@ import java.util.Set;
 
 /** Access control management for a user accessing a single change. */
 class ChangeControl {
-  private final RefControl refControl;
+  private final ProjectControl projectControl;
+  private final BranchNameKey dest;
   private final ChangeData changeData;
+  private RefControl refControl;
 
-  ChangeControl(RefControl refControl, ChangeData changeData) {
-    this.refControl = refControl;
+  ChangeControl(ProjectControl projectControl, BranchNameKey dest, ChangeData changeData) {
+    this.projectControl = projectControl;
+    this.dest = dest;
     this.changeData = changeData;
   }
 
@@ -49,11 +53,22 @@ class ChangeControl {
   }
 
   private CurrentUser getUser() {
-    return refControl.getUser();
+    return projectControl.getUser();
   }
 
   private ProjectControl getProjectControl() {
-    return refControl.getProjectControl();
+    return projectControl;
+  }
+
+  /**
+   * Returns the control of the destination branch. It's created lazily, since decisions memoized
+   * in the {@link BranchPermissionCache} don't need it.
+   */
+  private RefControl refControl() {
+    if (refControl == null) {
+      refControl = projectControl.controlForRef(dest);
+    }
+    return refControl;
   }
 
   private Change getChange() {
@@ -66,49 +81,59 @@ class ChangeControl {
       return false;
     }
     // Does the user have READ permission on the destination?
-    return refControl.asForRef().testOrFalse(RefPermission.READ);
+    return projectControl
+        .branchPermissions()
+        .canRead(dest, () -> refControl().asForRef().testOrFalse(RefPermission.READ));
   }
 
   /** Can this user abandon this change? */
   private boolean canAbandon() {
     return isOwner() // owner (aka creator) of the change can abandon
-        || refControl.isOwner() // branch owner can abandon
+        || refControl().isOwner() // branch owner can abandon
         || getProjectControl().isOwner() // project owner can abandon
-        || refControl.canPerform(Permission.ABANDON) // user can abandon a specific ref
+        || refControl().canPerform(Permission.ABANDON) // user can abandon a specific ref
         || getProjectControl().isAdmin();
   }
 
   /** Can this user rebase this change? */
   private boolean canRebase() {
-    return (isOwner() || refControl.canSubmit(isOwner()) || refControl.canRebase())
-        && refControl.asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
+    return (isOwner() || refControl().canSubmit(isOwner()) || refControl().canRebase())
+        && refControl().asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
   }
 
   /** Can this user restore this change? */
   private boolean canRestore() {
     // Anyone who can abandon the change can restore it, as long as they can create changes.
-    return canAbandon() && refControl.asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
+    return canAbandon() && refControl().asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
   }
 
   /** Can this user revert this change? */
   private boolean canRevert() {
-    return refControl.canRevert() && refControl.asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
+    return refControl().canRevert()
+        && refControl().asForRef().testOrFalse(RefPermission.CREATE_CHANGE);
   }
 
   /** The range of permitted values associated with a label permission. */
   private PermissionRange getRange(String permission) {
-    return refControl.getRange(permission, isOwner());
+    boolean isChangeOwner = isOwner();
+    return projectControl
+        .branchPermissions()
+        .range(
+            dest,
+            permission,
+            isChangeOwner,
+            () -> refControl().getRange(permission, isChangeOwner));
   }
 
   /** Can this user add a patch set to this change? */
   private boolean canAddPatchSet() {
-    if (!refControl.asForRef().testOrFalse(RefPermission.CREATE_CHANGE)) {
+    if (!refControl().asForRef().testOrFalse(RefPermission.CREATE_CHANGE)) {
       return false;
     }
     if (isOwner()) {
       return true;
     }
-    return refControl.canAddPatchSet();
+    return refControl().canAddPatchSet();
   }
 
   /** Is this user the owner of the change? */
@@ -143,20 +168,20 @@ class ChangeControl {
   private boolean canEditTopicName() {
     if (getChange().isNew()) {
       return isOwner() // owner (aka creator) of the change can edit topic
-          || refControl.isOwner() // branch owner can edit topic
+          || refControl().isOwner() // branch owner can edit topic
           || getProjectControl().isOwner() // project owner can edit topic
-          || refControl.canPerform(
+          || refControl().canPerform(
               Permission.EDIT_TOPIC_NAME) // user can edit topic on a specific ref
           || getProjectControl().isAdmin();
     }
-    return refControl.canForceEditTopicName();
+    return refControl().canForceEditTopicName();
   }
 
   /** Can this user toggle WorkInProgress state? */
   private boolean canToggleWorkInProgressState() {
     return isOwner()
         || getProjectControl().isOwner()
-        || refControl.canPerform(Permission.TOGGLE_WORK_IN_PROGRESS_STATE)
+        || refControl().canPerform(Permission.TOGGLE_WORK_IN_PROGRESS_STATE)
         || getProjectControl().isAdmin();
   }
 
@@ -164,7 +189,7 @@ class ChangeControl {
   private boolean canEditDescription() {
     if (getChange().isNew()) {
       return isOwner() // owner (aka creator) of the change can edit desc
-          || refControl.isOwner() // branch owner can edit desc
+          || refControl().isOwner() // branch owner can edit desc
           || getProjectControl().isOwner() // project owner can edit desc
           || getProjectControl().isAdmin();
     }
@@ -174,16 +199,16 @@ class ChangeControl {
   private boolean canEditAssignee() {
     return isOwner()
         || getProjectControl().isOwner()
-        || refControl.canPerform(Permission.EDIT_ASSIGNEE)
+        || refControl().canPerform(Permission.EDIT_ASSIGNEE)
         || isAssignee();
   }
 
   /** Can this user edit the hashtag name? */
   private boolean canEditHashtags() {
     return isOwner() // owner (aka creator) of the change can edit hashtags
-        || refControl.isOwner() // branch owner can edit hashtags
+        || refControl().isOwner() // branch owner can edit hashtags
         || getProjectControl().isOwner() // project owner can edit hashtags
-        || refControl.canPerform(
+        || refControl().canPerform(
             Permission.EDIT_HASHTAGS) // user can edit hashtag on a specific ref
         || getProjectControl().isAdmin();
   }
@@ -191,7 +216,7 @@ class ChangeControl {
   private boolean isPrivateVisible(ChangeData cd) {
     return isOwner()
         || isReviewer(cd)
-        || refControl.canPerform(Permission.VIEW_PRIVATE_CHANGES)
+        || refControl().canPerform(Permission.VIEW_PRIVATE_CHANGES)
         || getUser().isInternalUser();
   }
 
@@ -256,7 +281,7 @@ class ChangeControl {
           case ABANDON:
             return canAbandon();
           case DELETE:
-            return getProjectControl().isAdmin() || refControl.canDeleteChanges(isOwner());
+            return getProjectControl().isAdmin() || refControl().canDeleteChanges(isOwner());
           case ADD_PATCH_SET:
             return canAddPatchSet();
           case EDIT_ASSIGNEE:
@@ -274,13 +299,13 @@ class ChangeControl {
           case REVERT:
             return canRevert();
           case SUBMIT:
-            return refControl.canSubmit(isOwner());
+            return refControl().canSubmit(isOwner());
           case TOGGLE_WORK_IN_PROGRESS_STATE:
             return canToggleWorkInProgressState();
 
           case REMOVE_REVIEWER:
           case SUBMIT_AS:
-            return refControl.canPerform(changePermissionName(perm));
+            return refControl().canPerform(changePermissionName(perm));
         }
       } catch (StorageException e) {
         throw new PermissionBackendException("unavailable", e);
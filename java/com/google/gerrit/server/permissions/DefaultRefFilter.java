@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
@@ -50,11 +51,16 @@ import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 
 class DefaultRefFilter {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Namespaces that never contain starting points for the reachability check of tags. */
+  private static final ImmutableSet<String> NOT_TAGGABLE =
+      ImmutableSet.<String>builder().addAll(RefNames.GERRIT_REFS).add(RefNames.REFS_TAGS).build();
+
   interface Factory {
     DefaultRefFilter create(ProjectControl projectControl);
   }
@@ -71,8 +77,11 @@ class DefaultRefFilter {
   private final Counter0 skipFilterCount;
   private final boolean skipFullRefEvaluationIfAllRefsAreVisible;
   private final VisibleChangesCache.Factory visibleChangesCacheFactory;
+  private final RefVisibilityCache refVisibilityCache;
+  private final RefFilterMetrics metrics;
 
   private VisibleChangesCache visibleChangesCache;
+  @Nullable private RefVisibilityCache.Context refVisibilityContext;
 
   @Inject
   DefaultRefFilter(
@@ -83,6 +92,8 @@ class DefaultRefFilter {
       @GerritServerConfig Config config,
       MetricMaker metricMaker,
       VisibleChangesCache.Factory visibleChangesCacheFactory,
+      RefVisibilityCache refVisibilityCache,
+      RefFilterMetrics metrics,
       @Assisted ProjectControl projectControl) {
     this.tagCache = tagCache;
     this.changeNotesFactory = changeNotesFactory;
@@ -92,6 +103,8 @@ class DefaultRefFilter {
         config.getBoolean("auth", "skipFullRefEvaluationIfAllRefsAreVisible", true);
     this.projectControl = projectControl;
     this.visibleChangesCacheFactory = visibleChangesCacheFactory;
+    this.refVisibilityCache = refVisibilityCache;
+    this.metrics = metrics;
 
     this.user = projectControl.getUser();
     this.projectState = projectControl.getProjectState();
@@ -113,7 +126,18 @@ class DefaultRefFilter {
   /** Filters given refs and tags by visibility. */
   ImmutableList<Ref> filter(Collection<Ref> refs, Repository repo, RefFilterOptions opts)
       throws PermissionBackendException {
+    long startedAllocatedBytes = metrics.currentThreadAllocatedBytes();
+    try {
+      return doFilter(refs, repo, opts);
+    } finally {
+      metrics.record(refs.size(), startedAllocatedBytes);
+    }
+  }
+
+  private ImmutableList<Ref> doFilter(Collection<Ref> refs, Repository repo, RefFilterOptions opts)
+      throws PermissionBackendException {
     visibleChangesCache = visibleChangesCacheFactory.create(projectControl, repo);
+    refVisibilityContext = refVisibilityCache.context(projectState, user);
     logger.atFinest().log(
         "Filter refs for repository %s by visibility (options = %s, refs = %s)",
         projectState.getNameKey(), opts, refs);
@@ -147,32 +171,35 @@ class DefaultRefFilter {
     // Perform an initial ref filtering with all the refs the caller asked for. If we find tags that
     // we have to investigate separately (deferred tags) then perform a reachability check starting
     // from all visible branches (refs/heads/*).
-    Result initialRefFilter = filterRefs(new ArrayList<>(refs), opts);
+    Result initialRefFilter = filterRefs(refs, opts);
+    if (initialRefFilter.deferredTags().isEmpty()) {
+      logger.atFinest().log("visible refs = %s", initialRefFilter.visibleRefs());
+      return initialRefFilter.visibleRefs();
+    }
+
     ImmutableList.Builder<Ref> visibleRefs = ImmutableList.builder();
     visibleRefs.addAll(initialRefFilter.visibleRefs());
-    if (!initialRefFilter.deferredTags().isEmpty()) {
-      try (TraceTimer traceTimer = TraceContext.newTimer("Check visibility of deferred tags")) {
-        Result allVisibleBranches = filterRefs(getTaggableRefs(repo), opts);
-        checkState(
-            allVisibleBranches.deferredTags().isEmpty(),
-            "unexpected tags found when filtering refs/heads/* "
-                + allVisibleBranches.deferredTags());
-
-        TagMatcher tags =
-            tagCache
-                .get(projectState.getNameKey())
-                .matcher(tagCache, repo, allVisibleBranches.visibleRefs());
-        for (Ref tag : initialRefFilter.deferredTags()) {
-          try {
-            if (tags.isReachable(tag)) {
-              logger.atFinest().log("Include reachable tag %s", tag.getName());
-              visibleRefs.add(tag);
-            } else {
-              logger.atFinest().log("Filter out non-reachable tag %s", tag.getName());
-            }
-          } catch (IOException e) {
-            throw new PermissionBackendException(e);
+    try (TraceTimer traceTimer = TraceContext.newTimer("Check visibility of deferred tags")) {
+      Result allVisibleBranches = filterRefs(getTaggableRefs(repo), opts);
+      checkState(
+          allVisibleBranches.deferredTags().isEmpty(),
+          "unexpected tags found when filtering refs/heads/* "
+              + allVisibleBranches.deferredTags());
+
+      TagMatcher tags =
+          tagCache
+              .get(projectState.getNameKey())
+              .matcher(tagCache, repo, allVisibleBranches.visibleRefs());
+      for (Ref tag : initialRefFilter.deferredTags()) {
+        try {
+          if (tags.isReachable(tag)) {
+            logger.atFinest().log("Include reachable tag %s", tag.getName());
+            visibleRefs.add(tag);
+          } else {
+            logger.atFinest().log("Filter out non-reachable tag %s", tag.getName());
           }
+        } catch (IOException e) {
+          throw new PermissionBackendException(e);
         }
       }
     }
@@ -187,7 +214,7 @@ class DefaultRefFilter {
    * separately for later rev-walk-based visibility computation. Tags where visibility is trivial to
    * compute will be returned as part of {@link Result#visibleRefs()}.
    */
-  Result filterRefs(List<Ref> refs, RefFilterOptions opts) throws PermissionBackendException {
+  Result filterRefs(Collection<Ref> refs, RefFilterOptions opts) throws PermissionBackendException {
     logger.atFinest().log("Filter refs (refs = %s)", refs);
 
     // TODO(hiesel): Remove when optimization is done.
@@ -262,7 +289,7 @@ class DefaultRefFilter {
           // Change is visible
           resultRefs.add(ref);
         }
-      } else if (refVisibilityControl.isVisible(projectControl, ref.getLeaf().getName())) {
+      } else if (isVisible(ref.getLeaf().getName())) {
         resultRefs.add(ref);
       }
     }
@@ -271,17 +298,37 @@ class DefaultRefFilter {
     return result;
   }
 
+  /**
+   * Returns whether {@code refName} is visible, sharing the decision with other requests through
+   * the {@link RefVisibilityCache} if it's not a ref managed by Gerrit.
+   */
+  private boolean isVisible(String refName) throws PermissionBackendException {
+    if (refVisibilityContext == null || RefNames.isGerritRef(refName)) {
+      return refVisibilityControl.isVisible(projectControl, refName);
+    }
+    Boolean visible = refVisibilityCache.get(refVisibilityContext, refName);
+    if (visible == null) {
+      visible = refVisibilityControl.isVisible(projectControl, refName);
+      refVisibilityCache.put(refVisibilityContext, refName, visible);
+    }
+    return visible;
+  }
+
   /**
    * Returns all refs tag we regard as starting points for reachability computation for tags. In
    * general, these are all refs not managed by Gerrit excluding symbolic refs and tags.
    *
    * <p>We exclude symbolic refs because their target will be included and this will suffice for
    * computing reachability.
+   *
+   * <p>The namespaces of excluded refs are passed to the ref database, so that ref databases
+   * supporting it can skip them instead of reading e.g. all change refs.
    */
   private static List<Ref> getTaggableRefs(Repository repo) throws PermissionBackendException {
     try {
-      List<Ref> allRefs = repo.getRefDatabase().getRefs();
-      return allRefs.stream()
+      List<Ref> refs =
+          repo.getRefDatabase().getRefsByPrefixWithExclusions(RefDatabase.ALL, NOT_TAGGABLE);
+      return refs.stream()
           .filter(
               r ->
                   !RefNames.isGerritRef(r.getName())
@@ -294,7 +341,8 @@ class DefaultRefFilter {
     }
   }
 
-  private List<Ref> fastHideRefsMetaConfig(List<Ref> refs) throws PermissionBackendException {
+  private Collection<Ref> fastHideRefsMetaConfig(Collection<Ref> refs)
+      throws PermissionBackendException {
     if (!canReadRef(REFS_CONFIG)) {
       return refs.stream()
           .filter(r -> !r.getName().equals(REFS_CONFIG))
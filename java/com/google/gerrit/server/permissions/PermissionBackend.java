@@ -35,11 +35,15 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.ImplementedBy;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Ref;
@@ -261,6 +265,45 @@ public abstract class PermissionBackend {
       }
       return allowed;
     }
+
+    /**
+     * Filter a collection of changes using {@code change(cd).test(perm)}.
+     *
+     * <p>Changes are grouped by project and checked through {@link
+     * ForProject#filterChanges(ChangePermission, Collection)}, so that the permissions of each
+     * project and branch are looked up once rather than once per change.
+     *
+     * @param perm required permission on a change to be included in the result.
+     * @param changes candidate changes; may be empty and may span several projects.
+     * @return the changes of {@code changes} where {@code test(perm)} was successful, in their
+     *     original order.
+     * @throws PermissionBackendException backend cannot access its internal state.
+     */
+    public List<ChangeData> filterChanges(ChangePermission perm, Collection<ChangeData> changes)
+        throws PermissionBackendException {
+      requireNonNull(perm, "ChangePermission");
+      requireNonNull(changes, "changes");
+      Map<Project.NameKey, List<ChangeData>> byProject = new LinkedHashMap<>();
+      for (ChangeData cd : changes) {
+        byProject.computeIfAbsent(cd.project(), p -> new ArrayList<>()).add(cd);
+      }
+      if (byProject.size() == 1) {
+        Map.Entry<Project.NameKey, List<ChangeData>> e = byProject.entrySet().iterator().next();
+        return project(e.getKey()).filterChanges(perm, e.getValue());
+      }
+
+      Set<ChangeData> allowed = Sets.newIdentityHashSet();
+      for (Map.Entry<Project.NameKey, List<ChangeData>> e : byProject.entrySet()) {
+        allowed.addAll(project(e.getKey()).filterChanges(perm, e.getValue()));
+      }
+      List<ChangeData> result = new ArrayList<>(allowed.size());
+      for (ChangeData cd : changes) {
+        if (allowed.contains(cd)) {
+          result.add(cd);
+        }
+      }
+      return result;
+    }
   }
 
   /** PermissionBackend scoped to a user and project. */
@@ -332,6 +375,38 @@ public abstract class PermissionBackend {
     public abstract Collection<Ref> filter(
         Collection<Ref> refs, Repository repo, RefFilterOptions opts)
         throws PermissionBackendException;
+
+    /**
+     * Filter changes of this project using {@code change(cd).test(perm)}.
+     *
+     * <p>The destination branch of every change is looked up through {@link #ref(String)} only
+     * once, so backends can share the evaluation of the branch permissions between its changes.
+     *
+     * @param perm required permission on a change to be included in the result.
+     * @param changes candidate changes of this project; may be empty.
+     * @return the changes of {@code changes} where {@code test(perm)} was successful, in their
+     *     original order.
+     * @throws PermissionBackendException backend cannot access its internal state.
+     */
+    public List<ChangeData> filterChanges(ChangePermission perm, Collection<ChangeData> changes)
+        throws PermissionBackendException {
+      requireNonNull(perm, "ChangePermission");
+      requireNonNull(changes, "changes");
+      Map<String, ForRef> refs = new HashMap<>();
+      List<ChangeData> allowed = new ArrayList<>(changes.size());
+      for (ChangeData cd : changes) {
+        ForChange forChange;
+        try {
+          forChange = refs.computeIfAbsent(cd.change().getDest().branch(), this::ref).change(cd);
+        } catch (StorageException e) {
+          forChange = FailedPermissionBackend.change("unavailable", e);
+        }
+        if (forChange.test(perm)) {
+          allowed.add(cd);
+        }
+      }
+      return allowed;
+    }
   }
 
   /** Options for filtering refs using {@link ForProject}. */
@@ -78,9 +78,12 @@ class ProjectControl {
   private final DefaultRefFilter.Factory refFilterFactory;
   private final ChangeData.Factory changeDataFactory;
   private final AllUsersName allUsersName;
+  private final BranchPermissionCache.Metrics branchPermissionMetrics;
 
   private List<SectionMatcher> allSections;
+  private SectionIndex sectionIndex;
   private Map<String, RefControl> refControls;
+  private BranchPermissionCache branchPermissions;
   private Boolean declaredOwner;
 
   @Inject
@@ -94,6 +97,7 @@ class ProjectControl {
       DefaultRefFilter.Factory refFilterFactory,
       ChangeData.Factory changeDataFactory,
       AllUsersName allUsersName,
+      BranchPermissionCache.Metrics branchPermissionMetrics,
       @Assisted CurrentUser who,
       @Assisted ProjectState ps) {
     this.uploadGroups = uploadGroups;
@@ -105,6 +109,7 @@ class ProjectControl {
     this.refFilterFactory = refFilterFactory;
     this.changeDataFactory = changeDataFactory;
     this.allUsersName = allUsersName;
+    this.branchPermissionMetrics = branchPermissionMetrics;
     user = who;
     state = ps;
   }
@@ -114,7 +119,7 @@ class ProjectControl {
   }
 
   ChangeControl controlFor(ChangeData cd) {
-    return new ChangeControl(controlForRef(cd.change().getDest()), cd);
+    return new ChangeControl(this, cd.change().getDest(), cd);
   }
 
   RefControl controlForRef(BranchNameKey ref) {
@@ -127,7 +132,10 @@ class ProjectControl {
     }
     RefControl ctl = refControls.get(refName);
     if (ctl == null) {
-      PermissionCollection relevant = permissionFilter.filter(access(), refName, user);
+      if (sectionIndex == null) {
+        sectionIndex = new SectionIndex(permissionFilter, access());
+      }
+      PermissionCollection relevant = sectionIndex.filter(refName, user);
       ctl =
           new RefControl(
               changeDataFactory, refVisibilityControl, this, repositoryManager, refName, relevant);
@@ -140,6 +148,13 @@ class ProjectControl {
     return user;
   }
 
+  BranchPermissionCache branchPermissions() {
+    if (branchPermissions == null) {
+      branchPermissions = BranchPermissionCache.get(user, branchPermissionMetrics);
+    }
+    return branchPermissions;
+  }
+
   ProjectState getProjectState() {
     return state;
   }
@@ -0,0 +1,68 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.proc.ThreadMXBeanFactory;
+import com.google.gerrit.metrics.proc.ThreadMXBeanInterface;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Metrics of ref filter operations, shared by all {@link DefaultRefFilter} instances. */
+@Singleton
+class RefFilterMetrics {
+  private static final ThreadMXBeanInterface threadMxBean = ThreadMXBeanFactory.create();
+
+  private final Histogram0 inputRefs;
+  private final Histogram0 allocatedBytes;
+
+  @Inject
+  RefFilterMetrics(MetricMaker metricMaker) {
+    inputRefs =
+        metricMaker.newHistogram(
+            "permissions/ref_filter/input_refs",
+            new Description("Number of refs passed to a ref filter operation")
+                .setCumulative()
+                .setUnit("refs"));
+    allocatedBytes =
+        metricMaker.newHistogram(
+            "permissions/ref_filter/allocated_bytes",
+            new Description("Heap memory allocated by a ref filter operation")
+                .setCumulative()
+                .setUnit(Units.BYTES));
+  }
+
+  /** Returns the bytes allocated by the current thread so far, or -1 if that is unknown. */
+  long currentThreadAllocatedBytes() {
+    return threadMxBean.getCurrentThreadAllocatedBytes();
+  }
+
+  /**
+   * Records a finished ref filter operation.
+   *
+   * @param refs number of refs passed to the operation.
+   * @param startedAllocatedBytes result of {@link #currentThreadAllocatedBytes()} when the
+   *     operation started.
+   */
+  void record(int refs, long startedAllocatedBytes) {
+    inputRefs.record(refs);
+    if (startedAllocatedBytes >= 0) {
+      allocatedBytes.record(currentThreadAllocatedBytes() - startedAllocatedBytes);
+    }
+  }
+}
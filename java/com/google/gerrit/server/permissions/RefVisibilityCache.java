@@ -0,0 +1,131 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.SectionMatcher;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.HashSet;
+import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches whether refs not managed by Gerrit, like branches, are visible, across requests.
+ *
+ * <p>The visibility of such a ref only depends on the access sections of the project and its
+ * parents, and on which of the groups used by these sections the user is a member of. Decisions are
+ * therefore keyed by the revisions of {@code refs/meta/config} of the project hierarchy and by
+ * these groups, so that users with the same relevant groups share them, and a change of the
+ * configuration of any project in the hierarchy makes them unreachable.
+ *
+ * <p>Decisions are not cached if an access section of the hierarchy expands parameters like {@code
+ * ${username}}, as they then also depend on the identity of the user.
+ */
+@Singleton
+public class RefVisibilityCache {
+  private static final String CACHE_NAME = "ref_visibility";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, Boolean.class).maximumWeight(1 << 16);
+        bind(RefVisibilityCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, Boolean> cache;
+
+  @Inject
+  RefVisibilityCache(@Named(CACHE_NAME) Cache<Key, Boolean> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the context in which the visibility of refs of a project is decided for a user, or null
+   * if decisions of that project can't be shared.
+   */
+  @Nullable
+  Context context(ProjectState projectState, CurrentUser user) {
+    if (user.isInternalUser()) {
+      return null;
+    }
+    for (SectionMatcher s : projectState.getAllSections()) {
+      if (s.getSection().getName().contains("${")) {
+        return null;
+      }
+    }
+    ImmutableList.Builder<ObjectId> revisions = ImmutableList.builder();
+    Set<AccountGroup.UUID> usedGroups = new HashSet<>();
+    for (ProjectState p : projectState.tree()) {
+      revisions.add(p.getConfig().getRevision().orElse(ObjectId.zeroId()));
+      usedGroups.addAll(p.getConfig().getAllGroupUUIDs());
+    }
+    return new AutoValue_RefVisibilityCache_Context(
+        projectState.getNameKey(),
+        revisions.build(),
+        ImmutableSet.copyOf(user.getEffectiveGroups().intersection(usedGroups)));
+  }
+
+  /** Returns whether {@code refName} is visible in {@code context}, if that is known. */
+  @Nullable
+  Boolean get(Context context, String refName) {
+    return cache.getIfPresent(Key.create(context, refName));
+  }
+
+  void put(Context context, String refName, boolean visible) {
+    cache.put(Key.create(context, refName), visible);
+  }
+
+  @AutoValue
+  abstract static class Context {
+    abstract Project.NameKey project();
+
+    /** Revisions of {@code refs/meta/config} of the project and its parents. */
+    abstract ImmutableList<ObjectId> configRevisions();
+
+    /** Groups of the user that are used by access sections of the project and its parents. */
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    @Memoized
+    @Override
+    public abstract int hashCode();
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(Context context, String refName) {
+      return new AutoValue_RefVisibilityCache_Key(context, refName);
+    }
+
+    abstract Context context();
+
+    abstract String refName();
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.gerrit.server.project.RefPattern.containsParameters;
+import static com.google.gerrit.server.project.RefPattern.isRE;
+
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
+import com.google.gerrit.server.project.SectionMatcher;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access sections of a project and its parents, indexed to find the sections matching a ref without
+ * testing each of them.
+ *
+ * <p>Exact and prefix ({@code refs/heads/*}) sections are looked up by the ref name and each of its
+ * directories. Refs matched by the same set of such sections get the same permissions, so the
+ * {@link PermissionCollection} of each set is computed once and shared. This turns filtering many
+ * refs into a few hash lookups per ref, instead of matching and sorting all sections for each.
+ *
+ * <p>Regular expression and parameterized sections are still matched one by one. Their order
+ * depends on their distance to the ref, so the permissions of a ref matched by one of them are
+ * computed for that ref alone.
+ *
+ * <p>Like {@link ProjectControl}, instances are not thread-safe.
+ */
+class SectionIndex {
+  private final PermissionCollection.Factory permissionFilter;
+  private final List<SectionMatcher> sections;
+  private final Map<String, BitSet> exact = new HashMap<>();
+  private final Map<String, BitSet> prefixes = new HashMap<>();
+  private final BitSet others = new BitSet();
+  private final Map<BitSet, PermissionCollection> byMatchingSections = new HashMap<>();
+
+  /**
+   * @param permissionFilter filter computing the permissions of the sections matching a ref.
+   * @param sections the sections, in priority order as expected by {@link
+   *     PermissionCollection.Factory#filter(Iterable, String, CurrentUser)}.
+   */
+  SectionIndex(PermissionCollection.Factory permissionFilter, List<SectionMatcher> sections) {
+    this.permissionFilter = permissionFilter;
+    this.sections = sections;
+    for (int i = 0; i < sections.size(); i++) {
+      AccessSection section = sections.get(i).getSection();
+      String name = section.getName();
+      if (section.getNamePattern().isPresent() || isRE(name) || containsParameters(name)) {
+        others.set(i);
+      } else if (name.endsWith("/*")) {
+        prefixes.computeIfAbsent(name.substring(0, name.length() - 1), k -> new BitSet()).set(i);
+      } else {
+        exact.computeIfAbsent(name, k -> new BitSet()).set(i);
+      }
+    }
+  }
+
+  /** Returns the permissions that apply to {@code ref}, sorted by most specific section. */
+  PermissionCollection filter(String ref, CurrentUser user) {
+    if (isRE(ref) || ref.endsWith("/*")) {
+      // Patterns are rewritten to an example ref by the filter.
+      return permissionFilter.filter(sections, ref, user);
+    }
+    for (int i = others.nextSetBit(0); i >= 0; i = others.nextSetBit(i + 1)) {
+      if (mayMatch(sections.get(i), ref, user)) {
+        return permissionFilter.filter(sections, ref, user);
+      }
+    }
+
+    BitSet matching = new BitSet(sections.size());
+    BitSet exactMatches = exact.get(ref);
+    if (exactMatches != null) {
+      matching.or(exactMatches);
+    }
+    for (int i = ref.indexOf('/'); i >= 0; i = ref.indexOf('/', i + 1)) {
+      BitSet prefixMatches = prefixes.get(ref.substring(0, i + 1));
+      if (prefixMatches != null) {
+        matching.or(prefixMatches);
+      }
+    }
+
+    PermissionCollection relevant = byMatchingSections.get(matching);
+    if (relevant == null) {
+      List<SectionMatcher> matchingSections = new ArrayList<>(matching.cardinality());
+      for (int i = matching.nextSetBit(0); i >= 0; i = matching.nextSetBit(i + 1)) {
+        matchingSections.add(sections.get(i));
+      }
+      relevant = permissionFilter.filter(matchingSections, ref, user);
+      byMatchingSections.put(matching, relevant);
+    }
+    return relevant;
+  }
+
+  /**
+   * Returns whether a regular expression or parameterized section matches {@code ref}, or, for the
+   * latter, could match it for some user.
+   */
+  private static boolean mayMatch(SectionMatcher section, String ref, CurrentUser user) {
+    if (section.getMatcher() instanceof ExpandParameters) {
+      return ((ExpandParameters) section.getMatcher()).matchPrefix(ref);
+    }
+    return section.match(ref, user);
+  }
+}
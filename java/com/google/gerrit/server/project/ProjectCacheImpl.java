@@ -19,6 +19,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
@@ -29,6 +30,7 @@ import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.CachedProjectConfig;
@@ -37,6 +39,7 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.project.ProjectIndexer;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Counter2;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
@@ -54,6 +57,8 @@ import com.google.gerrit.server.cache.serialize.entities.CachedProjectConfigSeri
 import com.google.gerrit.server.config.AllProjectsConfigProvider;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
@@ -63,6 +68,7 @@ import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.OptionalBinder;
 import com.google.inject.name.Named;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
@@ -70,11 +76,16 @@ import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -86,6 +97,11 @@ import org.eclipse.jgit.lib.StoredConfig;
  * <p>The data of a project is the project's project.config in refs/meta/config parsed out as an
  * immutable value. It's keyed purely by the refs/meta/config SHA-1. We also cache the same value
  * keyed by name. The latter mapping can become outdated, so data must be evicted explicitly.
+ *
+ * <p>If {@code cache.projects.refreshAhead} is set, evicting a project doesn't drop its data.
+ * Requests keep getting the stale data while it's reloaded in the background, for at most {@code
+ * cache.projects.maxStaleness}. Callers of {@link #evictAndReindex(Project.NameKey)}, which have
+ * just changed the project, reload it on their own thread and see their change.
  */
 @Singleton
 public class ProjectCacheImpl implements ProjectCache {
@@ -139,6 +155,9 @@ public class ProjectCacheImpl implements ProjectCache {
 
         bind(ProjectCacheImpl.class);
         bind(ProjectCache.class).to(ProjectCacheImpl.class);
+        OptionalBinder.newOptionalBinder(binder(), Ticker.class)
+            .setDefault()
+            .toInstance(Ticker.systemTicker());
 
         install(
             new LifecycleModule() {
@@ -159,6 +178,14 @@ public class ProjectCacheImpl implements ProjectCache {
   private final Provider<ProjectIndexer> indexer;
   private final Timer0 guessRelevantGroupsLatency;
   private final ProjectState.Factory projectStateFactory;
+  private final InMemoryLoader inMemoryLoader;
+  private final ListeningExecutorService cacheRefreshExecutor;
+  private final boolean refreshAhead;
+  private final Ticker ticker;
+  private final long maxStalenessNanos;
+  private final ConcurrentMap<Project.NameKey, Staleness> stale = new ConcurrentHashMap<>();
+  private final Counter1<String> staleServes;
+  private final Counter1<String> maxStalenessExceeded;
 
   @Inject
   ProjectCacheImpl(
@@ -168,7 +195,11 @@ public class ProjectCacheImpl implements ProjectCache {
       @Named(CACHE_LIST) LoadingCache<ListKey, ImmutableSortedSet<Project.NameKey>> list,
       Provider<ProjectIndexer> indexer,
       MetricMaker metricMaker,
-      ProjectState.Factory projectStateFactory) {
+      ProjectState.Factory projectStateFactory,
+      InMemoryLoader inMemoryLoader,
+      @CacheRefreshExecutor ListeningExecutorService cacheRefreshExecutor,
+      @GerritServerConfig Config config,
+      Ticker ticker) {
     this.allProjectsName = allProjectsName;
     this.allUsersName = allUsersName;
     this.inMemoryProjectCache = inMemoryProjectCache;
@@ -176,6 +207,14 @@ public class ProjectCacheImpl implements ProjectCache {
     this.listLock = new ReentrantLock(true /* fair */);
     this.indexer = indexer;
     this.projectStateFactory = projectStateFactory;
+    this.inMemoryLoader = inMemoryLoader;
+    this.cacheRefreshExecutor = cacheRefreshExecutor;
+    this.refreshAhead = config.getBoolean("cache", CACHE_NAME, "refreshAhead", false);
+    this.ticker = ticker;
+    this.maxStalenessNanos =
+        TimeUnit.SECONDS.toNanos(
+            ConfigUtil.getTimeUnit(
+                config, "cache", CACHE_NAME, "maxStaleness", 30, TimeUnit.SECONDS));
 
     this.guessRelevantGroupsLatency =
         metricMaker.newTimer(
@@ -183,6 +222,26 @@ public class ProjectCacheImpl implements ProjectCache {
             new Description("Latency for guessing relevant groups")
                 .setCumulative()
                 .setUnit(Units.NANOSECONDS));
+    Field<String> cacheField =
+        Field.ofString("cache_name", Metadata.Builder::cacheName)
+            .description("The name of the cache.")
+            .build();
+    this.staleServes =
+        metricMaker.newCounter(
+            "caches/stale_serves",
+            new Description("Lookups served with stale data while the data is reloaded")
+                .setRate()
+                .setUnit("lookups"),
+            cacheField);
+    this.maxStalenessExceeded =
+        metricMaker.newCounter(
+            "caches/max_staleness_exceeded",
+            new Description(
+                    "Lookups that reloaded data on the request thread because a background reload"
+                        + " took longer than the maximum staleness")
+                .setRate()
+                .setUnit("lookups"),
+            cacheField);
   }
 
   @Override
@@ -202,7 +261,7 @@ public class ProjectCacheImpl implements ProjectCache {
     }
 
     try {
-      return Optional.of(inMemoryProjectCache.get(projectName)).map(projectStateFactory::create);
+      return Optional.of(getCached(projectName)).map(projectStateFactory::create);
     } catch (ExecutionException e) {
       if ((e.getCause() instanceof RepositoryNotFoundException)) {
         logger.atFine().log("Cannot find project %s", projectName.get());
@@ -213,14 +272,70 @@ public class ProjectCacheImpl implements ProjectCache {
     }
   }
 
+  private CachedProjectConfig getCached(Project.NameKey projectName) throws ExecutionException {
+    Staleness staleness = stale.get(projectName);
+    if (staleness != null) {
+      if (ticker.read() - staleness.since <= maxStalenessNanos) {
+        CachedProjectConfig cached = inMemoryProjectCache.getIfPresent(projectName);
+        if (cached != null) {
+          staleServes.increment(CACHE_NAME);
+          return cached;
+        }
+      } else if (stale.remove(projectName, staleness)) {
+        maxStalenessExceeded.increment(CACHE_NAME);
+        inMemoryProjectCache.invalidate(projectName);
+      }
+    }
+    return inMemoryProjectCache.get(projectName);
+  }
+
   @Override
   public void evict(Project.NameKey p) {
     if (p != null) {
       logger.atFine().log("Evict project '%s'", p.get());
-      inMemoryProjectCache.invalidate(p);
+      if (refreshAhead && inMemoryProjectCache.asMap().containsKey(p)) {
+        reload(p, cacheRefreshExecutor);
+      } else {
+        inMemoryProjectCache.invalidate(p);
+      }
     }
   }
 
+  /**
+   * Reloads the data of {@code p} on {@code executor}, serving the cached data until it's done.
+   *
+   * <p>If {@code p} is evicted again before the reload is done, the reload's result is dropped in
+   * favor of the one of the newer reload.
+   */
+  private void reload(Project.NameKey p, Executor executor) {
+    Staleness staleness =
+        stale.compute(p, (k, old) -> new Staleness(old != null ? old.since : ticker.read()));
+    executor.execute(
+        () -> {
+          CachedProjectConfig loaded;
+          try {
+            loaded = inMemoryLoader.load(p);
+          } catch (Exception e) {
+            logger.atWarning().withCause(e).log("Cannot reload project %s", p.get());
+            loaded = null;
+          }
+          CachedProjectConfig result = loaded;
+          stale.computeIfPresent(
+              p,
+              (k, current) -> {
+                if (current != staleness) {
+                  return current;
+                }
+                if (result != null) {
+                  inMemoryProjectCache.put(p, result);
+                } else {
+                  inMemoryProjectCache.invalidate(p);
+                }
+                return null;
+              });
+        });
+  }
+
   @Override
   public void evictAndReindex(Project p) {
     evictAndReindex(p.getNameKey());
@@ -228,7 +343,13 @@ public class ProjectCacheImpl implements ProjectCache {
 
   @Override
   public void evictAndReindex(Project.NameKey p) {
-    evict(p);
+    if (refreshAhead && inMemoryProjectCache.asMap().containsKey(p)) {
+      logger.atFine().log("Evict project '%s'", p.get());
+      // The caller has just changed the project, so it must see its change.
+      reload(p, MoreExecutors.directExecutor());
+    } else {
+      evict(p);
+    }
     indexer.get().index(p);
   }
 
@@ -454,6 +575,16 @@ public class ProjectCacheImpl implements ProjectCache {
     }
   }
 
+  /** Marks cached data of a project as stale until a reload replaces it. */
+  private static class Staleness {
+    /** {@link Ticker#read()} of the first eviction that isn't reflected in the cache yet. */
+    final long since;
+
+    Staleness(long since) {
+      this.since = since;
+    }
+  }
+
   static class ListKey {
     static final ListKey ALL = new ListKey();
 
@@ -478,6 +609,7 @@ public class ProjectCacheImpl implements ProjectCache {
 
   @VisibleForTesting
   public void evictAllByName() {
+    stale.clear();
     inMemoryProjectCache.invalidateAll();
   }
 
@@ -33,6 +33,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
@@ -171,6 +172,7 @@ public class ChangeData {
       return;
     }
 
+    prefetchNotes(changes);
     for (ChangeData cd : changes) {
       cd.patchSets();
     }
@@ -182,6 +184,7 @@ public class ChangeData {
       return;
     }
 
+    prefetchNotes(changes);
     for (ChangeData cd : changes) {
       cd.currentPatchSet();
     }
@@ -193,6 +196,7 @@ public class ChangeData {
       return;
     }
 
+    prefetchNotes(changes);
     for (ChangeData cd : changes) {
       cd.currentApprovals();
     }
@@ -204,11 +208,34 @@ public class ChangeData {
       return;
     }
 
+    prefetchNotes(changes);
     for (ChangeData cd : changes) {
       cd.messages();
     }
   }
 
+  /**
+   * Reads the cached notes of all changes that still need them in one batch per project, instead of
+   * one cache lookup per change when each {@link ChangeNotes} is loaded.
+   */
+  private static void prefetchNotes(Iterable<ChangeData> changes) {
+    ListMultimap<Project.NameKey, Change.Id> pending =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    ChangeNotes.Factory notesFactory = null;
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.notesFactory != null && cd.lazyload()) {
+        pending.put(cd.project(), cd.getId());
+        notesFactory = cd.notesFactory;
+      }
+    }
+    if (notesFactory == null) {
+      return;
+    }
+    for (Project.NameKey project : pending.keySet()) {
+      notesFactory.prefetch(project, pending.get(project));
+    }
+  }
+
   public static void ensureReviewedByLoadedForOpenChanges(Iterable<ChangeData> changes) {
     List<ChangeData> pending = new ArrayList<>();
     for (ChangeData cd : changes) {
@@ -26,12 +26,15 @@ import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryProcessor;
+import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.DynamicOptions.DynamicBean;
 import com.google.gerrit.server.account.AccountLimits;
+import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.change.ChangePluginDefinedInfoFactory;
 import com.google.gerrit.server.change.PluginDefinedAttributesFactories;
 import com.google.gerrit.server.change.PluginDefinedInfosFactory;
@@ -95,6 +98,23 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
         .forEach(e -> changePluginDefinedInfoFactoriesByPlugin.add(e));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Runs the queries with a {@link PerThreadCache}, if the caller didn't open one, so that the
+   * permission checks of the visibility filter are memoized across the results.
+   */
+  @Override
+  public List<QueryResult<ChangeData>> query(List<Predicate<ChangeData>> queries)
+      throws QueryParseException {
+    if (PerThreadCache.get() != null) {
+      return super.query(queries);
+    }
+    try (PerThreadCache ignored = PerThreadCache.create()) {
+      return super.query(queries);
+    }
+  }
+
   @Override
   public ChangeQueryProcessor enforceVisibility(boolean enforce) {
     super.enforceVisibility(enforce);
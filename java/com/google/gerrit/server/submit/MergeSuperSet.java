@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -163,8 +164,11 @@ public class MergeSuperSet {
       if (Strings.isNullOrEmpty(topic) || visibleTopicsSeen.contains(topic)) {
         continue;
       }
-      for (ChangeData topicCd : byTopicOpen(topic)) {
-        if (canRead(user, topicCd)) {
+      List<ChangeData> topicChanges = byTopicOpen(topic);
+      Set<ChangeData> readable = Sets.newIdentityHashSet();
+      readable.addAll(filterReadable(user, topicChanges));
+      for (ChangeData topicCd : topicChanges) {
+        if (readable.contains(topicCd)) {
           visibleChanges.add(topicCd);
         } else {
           nonVisibleChanges.add(topicCd);
@@ -212,15 +216,15 @@ public class MergeSuperSet {
     return queryProvider.get().byTopicOpen(topic);
   }
 
-  private boolean canRead(CurrentUser user, ChangeData cd) throws PermissionBackendException {
-    if (!projectCache.get(cd.project()).map(ProjectState::statePermitsRead).orElse(false)) {
-      return false;
-    }
-    try {
-      permissionBackend.user(user).change(cd).check(ChangePermission.READ);
-      return true;
-    } catch (AuthException e) {
-      return false;
+  /** Returns the changes that {@code user} can read, checking changes of a branch together. */
+  private List<ChangeData> filterReadable(CurrentUser user, List<ChangeData> changes)
+      throws PermissionBackendException {
+    List<ChangeData> candidates = new ArrayList<>(changes.size());
+    for (ChangeData cd : changes) {
+      if (projectCache.get(cd.project()).map(ProjectState::statePermitsRead).orElse(false)) {
+        candidates.add(cd);
+      }
     }
+    return permissionBackend.user(user).filterChanges(ChangePermission.READ, candidates);
   }
 }
@@ -50,6 +50,7 @@ import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import com.github.rholder.retry.StopStrategies;
+import com.google.common.cache.Cache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -127,6 +128,7 @@ import com.google.gerrit.server.ServerInitiated;
 import com.google.gerrit.server.account.AccountProperties;
 import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.account.AccountsUpdate;
+import com.google.gerrit.server.account.CachedAccountDetails;
 import com.google.gerrit.server.account.Emails;
 import com.google.gerrit.server.account.VersionedAuthorizedKeys;
 import com.google.gerrit.server.account.externalids.DuplicateExternalIdKeyException;
@@ -153,6 +155,7 @@ import com.google.gerrit.testing.FakeEmailSender.Message;
 import com.google.gerrit.truth.NullAwareCorrespondence;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.name.Named;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.KeyPair;
@@ -237,6 +240,10 @@ public class AccountIT extends AbstractDaemonTest {
   @Inject private ExternalIdFactory externalIdFactory;
   @Inject private AuthConfig authConfig;
 
+  @Inject
+  @Named("accounts")
+  private Cache<CachedAccountDetails.Key, CachedAccountDetails> accountDetailsCache;
+
   @Inject protected Emails emails;
 
   @Inject private AccountOperations accountOperations;
@@ -548,6 +555,31 @@ public class AccountIT extends AbstractDaemonTest {
     }
   }
 
+  @Test
+  public void getSeveralAccountsMatchesSingleLookups() throws Exception {
+    gApi.accounts().id(user.id().get()).setStatus("OOO");
+    Account.Id missing = Account.id(999999);
+    ImmutableSet<Account.Id> ids = ImmutableSet.of(admin.id(), user.id(), missing);
+
+    accountDetailsCache.invalidateAll();
+    Map<Account.Id, AccountState> loadedTogether = accountCache.get(ids);
+
+    accountDetailsCache.invalidateAll();
+    assertThat(loadedTogether.keySet()).containsExactly(admin.id(), user.id());
+    assertThat(loadedTogether.get(user.id()).account().status()).isEqualTo("OOO");
+    for (Account.Id id : ids) {
+      Optional<AccountState> loadedAlone = accountCache.get(id);
+      if (id.equals(missing)) {
+        assertThat(loadedAlone).isEmpty();
+        continue;
+      }
+      AccountState state = loadedTogether.get(id);
+      assertThat(state.account()).isEqualTo(loadedAlone.get().account());
+      assertThat(state.projectWatches()).isEqualTo(loadedAlone.get().projectWatches());
+      assertThat(state.generalPreferences()).isEqualTo(loadedAlone.get().generalPreferences());
+    }
+  }
+
   @Test
   public void self() throws Exception {
     AccountIndexedCounter accountIndexedCounter = new AccountIndexedCounter();
@@ -49,6 +49,7 @@ import com.google.gerrit.extensions.api.projects.BranchInput;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.account.ServiceUserClassifier;
 import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.git.PermissionAwareRepositoryManager;
 import com.google.gerrit.server.git.receive.ReceiveCommitsAdvertiseRefsHookChain;
 import com.google.gerrit.server.git.receive.testing.TestRefAdvertiser;
 import com.google.gerrit.server.notedb.Sequences;
@@ -68,6 +69,7 @@ import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -607,6 +609,106 @@ public class RefAdvertisementIT extends AbstractDaemonTest {
         "refs/tags/master-tag");
   }
 
+  @Test
+  public void uploadPackTagReachableOnlyFromOtherTagsInvisible() throws Exception {
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/branch").group(REGISTERED_USERS))
+        .update();
+    // Tags are no starting points of the reachability check, so a commit that is only reachable
+    // from tags doesn't make any of them visible.
+    try (Repository repo = repoManager.openRepository(project);
+        TestRepository<Repository> tr = new TestRepository<>(repo)) {
+      //   rcBranch (c2 branch branch-tag) <-- inner (inner-tag) <-- outer (outer-tag)
+      RevCommit inner = tr.commit().parent(rcBranch).message("inner").create();
+      RevCommit outer = tr.commit().parent(inner).message("outer").create();
+      tr.update("refs/tags/inner-tag", inner);
+      tr.update("refs/tags/outer-tag", outer);
+    }
+
+    requestScopeOperations.setApiUser(user.id());
+    assertUploadPackRefs(
+        psRef2,
+        metaRef2,
+        psRef4,
+        metaRef4,
+        "refs/heads/branch",
+        "refs/tags/branch-tag",
+        // See comment in subsetOfBranchesVisibleNotIncludingHead.
+        "refs/tags/master-tag");
+  }
+
+  @Test
+  @GerritConfig(name = "auth.skipFullRefEvaluationIfAllRefsAreVisible", value = "false")
+  public void uploadPackTagOfRefsMetaConfigInvisible() throws Exception {
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/*").group(REGISTERED_USERS))
+        .add(allow(Permission.READ).ref(RefNames.REFS_CONFIG).group(admins))
+        .setExclusiveGroup(permissionKey(Permission.READ).ref(RefNames.REFS_CONFIG), true)
+        .update();
+    try (Repository repo = repoManager.openRepository(project)) {
+      // config-tag -> refs/meta/config
+      RefUpdate ctu = repo.updateRef("refs/tags/config-tag");
+      ctu.setExpectedOldObjectId(ObjectId.zeroId());
+      ctu.setNewObjectId(repo.exactRef(RefNames.REFS_CONFIG).getObjectId());
+      assertThat(ctu.update()).isEqualTo(RefUpdate.Result.NEW);
+    }
+
+    requestScopeOperations.setApiUser(user.id());
+    assertUploadPackRefs(
+        "HEAD",
+        psRef1,
+        metaRef1,
+        psRef2,
+        metaRef2,
+        psRef3,
+        metaRef3,
+        psRef4,
+        metaRef4,
+        "refs/heads/branch",
+        "refs/heads/master",
+        "refs/tags/branch-tag",
+        "refs/tags/master-tag");
+    // config-tag not visible, since refs/meta/config is no starting point of the reachability
+    // check. tree-tag not visible. See comment in subsetOfBranchesVisibleIncludingHead.
+  }
+
+  @Test
+  public void permissionAwareRefDatabaseReturnsRefsOfNestedPrefixesOnce() throws Exception {
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/branch").group(REGISTERED_USERS))
+        .update();
+
+    try (Repository repo = repoManager.openRepository(project)) {
+      RefDatabase refDb =
+          PermissionAwareRepositoryManager.wrap(repo, newFilter(project, user)).getRefDatabase();
+      assertThat(
+              names(
+                  refDb.getRefsByPrefix(
+                      RefNames.REFS_HEADS,
+                      "refs/heads/branch",
+                      RefNames.REFS_TAGS,
+                      "refs/tags/branch")))
+          .containsExactly("refs/heads/branch", "refs/tags/branch-tag", "refs/tags/master-tag");
+      assertThat(names(refDb.getRefsByPrefix(RefNames.REFS_HEADS, "refs/", RefNames.REFS_CHANGES)))
+          .containsExactly(
+              psRef2,
+              metaRef2,
+              psRef4,
+              metaRef4,
+              "refs/heads/branch",
+              "refs/tags/branch-tag",
+              "refs/tags/master-tag");
+      assertThat(refDb.getRefsByPrefix("refs/heads/master", "refs/heads/master")).isEmpty();
+      assertThat(refDb.getRefsByPrefix()).isEmpty();
+    }
+  }
+
   // first  ls-remote: rcMaster (c1 master)
   // second ls-remote: rcMaster (c1 master) <- newchange1 (master-newtag)
   @Test
@@ -1415,6 +1517,10 @@ public class RefAdvertisementIT extends AbstractDaemonTest {
     }
   }
 
+  private static List<String> names(List<Ref> refs) {
+    return refs.stream().map(Ref::getName).collect(toList());
+  }
+
   private List<String> getRefs(Git git) throws Exception {
     return getRefs(git, x -> true);
   }
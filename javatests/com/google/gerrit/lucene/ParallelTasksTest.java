@@ -0,0 +1,141 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.exceptions.StorageException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTasksTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void returnsResultsInOrder() throws Exception {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      int n = i;
+      tasks.add(() -> n);
+    }
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      expected.add(i);
+    }
+    assertThat(ParallelTasks.runAll(executor, tasks)).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void runsTasksConcurrently() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Callable<Boolean> task =
+        () -> {
+          bothStarted.countDown();
+          return bothStarted.await(10, SECONDS);
+        };
+    assertThat(ParallelTasks.runAll(executor, ImmutableList.of(task, task)))
+        .containsExactly(true, true);
+  }
+
+  @Test
+  public void runsRejectedTasksOnCallingThread() throws Exception {
+    Thread caller = Thread.currentThread();
+    Callable<Boolean> task = () -> Thread.currentThread() == caller;
+    assertThat(
+            ParallelTasks.runAll(
+                r -> {
+                  throw new RejectedExecutionException();
+                },
+                ImmutableList.of(task, task, task)))
+        .containsExactly(true, true, true);
+  }
+
+  @Test
+  public void failureWaitsForRunningTasksAndCancelsPendingOnes() throws Exception {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch running = new CountDownLatch(1);
+      AtomicBoolean runningFinished = new AtomicBoolean();
+      AtomicBoolean pendingStarted = new AtomicBoolean();
+      Callable<String> failing =
+          () -> {
+            running.await(10, SECONDS);
+            throw new IOException("search failed");
+          };
+      Callable<String> slow =
+          () -> {
+            running.countDown();
+            Thread.sleep(200);
+            runningFinished.set(true);
+            return "slow";
+          };
+      Callable<String> pending =
+          () -> {
+            pendingStarted.set(true);
+            return "pending";
+          };
+
+      IOException thrown =
+          assertThrows(
+              IOException.class,
+              () -> ParallelTasks.runAll(single, ImmutableList.of(failing, slow, pending)));
+      assertThat(thrown).hasMessageThat().isEqualTo("search failed");
+      assertThat(runningFinished.get()).isTrue();
+
+      single.shutdown();
+      assertThat(single.awaitTermination(10, SECONDS)).isTrue();
+      assertThat(pendingStarted.get()).isFalse();
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  @Test
+  public void wrapsCheckedExceptions() {
+    Callable<String> failing =
+        () -> {
+          throw new Exception("boom");
+        };
+    StorageException thrown =
+        assertThrows(
+            StorageException.class,
+            () -> ParallelTasks.runAll(executor, ImmutableList.of(failing, failing)));
+    assertThat(thrown).hasCauseThat().hasMessageThat().isEqualTo("boom");
+  }
+}
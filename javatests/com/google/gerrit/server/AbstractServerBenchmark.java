@@ -0,0 +1,92 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.server.account.AccountManager;
+import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.schema.SchemaCreator;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gerrit.testing.InMemoryModule;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base class for benchmarks that need a fully wired, in-memory Gerrit server.
+ *
+ * <p>The server is created once per trial. The first account becomes an administrator and is used
+ * to create fixtures; benchmarks run as a second, regular account so that permission checks take
+ * the same code paths as for most users of a production site.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractServerBenchmark {
+  @Inject protected AccountManager accountManager;
+  @Inject protected AuthRequest.Factory authRequestFactory;
+  @Inject protected GerritApi gApi;
+  @Inject protected IdentifiedUser.GenericFactory userFactory;
+  @Inject protected InMemoryRepositoryManager repoManager;
+  @Inject protected SchemaCreator schemaCreator;
+  @Inject protected ThreadLocalRequestContext requestContext;
+
+  protected Injector injector;
+  protected Account.Id adminId;
+  protected Account.Id userId;
+
+  private LifecycleManager lifecycle;
+
+  @Setup(Level.Trial)
+  public void setUpServer() throws Exception {
+    Config cfg = new Config();
+    InMemoryModule.setDefaults(cfg);
+    configure(cfg);
+
+    injector = Guice.createInjector(new InMemoryModule(cfg));
+    lifecycle = new LifecycleManager();
+    lifecycle.add(injector);
+    injector.injectMembers(this);
+    lifecycle.start();
+
+    schemaCreator.create();
+    adminId = accountManager.authenticate(authRequestFactory.createForUser("admin")).getAccountId();
+    userId = accountManager.authenticate(authRequestFactory.createForUser("user")).getAccountId();
+    setApiUser(adminId);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownServer() {
+    if (lifecycle != null) {
+      lifecycle.stop();
+    }
+    requestContext.setContext(null);
+  }
+
+  /** Hook to adjust the server configuration before the injector is created. */
+  protected void configure(Config cfg) {}
+
+  protected void setApiUser(Account.Id accountId) {
+    CurrentUser user = userFactory.create(accountId);
+    requestContext.setContext(() -> user);
+  }
+}
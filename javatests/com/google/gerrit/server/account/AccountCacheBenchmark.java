@@ -0,0 +1,154 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.NotifyConfig;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.config.CachedPreferences;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap retained by the entries of the {@code accounts} cache when they are loaded from
+ * the persistent cache, and compares it with the memory approximated by {@link
+ * CachedAccountDetails.Weigher#bytes}.
+ *
+ * <p>With {@code shared=false} every entry gets its own copies of its project watches and of its
+ * preferences config, as entries had before they were interned. Most accounts have no preferences
+ * of their own; the others use a few typical configurations, and every account watches some of a
+ * small set of projects.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountCacheBenchmark {
+  private static final int PROJECTS = 50;
+  private static final int PREFERENCES = 5;
+
+  @Param({"100000"})
+  public int accounts;
+
+  @Param({"false", "true"})
+  public boolean shared;
+
+  private List<byte[]> serialized;
+
+  /** Heap sizes of the loaded entries, reported next to the time of each iteration. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Heap {
+    public long retainedBytes;
+    public long weighedBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    serialized = new ArrayList<>(accounts);
+    for (int i = 0; i < accounts; i++) {
+      Account account =
+          Account.builder(Account.id(1000000 + i), Instant.ofEpochSecond(i))
+              .setFullName("User Number " + i)
+              .setDisplayName("user" + i)
+              .setPreferredEmail("user" + i + "@example.com")
+              .setMetaId(ObjectId.fromRaw(new int[] {i, i, i, i, i}).name())
+              .build();
+      ImmutableMap.Builder<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+          watches = ImmutableMap.builder();
+      for (int p = 0; p < i % 4; p++) {
+        watches.put(
+            ProjectWatches.ProjectWatchKey.create(
+                Project.nameKey("platform/project-" + ((i + p) % PROJECTS)), null),
+            ImmutableSet.of(
+                NotifyConfig.NotifyType.NEW_CHANGES, NotifyConfig.NotifyType.SUBMITTED_CHANGES));
+      }
+      CachedPreferences preferences =
+          i % 10 == 0
+              ? CachedPreferences.fromString(
+                  "[general]\n\tchangesPerPage = " + (25 * (1 + i % PREFERENCES)) + "\n")
+              : CachedPreferences.EMPTY;
+      serialized.add(
+          CachedAccountDetails.Serializer.INSTANCE.serialize(
+              CachedAccountDetails.create(account, watches.build(), preferences)));
+    }
+  }
+
+  @Benchmark
+  public List<CachedAccountDetails> load(Heap heap) {
+    long before = usedHeap();
+    List<CachedAccountDetails> loaded = new ArrayList<>(accounts);
+    List<String> preferenceCopies = new ArrayList<>(shared ? 0 : accounts);
+    long weight = 0;
+    for (byte[] b : serialized) {
+      CachedAccountDetails details = CachedAccountDetails.Serializer.INSTANCE.deserialize(b);
+      if (!shared) {
+        details = copyWatches(details);
+        preferenceCopies.add(new String(details.preferences().config()));
+      }
+      loaded.add(details);
+      weight +=
+          CachedAccountDetails.Weigher.bytes(
+              CachedAccountDetails.Key.create(details.account().id(), ObjectId.zeroId()), details);
+    }
+    heap.retainedBytes = usedHeap() - before;
+    heap.weighedBytes = weight;
+    preferenceCopies.clear();
+    return loaded;
+  }
+
+  private static CachedAccountDetails copyWatches(CachedAccountDetails details) {
+    ImmutableMap.Builder<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+        watches = ImmutableMap.builder();
+    for (Map.Entry<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>> e :
+        details.projectWatches().entrySet()) {
+      watches.put(
+          ProjectWatches.ProjectWatchKey.create(
+              Project.nameKey(new String(e.getKey().project().get())), e.getKey().filter()),
+          ImmutableSet.copyOf(new ArrayList<>(e.getValue())));
+    }
+    return new AutoValue_CachedAccountDetails(
+        details.account(), watches.build(), details.preferences());
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -24,6 +24,7 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.cache.proto.Cache;
 import com.google.gerrit.server.config.CachedPreferences;
 import java.time.Instant;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
 /**
@@ -141,4 +142,66 @@ public class AccountCacheTest {
     ProtoTruth.assertThat(Cache.AccountDetailsProto.parseFrom(serialized)).isEqualTo(expected);
     Truth.assertThat(SERIALIZER.deserialize(serialized)).isEqualTo(original);
   }
+
+  @Test
+  public void deserializedDetailsShareEqualWatchesAndPreferences() throws Exception {
+    ProjectWatches.ProjectWatchKey key =
+        ProjectWatches.ProjectWatchKey.create(Project.nameKey("pro/ject"), "*");
+    byte[] serialized =
+        SERIALIZER.serialize(
+            CachedAccountDetails.create(
+                ACCOUNT,
+                ImmutableMap.of(key, ImmutableSet.of(NotifyConfig.NotifyType.ALL_COMMENTS)),
+                CachedPreferences.fromString("[general]\n\tfoo = bar")));
+
+    CachedAccountDetails first = SERIALIZER.deserialize(serialized);
+    CachedAccountDetails second = SERIALIZER.deserialize(serialized);
+    Truth.assertThat(second.preferences()).isSameInstanceAs(first.preferences());
+    Truth.assertThat(second.projectWatches().keySet().iterator().next())
+        .isSameInstanceAs(first.projectWatches().keySet().iterator().next());
+    Truth.assertThat(second.projectWatches().values().iterator().next())
+        .isSameInstanceAs(first.projectWatches().values().iterator().next());
+    Truth.assertThat(CachedPreferences.fromString("")).isSameInstanceAs(CachedPreferences.EMPTY);
+  }
+
+  @Test
+  public void weigherCountsOwnPreferencesOnly() throws Exception {
+    CachedAccountDetails.Key key = CachedAccountDetails.Key.create(ACCOUNT.id(), ObjectId.zeroId());
+    int withoutPreferences =
+        CachedAccountDetails.Weigher.bytes(
+            key, CachedAccountDetails.create(ACCOUNT, ImmutableMap.of(), CachedPreferences.EMPTY));
+    int withPreferences =
+        CachedAccountDetails.Weigher.bytes(
+            key,
+            CachedAccountDetails.create(
+                ACCOUNT,
+                ImmutableMap.of(),
+                CachedPreferences.fromString("[general]\n\tfoo = bar")));
+    Truth.assertThat(withoutPreferences).isGreaterThan(0);
+    Truth.assertThat(withPreferences).isGreaterThan(withoutPreferences);
+  }
+
+  @Test
+  public void weigherCountsTypicalAccountsAsOneEntry() throws Exception {
+    CachedAccountDetails.Key key = CachedAccountDetails.Key.create(ACCOUNT.id(), ObjectId.zeroId());
+    CachedAccountDetails.Weigher weigher = new CachedAccountDetails.Weigher();
+    ImmutableMap.Builder<ProjectWatches.ProjectWatchKey, ImmutableSet<NotifyConfig.NotifyType>>
+        watches = ImmutableMap.builder();
+    for (int i = 0; i < 100; i++) {
+      watches.put(
+          ProjectWatches.ProjectWatchKey.create(Project.nameKey("p" + i), null),
+          ImmutableSet.of(NotifyConfig.NotifyType.ALL_COMMENTS));
+    }
+
+    Truth.assertThat(
+            weigher.weigh(
+                key,
+                CachedAccountDetails.create(ACCOUNT, ImmutableMap.of(), CachedPreferences.EMPTY)))
+        .isEqualTo(1);
+    Truth.assertThat(
+            weigher.weigh(
+                key,
+                CachedAccountDetails.create(ACCOUNT, watches.build(), CachedPreferences.EMPTY)))
+        .isGreaterThan(1);
+  }
 }
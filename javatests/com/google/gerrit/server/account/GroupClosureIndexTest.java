@@ -0,0 +1,187 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupClosureIndexTest {
+  private static final Account.Id ACCOUNT = Account.id(1000);
+  private static final Account.Id OTHER_ACCOUNT = Account.id(1001);
+  private static final AccountGroup.UUID A = AccountGroup.uuid("a");
+  private static final AccountGroup.UUID B = AccountGroup.uuid("b");
+  private static final AccountGroup.UUID C = AccountGroup.uuid("c");
+  private static final AccountGroup.UUID D = AccountGroup.uuid("d");
+
+  private final ListMultimap<AccountGroup.UUID, AccountGroup.UUID> parents =
+      MultimapBuilder.hashKeys().arrayListValues().build();
+  private final ListMultimap<Account.Id, AccountGroup.UUID> members =
+      MultimapBuilder.hashKeys().arrayListValues().build();
+  private final Cache<AccountGroup.UUID, GroupClosure> ancestors =
+      CacheBuilder.newBuilder().build();
+  private final Cache<Account.Id, GroupClosure> byMember = CacheBuilder.newBuilder().build();
+  private ImmutableList<AccountGroup.UUID> externals = ImmutableList.of();
+  private int parentLookups;
+  private GroupClosureIndex index;
+
+  @Before
+  public void setUp() {
+    index =
+        new GroupClosureIndex(
+            g -> {
+              parentLookups++;
+              return ImmutableList.copyOf(parents.get(g));
+            },
+            a -> ImmutableList.copyOf(members.get(a)),
+            () -> externals,
+            ancestors,
+            byMember);
+  }
+
+  @Test
+  public void closureOfAccountContainsNestedGroups() {
+    members.put(ACCOUNT, A);
+    parents.put(A, B);
+    parents.put(B, C);
+
+    GroupClosure closure = index.groupsWithMember(ACCOUNT);
+    assertThat(closure.toSet()).containsExactly(A, B, C);
+    assertThat(closure.contains(C)).isTrue();
+    assertThat(closure.contains(D)).isFalse();
+    assertThat(closure.containsAnyOf(ImmutableList.of(D, B))).isTrue();
+    assertThat(index.groupsWithMember(OTHER_ACCOUNT).toSet()).isEmpty();
+  }
+
+  @Test
+  public void cyclesAreFollowedOnce() {
+    parents.put(A, B);
+    parents.put(B, A);
+
+    assertThat(index.ancestorsOf(A).toSet()).containsExactly(A, B);
+    assertThat(parentLookups).isEqualTo(2);
+  }
+
+  @Test
+  public void closuresOfParentsAreReused() {
+    parents.put(B, C);
+    parents.put(C, D);
+    index.ancestorsOf(B);
+    parentLookups = 0;
+
+    parents.put(A, B);
+    assertThat(index.ancestorsOf(A).toSet()).containsExactly(A, B, C, D);
+    assertThat(parentLookups).isEqualTo(1);
+  }
+
+  @Test
+  public void evictingParentsDropsOnlyClosuresContainingGroup() {
+    members.put(ACCOUNT, A);
+    members.put(OTHER_ACCOUNT, D);
+    parents.put(A, B);
+    index.groupsWithMember(ACCOUNT);
+    index.groupsWithMember(OTHER_ACCOUNT);
+
+    parents.put(B, C);
+    index.evictParentGroupsOf(B);
+
+    assertThat(byMember.getIfPresent(ACCOUNT)).isNull();
+    assertThat(byMember.getIfPresent(OTHER_ACCOUNT)).isNotNull();
+    assertThat(ancestors.asMap().keySet()).containsExactly(D);
+    assertThat(index.groupsWithMember(ACCOUNT).toSet()).containsExactly(A, B, C);
+  }
+
+  @Test
+  public void evictingMemberRecomputesItsClosure() {
+    members.put(ACCOUNT, A);
+    assertThat(index.groupsWithMember(ACCOUNT).contains(D)).isFalse();
+
+    members.put(ACCOUNT, D);
+    index.evictGroupsWithMember(ACCOUNT);
+
+    assertThat(index.groupsWithMember(ACCOUNT).toSet()).isEqualTo(ImmutableSet.of(A, D));
+    assertThat(ancestors.asMap().keySet()).containsExactly(A, D);
+  }
+
+  @Test
+  public void evictingAncestorsDropsOnlyClosureOfGroup() {
+    members.put(ACCOUNT, A);
+    parents.put(A, B);
+    index.groupsWithMember(ACCOUNT);
+
+    index.evictAncestorsOf(A);
+
+    assertThat(ancestors.asMap().keySet()).isEmpty();
+    assertThat(byMember.getIfPresent(ACCOUNT)).isNotNull();
+  }
+
+  @Test
+  public void externalSubgroupsAreFoundThroughAllParents() {
+    AccountGroup.UUID external = AccountGroup.uuid("ldap:x");
+    externals = ImmutableList.of(external);
+    parents.put(external, A);
+    parents.put(A, B);
+
+    assertThat(index.externalSubgroupsOf(B)).containsExactly(external);
+    assertThat(index.externalSubgroupsOf(external)).containsExactly(external);
+    assertThat(index.externalSubgroupsOf(C)).isEmpty();
+
+    parents.put(B, C);
+    index.evictParentGroupsOf(B);
+    assertThat(index.externalSubgroupsOf(C)).containsExactly(external);
+
+    externals = ImmutableList.of();
+    assertThat(index.externalSubgroupsOf(B)).isEmpty();
+  }
+
+  @Test
+  public void externalSubgroupsAreIndexedOnce() {
+    externals = ImmutableList.of(AccountGroup.uuid("ldap:x"), AccountGroup.uuid("ldap:y"));
+    index.externalSubgroupsOf(A);
+    parentLookups = 0;
+
+    index.externalSubgroupsOf(B);
+    index.evictGroupsWithMember(ACCOUNT);
+    index.externalSubgroupsOf(C);
+
+    assertThat(parentLookups).isEqualTo(0);
+  }
+
+  @Test
+  public void numberingStartsOverWhenFull() {
+    parents.put(A, B);
+    GroupClosure old = index.ancestorsOf(A);
+    for (int i = 0; i <= GroupClosureIndex.MIN_GROUPS_PER_NUMBERING; i++) {
+      index.ancestorsOf(AccountGroup.uuid("g" + i));
+    }
+    ancestors.invalidateAll();
+
+    GroupClosure closure = index.ancestorsOf(C);
+    assertThat(ancestors.asMap().keySet()).containsExactly(C);
+    assertThat(closure.toSet()).containsExactly(C);
+    assertThat(old.toSet()).containsExactly(A, B);
+    assertThat(old.contains(B)).isTrue();
+    assertThat(index.ancestorsOf(A).toSet()).containsExactly(A, B);
+  }
+}
@@ -15,12 +15,13 @@
 package com.google.gerrit.server.account.externalids;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
 import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static com.google.gerrit.proto.testing.SerializedClassSubject.assertThatSerializedClass;
 import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.server.account.externalids.AllExternalIds.Serializer;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto;
@@ -126,17 +127,40 @@ public class AllExternalIdsTest {
             .build());
   }
 
+  @Test
+  public void updateAppliesRemovalsBeforeAdditions() throws Exception {
+    Account.Id accountId1 = Account.id(1001);
+    Account.Id accountId2 = Account.id(1002);
+    ExternalId id1 = externalIdFactory.createEmail(accountId1, "foo@example.com");
+    ExternalId id2 = externalIdFactory.create("scheme", "id2", accountId1);
+    ExternalId id3 = externalIdFactory.createEmail(accountId2, "bar@example.com");
+    ExternalId id2Moved = externalIdFactory.create("scheme", "id2", accountId2);
+
+    AllExternalIds updated =
+        allExternalIds(id1, id2)
+            .update(ImmutableList.of(id1, id2), ImmutableList.of(id3, id2Moved));
+
+    assertThat(updated).isEqualTo(allExternalIds(id3, id2Moved));
+    assertThat(updated.size()).isEqualTo(2);
+    assertThat(updated.byKey(id2.key())).hasValue(id2Moved);
+    assertThat(updated.byKey(id1.key())).isEmpty();
+    assertThat(updated.byAccount(accountId1)).isEmpty();
+    assertThat(updated.byAccount(accountId2)).containsExactly(id3, id2Moved);
+    assertThat(updated.byEmail("foo@example.com")).isEmpty();
+    assertThat(updated.allByEmail()).containsExactly("bar@example.com", id3);
+  }
+
   @Test
   public void allExternalIdsMethods() {
     assertThatSerializedClass(AllExternalIds.class)
         .hasAutoValueMethods(
             ImmutableMap.of(
-                "byKey",
-                new TypeLiteral<ImmutableMap<ExternalId.Key, ExternalId>>() {}.getType(),
-                "byAccount",
-                new TypeLiteral<ImmutableSetMultimap<Account.Id, ExternalId>>() {}.getType(),
-                "byEmail",
-                new TypeLiteral<ImmutableSetMultimap<String, ExternalId>>() {}.getType()));
+                "keyIndex",
+                new TypeLiteral<ShardedSetMultimap<ExternalId.Key, ExternalId>>() {}.getType(),
+                "accountIndex",
+                new TypeLiteral<ShardedSetMultimap<Account.Id, ExternalId>>() {}.getType(),
+                "emailIndex",
+                new TypeLiteral<ShardedSetMultimap<String, ExternalId>>() {}.getType()));
   }
 
   @Test
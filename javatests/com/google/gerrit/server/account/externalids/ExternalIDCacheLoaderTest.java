@@ -137,7 +137,7 @@ public class ExternalIDCacheLoaderTest {
   public void handlesDeletionInPartialReload() throws Exception {
     ObjectId firstState = insertExternalId(1, 1);
     ObjectId head = deleteExternalId(1, 1);
-    assertThat(allFromGit(head).byAccount().size()).isEqualTo(0);
+    assertThat(allFromGit(head).size()).isEqualTo(0);
     externalIdCache.put(firstState, allFromGit(firstState));
 
     assertThat(loader.load(head)).isEqualTo(allFromGit(head));
@@ -153,7 +153,7 @@ public class ExternalIDCacheLoaderTest {
             externalId(1, 1),
             externalIdFactory.create(
                 "fooschema", "bar1", Account.id(1), "foo@bar.com", "password"));
-    assertThat(allFromGit(head).byAccount().size()).isEqualTo(1);
+    assertThat(allFromGit(head).size()).isEqualTo(1);
     externalIdCache.put(firstState, allFromGit(firstState));
 
     assertThat(loader.load(head)).isEqualTo(allFromGit(head));
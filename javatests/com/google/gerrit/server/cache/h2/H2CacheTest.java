@@ -16,6 +16,7 @@ package com.google.gerrit.server.cache.h2;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
@@ -29,15 +30,20 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCacheMetrics;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.inject.TypeLiteral;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -47,6 +53,10 @@ import org.junit.Test;
 public class H2CacheTest {
   private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<>() {};
   private static final int DEFAULT_VERSION = 1234;
+  private static final H2CacheMetrics.ForCache METRICS =
+      new H2CacheMetrics(
+              new DisabledMetricMaker(), new PersistentCacheMetrics(new DisabledMetricMaker()))
+          .forCache("test");
   private static int dbCnt;
 
   private static int nextDbId() {
@@ -55,12 +65,28 @@ public class H2CacheTest {
 
   private static H2CacheImpl<String, String> newH2CacheImpl(
       SqlStore<String, String> store, Cache<String, ValueHolder<String>> mem) {
-    return new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem);
+    return newH2CacheImpl(store, mem, null);
+  }
+
+  private static H2CacheImpl<String, String> newH2CacheImpl(
+      SqlStore<String, String> store,
+      Cache<String, ValueHolder<String>> mem,
+      @Nullable CacheLoader<String, ValueHolder<String>> loader) {
+    return new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem, loader, METRICS);
+  }
+
+  private static SqlStore<String, String> newStore(
+      int id,
+      int version,
+      @Nullable Duration expireAfterWrite,
+      @Nullable Duration refreshAfterWrite) {
+    return newStore(id, version, 1 << 20, expireAfterWrite, refreshAfterWrite);
   }
 
   private static SqlStore<String, String> newStore(
       int id,
       int version,
+      long maxSize,
       @Nullable Duration expireAfterWrite,
       @Nullable Duration refreshAfterWrite) {
     return new SqlStore<>(
@@ -69,7 +95,7 @@ public class H2CacheTest {
         StringCacheSerializer.INSTANCE,
         StringCacheSerializer.INSTANCE,
         version,
-        1 << 20,
+        maxSize,
         expireAfterWrite,
         refreshAfterWrite);
   }
@@ -111,18 +137,17 @@ public class H2CacheTest {
 
   @Test
   public void getAll_WithLoadingCache_LoaderNotImplementingLoadAll() throws ExecutionException {
-    Cache<String, ValueHolder<String>> mem =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<String, ValueHolder<String>>() {
-                  @Override
-                  public ValueHolder<String> load(String s) throws Exception {
-                    return new ValueHolder<>(s + "_loaded", Instant.now());
-                  }
-                });
+    CacheLoader<String, ValueHolder<String>> loader =
+        new CacheLoader<>() {
+          @Override
+          public ValueHolder<String> load(String s) throws Exception {
+            return new ValueHolder<>(s + "_loaded", Instant.now());
+          }
+        };
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build(loader);
 
     H2CacheImpl<String, String> impl =
-        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), mem);
+        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), mem, loader);
 
     assertThat(impl.getAll(Arrays.asList("S1", "S2")))
         .containsExactlyEntriesIn(ImmutableMap.of("S1", "S1_loaded", "S2", "S2_loaded"));
@@ -134,28 +159,27 @@ public class H2CacheTest {
 
   @Test
   public void getAll_WithLoadingCache_LoaderImplementingLoadAll() throws ExecutionException {
-    Cache<String, ValueHolder<String>> mem =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<String, ValueHolder<String>>() {
-                  @Override
-                  public ValueHolder<String> load(String s) throws Exception {
-                    return new ValueHolder<>(s + "_loaded", Instant.now());
-                  }
-
-                  @Override
-                  public Map<String, ValueHolder<String>> loadAll(Iterable<? extends String> keys)
-                      throws Exception {
-                    Map<String, ValueHolder<String>> result = new HashMap<>();
-                    for (String k : keys) {
-                      result.put(k, load(k));
-                    }
-                    return result;
-                  }
-                });
+    CacheLoader<String, ValueHolder<String>> loader =
+        new CacheLoader<>() {
+          @Override
+          public ValueHolder<String> load(String s) throws Exception {
+            return new ValueHolder<>(s + "_loaded", Instant.now());
+          }
+
+          @Override
+          public Map<String, ValueHolder<String>> loadAll(Iterable<? extends String> keys)
+              throws Exception {
+            Map<String, ValueHolder<String>> result = new HashMap<>();
+            for (String k : keys) {
+              result.put(k, load(k));
+            }
+            return result;
+          }
+        };
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build(loader);
 
     H2CacheImpl<String, String> impl =
-        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), mem);
+        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), mem, loader);
 
     assertThat(impl.getAll(Arrays.asList("S1", "S2")))
         .containsExactlyEntriesIn(ImmutableMap.of("S1", "S1_loaded", "S2", "S2_loaded"));
@@ -165,6 +189,78 @@ public class H2CacheTest {
     assertWithMessage("in-memory value").that(impl.getIfPresent("S2")).isEqualTo("S2_loaded");
   }
 
+  @Test
+  public void get_CountsEachLookupOnceInStats() throws ExecutionException {
+    CacheLoader<String, ValueHolder<String>> loader =
+        new CacheLoader<>() {
+          @Override
+          public ValueHolder<String> load(String s) throws Exception {
+            return new ValueHolder<>(s + "_loaded", Instant.now());
+          }
+        };
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().recordStats().build(loader);
+    H2CacheImpl<String, String> impl =
+        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), mem, loader);
+
+    assertThat(impl.get("foo")).isEqualTo("foo_loaded");
+    assertThat(impl.get("foo")).isEqualTo("foo_loaded");
+    assertThat(impl.get("bar", () -> "bar")).isEqualTo("bar");
+    assertThat(impl.get("bar", () -> "baz")).isEqualTo("bar");
+
+    assertThat(impl.stats().missCount()).isEqualTo(2);
+    assertThat(impl.stats().hitCount()).isEqualTo(2);
+
+    assertThat(impl.getAll(Arrays.asList("S1", "S2")))
+        .containsExactlyEntriesIn(ImmutableMap.of("S1", "S1_loaded", "S2", "S2_loaded"));
+
+    // Make sure the values were cached
+    assertWithMessage("in-memory value").that(impl.getIfPresent("S1")).isEqualTo("S1_loaded");
+    assertWithMessage("in-memory value").that(impl.getIfPresent("S2")).isEqualTo("S2_loaded");
+  }
+
+  @Test
+  public void getAllPresent_ReadsMissingKeysFromDiskInBatches() {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    SqlStore<String, String> store = newStore(nextDbId(), DEFAULT_VERSION, null, null);
+    H2CacheImpl<String, String> impl = newH2CacheImpl(store, mem);
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      store.put("key" + i, new ValueHolder<>("val" + i, Instant.now()));
+      keys.add("key" + i);
+    }
+    mem.put("key0", new ValueHolder<>("mem0", Instant.now()));
+    keys.add("missing");
+
+    Map<String, String> result = impl.getAllPresent(keys);
+
+    assertThat(result).hasSize(300);
+    assertThat(result).containsEntry("key0", "mem0");
+    assertThat(result).containsEntry("key299", "val299");
+    assertThat(result).doesNotContainKey("missing");
+    assertThat(mem.getIfPresent("key299").value).isEqualTo("val299");
+    assertThat(impl.diskStats().hitCount()).isEqualTo(299);
+  }
+
+  @Test
+  public void getAllPresent_RecordsDiskHitsAndBloomFalsePositives() {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    SqlStore<String, String> store = newStore(nextDbId(), DEFAULT_VERSION, null, null);
+    store.put("hit", new ValueHolder<>("val", Instant.now()));
+    store.put("gone", new ValueHolder<>("val", Instant.now()));
+    assertThat(store.mightContain("gone")).isTrue();
+    store.invalidate("gone");
+    H2CacheMetrics.ForCache metrics = mock(H2CacheMetrics.ForCache.class);
+    PersistentCacheMetrics.ForCache latencies = mock(PersistentCacheMetrics.ForCache.class);
+    when(metrics.latencies()).thenReturn(latencies);
+    H2CacheImpl<String, String> impl =
+        new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem, null, metrics);
+
+    assertThat(impl.getAllPresent(Arrays.asList("hit", "gone"))).containsExactly("hit", "val");
+
+    verify(latencies).diskHit(anyLong());
+    verify(metrics).bloomFalsePositive();
+  }
+
   @Test
   public void stringSerializer() {
     String input = "foo";
@@ -205,6 +301,48 @@ public class H2CacheTest {
     assertThat(oldImpl.getIfPresent("key")).isNull();
   }
 
+  @Test
+  public void bloomFilterIsSavedOnCloseAndLoadedOnce() {
+    int id = nextDbId();
+    // Keeps the in-memory database alive while the other stores are closed.
+    SqlStore<String, String> keepAlive = newStore(id, DEFAULT_VERSION, null, null);
+    keepAlive.diskStats();
+
+    SqlStore<String, String> store = newStore(id, DEFAULT_VERSION, null, null);
+    store.open();
+    store.put("foo", new ValueHolder<>("bar", Instant.now()));
+    store.close();
+
+    // Removing the entry behind the saved filter's back shows whether it was loaded or rebuilt.
+    keepAlive.invalidate("foo");
+
+    store = newStore(id, DEFAULT_VERSION, null, null);
+    store.open();
+    assertThat(store.mightContain("foo")).isTrue();
+
+    // The saved filter was consumed by the previous open, so this one scans the table.
+    SqlStore<String, String> rebuilt = newStore(id, DEFAULT_VERSION, null, null);
+    rebuilt.open();
+    assertThat(rebuilt.mightContain("foo")).isFalse();
+  }
+
+  @Test
+  public void bloomFilterOfOtherVersionIsIgnored() {
+    int id = nextDbId();
+    SqlStore<String, String> keepAlive = newStore(id, DEFAULT_VERSION, null, null);
+    keepAlive.diskStats();
+
+    SqlStore<String, String> store = newStore(id, DEFAULT_VERSION, null, null);
+    store.open();
+    store.put("foo", new ValueHolder<>("bar", Instant.now()));
+    store.close();
+    keepAlive.invalidate("foo");
+
+    store = newStore(id, DEFAULT_VERSION + 1, null, null);
+    store.open();
+    assertThat(store.mightContain("foo")).isFalse();
+  }
+
   @Test
   public void refreshAfterWrite_triggeredWhenConfigured() throws Exception {
     SqlStore<String, String> store =
@@ -217,15 +355,18 @@ public class H2CacheTest {
 
     // We wrap baseLoader just like H2CacheFactory is wrapping it. The wrapped version will call out
     // to the store for refreshing values.
-    H2CacheImpl.Loader<String, String> wrappedLoader =
-        new H2CacheImpl.Loader<>(MoreExecutors.directExecutor(), store, baseLoader);
+    AbstractPersistentCache.Loader<String, String> wrappedLoader =
+        new AbstractPersistentCache.Loader<>(
+            MoreExecutors.directExecutor(),
+            H2CacheImpl.newStore(store, METRICS),
+            baseLoader);
     // memCache is the in-memory variant of the cache. Its loader is wrappedLoader which will call
     // out to the store to save or delete cached values.
     LoadingCache<String, ValueHolder<String>> memCache =
         CacheBuilder.newBuilder().maximumSize(10).build(wrappedLoader);
 
     // h2Cache puts it all together
-    H2CacheImpl<String, String> h2Cache = newH2CacheImpl(store, memCache);
+    H2CacheImpl<String, String> h2Cache = newH2CacheImpl(store, memCache, wrappedLoader);
 
     // Initial load and cache retrieval do not trigger refresh
     // This works because we use a directExecutor() for refreshes
@@ -249,6 +390,43 @@ public class H2CacheTest {
     assertThat(h2Cache.getIfPresent("foo")).isEqualTo("reload:foo");
   }
 
+  @Test
+  public void pruneSliceDoesNothingWithinLimit() {
+    H2CacheImpl<String, String> impl =
+        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, null, null), disableMemCache());
+    for (int i = 0; i < 5; i++) {
+      impl.put("key" + i, "val" + i);
+    }
+
+    assertThat(impl.pruneSlice(10)).isEqualTo(0);
+    assertThat(impl.diskStats().size()).isEqualTo(5);
+  }
+
+  @Test
+  public void pruneSliceEvictsBoundedNumberOfEntriesNotInMemory() {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, String> impl =
+        newH2CacheImpl(newStore(nextDbId(), DEFAULT_VERSION, 1, null, null), mem);
+    for (int i = 0; i < 5; i++) {
+      impl.put("key" + i, "val" + i);
+    }
+    for (int i = 1; i < 5; i++) {
+      mem.invalidate("key" + i); // Invalidates only the memcache, not the store.
+    }
+    long space = impl.diskStats().space();
+
+    long reclaimed = impl.pruneSlice(2);
+    assertThat(reclaimed).isGreaterThan(0);
+    assertThat(impl.diskStats().size()).isAtLeast(3);
+    assertThat(impl.diskStats().space()).isEqualTo(space - reclaimed);
+
+    while (impl.diskStats().size() > 1) {
+      assertThat(impl.pruneSlice(2)).isGreaterThan(0);
+    }
+    mem.invalidateAll();
+    assertThat(impl.getIfPresent("key0")).isEqualTo("val0");
+  }
+
   @SuppressWarnings("unchecked")
   private static void resetLoaderAndAnswerLoadAndRefreshCalls(CacheLoader<String, String> loader)
       throws Exception {
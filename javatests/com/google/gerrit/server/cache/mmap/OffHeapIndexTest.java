@@ -0,0 +1,89 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.server.cache.mmap.OffHeapIndex.Entry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class OffHeapIndexTest {
+  @Test
+  public void putGetRemove() {
+    OffHeapIndex index = new OffHeapIndex();
+    assertThat(index.get(42, 1)).isNull();
+
+    assertThat(index.put(42, 1, 16, 100, 5)).isNull();
+    Entry e = index.peek(42);
+    assertThat(e.segment).isEqualTo(1);
+    assertThat(e.offset).isEqualTo(16);
+    assertThat(e.length).isEqualTo(100);
+    assertThat(e.accessed).isEqualTo(5);
+    assertThat(index.get(42, 7).accessed).isEqualTo(7);
+    assertThat(index.peek(42).accessed).isEqualTo(7);
+
+    Entry old = index.put(42, 2, 32, 200, 8);
+    assertThat(old.segment).isEqualTo(1);
+    assertThat(index.size()).isEqualTo(1);
+
+    assertThat(index.remove(42).segment).isEqualTo(2);
+    assertThat(index.peek(42)).isNull();
+    assertThat(index.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void moveAndRemoveOnlyAtExpectedLocation() {
+    OffHeapIndex index = new OffHeapIndex();
+    index.put(42, 1, 16, 100, 5);
+    Entry stale = new Entry(1, 48, 100, 5);
+    assertThat(index.move(42, stale, 3, 64)).isFalse();
+    assertThat(index.remove(42, stale)).isFalse();
+
+    Entry current = index.peek(42);
+    assertThat(index.move(42, current, 3, 64)).isTrue();
+    assertThat(index.peek(42).isAt(3, 64)).isTrue();
+    assertThat(index.remove(42, current)).isFalse();
+    assertThat(index.remove(42, index.peek(42))).isTrue();
+  }
+
+  @Test
+  public void randomOperationsMatchHashMap() {
+    OffHeapIndex index = new OffHeapIndex();
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(1234);
+    for (int i = 0; i < 200_000; i++) {
+      // A small key space, with all keys in a few stripes, forces collisions and resizes.
+      long hash = ((long) random.nextInt(4) << 62) | (random.nextInt(20_000) + 1);
+      if (random.nextInt(3) == 0) {
+        Entry old = index.remove(hash);
+        Integer prev = expected.remove(hash);
+        assertThat(old == null ? null : old.offset).isEqualTo(prev);
+      } else {
+        index.put(hash, 0, i, 1, 0);
+        expected.put(hash, i);
+      }
+    }
+    assertThat(index.size()).isEqualTo(expected.size());
+    for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+      assertThat(index.peek(e.getKey()).offset).isEqualTo(e.getValue());
+    }
+
+    index.clear();
+    assertThat(index.size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentStoreTest {
+  private static final int DEFAULT_VERSION = 1234;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @After
+  public void resetTime() {
+    TimeUtil.resetCurrentMillisSupplier();
+  }
+
+  private SegmentStore<String, String> newStore(Path dir, int version, long maxSize) {
+    SegmentStore<String, String> store =
+        new SegmentStore<>(
+            dir,
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            version,
+            maxSize,
+            4096,
+            null,
+            null);
+    store.open();
+    return store;
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    return new ValueHolder<>(value, Instant.now());
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    SegmentStore<String, String> store =
+        newStore(temporaryFolder.newFolder().toPath(), DEFAULT_VERSION, 1 << 20);
+    assertThat(store.getIfPresent("foo")).isNull();
+
+    ValueHolder<String> h = holder("bar");
+    store.put("foo", h);
+    assertThat(h.clean).isTrue();
+    assertThat(store.getIfPresent("foo").value).isEqualTo("bar");
+
+    store.put("foo", holder("baz"));
+    assertThat(store.getIfPresent("foo").value).isEqualTo("baz");
+    assertThat(store.diskStats().size()).isEqualTo(1);
+    assertThat(store.diskStats().hitCount()).isEqualTo(2);
+    assertThat(store.diskStats().requestCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void entriesSurviveReopen() throws Exception {
+    Path dir = temporaryFolder.newFolder().toPath();
+    SegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 20);
+    for (int i = 0; i < 500; i++) {
+      store.put("key" + i, holder("value" + i));
+    }
+    store.invalidate("key7");
+    store.put("key8", holder("updated"));
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION, 1 << 20);
+    assertThat(store.diskStats().size()).isEqualTo(499);
+    assertThat(store.getIfPresent("key0").value).isEqualTo("value0");
+    assertThat(store.getIfPresent("key7")).isNull();
+    assertThat(store.getIfPresent("key8").value).isEqualTo("updated");
+    assertThat(store.getIfPresent("key499").value).isEqualTo("value499");
+  }
+
+  @Test
+  public void version() throws Exception {
+    Path dir = temporaryFolder.newFolder().toPath();
+    SegmentStore<String, String> oldStore = newStore(dir, DEFAULT_VERSION, 1 << 20);
+    oldStore.put("key", holder("val"));
+    oldStore.close();
+
+    SegmentStore<String, String> newStore = newStore(dir, DEFAULT_VERSION + 1, 1 << 20);
+    assertThat(newStore.getIfPresent("key")).isNull();
+    newStore.put("key", holder("val2"));
+    assertThat(newStore.getIfPresent("key").value).isEqualTo("val2");
+  }
+
+  @Test
+  public void invalidateAll() throws Exception {
+    Path dir = temporaryFolder.newFolder().toPath();
+    SegmentStore<String, String> store = newStore(dir, DEFAULT_VERSION, 1 << 20);
+    store.put("foo", holder("bar"));
+    store.invalidateAll();
+    assertThat(store.getIfPresent("foo")).isNull();
+    store.close();
+
+    store = newStore(dir, DEFAULT_VERSION, 1 << 20);
+    assertThat(store.getIfPresent("foo")).isNull();
+    assertThat(store.diskStats().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void entryLargerThanSegmentIsNotStored() throws Exception {
+    SegmentStore<String, String> store =
+        newStore(temporaryFolder.newFolder().toPath(), DEFAULT_VERSION, 1 << 20);
+    ValueHolder<String> h = holder(Strings.repeat("x", 8192));
+    store.put("big", h);
+    assertThat(h.clean).isFalse();
+    assertThat(store.getIfPresent("big")).isNull();
+  }
+
+  @Test
+  public void compactionReclaimsSupersededRecords() throws Exception {
+    SegmentStore<String, String> store =
+        newStore(temporaryFolder.newFolder().toPath(), DEFAULT_VERSION, 1 << 20);
+    String value = Strings.repeat("v", 100);
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 50; i++) {
+        store.put("key" + i, holder(value + round));
+      }
+    }
+    long before = store.diskStats().space();
+
+    store.compact(CacheBuilder.newBuilder().build());
+
+    assertThat(store.diskStats().space()).isLessThan(before);
+    assertThat(store.diskStats().size()).isEqualTo(50);
+    for (int i = 0; i < 50; i++) {
+      assertThat(store.getIfPresent("key" + i).value).isEqualTo(value + 9);
+    }
+  }
+
+  @Test
+  public void compactionHonoursDiskLimit() throws Exception {
+    // Freeze the clock, so that no entry counts as used since the store was opened.
+    long now = TimeUtil.nowMs();
+    TimeUtil.setCurrentMillisSupplier(() -> now);
+    long maxSize = 16 << 10;
+    SegmentStore<String, String> store =
+        newStore(temporaryFolder.newFolder().toPath(), DEFAULT_VERSION, maxSize);
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    String value = Strings.repeat("v", 200);
+    for (int i = 0; i < 500; i++) {
+      store.put("key" + i, holder(value));
+    }
+    mem.put("key0", holder(value));
+    assertThat(store.diskStats().space()).isGreaterThan(maxSize);
+
+    store.compact(mem);
+    store.compact(mem);
+
+    assertThat(store.diskStats().space()).isAtMost(maxSize);
+    assertThat(store.diskStats().size()).isLessThan(500);
+    assertThat(store.getIfPresent("key0").value).isEqualTo(value);
+    assertThat(store.getIfPresent("key499").value).isEqualTo(value);
+  }
+
+  @Test
+  public void compactionOverDiskLimitRewritesHotEntriesOncePerSweep() throws Exception {
+    SegmentStore<String, String> store =
+        newStore(temporaryFolder.newFolder().toPath(), DEFAULT_VERSION, 4 << 10);
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    String value = Strings.repeat("v", 200);
+    for (int i = 0; i < 100; i++) {
+      store.put("key" + i, holder(value));
+      mem.put("key" + i, holder(value));
+    }
+    long before = store.diskStats().space();
+
+    // All entries are hot, so none can be dropped; the sweep must still end.
+    store.compact(mem);
+
+    assertThat(store.diskStats().size()).isEqualTo(100);
+    assertThat(store.diskStats().space()).isAtMost(before + (4 << 10));
+    for (int i = 0; i < 100; i++) {
+      assertThat(store.getIfPresent("key" + i).value).isEqualTo(value);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.serialize;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.base.Strings;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class CompressingCacheSerializerTest {
+  private static class CountingListener implements CompressingCacheSerializer.Listener {
+    int compressed;
+    int decompressed;
+
+    @Override
+    public void onCompress(int size, int compressedSize, long nanos) {
+      compressed++;
+    }
+
+    @Override
+    public void onDecompress(long nanos) {
+      decompressed++;
+    }
+  }
+
+  private final CountingListener listener = new CountingListener();
+
+  private CompressingCacheSerializer<String> newSerializer(int threshold) {
+    return new CompressingCacheSerializer<>(StringCacheSerializer.INSTANCE, threshold, listener);
+  }
+
+  @Test
+  public void valueBelowThresholdIsStoredAsIs() {
+    CompressingCacheSerializer<String> s = newSerializer(100);
+    byte[] out = s.serialize("foo");
+    assertThat(out).isEqualTo(new byte[] {0, 'f', 'o', 'o'});
+    assertThat(s.deserialize(out)).isEqualTo("foo");
+    assertThat(listener.compressed).isEqualTo(0);
+    assertThat(listener.decompressed).isEqualTo(0);
+  }
+
+  @Test
+  public void compressibleValueIsCompressed() {
+    CompressingCacheSerializer<String> s = newSerializer(100);
+    String value = Strings.repeat("line of a diff\n", 1000);
+    byte[] out = s.serialize(value);
+    assertThat(out.length).isLessThan(value.length() / 10);
+    assertThat(s.deserialize(out)).isEqualTo(value);
+    assertThat(listener.compressed).isEqualTo(1);
+    assertThat(listener.decompressed).isEqualTo(1);
+  }
+
+  @Test
+  public void incompressibleValueIsStoredAsIs() {
+    CompressingCacheSerializer<String> s = newSerializer(0);
+    char[] chars = new char[200];
+    Random random = new Random(42);
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) ('!' + random.nextInt(90));
+    }
+    String value = new String(chars);
+    byte[] out = s.serialize(value);
+    assertThat(out.length).isEqualTo(value.length() + 1);
+    assertThat(s.deserialize(out)).isEqualTo(value);
+    assertThat(s.deserialize(newSerializer(0).serialize(""))).isEqualTo("");
+  }
+
+  @Test
+  public void thresholdCanChangeForStoredValues() {
+    String value = Strings.repeat("x", 500);
+    byte[] compressed = newSerializer(100).serialize(value);
+    byte[] raw = newSerializer(1000).serialize(value);
+    assertThat(newSerializer(1000).deserialize(compressed)).isEqualTo(value);
+    assertThat(newSerializer(100).deserialize(raw)).isEqualTo(value);
+  }
+
+  @Test
+  public void corruptValueIsRejected() {
+    byte[] out = newSerializer(0).serialize(Strings.repeat("x", 500));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> newSerializer(0).deserialize(Arrays.copyOf(out, out.length - 3)));
+    assertThrows(
+        IllegalArgumentException.class, () -> newSerializer(0).deserialize(new byte[] {7}));
+  }
+}
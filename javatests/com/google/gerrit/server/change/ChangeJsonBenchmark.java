@@ -0,0 +1,99 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.ChangeInput;
+import com.google.gerrit.server.AbstractServerBenchmark;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ChangeJson#format(java.util.Collection)} for a query result of {@link
+ * #changeCount} changes, using the options of the default dashboard.
+ *
+ * <p>Every invocation formats fresh {@link ChangeData} instances, so per-request memoization is
+ * not carried over between invocations while server-wide caches stay warm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangeJsonBenchmark extends AbstractServerBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark");
+
+  private static final ImmutableSet<ListChangesOption> DASHBOARD_OPTIONS =
+      ImmutableSet.of(
+          ListChangesOption.LABELS,
+          ListChangesOption.DETAILED_ACCOUNTS,
+          ListChangesOption.SUBMITTABLE,
+          ListChangesOption.CURRENT_REVISION);
+
+  @Inject private ChangeJson.Factory changeJsonFactory;
+  @Inject private ChangeData.Factory changeDataFactory;
+
+  @Param({"500"})
+  public int changeCount;
+
+  private List<Change.Id> changeIds;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.name = PROJECT.get();
+    in.createEmptyCommit = true;
+    gApi.projects().create(in);
+    changeIds = new ArrayList<>(changeCount);
+    for (int i = 0; i < changeCount; i++) {
+      ChangeInfo info =
+          gApi.changes().create(new ChangeInput(PROJECT.get(), "master", "Change " + i)).get();
+      changeIds.add(Change.id(info._number));
+      if (i % 2 == 0) {
+        gApi.changes().id(info._number).current().review(ReviewInput.recommend());
+      }
+    }
+    setApiUser(userId);
+  }
+
+  @Benchmark
+  public List<ChangeInfo> format() throws Exception {
+    ImmutableList.Builder<ChangeData> changes = ImmutableList.builder();
+    for (Change.Id id : changeIds) {
+      changes.add(changeDataFactory.create(PROJECT, id));
+    }
+    return changeJsonFactory.create(DASHBOARD_OPTIONS).format(changes.build());
+  }
+}
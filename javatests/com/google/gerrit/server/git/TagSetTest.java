@@ -31,6 +31,7 @@ import com.google.gerrit.server.cache.proto.Cache.TagSetHolderProto.TagSetProto.
 import com.google.gerrit.server.git.TagSet.CachedRef;
 import com.google.gerrit.server.git.TagSet.Tag;
 import com.google.inject.TypeLiteral;
+import com.google.protobuf.ByteString;
 import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -38,11 +39,22 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class TagSetTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void roundTripToProto() {
     HashMap<String, CachedRef> refs = new HashMap<>();
@@ -59,10 +71,13 @@ public class TagSetTest {
     tags.add(
         new Tag(
             ObjectId.fromString("dddddddddddddddddddddddddddddddddddddddd"), newBitSet(2, 4, 6)));
+    tags.add(
+        new Tag(
+            ObjectId.fromString("eeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeee"), newBitSet(1, 3, 5)));
     TagSet tagSet = new TagSet(Project.nameKey("project"), refs, tags);
 
     TagSetProto proto = tagSet.toProto();
-    assertThat(proto)
+    assertThat(proto.toBuilder().clearTag().clearFlagSet().build())
         .ignoringRepeatedFieldOrder()
         .isEqualTo(
             TagSetProto.newBuilder()
@@ -85,27 +100,175 @@ public class TagSetTest {
                                 0xbb, 0xbb, 0xbb, 0xbb, 0xbb, 0xbb, 0xbb, 0xbb, 0xbb))
                         .setFlag(2)
                         .build())
-                .addTag(
-                    TagProto.newBuilder()
-                        .setId(
-                            byteString(
-                                0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc,
-                                0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc, 0xcc))
-                        .setFlags(byteString(0x2a))
-                        .build())
-                .addTag(
-                    TagProto.newBuilder()
-                        .setId(
-                            byteString(
-                                0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd,
-                                0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd, 0xdd))
-                        .setFlags(byteString(0x54))
-                        .build())
                 .build());
 
+    // Tags with the same flags share one flag set.
+    assertThat(proto.getFlagSetList()).containsExactly(byteString(0x2a), byteString(0x54));
+    Map<String, ByteString> flagsByTag = new HashMap<>();
+    for (TagProto tag : proto.getTagList()) {
+      flagsByTag.put(
+          ObjectId.fromRaw(tag.getId().toByteArray()).name(),
+          proto.getFlagSet(tag.getFlagSetIndex()));
+    }
+    assertThat(flagsByTag)
+        .containsExactly(
+            "cccccccccccccccccccccccccccccccccccccccc", byteString(0x2a),
+            "dddddddddddddddddddddddddddddddddddddddd", byteString(0x54),
+            "eeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeee", byteString(0x2a));
+
     assertEqual(tagSet, TagSet.fromProto(proto));
   }
 
+  @Test
+  public void newRefNotAtKnownTipIsAddedWithoutRebuild() throws Exception {
+    InMemoryRepository repo = new InMemoryRepository(new DfsRepositoryDescription("project"));
+    TestRepository<InMemoryRepository> tr = new TestRepository<>(repo);
+    RevCommit c1 = tr.branch("refs/heads/master").commit().create();
+    tr.update("refs/tags/v1", tr.tag("v1", c1));
+    RevCommit c2 = tr.commit().parent(c1).create();
+    tr.update("refs/tags/v2", tr.tag("v2", c2));
+
+    TagSet old = new TagSet(Project.nameKey("project"));
+    old.build(repo, null, null);
+    CachedRef master = old.getRefsForTesting().get("refs/heads/master");
+    assertThat(old.lookupTag(c1).refFlags.get(master.flag)).isTrue();
+    assertThat(old.lookupTag(c2).refFlags.isEmpty()).isTrue();
+
+    tr.update("refs/heads/feature", c2);
+    TagMatcher m =
+        new TagMatcher(
+            null, null, repo, repo.getRefDatabase().getRefsByPrefix("refs/heads/"), old, false);
+    old.prepare(m);
+    assertThat(m.newRefs).hasSize(1);
+
+    TagSet refreshed = new TagSet(Project.nameKey("project"));
+    refreshed.build(repo, old, m);
+    assertThat(refreshed.getRefsForTesting().get("refs/heads/master")).isSameInstanceAs(master);
+    CachedRef feature = refreshed.getRefsForTesting().get("refs/heads/feature");
+    assertThat(feature).isNotNull();
+    assertThat(refreshed.lookupTag(c1).refFlags.get(feature.flag)).isTrue();
+    assertThat(refreshed.lookupTag(c2).refFlags.get(feature.flag)).isTrue();
+    assertThat(refreshed.lookupTag(c2).refFlags.get(master.flag)).isFalse();
+  }
+
+  @Test
+  public void severalNewRefsNotAtKnownTipsWithoutBitmapsRebuild() throws Exception {
+    InMemoryRepository repo = new InMemoryRepository(new DfsRepositoryDescription("project"));
+    TestRepository<InMemoryRepository> tr = new TestRepository<>(repo);
+    RevCommit c1 = tr.branch("refs/heads/master").commit().create();
+    tr.update("refs/tags/v1", tr.tag("v1", c1));
+    RevCommit c2 = tr.commit().parent(c1).create();
+    tr.update("refs/tags/v2", tr.tag("v2", c2));
+    RevCommit c3 = tr.commit().parent(c2).create();
+
+    TagSet old = new TagSet(Project.nameKey("project"));
+    old.build(repo, null, null);
+    CachedRef master = old.getRefsForTesting().get("refs/heads/master");
+
+    tr.update("refs/heads/feature", c2);
+    tr.update("refs/heads/other", c3);
+    TagMatcher m =
+        new TagMatcher(
+            null, null, repo, repo.getRefDatabase().getRefsByPrefix("refs/heads/"), old, false);
+    old.prepare(m);
+    assertThat(m.newRefs).hasSize(2);
+
+    TagSet refreshed = new TagSet(Project.nameKey("project"));
+    refreshed.build(repo, old, m);
+    assertThat(refreshed.getRefsForTesting().get("refs/heads/master")).isNotSameInstanceAs(master);
+    CachedRef feature = refreshed.getRefsForTesting().get("refs/heads/feature");
+    CachedRef other = refreshed.getRefsForTesting().get("refs/heads/other");
+    assertThat(refreshed.lookupTag(c1).refFlags.get(feature.flag)).isTrue();
+    assertThat(refreshed.lookupTag(c2).refFlags.get(feature.flag)).isTrue();
+    assertThat(refreshed.lookupTag(c2).refFlags.get(other.flag)).isTrue();
+  }
+
+  @Test
+  public void severalNewRefsNotAtKnownTipsWithBitmapsAreAddedWithoutRebuild() throws Exception {
+    try (FileRepository repo = newBitmappedRepository()) {
+      TestRepository<FileRepository> tr = new TestRepository<>(repo);
+      RevCommit c1 = tr.getRevWalk().parseCommit(repo.resolve("refs/tags/v1"));
+      RevCommit c2 = tr.getRevWalk().parseCommit(repo.resolve("refs/tags/v2"));
+
+      TagSet old = new TagSet(Project.nameKey("project"));
+      old.build(repo, null, null);
+      CachedRef master = old.getRefsForTesting().get("refs/heads/master");
+
+      // feature is not covered by a bitmap, other is the tagged commit itself.
+      tr.update("refs/heads/feature", tr.commit().parent(c2).create());
+      tr.update("refs/heads/other", c2);
+      TagMatcher m =
+          new TagMatcher(
+              null, null, repo, repo.getRefDatabase().getRefsByPrefix("refs/heads/"), old, false);
+      old.prepare(m);
+      assertThat(m.newRefs).hasSize(2);
+
+      TagSet refreshed = new TagSet(Project.nameKey("project"));
+      refreshed.build(repo, old, m);
+      assertThat(refreshed.getRefsForTesting().get("refs/heads/master")).isSameInstanceAs(master);
+      CachedRef feature = refreshed.getRefsForTesting().get("refs/heads/feature");
+      CachedRef other = refreshed.getRefsForTesting().get("refs/heads/other");
+      assertThat(refreshed.lookupTag(c1).refFlags.get(feature.flag)).isTrue();
+      assertThat(refreshed.lookupTag(c2).refFlags.get(feature.flag)).isTrue();
+      assertThat(refreshed.lookupTag(c1).refFlags.get(other.flag)).isTrue();
+      assertThat(refreshed.lookupTag(c2).refFlags.get(other.flag)).isTrue();
+      assertThat(refreshed.lookupTag(c2).refFlags.get(master.flag)).isFalse();
+    }
+  }
+
+  @Test
+  public void newRefsWithBitmapsAreAddedWithoutRebuildUpToLimit() throws Exception {
+    assertThat(refreshesIncrementally(TagSet.MAX_INCREMENTAL_REFS)).isTrue();
+    assertThat(refreshesIncrementally(TagSet.MAX_INCREMENTAL_REFS + 1)).isFalse();
+  }
+
+  private boolean refreshesIncrementally(int newRefCount) throws Exception {
+    try (FileRepository repo = newBitmappedRepository()) {
+      TestRepository<FileRepository> tr = new TestRepository<>(repo);
+      RevCommit c2 = tr.getRevWalk().parseCommit(repo.resolve("refs/tags/v2"));
+
+      TagSet old = new TagSet(Project.nameKey("project"));
+      old.build(repo, null, null);
+      CachedRef master = old.getRefsForTesting().get("refs/heads/master");
+
+      for (int i = 0; i < newRefCount; i++) {
+        tr.update("refs/heads/b" + i, tr.commit().parent(c2).message("b" + i).create());
+      }
+      TagMatcher m =
+          new TagMatcher(
+              null, null, repo, repo.getRefDatabase().getRefsByPrefix("refs/heads/"), old, false);
+      old.prepare(m);
+      assertThat(m.newRefs).hasSize(newRefCount);
+
+      TagSet refreshed = new TagSet(Project.nameKey("project"));
+      refreshed.build(repo, old, m);
+      for (int i = 0; i < newRefCount; i++) {
+        CachedRef b = refreshed.getRefsForTesting().get("refs/heads/b" + i);
+        assertThat(refreshed.lookupTag(c2).refFlags.get(b.flag)).isTrue();
+      }
+      return refreshed.getRefsForTesting().get("refs/heads/master") == master;
+    }
+  }
+
+  /**
+   * Returns a repository with master at c1 (tagged v1) and a tagged commit c2 on top of it, packed
+   * with bitmaps.
+   */
+  private FileRepository newBitmappedRepository() throws Exception {
+    FileRepository repo = new FileRepository(temporaryFolder.newFolder());
+    repo.create(true);
+    TestRepository<FileRepository> tr = new TestRepository<>(repo);
+    RevCommit c1 = tr.branch("refs/heads/master").commit().create();
+    tr.update("refs/tags/v1", tr.tag("v1", c1));
+    RevCommit c2 = tr.commit().parent(c1).create();
+    tr.update("refs/tags/v2", tr.tag("v2", c2));
+    Git.wrap(repo).gc().call();
+    try (ObjectReader reader = repo.newObjectReader()) {
+      assertThat(reader.getBitmapIndex()).isNotNull();
+    }
+    return repo;
+  }
+
   @Test
   public void tagSetFields() {
     assertThatSerializedClass(TagSet.class)
@@ -0,0 +1,158 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.LabelId;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.PatchSetApproval;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.testing.FakeStoredValue;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures encoding and decoding of the stored-only proto fields {@code _change}, {@code
+ * _patch_set} and {@code _approval} of the change index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeFieldBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark");
+  private static final Instant TS = Instant.parse("2022-01-01T00:00:00Z");
+
+  @Param({"500"})
+  public int changeCount;
+
+  @Param({"5"})
+  public int patchSetsPerChange;
+
+  @Param({"10"})
+  public int approvalsPerChange;
+
+  private List<ChangeData> changes;
+  private List<byte[]> encodedChanges;
+  private List<Iterable<byte[]>> encodedPatchSets;
+  private List<Iterable<byte[]>> encodedApprovals;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    changes = new ArrayList<>(changeCount);
+    encodedChanges = new ArrayList<>(changeCount);
+    encodedPatchSets = new ArrayList<>(changeCount);
+    encodedApprovals = new ArrayList<>(changeCount);
+    for (int i = 1; i <= changeCount; i++) {
+      ChangeData cd = newChangeData(i, patchSetsPerChange, approvalsPerChange);
+      changes.add(cd);
+      encodedChanges.add(ChangeField.CHANGE.get(cd));
+      encodedPatchSets.add(ChangeField.PATCH_SET.get(cd));
+      encodedApprovals.add(ChangeField.APPROVAL.get(cd));
+    }
+  }
+
+  @Benchmark
+  public void encode(Blackhole bh) {
+    for (ChangeData cd : changes) {
+      bh.consume(ChangeField.CHANGE.get(cd));
+      bh.consume(ChangeField.PATCH_SET.get(cd));
+      bh.consume(ChangeField.APPROVAL.get(cd));
+    }
+  }
+
+  @Benchmark
+  public void decode(Blackhole bh) {
+    for (int i = 0; i < changeCount; i++) {
+      ChangeData cd = ChangeData.createForTest(PROJECT, Change.id(i + 1), 1, ObjectId.zeroId());
+      ChangeField.CHANGE.setIfPossible(cd, new FakeStoredValue(encodedChanges.get(i)));
+      ChangeField.PATCH_SET.setIfPossible(cd, new FakeStoredValue(encodedPatchSets.get(i)));
+      ChangeField.APPROVAL.setIfPossible(cd, new FakeStoredValue(encodedApprovals.get(i)));
+      bh.consume(cd);
+    }
+  }
+
+  /** Creates a fully populated {@link ChangeData} without touching NoteDb. */
+  static ChangeData newChangeData(int id, int patchSets, int approvals) {
+    Change.Id changeId = Change.id(id);
+    Account.Id owner = Account.id(1000 + id % 100);
+    Change change =
+        new Change(
+            Change.key(String.format("I%040x", id)),
+            changeId,
+            owner,
+            BranchNameKey.create(PROJECT, "master"),
+            TS);
+    change.setTopic("topic-" + id % 20);
+    PatchSet.Id currentPsId = PatchSet.id(changeId, patchSets);
+    change.setCurrentPatchSet(currentPsId, "Subject of change " + id, "Original subject " + id);
+
+    ImmutableList.Builder<PatchSet> ps = ImmutableList.builder();
+    for (int n = 1; n <= patchSets; n++) {
+      ps.add(
+          PatchSet.builder()
+              .id(PatchSet.id(changeId, n))
+              .commitId(ObjectId.fromString(String.format("%08x%032x", id, n)))
+              .uploader(owner)
+              .createdOn(TS.plusSeconds(n))
+              .groups(ImmutableList.of(String.format("%08x%032x", id, 1)))
+              .description("Patch set " + n)
+              .build());
+    }
+
+    ImmutableList.Builder<PatchSetApproval> psa = ImmutableList.builder();
+    for (int n = 0; n < approvals; n++) {
+      psa.add(
+          PatchSetApproval.builder()
+              .key(
+                  PatchSetApproval.key(
+                      currentPsId,
+                      Account.id(2000 + n),
+                      LabelId.create(n % 2 == 0 ? LabelId.CODE_REVIEW : LabelId.VERIFIED)))
+              .value(n % 2 == 0 ? 2 : 1)
+              .granted(TS.plusSeconds(100 + n))
+              .tag("autogenerated:ci")
+              .build());
+    }
+
+    ChangeData cd = ChangeData.createForTest(PROJECT, changeId, patchSets, ObjectId.zeroId());
+    cd.setChange(change);
+    cd.setPatchSets(ps.build());
+    cd.setCurrentApprovals(psa.build());
+    return cd;
+  }
+}
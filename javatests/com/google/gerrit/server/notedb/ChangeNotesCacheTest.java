@@ -19,10 +19,16 @@ import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static com.google.gerrit.proto.testing.SerializedClassSubject.assertThatSerializedClass;
 import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
 
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Comment;
+import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.cache.proto.Cache.ChangeNotesCommentsProto;
 import com.google.gerrit.server.cache.proto.Cache.ChangeNotesKeyProto;
+import java.time.Instant;
 import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
@@ -48,6 +54,45 @@ public final class ChangeNotesCacheTest {
     assertThat(ChangeNotesCache.Key.Serializer.INSTANCE.deserialize(serialized)).isEqualTo(key);
   }
 
+  @Test
+  public void commentsSerializer() throws Exception {
+    HumanComment c1 =
+        new HumanComment(
+            new Comment.Key("uuid1", "file1", 1),
+            Account.id(1001),
+            Instant.ofEpochMilli(1212L),
+            (short) 1,
+            "message 1",
+            "serverId",
+            false);
+    c1.setCommitId(ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+    String c1Json = ChangeNotesCache.CommentsSerializer.GSON.toJson(c1);
+
+    HumanComment c2 =
+        new HumanComment(
+            new Comment.Key("uuid2", "file2", 2),
+            Account.id(1002),
+            Instant.ofEpochMilli(3434L),
+            (short) 2,
+            "message 2",
+            "serverId",
+            true);
+    c2.setCommitId(ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"));
+    String c2Json = ChangeNotesCache.CommentsSerializer.GSON.toJson(c2);
+
+    ImmutableListMultimap<ObjectId, HumanComment> comments =
+        ImmutableListMultimap.of(c2.getCommitId(), c2, c1.getCommitId(), c1);
+    byte[] serialized = ChangeNotesCache.CommentsSerializer.INSTANCE.serialize(comments);
+    assertThat(ChangeNotesCommentsProto.parseFrom(serialized))
+        .isEqualTo(
+            ChangeNotesCommentsProto.newBuilder()
+                .addPublishedComment(c2Json)
+                .addPublishedComment(c1Json)
+                .build());
+    assertThat(ChangeNotesCache.CommentsSerializer.INSTANCE.deserialize(serialized))
+        .isEqualTo(comments);
+  }
+
   @Test
   public void keyMethods() throws Exception {
     assertThatSerializedClass(ChangeNotesCache.Key.class)
@@ -15,15 +15,19 @@
 package com.google.gerrit.server.notedb;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.server.util.time.TimeUtil;
+import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.FooterKey;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.After;
 import org.junit.Before;
@@ -95,6 +99,47 @@ public class ChangeNotesCommitTest extends AbstractChangeNotesTest {
     assertThat(((ChangeNotesCommit) commit).isAttentionSetCommitOnly(true)).isEqualTo(false);
   }
 
+  @Test
+  public void footerLineValuesMatchJGit() throws Exception {
+    ImmutableList<String> messages =
+        ImmutableList.of(
+            "Update patch set 1\n"
+                + "\n"
+                + "Patch-set: 1\n"
+                + "label: Code-Review=+1\n"
+                + "LABEL: Verified=-1\n"
+                + "Tag:   spaced\n",
+            "Update patch set 2\n"
+                + "\n"
+                + "Label: Code-Review=+2\n"
+                + "\n"
+                + "Patch-set: 2\n"
+                + "not a footer\n"
+                + "Label:\n"
+                + "\n"
+                + "\n",
+            "Patch-set: 3");
+    ImmutableList<FooterKey> keys =
+        ImmutableList.of(
+            ChangeNoteUtil.FOOTER_PATCH_SET,
+            ChangeNoteUtil.FOOTER_LABEL,
+            ChangeNoteUtil.FOOTER_TAG,
+            ChangeNoteUtil.FOOTER_STATUS);
+    for (String message : messages) {
+      ChangeNotesCommit commit = (ChangeNotesCommit) writeCommit(message);
+      for (FooterKey key : keys) {
+        List<String> expected = commit.getFooterLines(key);
+        assertWithMessage("%s in %s", key.getName(), message)
+            .that(commit.getFooterLineValues(key))
+            .containsExactlyElementsIn(expected)
+            .inOrder();
+        assertThat(commit.getFooterLineCount(key)).isEqualTo(expected.size());
+        assertThat(commit.getFirstFooterLineValue(key))
+            .isEqualTo(expected.isEmpty() ? null : expected.get(0));
+      }
+    }
+  }
+
   private ChangeNotesParser newParser(ObjectId tip) throws Exception {
     walk.reset();
     ChangeNoteJson changeNoteJson = injector.getInstance(ChangeNoteJson.class);
@@ -0,0 +1,160 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.gerrit.metrics.proc.ThreadMXBeanFactory;
+import com.google.gerrit.metrics.proc.ThreadMXBeanInterface;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.FooterKey;
+import org.eclipse.jgit.revwalk.FooterLine;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures time and heap allocation of looking up the footers of all commits of the synthetic meta
+ * history of {@link ChangeNotesParserBenchmark}.
+ *
+ * <p>Every commit is asked for every footer that {@link ChangeNotesParser} reads. With {@code
+ * indexed=false} the footers are read through {@link org.eclipse.jgit.revwalk.RevCommit
+ * #getFooterLines()} into a multimap, as {@link ChangeNotesCommit} did before it indexed the raw
+ * buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeNotesFooterBenchmark {
+  private static final ThreadMXBeanInterface threadMxBean = ThreadMXBeanFactory.create();
+
+  private static final ImmutableList<FooterKey> FOOTERS = footers();
+
+  private static ImmutableList<FooterKey> footers() {
+    ImmutableList.Builder<FooterKey> keys = ImmutableList.builder();
+    keys.add(
+        ChangeNoteUtil.FOOTER_ASSIGNEE,
+        ChangeNoteUtil.FOOTER_ATTENTION,
+        ChangeNoteUtil.FOOTER_BRANCH,
+        ChangeNoteUtil.FOOTER_CHANGE_ID,
+        ChangeNoteUtil.FOOTER_CHERRY_PICK_OF,
+        ChangeNoteUtil.FOOTER_COMMIT,
+        ChangeNoteUtil.FOOTER_COPIED_LABEL,
+        ChangeNoteUtil.FOOTER_CURRENT,
+        ChangeNoteUtil.FOOTER_GROUPS,
+        ChangeNoteUtil.FOOTER_HASHTAGS,
+        ChangeNoteUtil.FOOTER_LABEL,
+        ChangeNoteUtil.FOOTER_PATCH_SET,
+        ChangeNoteUtil.FOOTER_PATCH_SET_DESCRIPTION,
+        ChangeNoteUtil.FOOTER_PRIVATE,
+        ChangeNoteUtil.FOOTER_REAL_USER,
+        ChangeNoteUtil.FOOTER_REVERT_OF,
+        ChangeNoteUtil.FOOTER_STATUS,
+        ChangeNoteUtil.FOOTER_SUBJECT,
+        ChangeNoteUtil.FOOTER_SUBMISSION_ID,
+        ChangeNoteUtil.FOOTER_SUBMITTED_WITH,
+        ChangeNoteUtil.FOOTER_TAG,
+        ChangeNoteUtil.FOOTER_TOPIC,
+        ChangeNoteUtil.FOOTER_WORK_IN_PROGRESS);
+    for (ReviewerStateInternal state : ReviewerStateInternal.values()) {
+      keys.add(state.getFooterKey(), state.getByEmailFooterKey());
+    }
+    return keys.build();
+  }
+
+  @Param({"5000"})
+  public int metaCommits;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  private InMemoryRepository repo;
+  private ObjectId tip;
+
+  /** Heap allocated by the thread during an invocation, reported next to its time. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Allocation {
+    public long allocatedBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("benchmark"));
+    tip = ChangeNotesParserBenchmark.writeMetaHistory(repo, metaCommits);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    repo.close();
+  }
+
+  @Benchmark
+  public int readFooters(Allocation allocation) throws Exception {
+    long before = threadMxBean.getCurrentThreadAllocatedBytes();
+    int values = 0;
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      walk.markStart(walk.parseCommit(tip));
+      ChangeNotesCommit commit;
+      while ((commit = walk.next()) != null) {
+        values += indexed ? readIndexed(commit) : readFooterLines(commit);
+      }
+    }
+    allocation.allocatedBytes = threadMxBean.getCurrentThreadAllocatedBytes() - before;
+    return values;
+  }
+
+  private static int readIndexed(ChangeNotesCommit commit) {
+    int values = 0;
+    for (FooterKey key : FOOTERS) {
+      values += commit.getFooterLineValues(key).size();
+    }
+    return values;
+  }
+
+  private static int readFooterLines(ChangeNotesCommit commit) {
+    List<FooterLine> src = commit.getFooterLines();
+    ListMultimap<String, String> footerLines =
+        MultimapBuilder.hashKeys(src.size()).arrayListValues(1).build();
+    for (FooterLine fl : src) {
+      footerLines.put(fl.getKey().toLowerCase(), fl.getValue());
+    }
+    int values = 0;
+    for (FooterKey key : FOOTERS) {
+      values += footerLines.get(key.getName().toLowerCase()).size();
+    }
+    return values;
+  }
+}
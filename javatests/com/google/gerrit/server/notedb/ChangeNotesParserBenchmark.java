@@ -0,0 +1,160 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ChangeNotesParser#parseAll()} over a synthetic meta history.
+ *
+ * <p>The history mimics a busy change: every commit carries a vote and a change message, every
+ * tenth commit adds a reviewer and every hundredth commit uploads a new patch set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeNotesParserBenchmark {
+  private static final Change.Id CHANGE_ID = Change.id(1);
+
+  @Param({"100", "1000", "5000"})
+  public int metaCommits;
+
+  private InMemoryRepository repo;
+  private ObjectId tip;
+  private ChangeNoteJson changeNoteJson;
+  private NoteDbMetrics metrics;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("benchmark"));
+    tip = writeMetaHistory(repo, metaCommits);
+    changeNoteJson = new ChangeNoteJson();
+    metrics = new NoteDbMetrics(new DisabledMetricMaker());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    repo.close();
+  }
+
+  @Benchmark
+  public ChangeNotesState parseAll() throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(CHANGE_ID, tip, walk, changeNoteJson, metrics).parseAll();
+    }
+  }
+
+  /**
+   * Writes a deterministic meta history with {@code count} commits and returns its tip.
+   *
+   * <p>Timestamps and identities are fixed, so the same object IDs are produced on every run.
+   */
+  static ObjectId writeMetaHistory(InMemoryRepository repo, int count) throws Exception {
+    Instant start = Instant.parse("2022-01-01T00:00:00Z");
+    try (ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId emptyTree = ins.insert(Constants.OBJ_TREE, new byte[0]);
+      ObjectId parent = null;
+      int patchSet = 1;
+      for (int i = 0; i < count; i++) {
+        Instant when = start.plusSeconds(i);
+        int accountId = 1000 + (i % 50);
+        PersonIdent author =
+            new PersonIdent(
+                "Gerrit User " + accountId, accountId + "@gerrit", when.toEpochMilli(), 0);
+        PersonIdent committer =
+            new PersonIdent("Gerrit Server", "noreply@gerrit.com", when.toEpochMilli(), 0);
+
+        StringBuilder msg = new StringBuilder();
+        if (i == 0) {
+          msg.append("Create change\n\n");
+          msg.append("Uploaded patch set 1.\n\n");
+          msg.append("Patch-set: 1\n");
+          msg.append("Change-id: I577fb248e474018276351785930358ec0450e9f7\n");
+          msg.append("Subject: Synthetic benchmark change\n");
+          msg.append("Branch: refs/heads/master\n");
+          msg.append("Status: new\n");
+          msg.append("Commit: ").append(commitId(patchSet).name()).append('\n');
+          msg.append("Groups: ").append(commitId(patchSet).name()).append('\n');
+        } else if (i % 100 == 0) {
+          patchSet++;
+          msg.append("Update patch set ").append(patchSet).append("\n\n");
+          msg.append("Uploaded patch set ").append(patchSet).append(".\n\n");
+          msg.append("Patch-set: ").append(patchSet).append('\n');
+          msg.append("Subject: Synthetic benchmark change\n");
+          msg.append("Commit: ").append(commitId(patchSet).name()).append('\n');
+          msg.append("Groups: ").append(commitId(1).name()).append('\n');
+        } else {
+          msg.append("Update patch set ").append(patchSet).append("\n\n");
+          msg.append("Patch Set ").append(patchSet).append(": Verified+1\n\n");
+          msg.append("Build ").append(i).append(" succeeded.\n\n");
+          msg.append("Patch-set: ").append(patchSet).append('\n');
+          msg.append("Label: Verified=+1\n");
+          msg.append(i % 2 == 0 ? "Label: Code-Review=+1\n" : "Label: Code-Review=-1\n");
+          if (i % 10 == 0) {
+            msg.append("Reviewer: Gerrit User ")
+                .append(accountId)
+                .append(" <")
+                .append(accountId)
+                .append("@gerrit>\n");
+          }
+          msg.append("Tag: autogenerated:ci\n");
+        }
+
+        CommitBuilder cb = new CommitBuilder();
+        if (parent != null) {
+          cb.setParentId(parent);
+        }
+        cb.setAuthor(author);
+        cb.setCommitter(committer);
+        cb.setTreeId(emptyTree);
+        cb.setMessage(msg.toString());
+        parent = ins.insert(cb);
+      }
+      ins.flush();
+      return parent;
+    }
+  }
+
+  private static ObjectId commitId(int patchSet) {
+    return ObjectId.fromString(String.format("%040x", patchSet));
+  }
+}
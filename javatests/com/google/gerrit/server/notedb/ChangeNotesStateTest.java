@@ -885,45 +885,6 @@ public class ChangeNotesStateTest {
             .build());
   }
 
-  @Test
-  public void serializePublishedComments() throws Exception {
-    HumanComment c1 =
-        new HumanComment(
-            new Comment.Key("uuid1", "file1", 1),
-            Account.id(1001),
-            Instant.ofEpochMilli(1212L),
-            (short) 1,
-            "message 1",
-            "serverId",
-            false);
-    c1.setCommitId(ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
-    String c1Json = Serializer.GSON.toJson(c1);
-
-    HumanComment c2 =
-        new HumanComment(
-            new Comment.Key("uuid2", "file2", 2),
-            Account.id(1002),
-            Instant.ofEpochMilli(3434L),
-            (short) 2,
-            "message 2",
-            "serverId",
-            true);
-    c2.setCommitId(ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"));
-    String c2Json = Serializer.GSON.toJson(c2);
-
-    assertRoundTrip(
-        newBuilder()
-            .publishedComments(ImmutableListMultimap.of(c2.getCommitId(), c2, c1.getCommitId(), c1))
-            .build(),
-        ChangeNotesStateProto.newBuilder()
-            .setMetaId(SHA_BYTES)
-            .setChangeId(ID.get())
-            .setColumns(colsProto)
-            .addPublishedComment(c2Json)
-            .addPublishedComment(c1Json)
-            .build());
-  }
-
   @Test
   public void serializeUpdateCount() throws Exception {
     assertRoundTrip(
@@ -972,9 +933,6 @@ public class ChangeNotesStateTest {
                     new TypeLiteral<ImmutableList<AssigneeStatusUpdate>>() {}.getType())
                 .put("submitRecords", new TypeLiteral<ImmutableList<SubmitRecord>>() {}.getType())
                 .put("changeMessages", new TypeLiteral<ImmutableList<ChangeMessage>>() {}.getType())
-                .put(
-                    "publishedComments",
-                    new TypeLiteral<ImmutableListMultimap<ObjectId, HumanComment>>() {}.getType())
                 .put(
                     "submitRequirementsResult",
                     new TypeLiteral<ImmutableList<SubmitRequirementResult>>() {}.getType())
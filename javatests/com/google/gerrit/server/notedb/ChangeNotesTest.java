@@ -2087,8 +2087,12 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
               c.getId(), commitWithComments.copy(), rw, changeNoteJson, args.metrics);
       ChangeNotesState state = notesWithComments.parseAll();
       assertThat(state.approvals()).isEmpty();
-      assertThat(state.publishedComments()).hasSize(1);
     }
+    assertThat(
+            new ChangeNotes(args, c, true, null, commitWithComments.copy())
+                .load()
+                .getHumanComments())
+        .hasSize(1);
 
     try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
       ChangeNotesParser notesWithApprovals =
@@ -2097,8 +2101,85 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
 
       ChangeNotesState state = notesWithApprovals.parseAll();
       assertThat(state.approvals()).hasSize(1);
-      assertThat(state.publishedComments()).hasSize(1);
     }
+    assertThat(
+            new ChangeNotes(args, c, true, null, commitWithApprovals.copy())
+                .load()
+                .getHumanComments())
+        .hasSize(1);
+  }
+
+  @Test
+  public void incrementalParseMatchesFullParse() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccount().id(), REVIEWER);
+    update.putApproval(LabelId.VERIFIED, (short) 1);
+    update.commit();
+    ObjectId base = newNotes(c).getRevision();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) 1);
+    update.setChangeMessage("Looks good");
+    update.commit();
+
+    RevCommit commit = tr.commit().message("PS1").create();
+    update = newUpdate(c, changeOwner);
+    update.putApproval(LabelId.VERIFIED, (short) -1);
+    update.putComment(
+        HumanComment.Status.PUBLISHED,
+        newComment(
+            c.currentPatchSetId(),
+            "a.txt",
+            "uuid1",
+            new CommentRange(1, 2, 3, 4),
+            1,
+            changeOwner,
+            null,
+            TimeUtil.now(),
+            "Comment",
+            (short) 1,
+            commit,
+            false));
+    update.setTag("jenkins");
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    ChangeNotesState state = parseIncrementally(c, tip, base);
+    assertThat(state).isNotNull();
+    assertThat(state).isEqualTo(parse(c, tip));
+    assertThat(newNotes(c).getHumanComments()).hasSize(1);
+  }
+
+  @Test
+  public void incrementalParseFallsBackForStatusChange() throws Exception {
+    Change c = newChange();
+    ObjectId base = newNotes(c).getRevision();
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.ABANDONED);
+    update.commit();
+
+    assertThat(parseIncrementally(c, newNotes(c).getRevision(), base)).isNull();
+  }
+
+  @Test
+  public void incrementalParseFallsBackForReaddedReviewer() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putReviewer(otherUser.getAccount().id(), REVIEWER);
+    update.putApproval(LabelId.CODE_REVIEW, (short) 1);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccount().id());
+    update.commit();
+    ObjectId base = newNotes(c).getRevision();
+
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccount().id(), REVIEWER);
+    update.commit();
+
+    assertThat(parseIncrementally(c, newNotes(c).getRevision(), base)).isNull();
   }
 
   @Test
@@ -2138,6 +2219,41 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     assertThat(approval2.label()).isEqualTo(LabelId.CODE_REVIEW);
   }
 
+  @Test
+  public void multipleUpdatesAcrossRefsInParallel() throws Exception {
+    Change c1 = newChange();
+    ChangeUpdate update1 = newUpdate(c1, changeOwner);
+    update1.putApproval(LabelId.VERIFIED, (short) 1);
+
+    Change c2 = newChange();
+    ChangeUpdate update2 = newUpdate(c2, otherUser);
+    update2.putApproval(LabelId.CODE_REVIEW, (short) 2);
+    ChangeUpdate update3 = newUpdate(c2, changeOwner);
+    update3.setTopic("topic");
+
+    testConfig.setInt("noteDb", null, "parallelUpdateThreshold", 2);
+    try (NoteDbUpdateManager updateManager = updateManagerFactory.create(project)) {
+      updateManager.add(update1);
+      updateManager.add(update2);
+      updateManager.add(update3);
+      updateManager.execute();
+    } finally {
+      testConfig.unset("noteDb", null, "parallelUpdateThreshold");
+    }
+    assertableFanOutExecutor.assertInteractions(2);
+
+    assertThat(repo.exactRef(update1.getRefName()).getObjectId()).isEqualTo(update1.getResult());
+    assertThat(repo.exactRef(update3.getRefName()).getObjectId()).isEqualTo(update3.getResult());
+
+    ChangeNotes notes1 = newNotes(c1);
+    assertThat(notes1.getApprovals().all().get(c1.currentPatchSetId()).iterator().next().label())
+        .isEqualTo(LabelId.VERIFIED);
+    ChangeNotes notes2 = newNotes(c2);
+    assertThat(notes2.getApprovals().all().get(c2.currentPatchSetId()).iterator().next().label())
+        .isEqualTo(LabelId.CODE_REVIEW);
+    assertThat(notes2.getChange().getTopic()).isEqualTo("topic");
+  }
+
   @Test
   public void changeMessageOnePatchSet() throws Exception {
     Change c = newChange();
@@ -4022,4 +4138,19 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
             .build());
     update.commit();
   }
+
+  private ChangeNotesState parse(Change c, ObjectId tip) throws Exception {
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(c.getId(), tip, rw, changeNoteJson, args.metrics).parseAll();
+    }
+  }
+
+  private ChangeNotesState parseIncrementally(Change c, ObjectId tip, ObjectId base)
+      throws Exception {
+    ChangeNotesState baseState = parse(c, base);
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(c.getId(), tip, rw, changeNoteJson, args.metrics)
+          .parseIncrementally(id -> id.equals(base) ? baseState : null);
+    }
+  }
 }
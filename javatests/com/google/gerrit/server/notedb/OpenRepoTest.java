@@ -16,24 +16,49 @@ package com.google.gerrit.server.notedb;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.entities.Address;
 import com.google.gerrit.entities.AttentionSetUpdate;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.CommentRange;
+import com.google.gerrit.entities.HumanComment;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.entities.SubmissionId;
+import com.google.gerrit.git.RefUpdateUtil;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.update.ChainedReceiveCommands;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gerrit.testing.AssertableExecutorService;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class OpenRepoTest extends AbstractChangeNotesTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   private final Optional<Integer> NO_UPDATES_AT_ALL = Optional.of(0);
   private final Optional<Integer> ONLY_ONE_UPDATE = Optional.of(1);
@@ -244,6 +269,193 @@ public class OpenRepoTest extends AbstractChangeNotesTest {
     }
   }
 
+  @Test
+  public void parallelUpdatesFallBackToSerialWhenObjectsAreStaged() throws Exception {
+    try (OpenRepo openRepo = openRepo()) {
+      ObjectId staged = openRepo.tempIns.insert(Constants.OBJ_BLOB, "staged".getBytes(UTF_8));
+      Change c = newChange();
+      ChangeUpdate update = newUpdate(c, changeOwner);
+      update.setStatus(Change.Status.ABANDONED);
+
+      ListMultimap<String, ChangeUpdate> changeUpdates =
+          new ImmutableListMultimap.Builder<String, ChangeUpdate>().put("one", update).build();
+
+      // A shut down executor rejects all tasks, so the updates must be applied by the caller.
+      ExecutorService executor = MoreExecutors.newDirectExecutorService();
+      executor.shutdown();
+      openRepo.addUpdatesInParallel(changeUpdates, Optional.empty(), MAX_PATCH_SETS, executor);
+
+      assertThat(fakeChainedReceiveCommands.commands.size()).isEqualTo(1);
+      assertThat(openRepo.rw.getObjectReader().has(staged)).isTrue();
+    }
+  }
+
+  @Test
+  public void parallelUpdatesFallBackToSerialWithUnflushedPackedObjects() throws Exception {
+    try (Repository fileRepo = newFileRepository();
+        ObjectInserter ins = OpenRepo.newInserter(fileRepo, true);
+        RevWalk walk = new RevWalk(ins.newReader());
+        OpenRepo openRepo =
+            new OpenRepo(fileRepo, walk, ins, new ChainedReceiveCommands(fileRepo), false)) {
+      ObjectId unflushed = ins.insert(Constants.OBJ_BLOB, "unflushed".getBytes(UTF_8));
+      ListMultimap<String, ChangeUpdate> changeUpdates = twoAbandonedChanges();
+
+      AssertableExecutorService executor = new AssertableExecutorService();
+      openRepo.addUpdatesInParallel(changeUpdates, Optional.empty(), MAX_PATCH_SETS, executor);
+
+      executor.assertInteractions(0);
+      assertThat(openRepo.cmds.getCommands().keySet())
+          .containsExactlyElementsIn(changeUpdates.keySet())
+          .inOrder();
+      openRepo.flush();
+      assertPacked(fileRepo, 1, unflushed);
+    }
+  }
+
+  @Test
+  public void parallelUpdatesReadFromRepositoryWithLooseInserter() throws Exception {
+    try (Repository fileRepo = newFileRepository();
+        ObjectInserter ins = OpenRepo.newInserter(fileRepo, false);
+        RevWalk walk = new RevWalk(ins.newReader());
+        OpenRepo openRepo =
+            new OpenRepo(fileRepo, walk, ins, new ChainedReceiveCommands(fileRepo), false)) {
+      ObjectId inserted = ins.insert(Constants.OBJ_BLOB, "inserted".getBytes(UTF_8));
+      ListMultimap<String, ChangeUpdate> changeUpdates = twoAbandonedChanges();
+
+      AssertableExecutorService executor = new AssertableExecutorService();
+      openRepo.addUpdatesInParallel(changeUpdates, Optional.empty(), MAX_PATCH_SETS, executor);
+
+      executor.assertInteractions(2);
+      assertThat(openRepo.cmds.getCommands().keySet())
+          .containsExactlyElementsIn(changeUpdates.keySet())
+          .inOrder();
+      assertThat(fileRepo.getObjectDatabase().has(inserted)).isTrue();
+    }
+  }
+
+  @Test
+  public void packedInserterWritesSinglePack() throws Exception {
+    try (Repository fileRepo = newFileRepository()) {
+      ObjectId blob1;
+      ObjectId blob2;
+      try (ObjectInserter ins = OpenRepo.newInserter(fileRepo, true)) {
+        blob1 = ins.insert(Constants.OBJ_BLOB, "one".getBytes(UTF_8));
+        blob2 = ins.insert(Constants.OBJ_BLOB, "two".getBytes(UTF_8));
+        ins.flush();
+      }
+
+      assertPacked(fileRepo, 1, blob1, blob2);
+    }
+  }
+
+  @Test
+  public void flushWithPackedInserterWritesSinglePack() throws Exception {
+    try (Repository fileRepo = newFileRepository();
+        ObjectInserter ins = OpenRepo.newInserter(fileRepo, true);
+        RevWalk walk = new RevWalk(ins.newReader());
+        OpenRepo openRepo =
+            new OpenRepo(fileRepo, walk, ins, new ChainedReceiveCommands(fileRepo), false)) {
+      ObjectId blob1 = openRepo.tempIns.insert(Constants.OBJ_BLOB, "one".getBytes(UTF_8));
+      ObjectId blob2 = openRepo.tempIns.insert(Constants.OBJ_BLOB, "two".getBytes(UTF_8));
+      openRepo.flush();
+
+      assertPacked(fileRepo, 1, blob1, blob2);
+    }
+  }
+
+  @Test
+  public void asyncDraftUpdateWithPacksWritesNoLooseObjects() throws Exception {
+    try (Repository allUsersRepo = newFileRepository()) {
+      GitRepositoryManager allUsersManager = new SingleRepositoryManager(allUsersRepo);
+      Change c = newChange();
+      ObjectId commitId = ObjectId.fromString("abcd1234abcd1234abcd1234abcd1234abcd1234");
+      HumanComment comment1 = newDraft(c, "uuid1", commitId);
+      HumanComment comment2 = newDraft(c, "uuid2", commitId);
+      String refName = RefNames.refsDraftComments(c.getId(), changeOwner.getAccountId());
+
+      ChangeDraftUpdate putDrafts = newDraftUpdate(c);
+      putDrafts.putComment(comment1);
+      putDrafts.putComment(comment2);
+      try (OpenRepo openRepo = OpenRepo.open(allUsersManager, allUsers, true)) {
+        openRepo.addUpdatesNoLimits(ImmutableListMultimap.of(refName, putDrafts));
+        openRepo.flush();
+        BatchRefUpdate bru = allUsersRepo.getRefDatabase().newBatchUpdate();
+        openRepo.cmds.addTo(bru);
+        RefUpdateUtil.executeChecked(bru, openRepo.rw);
+      }
+      ObjectId drafts = allUsersRepo.exactRef(refName).getObjectId();
+      assertPacked(allUsersRepo, 1, drafts);
+
+      Config cfg = new Config();
+      cfg.setBoolean("noteDb", null, "insertPacks", true);
+      AllUsersAsyncUpdate asyncUpdate =
+          new AllUsersAsyncUpdate(
+              cfg, MoreExecutors.newDirectExecutorService(), allUsers, allUsersManager);
+      ChangeDraftUpdate publishDraft = newDraftUpdate(c);
+      publishDraft.markCommentPublished(comment1);
+      asyncUpdate.setDraftUpdates(ImmutableListMultimap.of(refName, publishDraft));
+      asyncUpdate.execute(null, null, null);
+
+      ObjectId remainingDrafts = allUsersRepo.exactRef(refName).getObjectId();
+      assertThat(remainingDrafts).isNotEqualTo(drafts);
+      assertPacked(allUsersRepo, 2, drafts, remainingDrafts);
+    }
+  }
+
+  private ListMultimap<String, ChangeUpdate> twoAbandonedChanges() throws Exception {
+    ImmutableListMultimap.Builder<String, ChangeUpdate> changeUpdates =
+        ImmutableListMultimap.builder();
+    for (int i = 0; i < 2; i++) {
+      ChangeUpdate update = newUpdate(newChange(), changeOwner);
+      update.setStatus(Change.Status.ABANDONED);
+      changeUpdates.put(update.getRefName(), update);
+    }
+    return changeUpdates.build();
+  }
+
+    private Repository newFileRepository() throws IOException {
+    Repository fileRepo = FileRepositoryBuilder.create(temporaryFolder.newFolder());
+    fileRepo.create(true);
+    return fileRepo;
+  }
+
+  private static void assertPacked(Repository fileRepo, int packs, ObjectId... objects)
+      throws IOException {
+    ObjectDirectory odb = (ObjectDirectory) fileRepo.getObjectDatabase();
+    assertThat(odb.getPacks()).hasSize(packs);
+    for (ObjectId id : objects) {
+      assertThat(odb.has(id)).isTrue();
+      assertThat(new File(odb.getDirectory(), id.name().substring(0, 2)).exists()).isFalse();
+    }
+  }
+
+  private HumanComment newDraft(Change c, String uuid, ObjectId commitId) {
+    return newComment(
+        c.currentPatchSetId(),
+        "a.txt",
+        uuid,
+        new CommentRange(1, 2, 3, 4),
+        1,
+        changeOwner,
+        null,
+        TimeUtil.now(),
+        "Draft",
+        (short) 1,
+        commitId,
+        false);
+  }
+
+  private ChangeDraftUpdate newDraftUpdate(Change c) {
+    return injector
+        .getInstance(ChangeDraftUpdate.Factory.class)
+        .create(
+            c,
+            changeOwner.getAccountId(),
+            changeOwner.getAccountId(),
+            serverIdent,
+            TimeUtil.now());
+  }
+
   private void addToAttentionSet(ChangeUpdate update) {
     AttentionSetUpdate attentionSetUpdate =
         AttentionSetUpdate.createForWrite(
@@ -264,6 +476,35 @@ public class OpenRepoTest extends AbstractChangeNotesTest {
     }
   }
 
+  private static class SingleRepositoryManager implements GitRepositoryManager {
+    private final Repository repo;
+
+    SingleRepositoryManager(Repository repo) {
+      this.repo = repo;
+    }
+
+    @Override
+    public Status getRepositoryStatus(Project.NameKey name) {
+      return Status.ACTIVE;
+    }
+
+    @Override
+    public Repository openRepository(Project.NameKey name) {
+      repo.incrementOpen();
+      return repo;
+    }
+
+    @Override
+    public Repository createRepository(Project.NameKey name) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableSet<Project.NameKey> list() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   private OpenRepo openRepo() {
     return new OpenRepo(repo, rw, null, fakeChainedReceiveCommands, false);
   }
@@ -0,0 +1,85 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.PermissionRange;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.InternalUser;
+import com.google.gerrit.server.cache.PerThreadCache;
+import org.junit.Test;
+
+public class BranchPermissionCacheTest {
+  private static final BranchNameKey MASTER = BranchNameKey.create(Project.nameKey("p"), "master");
+  private static final BranchNameKey STABLE = BranchNameKey.create(Project.nameKey("p"), "stable");
+
+  private final BranchPermissionCache.Metrics metrics =
+      new BranchPermissionCache.Metrics(new DisabledMetricMaker());
+  private int loads;
+
+  @Test
+  public void decisionsAreMemoizedPerBranchAndUser() {
+    try (PerThreadCache ignored = PerThreadCache.create()) {
+      BranchPermissionCache anonymous = BranchPermissionCache.get(new AnonymousUser(), metrics);
+      BranchPermissionCache other = BranchPermissionCache.get(new AnonymousUser(), metrics);
+      BranchPermissionCache internal = BranchPermissionCache.get(new InternalUser(), metrics);
+      assertThat(anonymous.canRead(MASTER, this::load)).isTrue();
+      assertThat(anonymous.canRead(MASTER, this::load)).isTrue();
+      assertThat(other.canRead(MASTER, this::load)).isTrue();
+      assertThat(loads).isEqualTo(1);
+
+      assertThat(anonymous.canRead(STABLE, this::load)).isTrue();
+      assertThat(internal.canRead(MASTER, this::load)).isTrue();
+      assertThat(loads).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void rangesAreMemoizedPerChangeOwnership() {
+    try (PerThreadCache ignored = PerThreadCache.create()) {
+      BranchPermissionCache cache = BranchPermissionCache.get(new AnonymousUser(), metrics);
+      PermissionRange range = cache.range(MASTER, "label-Code-Review", false, this::loadRange);
+      assertThat(cache.range(MASTER, "label-Code-Review", false, this::loadRange))
+          .isSameInstanceAs(range);
+      assertThat(loads).isEqualTo(1);
+
+      cache.range(MASTER, "label-Code-Review", true, this::loadRange);
+      cache.range(MASTER, "label-Verified", false, this::loadRange);
+      assertThat(loads).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void nothingIsMemoizedOutsideOfRequest() {
+    BranchPermissionCache anonymous = BranchPermissionCache.get(new AnonymousUser(), metrics);
+    anonymous.canRead(MASTER, this::load);
+    BranchPermissionCache.get(new AnonymousUser(), metrics).canRead(MASTER, this::load);
+    assertThat(loads).isEqualTo(2);
+  }
+
+  private boolean load() {
+    loads++;
+    return true;
+  }
+
+  private PermissionRange loadRange() {
+    loads++;
+    return new PermissionRange("label-Code-Review", -2, 2);
+  }
+}
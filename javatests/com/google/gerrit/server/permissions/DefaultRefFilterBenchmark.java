@@ -0,0 +1,150 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.common.ChangeInput;
+import com.google.gerrit.server.AbstractServerBenchmark;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.inject.Inject;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link DefaultRefFilter} through {@link PermissionBackend.ForProject#filter} on a
+ * synthetic repository.
+ *
+ * <p>The repository holds {@link #refCount} refs: 80% change refs, 10% branches and 10% tags. One
+ * in ten branches lives under {@code refs/heads/secret/}, on which READ is blocked, so that the
+ * filter can't take the fast path for users that can read all refs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DefaultRefFilterBenchmark extends AbstractServerBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark");
+
+  @Inject private PermissionBackend permissionBackend;
+  @Inject private ProjectOperations projectOperations;
+
+  @Param({"500000"})
+  public int refCount;
+
+  @Param({"100"})
+  public int realChanges;
+
+  @Param({"false", "true"})
+  public boolean filterMeta;
+
+  private Repository repo;
+  private List<Ref> refs;
+  private CurrentUser user;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.name = PROJECT.get();
+    in.createEmptyCommit = true;
+    gApi.projects().create(in);
+    projectOperations
+        .project(PROJECT)
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/heads/secret/*").group(REGISTERED_USERS))
+        .update();
+
+    for (int i = 0; i < realChanges; i++) {
+      ChangeInput ci = new ChangeInput(PROJECT.get(), "master", "Change " + i);
+      gApi.changes().create(ci);
+    }
+
+    repo = repoManager.openRepository(PROJECT);
+    createSyntheticRefs(repo, refCount, realChanges);
+    refs = repo.getRefDatabase().getRefs();
+
+    user = userFactory.create(userId);
+    setApiUser(userId);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (repo != null) {
+      repo.close();
+    }
+  }
+
+  @Benchmark
+  public Collection<Ref> filter() throws Exception {
+    return permissionBackend
+        .user(user)
+        .project(PROJECT)
+        .filter(refs, repo, RefFilterOptions.builder().setFilterMeta(filterMeta).build());
+  }
+
+  private static void createSyntheticRefs(Repository repo, int count, int firstChange)
+      throws Exception {
+    ObjectId head = repo.exactRef("refs/heads/master").getObjectId();
+    BatchRefUpdate bru = repo.getRefDatabase().newBatchUpdate();
+    bru.setAllowNonFastForwards(true);
+    for (int i = 0; i < count; i++) {
+      String name;
+      switch (i % 10) {
+        case 0:
+          name = (i % 100 == 0 ? "refs/heads/secret/branch-" : "refs/heads/branch-") + i;
+          break;
+        case 1:
+          name = RefNames.REFS_TAGS + "v" + i;
+          break;
+        default:
+          int change = firstChange + 1 + i;
+          name = RefNames.changeRefPrefix(Change.id(change)) + "1";
+          break;
+      }
+      bru.addCommand(new ReceiveCommand(ObjectId.zeroId(), head, name));
+    }
+    try (RevWalk rw = new RevWalk(repo)) {
+      bru.execute(rw, NullProgressMonitor.INSTANCE);
+    }
+  }
+}
@@ -0,0 +1,249 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.extensions.api.access.CoreOrPluginProjectPermission;
+import com.google.gerrit.extensions.api.access.GlobalOrPluginPermission;
+import com.google.gerrit.extensions.conditions.BooleanCondition;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.permissions.PermissionBackend.ForChange;
+import com.google.gerrit.server.permissions.PermissionBackend.ForProject;
+import com.google.gerrit.server.permissions.PermissionBackend.ForRef;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.gerrit.server.permissions.PermissionBackend.WithUser;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+public class PermissionBackendFilterChangesTest {
+  private static final Project.NameKey P1 = Project.nameKey("p1");
+  private static final Project.NameKey P2 = Project.nameKey("p2");
+
+  private final Multiset<Project.NameKey> projectLookups = LinkedHashMultiset.create();
+  private final Multiset<BranchNameKey> refLookups = LinkedHashMultiset.create();
+  private final Set<Change.Id> visible = ImmutableSet.of(Change.id(1), Change.id(2), Change.id(4));
+  private int nextId;
+
+  @Test
+  public void emptyCollection() throws Exception {
+    assertThat(new FakeUser().filterChanges(ChangePermission.READ, ImmutableList.of())).isEmpty();
+    assertThat(projectLookups).isEmpty();
+  }
+
+  @Test
+  public void mixedProjectsAndBranchesKeepTheirOrder() throws Exception {
+    ChangeData c1 = newChange(P1, "master");
+    ChangeData c2 = newChange(P2, "master");
+    ChangeData c3 = newChange(P1, "stable");
+    ChangeData c4 = newChange(P1, "master");
+
+    List<ChangeData> allowed =
+        new FakeUser().filterChanges(ChangePermission.READ, ImmutableList.of(c1, c2, c3, c4));
+
+    assertThat(allowed).containsExactly(c1, c2, c4).inOrder();
+    assertThat(projectLookups).containsExactly(P1, P2);
+    assertThat(refLookups)
+        .containsExactly(
+            BranchNameKey.create(P1, "master"),
+            BranchNameKey.create(P1, "stable"),
+            BranchNameKey.create(P2, "master"));
+  }
+
+  @Test
+  public void changeTheUserCannotSeeIsExcluded() throws Exception {
+    ChangeData c1 = newChange(P1, "master");
+    ChangeData c2 = newChange(P1, "master");
+    ChangeData c3 = newChange(P1, "master");
+
+    assertThat(new FakeUser().filterChanges(ChangePermission.READ, ImmutableList.of(c1, c2, c3)))
+        .containsExactly(c1, c2)
+        .inOrder();
+    assertThat(new FakeProject(P1).filterChanges(ChangePermission.READ, ImmutableList.of(c3, c2)))
+        .containsExactly(c2);
+  }
+
+  @Test
+  public void changeThatFailsToLoadFailsTheFilter() throws Exception {
+    ChangeData c1 = newChange(P1, "master");
+    ChangeData broken = mock(ChangeData.class);
+    when(broken.project()).thenReturn(P1);
+    when(broken.change()).thenThrow(new StorageException("cannot load change"));
+
+    PermissionBackendException thrown =
+        assertThrows(
+            PermissionBackendException.class,
+            () ->
+                new FakeUser()
+                    .filterChanges(ChangePermission.READ, ImmutableList.of(c1, broken)));
+    assertThat(thrown).hasCauseThat().isInstanceOf(StorageException.class);
+  }
+
+  private ChangeData newChange(Project.NameKey project, String branch) {
+    Change.Id id = Change.id(++nextId);
+    Change change =
+        new Change(
+            Change.key("I" + nextId),
+            id,
+            Account.id(1000),
+            BranchNameKey.create(project, branch),
+            Instant.EPOCH);
+    ChangeData cd = mock(ChangeData.class);
+    when(cd.getId()).thenReturn(id);
+    when(cd.project()).thenReturn(project);
+    when(cd.change()).thenReturn(change);
+    return cd;
+  }
+
+  private class FakeUser extends WithUser {
+    @Override
+    public ForProject project(Project.NameKey project) {
+      projectLookups.add(project);
+      return new FakeProject(project);
+    }
+
+    @Override
+    public void check(GlobalOrPluginPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends GlobalOrPluginPermission> Set<T> test(Collection<T> permSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BooleanCondition testCond(GlobalOrPluginPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class FakeProject extends ForProject {
+    private final Project.NameKey project;
+
+    FakeProject(Project.NameKey project) {
+      this.project = project;
+    }
+
+    @Override
+    public String resourcePath() {
+      return "/projects/" + project.get();
+    }
+
+    @Override
+    public ForRef ref(String ref) {
+      refLookups.add(BranchNameKey.create(project, ref));
+      return new FakeRef();
+    }
+
+    @Override
+    public void check(CoreOrPluginProjectPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoreOrPluginProjectPermission> Set<T> test(Collection<T> permSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BooleanCondition testCond(CoreOrPluginProjectPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Ref> filter(Collection<Ref> refs, Repository repo, RefFilterOptions opts) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class FakeRef extends ForRef {
+    @Override
+    public String resourcePath() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ForChange change(ChangeData cd) {
+      return new FakeChange(visible.contains(cd.getId()));
+    }
+
+    @Override
+    public ForChange change(ChangeNotes notes) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void check(RefPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<RefPermission> test(Collection<RefPermission> permSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BooleanCondition testCond(RefPermission perm) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class FakeChange extends ForChange {
+    private final boolean visible;
+
+    FakeChange(boolean visible) {
+      this.visible = visible;
+    }
+
+    @Override
+    public String resourcePath() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void check(ChangePermissionOrLabel perm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends ChangePermissionOrLabel> Set<T> test(Collection<T> permSet) {
+      return visible ? ImmutableSet.copyOf(permSet) : ImmutableSet.of();
+    }
+
+    @Override
+    public BooleanCondition testCond(ChangePermissionOrLabel perm) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -613,6 +613,29 @@ public class RefControlTest {
     assertCanRead("refs/heads/foo-QA-bar", d);
   }
 
+  @Test
+  public void refsMatchingDifferentSectionsDontSharePermissions() throws Exception {
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(READ).ref("refs/heads/*").group(DEVS))
+        .add(block(READ).ref("refs/heads/secret/*").group(DEVS))
+        .add(block(READ).ref("refs/heads/hidden").group(DEVS))
+        .add(block(READ).ref("^refs/heads/rel-[0-9]+").group(DEVS))
+        .update();
+
+    // The same control evaluates all refs, so that sections matching them are looked up together.
+    ProjectControl u = user(localKey, DEVS);
+    assertCanRead("refs/heads/a", u);
+    assertCannotRead("refs/heads/secret/a", u);
+    assertCannotRead("refs/heads/hidden", u);
+    assertCannotRead("refs/heads/rel-1", u);
+    assertCanRead("refs/heads/b", u);
+    assertCannotRead("refs/heads/secret/b", u);
+    assertCanRead("refs/heads/hidden/c", u);
+    assertCanRead("refs/heads/rel-x", u);
+  }
+
   @Test
   public void blockRule_ParentBlocksChild() throws Exception {
     projectOperations
@@ -0,0 +1,116 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.server.AbstractServerBenchmark;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.SectionMatcher;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the permissions of many refs through {@link SectionIndex} with matching and
+ * sorting all access sections for each ref, as {@link RefControl}s used to.
+ *
+ * <p>The project has one section per team, {@code refs/heads/team-N/*}, plus a few sections that
+ * apply to all branches. Refs are spread evenly over the teams.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SectionIndexBenchmark extends AbstractServerBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("benchmark");
+
+  @Inject private ProjectOperations projectOperations;
+  @Inject private ProjectCache projectCache;
+  @Inject private PermissionCollection.Factory permissionFilter;
+
+  @Param({"500000"})
+  public int refCount;
+
+  @Param({"50"})
+  public int teams;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  private List<SectionMatcher> sections;
+  private List<String> refs;
+  private CurrentUser user;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.name = PROJECT.get();
+    gApi.projects().create(in);
+
+    TestProjectUpdate.Builder update =
+        projectOperations
+            .project(PROJECT)
+            .forUpdate()
+            .add(allow(Permission.READ).ref("refs/heads/*").group(REGISTERED_USERS))
+            .add(block(Permission.READ).ref("refs/heads/secret/*").group(REGISTERED_USERS))
+            .add(allow(Permission.PUSH).ref("refs/for/refs/heads/*").group(REGISTERED_USERS));
+    for (int i = 0; i < teams; i++) {
+      update.add(allow(Permission.PUSH).ref("refs/heads/team-" + i + "/*").group(REGISTERED_USERS));
+    }
+    update.update();
+
+    sections = projectCache.get(PROJECT).get().getAllSections();
+    refs = new ArrayList<>(refCount);
+    for (int i = 0; i < refCount; i++) {
+      refs.add("refs/heads/team-" + (i % teams) + "/branch-" + i);
+    }
+    user = userFactory.create(userId);
+  }
+
+  @Benchmark
+  public int readableRefs() {
+    SectionIndex index = new SectionIndex(permissionFilter, sections);
+    int readable = 0;
+    for (String ref : refs) {
+      PermissionCollection relevant =
+          indexed ? index.filter(ref, user) : permissionFilter.filter(sections, ref, user);
+      if (!relevant.getAllowRules(Permission.READ).isEmpty()) {
+        readable++;
+      }
+    }
+    return readable;
+  }
+}
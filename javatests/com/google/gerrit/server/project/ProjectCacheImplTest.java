@@ -0,0 +1,182 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.entities.CachedProjectConfig;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.project.ProjectIndexer;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.project.ProjectCacheImpl.InMemoryLoader;
+import com.google.inject.util.Providers;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ProjectCacheImplTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("p");
+
+  private final CachedProjectConfig v1 = mock(CachedProjectConfig.class);
+  private final CachedProjectConfig v2 = mock(CachedProjectConfig.class);
+  private final CachedProjectConfig v3 = mock(CachedProjectConfig.class);
+
+  private final InMemoryLoader loader = mock(InMemoryLoader.class);
+  private final ListeningExecutorService executor = mock(ListeningExecutorService.class);
+  private final ProjectState.Factory projectStateFactory = mock(ProjectState.Factory.class);
+  private final ProjectIndexer indexer = mock(ProjectIndexer.class);
+  private final FakeTicker ticker = new FakeTicker();
+  private ProjectCacheImpl projectCache;
+
+  @Before
+  public void setUp() throws Exception {
+    when(loader.load(PROJECT)).thenReturn(v1, v2, v3);
+    Config cfg = new Config();
+    cfg.setBoolean("cache", ProjectCacheImpl.CACHE_NAME, "refreshAhead", true);
+    cfg.setString("cache", ProjectCacheImpl.CACHE_NAME, "maxStaleness", "30s");
+    projectCache =
+        new ProjectCacheImpl(
+            new AllProjectsName("All-Projects"),
+            new AllUsersName("All-Users"),
+            CacheBuilder.newBuilder().build(loader),
+            CacheBuilder.newBuilder()
+                .build(CacheLoader.from(k -> ImmutableSortedSet.<Project.NameKey>of())),
+            Providers.of(indexer),
+            new DisabledMetricMaker(),
+            projectStateFactory,
+            loader,
+            executor,
+            cfg,
+            ticker);
+  }
+
+  @Test
+  public void staleDataIsServedWhileReloadIsPending() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+
+    projectCache.evict(PROJECT);
+    assertThat(get()).isSameInstanceAs(v1);
+    verify(loader, times(1)).load(PROJECT);
+
+    pendingReloads().get(0).run();
+    assertThat(get()).isSameInstanceAs(v2);
+    verify(loader, times(2)).load(PROJECT);
+  }
+
+  @Test
+  public void reloadIsDroppedIfProjectIsEvictedAgainBeforeItIsDone() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+    projectCache.evict(PROJECT);
+    projectCache.evict(PROJECT);
+    List<Runnable> reloads = pendingReloads();
+    assertThat(reloads).hasSize(2);
+
+    // The older reload may have loaded the data before the second eviction.
+    reloads.get(0).run();
+    assertThat(get()).isSameInstanceAs(v1);
+
+    reloads.get(1).run();
+    assertThat(get()).isSameInstanceAs(v3);
+  }
+
+  @Test
+  public void olderReloadDoneAfterNewerOneIsDropped() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+    projectCache.evict(PROJECT);
+    projectCache.evict(PROJECT);
+    List<Runnable> reloads = pendingReloads();
+
+    reloads.get(1).run();
+    assertThat(get()).isSameInstanceAs(v2);
+
+    reloads.get(0).run();
+    assertThat(get()).isSameInstanceAs(v2);
+  }
+
+  @Test
+  public void dataStalerThanMaxStalenessIsLoadedOnRequestThread() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+    projectCache.evict(PROJECT);
+
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertThat(get()).isSameInstanceAs(v1);
+
+    // Staleness is counted from the first eviction, not from later ones.
+    projectCache.evict(PROJECT);
+    ticker.advance(1, TimeUnit.NANOSECONDS);
+    assertThat(get()).isSameInstanceAs(v2);
+    verify(loader, times(2)).load(PROJECT);
+
+    // The pending reloads are superseded by the load on the request thread.
+    for (Runnable reload : pendingReloads()) {
+      reload.run();
+    }
+    assertThat(get()).isSameInstanceAs(v2);
+  }
+
+  @Test
+  public void evictAndReindexSeesOwnChange() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+
+    projectCache.evictAndReindex(PROJECT);
+    assertThat(get()).isSameInstanceAs(v2);
+    verify(executor, never()).execute(any());
+    verify(indexer).index(PROJECT);
+  }
+
+  @Test
+  public void evictAndReindexSupersedesPendingReload() throws Exception {
+    assertThat(get()).isSameInstanceAs(v1);
+    projectCache.evict(PROJECT);
+
+    projectCache.evictAndReindex(PROJECT);
+    assertThat(get()).isSameInstanceAs(v2);
+
+    pendingReloads().get(0).run();
+    assertThat(get()).isSameInstanceAs(v2);
+  }
+
+  /** Returns the data the cache serves for {@link #PROJECT}. */
+  private CachedProjectConfig get() {
+    projectCache.get(PROJECT);
+    ArgumentCaptor<CachedProjectConfig> served = ArgumentCaptor.forClass(CachedProjectConfig.class);
+    verify(projectStateFactory, atLeastOnce()).create(served.capture());
+    return served.getValue();
+  }
+
+  /** Returns the background reloads submitted so far, oldest first. */
+  private List<Runnable> pendingReloads() {
+    ArgumentCaptor<Runnable> reloads = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, atLeastOnce()).execute(reloads.capture());
+    return reloads.getAllValues();
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.GroupMembership;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link RefPatternMatcher#match(String, CurrentUser)} for the access section patterns
+ * that are typical for a large site, evaluated against a deterministic set of ref names.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RefPatternMatcherBenchmark {
+  private static final ImmutableList<String> PATTERNS =
+      ImmutableList.of(
+          "refs/*",
+          "refs/heads/*",
+          "refs/heads/master",
+          "refs/tags/*",
+          "refs/meta/config",
+          "refs/for/refs/heads/*",
+          "^refs/heads/release-[0-9]+\\.[0-9]+",
+          "^refs/heads/(feature|bugfix)/.*",
+          "refs/heads/sandbox/${username}/*",
+          "^refs/heads/users/${username}/.*");
+
+  @Param({"10000", "100000"})
+  public int refCount;
+
+  private ImmutableList<RefPatternMatcher> matchers;
+  private String[] refs;
+  private CurrentUser user;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ImmutableList.Builder<RefPatternMatcher> b = ImmutableList.builder();
+    for (String pattern : PATTERNS) {
+      b.add(RefPatternMatcher.getMatcher(pattern));
+    }
+    matchers = b.build();
+    refs = refNames(refCount);
+    user = new BenchmarkUser("jdoe");
+  }
+
+  @Benchmark
+  public void matchAll(Blackhole bh) {
+    for (String ref : refs) {
+      for (RefPatternMatcher m : matchers) {
+        bh.consume(m.match(ref, user));
+      }
+    }
+  }
+
+  /**
+   * Returns {@code count} ref names with the namespace distribution of a large host: mostly change
+   * refs, followed by tags, release branches and user sandboxes.
+   */
+  static String[] refNames(int count) {
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      switch (i % 10) {
+        case 0:
+          names[i] = "refs/heads/release-" + (i % 97) + "." + (i % 13);
+          break;
+        case 1:
+          names[i] = "refs/tags/v" + (i / 10) + ".0";
+          break;
+        case 2:
+          names[i] = "refs/heads/sandbox/user" + (i % 500) + "/topic-" + i;
+          break;
+        case 3:
+          names[i] = "refs/heads/feature/f-" + i;
+          break;
+        default:
+          int change = i + 1;
+          names[i] = String.format("refs/changes/%02d/%d/%d", change % 100, change, 1 + i % 7);
+          break;
+      }
+    }
+    return names;
+  }
+
+  private static class BenchmarkUser extends CurrentUser {
+    private final String username;
+
+    BenchmarkUser(String username) {
+      this.username = username;
+    }
+
+    @Override
+    public GroupMembership getEffectiveGroups() {
+      return GroupMembership.EMPTY;
+    }
+
+    @Override
+    public Object getCacheKey() {
+      return username;
+    }
+
+    @Override
+    public Optional<String> getUserName() {
+      return Optional.of(username);
+    }
+  }
+}
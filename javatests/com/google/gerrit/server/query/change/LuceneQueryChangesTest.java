@@ -23,6 +23,8 @@ import com.google.gerrit.testing.InMemoryModule;
 import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.List;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -53,6 +55,32 @@ public abstract class LuceneQueryChangesTest extends AbstractQueryChangesTest {
     assertQuery("message:one two", change2);
   }
 
+  @Test
+  public void openAndClosedChangesAreMergedInOrder() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      Change.Status status = i % 2 == 0 ? Change.Status.NEW : Change.Status.MERGED;
+      changes.add(insert(repo, newChangeWithStatus(repo, status)));
+    }
+
+    // The open and closed sub-indexes are searched concurrently and their results merged.
+    assertQuery(
+        "project:repo",
+        changes.get(5),
+        changes.get(4),
+        changes.get(3),
+        changes.get(2),
+        changes.get(1),
+        changes.get(0));
+    assertQuery(
+        newQuery("project:repo limit:3").withStart(2),
+        changes.get(3),
+        changes.get(2),
+        changes.get(1));
+    assertQuery(newQuery("project:repo").withStart(6));
+  }
+
   @Test
   @Override
   public void byOwnerInvalidQuery() throws Exception {
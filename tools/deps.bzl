@@ -21,6 +21,7 @@ BC_VERS = "1.64"
 HTTPCOMP_VERS = "4.5.2"
 JETTY_VERS = "9.4.36.v20210114"
 BYTE_BUDDY_VERSION = "1.10.7"
+JMH_VERS = "1.35"
 
 def java_dependencies():
     maven_jar(
@@ -688,3 +689,27 @@ def java_dependencies():
         artifact = "org.objenesis:objenesis:3.0.1",
         sha1 = "11cfac598df9dc48bb9ed9357ed04212694b7808",
     )
+
+    maven_jar(
+        name = "jmh-core",
+        artifact = "org.openjdk.jmh:jmh-core:" + JMH_VERS,
+        sha1 = "c14d712be8e423969fcd344bc801cf5d3ea3b62a",
+    )
+
+    maven_jar(
+        name = "jmh-generator-annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:" + JMH_VERS,
+        sha1 = "50fba446d32d22f95f51a391f3450e03af006754",
+    )
+
+    maven_jar(
+        name = "jopt-simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:5.0.4",
+        sha1 = "4fdac2fbe92dfad86aa6e9301736f6b4342a3f5c",
+    )
+
+    maven_jar(
+        name = "commons-math3",
+        artifact = "org.apache.commons:commons-math3:3.2",
+        sha1 = "ec2544ab27e110d2d431bdad7d538ed509b21e62",
+    )